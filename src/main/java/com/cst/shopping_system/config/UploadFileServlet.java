@@ -0,0 +1,212 @@
+package com.cst.shopping_system.config;
+
+import com.cst.shopping_system.util.ImagePaths;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * /uploads/** 的专用文件服务，不经过 DispatcherServlet。
+ * 上传文件名要么是内容哈希、要么带 UUID 前缀，同名文件内容不会变，所以可以给一年的 immutable 缓存；
+ * 支持 If-None-Match 304、单段 Range；大文件交给 Tomcat sendfile 零拷贝发送，
+ * 小文件（主要是缩略图）放在有界内存缓存里直接写出。
+ */
+public class UploadFileServlet extends HttpServlet {
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    // 缩略图还没生成、临时回退成原图时只缓存一小会儿，之后浏览器会拿到真正的缩略图
+    private static final String SHORT_LIVED = "public, max-age=60";
+
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+    private static final int HOT_FILE_MAX_BYTES = 256 * 1024;
+    private static final long HOT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final Pattern HASH_NAME = Pattern.compile("^([0-9a-f]{64})(\\.[a-z]+)?$");
+    private static final Pattern SINGLE_RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    private final Path root;
+
+    private final Cache<Path, byte[]> hotFiles = Caffeine.newBuilder()
+            .maximumWeight(HOT_CACHE_MAX_BYTES)
+            .weigher((Path p, byte[] b) -> b.length)
+            .build();
+
+    public UploadFileServlet(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        serve(req, resp, true);
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        serve(req, resp, false);
+    }
+
+    private void serve(HttpServletRequest req, HttpServletResponse resp, boolean withBody) throws IOException {
+        String relative = req.getPathInfo() == null ? "" : req.getPathInfo().replaceFirst("^/+", "");
+        Path file = resolve(relative);
+        boolean fallback = false;
+        if (file == null) {
+            // 缩略图异步生成，还没生成好（或是旧图片）时直接返回原图
+            file = resolve(ImagePaths.originalOf(relative));
+            fallback = true;
+        }
+        if (file == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long length = attrs.size();
+        String etag = etagOf(file, attrs);
+
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Cache-Control", fallback ? SHORT_LIVED : IMMUTABLE);
+        resp.setHeader("Accept-Ranges", "bytes");
+        resp.setDateHeader("Last-Modified", attrs.lastModifiedTime().toMillis());
+        if (etagMatches(req.getHeader("If-None-Match"), etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String mime = getServletContext().getMimeType(file.getFileName().toString());
+        resp.setContentType(mime != null ? mime : "application/octet-stream");
+
+        long start = 0;
+        long end = length - 1;
+        String range = req.getHeader("Range");
+        String ifRange = req.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] r = parseRange(range, length);
+            if (r == null) {
+                resp.setHeader("Content-Range", "bytes */" + length);
+                resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (r.length == 2) {
+                start = r[0];
+                end = r[1];
+                resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                resp.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        resp.setContentLengthLong(count);
+        if (!withBody || count <= 0) return;
+
+        if (count >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(req.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            // Tomcat 在请求结束后用 sendfile 直接从页缓存发到 socket，不经过 JVM 堆
+            req.setAttribute("org.apache.tomcat.sendfile.filename", file.toString());
+            req.setAttribute("org.apache.tomcat.sendfile.start", start);
+            req.setAttribute("org.apache.tomcat.sendfile.end", end + 1);
+            return;
+        }
+
+        ServletOutputStream out = resp.getOutputStream();
+        if (length <= HOT_FILE_MAX_BYTES) {
+            byte[] bytes = hotFiles.get(file, this::readAll);
+            out.write(bytes, (int) start, (int) count);
+            return;
+        }
+        transfer(file, start, count, out);
+    }
+
+    // 解析成上传目录下真实存在的普通文件；越界或不存在返回 null
+    private Path resolve(String relative) {
+        if (relative == null || relative.isEmpty()) return null;
+        Path file = root.resolve(relative).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) return null;
+        return file;
+    }
+
+    /**
+     * 哈希命名的文件直接用文件名里的哈希做强 ETag（缩略图加 -t 后缀区分）；
+     * 旧的 UUID 命名文件用大小和修改时间生成弱 ETag。
+     */
+    static String etagOf(Path file, BasicFileAttributes attrs) {
+        String name = file.getFileName().toString();
+        boolean thumb = name.endsWith(ImagePaths.THUMB_SUFFIX) && file.getParent().getFileName().toString().equals("thumbs");
+        Matcher m = HASH_NAME.matcher(thumb ? name.substring(0, name.length() - ImagePaths.THUMB_SUFFIX.length()) : name);
+        if (m.matches()) return "\"" + m.group(1) + (thumb ? "-t" : "") + "\"";
+        return "W/\"" + Long.toHexString(attrs.size()) + "-" + Long.toHexString(attrs.lastModifiedTime().toMillis()) + "\"";
+    }
+
+    private static boolean etagMatches(String header, String etag) {
+        if (header == null) return false;
+        String weakless = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : header.split(",")) {
+            String c = candidate.trim();
+            if (c.equals("*") || c.equals(etag) || c.equals(weakless) || c.equals("W/" + weakless)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 只处理单段 Range：返回 {start, end}；不认识的写法（多段等）返回空数组表示按整文件返回；
+     * 范围不可满足返回 null。
+     */
+    static long[] parseRange(String header, long length) {
+        Matcher m = SINGLE_RANGE.matcher(header.trim());
+        if (!m.matches()) return new long[0];
+        String from = m.group(1);
+        String to = m.group(2);
+        if (from.isEmpty() && to.isEmpty()) return new long[0];
+        try {
+            long start;
+            long end;
+            if (from.isEmpty()) {
+                long suffix = Long.parseLong(to);
+                if (suffix == 0) return null;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(from);
+                end = to.isEmpty() ? length - 1 : Math.min(Long.parseLong(to), length - 1);
+            }
+            if (start >= length || start > end) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private byte[] readAll(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new RuntimeException("读取文件失败: " + file.getFileName(), e);
+        }
+    }
+
+    private static void transfer(Path file, long start, long count, OutputStream out) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long pos = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long n = ch.transferTo(pos, remaining, target);
+                if (n <= 0) break;
+                pos += n;
+                remaining -= n;
+            }
+        }
+    }
+}
@@ -1,18 +1,24 @@
 package com.cst.shopping_system.config;
 
+import com.cst.shopping_system.util.ImagePaths;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.nio.file.Paths;
+
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
 
-    @Override
-    public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        // 当浏览器访问 /uploads/** 的URL时
-        registry.addResourceHandler("/uploads/**")
-                // 将其映射到服务器文件系统的绝对路径上
-                // "file:" 是必需的前缀，表示这是一个文件系统路径
-                .addResourceLocations("file:" + System.getProperty("user.home") + "/app-uploads/");
+    // 当浏览器访问 /uploads/** 的URL时，由专门的 Servlet 映射到服务器文件系统上的上传目录，
+    // 路径比 DispatcherServlet 的 "/" 更具体，请求不会进入 Spring MVC 的分发流程
+    @Bean
+    public ServletRegistrationBean<UploadFileServlet> uploadFileServlet() {
+        ServletRegistrationBean<UploadFileServlet> bean =
+                new ServletRegistrationBean<>(new UploadFileServlet(Paths.get(ImagePaths.UPLOAD_DIR)), "/uploads/*");
+        bean.setName("uploadFileServlet");
+        bean.setLoadOnStartup(1);
+        return bean;
     }
-}
\ No newline at end of file
+}
@@ -15,6 +15,9 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // 注册一个名为 /ws 的 WebSocket 端点。
         // SockJS 用于在浏览器不支持 WebSocket 时提供备选连接。
         registry.addEndpoint("/ws").withSockJS();
+        // 入站通道用线程池（虚拟线程模式下是每条消息一个线程）并行处理，
+        // 要求同一会话发来的消息按到达顺序处理，聊天消息才不会乱序
+        registry.setPreserveReceiveOrder(true);
     }
 
     @Override
@@ -25,5 +28,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // /user 前缀用于点对点消息。
         registry.enableSimpleBroker("/topic", "/user");
         registry.setUserDestinationPrefix("/user");
+        // 出站同理：推给同一会话的消息保持发布顺序
+        registry.setPreservePublishOrder(true);
     }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.cst.shopping_system.controller;
+
+import com.cst.shopping_system.dto.SalesSeriesDTO;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.service.ProductService;
+import com.cst.shopping_system.service.SalesAnalytics;
+import jakarta.servlet.http.HttpSession;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+
+@RestController
+@RequestMapping("/api/analytics")
+@RequiredArgsConstructor
+public class AnalyticsController {
+
+    private final SalesAnalytics analytics;
+    private final ProductService productService;
+
+    /**
+     * 销量/销售额时间序列，截止到当前时间往前 points 个桶。
+     * dimension = seller（默认自己）/ product / category；resolution = minute / hour / day。
+     * 店主只能看自己和自己商品的数据，分类维度是全站汇总；管理员不受限。
+     */
+    @GetMapping("/series")
+    public ResponseEntity<?> series(@RequestParam(defaultValue = "seller") String dimension,
+                                    @RequestParam(required = false) String key,
+                                    @RequestParam(defaultValue = "hour") String resolution,
+                                    @RequestParam(defaultValue = "24") int points,
+                                    HttpSession session) {
+        User u = (User) session.getAttribute("loggedInUser");
+        if (u == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Collections.singletonMap("error", "请先登录"));
+        }
+        if (!"ADMIN".equals(u.getRole()) && !"SHOP_OWNER".equals(u.getRole())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Collections.singletonMap("error", "只有店主或管理员可以查看销售分析"));
+        }
+
+        SalesAnalytics.Dimension dim;
+        SalesAnalytics.Resolution res;
+        try {
+            dim = SalesAnalytics.Dimension.valueOf(dimension.trim().toUpperCase());
+            res = SalesAnalytics.Resolution.valueOf(resolution.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "不支持的维度或粒度"));
+        }
+        if (dim == SalesAnalytics.Dimension.SELLER && key == null) key = String.valueOf(u.getId());
+        if (key == null) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "缺少 key 参数"));
+        }
+        if (!"ADMIN".equals(u.getRole()) && !canView(u, dim, key)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Collections.singletonMap("error", "无权查看该数据"));
+        }
+
+        SalesAnalytics.Series s = analytics.series(dim, key, res, points);
+        BigDecimal[] revenue = new BigDecimal[s.revenueCents().length];
+        for (int i = 0; i < revenue.length; i++) revenue[i] = BigDecimal.valueOf(s.revenueCents()[i], 2);
+        return ResponseEntity.ok(new SalesSeriesDTO(dim.name(), key, res.name(), s.start(), s.stepMillis(), s.units(), revenue));
+    }
+
+    private boolean canView(User u, SalesAnalytics.Dimension dim, String key) {
+        switch (dim) {
+            case SELLER:
+                return key.equals(String.valueOf(u.getId()));
+            case PRODUCT:
+                try {
+                    Product p = productService.findProductById(Integer.valueOf(key));
+                    return p.getSeller() != null && u.getId() == p.getSeller().getId();
+                } catch (RuntimeException e) {
+                    return false;
+                }
+            default:
+                return true;
+        }
+    }
+}
@@ -9,10 +9,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.servlet.http.HttpSession;
-import java.math.BigDecimal;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -47,34 +44,17 @@ public class CartController {
         }
     }
 
-    /** 我的购物车列表（附带商品信息、单价、小计、总价） */
+    /** 我的购物车列表（附带商品信息、单价、小计、总价），一条 SQL 或直接命中缓存 */
     @GetMapping("/my")
     public ResponseEntity<?> myCart(HttpSession session) {
         try {
             User u = requireLogin(session);
-            List<CartItem> list = cartService.listMyCart(u.getId());
-
-            List<Map<String, Object>> rows = new ArrayList<>();
-            BigDecimal total = BigDecimal.ZERO;
-
-            for (CartItem ci : list) {
-                BigDecimal price = ci.getProduct().getPrice();
-                BigDecimal sub = price.multiply(BigDecimal.valueOf(ci.getQuantity()));
-                total = total.add(sub);
-
-                Map<String, Object> m = new HashMap<>();
-                m.put("id", ci.getId());                              // Long
-                m.put("productId", ci.getProduct().getId());          // Long
-                m.put("title", ci.getProduct().getTitle());           // String
-                m.put("price", price);                                // BigDecimal
-                m.put("quantity", ci.getQuantity());                  // Integer
-                m.put("subtotal", sub);                               // BigDecimal
-                rows.add(m);
-            }
+            CartService.CartView cart = cartService.getCartView(u.getId());
 
             Map<String, Object> body = new HashMap<>();
-            body.put("items", rows);
-            body.put("totalAmount", total);
+            body.put("items", cart.items());
+            body.put("totalAmount", cart.totalAmount());
+            body.put("totalQuantity", cart.totalQuantity());
             return ResponseEntity.ok(body);
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("请先登录");
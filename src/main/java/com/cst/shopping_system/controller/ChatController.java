@@ -2,79 +2,68 @@ package com.cst.shopping_system.controller;
 
 import com.cst.shopping_system.entity.ChatMessage;
 import com.cst.shopping_system.entity.User;
-import com.cst.shopping_system.repository.ChatMessageRepository;
-import com.cst.shopping_system.repository.UserRepository;
+import com.cst.shopping_system.service.ChatFanout;
+import com.cst.shopping_system.service.ChatService;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.util.Collections;
-import java.util.Date;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Controller
 public class ChatController {
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private ChatFanout chatFanout;
     @Autowired
-    private ChatMessageRepository chatMessageRepository;
-    @Autowired
-    private UserRepository userRepository;
+    private ChatService chatService;
+
+    private static final int MAX_HISTORY_PAGE = 100;
 
     // 处理发送来的 WebSocket 消息
     @MessageMapping("/chat.sendMessage")
     public void sendMessage(@Payload ChatMessage chatMessage) {
-        // 为消息设置时间戳并保存到数据库
-        chatMessage.setTimestamp(new Date());
-        chatMessageRepository.save(chatMessage);
+        // 分配 ID 和时间戳，落库和会话摘要更新在后台批量进行，不阻塞推送
+        chatService.send(chatMessage);
 
-        // 将消息发送到指定接收者的私有队列
-        // 格式: /user/{userId}/queue/messages
-        messagingTemplate.convertAndSendToUser(
-                String.valueOf(chatMessage.getRecipient().getId()),
-                "/queue/messages",
-                chatMessage
-        );
+        // 将消息发送到指定接收者的私有队列（多实例部署时经外部消息代理转发到收件人所在节点）
+        chatFanout.deliver(chatMessage.getRecipient().getId(), chatMessage);
     }
 
-    // 修改：获取两个用户间的历史消息，返回安全的 Map 列表
+    // 修改：按“早于某条消息”的游标分页获取两个用户间的历史消息，每页固定条数，返回时按时间升序
     @GetMapping("/api/messages/{recipientId}")
     @ResponseBody
-    public ResponseEntity<List<Map<String, Object>>> getChatHistory(@PathVariable Integer recipientId, HttpSession session) {
+    public ResponseEntity<?> getChatHistory(@PathVariable Integer recipientId,
+                                            @RequestParam(required = false) String before,
+                                            @RequestParam(defaultValue = "30") int size,
+                                            HttpSession session) {
         User currentUser = (User) session.getAttribute("loggedInUser");
         if (currentUser == null) {
             return ResponseEntity.status(401).build();
         }
-        List<ChatMessage> messages = chatMessageRepository.findBySenderIdAndRecipientIdOrSenderIdAndRecipientIdOrderByTimestampAsc(
-                currentUser.getId(), recipientId, recipientId, currentUser.getId());
-
-        // 将 ChatMessage 转换为 Map
-        List<Map<String, Object>> response = messages.stream().map(message -> {
-            Map<String, Object> msgMap = new java.util.HashMap<>();
-            msgMap.put("content", message.getContent());
-            msgMap.put("timestamp", message.getTimestamp());
-
-            Map<String, Object> senderMap = new java.util.HashMap<>();
-            senderMap.put("id", message.getSender().getId());
-            senderMap.put("nickname", message.getSender().getNickname());
-            msgMap.put("sender", senderMap);
-
-            return msgMap;
-        }).collect(Collectors.toList());
+        int pageSize = Math.max(1, Math.min(size, MAX_HISTORY_PAGE));
+        ChatService.HistoryPage page;
+        try {
+            page = chatService.history(currentUser.getId(), recipientId, before, pageSize);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", e.getMessage()));
+        }
 
+        Map<String, Object> response = new HashMap<>();
+        response.put("messages", page.messages());
+        response.put("hasMore", page.nextBefore() != null);
+        response.put("nextBefore", page.nextBefore());
         return ResponseEntity.ok(response);
     }
 
@@ -86,25 +75,8 @@ public class ChatController {
         if (currentUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
-        List<Integer> partnerIds = chatMessageRepository.findConversationPartnerIds(currentUser.getId());
-        if (partnerIds.isEmpty()) {
-            return ResponseEntity.ok(Collections.emptyList());
-        }
-        List<User> partners = userRepository.findAllById(partnerIds);
-
-        List<Map<String, Object>> response = partners.stream().map(user -> {
-            Map<String, Object> userMap = new java.util.HashMap<>();
-            userMap.put("id", user.getId());
-            userMap.put("nickname", user.getNickname());
-            userMap.put("avatarUrl", user.getAvatarUrl());
-            userMap.put("avatarBgColor", user.getAvatarBgColor());
-            // 检查与该伙伴的对话中是否有未读消息
-            boolean hasUnread = chatMessageRepository.existsByRecipientIdAndSenderIdAndIsReadFalse(currentUser.getId(), user.getId());
-            userMap.put("hasUnreadMessages", hasUnread);
-            return userMap;
-        }).collect(Collectors.toList());
-
-        return ResponseEntity.ok(response);
+        // 会话摘要表一次读出：对方信息、最后一条消息、未读数，按最近聊天时间倒序
+        return ResponseEntity.ok(chatService.inbox(currentUser.getId()));
     }
 
     // 新增：获取当前用户的所有未读消息总数
@@ -115,21 +87,20 @@ public class ChatController {
         if (currentUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "用户未登录"));
         }
-        long count = chatMessageRepository.countByRecipientIdAndIsReadFalse(currentUser.getId());
+        long count = chatService.unreadCount(currentUser.getId());
         return ResponseEntity.ok(Map.of("unreadCount", count));
     }
 
     // 新增：将来自特定用户的消息标记为已读
     @PostMapping("/api/messages/read/{partnerId}")
     @ResponseBody
-    @Transactional
     public ResponseEntity<?> markMessagesAsRead(@PathVariable Integer partnerId, HttpSession session) {
         User currentUser = (User) session.getAttribute("loggedInUser");
         if (currentUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
-        // 调用我们新加的方法，参数分别是 (发送者ID, 接收者ID)
-        chatMessageRepository.markMessagesAsRead(partnerId, currentUser.getId());
+        // 清零会话未读数，并把对方发来的消息标记为已读
+        chatService.markAsRead(currentUser.getId(), partnerId);
         return ResponseEntity.ok(Map.of("message", "已标记为已读"));
     }
 
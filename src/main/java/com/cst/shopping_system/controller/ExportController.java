@@ -0,0 +1,83 @@
+package com.cst.shopping_system.controller;
+
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.service.ExportService;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+/**
+ * 卖家批量导出：边读库边写响应，不在内存里攒结果。
+ * format = csv / ndjson，gzip = true 时下载 .gz 文件；管理员可以用 sellerId 导出任意卖家。
+ */
+@RestController
+@RequestMapping("/api/export")
+@RequiredArgsConstructor
+public class ExportController {
+
+    private final ExportService exportService;
+
+    @GetMapping("/products")
+    public void exportProducts(@RequestParam(defaultValue = "csv") String format,
+                               @RequestParam(defaultValue = "false") boolean gzip,
+                               @RequestParam(required = false) Integer sellerId,
+                               HttpSession session, HttpServletResponse response) throws IOException {
+        Integer seller = resolveSeller(session, sellerId, response);
+        if (seller == null) return;
+        ExportService.Format f = formatOf(format, response);
+        if (f == null) return;
+        prepare(response, "products-" + seller, f, gzip);
+        exportService.exportProducts(seller, f, gzip, response.getOutputStream());
+    }
+
+    @GetMapping("/orders")
+    public void exportOrders(@RequestParam(defaultValue = "csv") String format,
+                             @RequestParam(defaultValue = "false") boolean gzip,
+                             @RequestParam(required = false) Integer sellerId,
+                             HttpSession session, HttpServletResponse response) throws IOException {
+        Integer seller = resolveSeller(session, sellerId, response);
+        if (seller == null) return;
+        ExportService.Format f = formatOf(format, response);
+        if (f == null) return;
+        prepare(response, "orders-" + seller, f, gzip);
+        exportService.exportOrderLines(seller, f, gzip, response.getOutputStream());
+    }
+
+    // 店主只能导出自己的数据；不满足时直接写错误响应并返回 null
+    private Integer resolveSeller(HttpSession session, Integer sellerId, HttpServletResponse response) throws IOException {
+        User u = (User) session.getAttribute("loggedInUser");
+        if (u == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "请先登录");
+            return null;
+        }
+        if ("ADMIN".equals(u.getRole())) return sellerId != null ? sellerId : u.getId();
+        if (!"SHOP_OWNER".equals(u.getRole()) || (sellerId != null && sellerId != u.getId())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "无权导出该数据");
+            return null;
+        }
+        return u.getId();
+    }
+
+    private static ExportService.Format formatOf(String format, HttpServletResponse response) throws IOException {
+        try {
+            return ExportService.Format.valueOf(format.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "不支持的导出格式: " + format);
+            return null;
+        }
+    }
+
+    private static void prepare(HttpServletResponse response, String baseName, ExportService.Format format, boolean gzip) {
+        String ext = format == ExportService.Format.CSV ? ".csv" : ".ndjson";
+        String type = format == ExportService.Format.CSV ? "text/csv;charset=UTF-8" : "application/x-ndjson;charset=UTF-8";
+        response.setContentType(gzip ? "application/gzip" : type);
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + baseName + ext + (gzip ? ".gz" : "") + "\"");
+        response.setHeader("Cache-Control", "no-store");
+    }
+}
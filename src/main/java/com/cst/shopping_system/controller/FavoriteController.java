@@ -1,9 +1,8 @@
 package com.cst.shopping_system.controller;
 
-import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.dto.ProductCardDTO;
 import com.cst.shopping_system.entity.User;
 import com.cst.shopping_system.service.FavoriteService;
-import com.cst.shopping_system.service.ProductService;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -22,9 +21,6 @@ public class FavoriteController {
     @Autowired
     private FavoriteService favoriteService;
 
-    @Autowired
-    private ProductService productService;
-
     @PostMapping("/{productId}")
     public ResponseEntity<?> toggleFavorite(@PathVariable Integer productId, HttpSession session) {
         User loggedInUser = (User) session.getAttribute("loggedInUser");
@@ -53,32 +49,10 @@ public class FavoriteController {
         }
 
         try {
-            List<Product> favoriteProducts = favoriteService.findFavoritesByUser(loggedInUser.getId());
-
-            // 将商品列表转换为和首页/api/products接口一致的格式，方便前端复用渲染逻辑
-            List<Map<String, Object>> productsResponse = favoriteProducts.stream().map(product -> {
-                Map<String, Object> productMap = new java.util.HashMap<>();
-                productMap.put("id", product.getId());
-                productMap.put("title", product.getTitle());
-                productMap.put("price", product.getPrice());
-                productMap.put("sales", product.getSales());
-                productMap.put("favoriteCount", product.getFavoriteCount());
-                // 在“我的收藏”页面，所有商品当然都是已收藏状态
-                productMap.put("isFavorited", true);
-
-                if (product.getImageUrls() != null && !product.getImageUrls().isEmpty()) {
-                    productMap.put("coverImage", product.getImageUrls().split(",")[0]);
-                } else {
-                    productMap.put("coverImage", null);
-                }
-
-                Map<String, Object> sellerInfo = new java.util.HashMap<>();
-                sellerInfo.put("id", product.getSeller().getId());
-                sellerInfo.put("nickname", product.getSeller().getNickname());
-                productMap.put("seller", sellerInfo);
-
-                return productMap;
-            }).collect(Collectors.toList());
+            // 和首页/api/products接口一致的卡片格式，方便前端复用渲染逻辑；在“我的收藏”页面，所有商品当然都是已收藏状态
+            List<ProductCardDTO> productsResponse = favoriteService.findFavoritesByUser(loggedInUser.getId()).stream()
+                    .map(card -> card.withFavorited(true))
+                    .collect(Collectors.toList());
 
             return ResponseEntity.ok(productsResponse);
 
@@ -0,0 +1,143 @@
+package com.cst.shopping_system.controller;
+
+import com.cst.shopping_system.dto.ImportJobDTO;
+import com.cst.shopping_system.entity.ImportJob;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.service.ProductImportService;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 商品批量导入：上传 CSV / JSON 商品文件（可附带图片 zip）后立即返回任务，再轮询任务状态。
+ * CSV 表头：title,price,stock,description,category,images（images 为压缩包内的文件名或图片 URL，多个用 | 分隔）。
+ */
+@RestController
+@RequestMapping("/api/import")
+@RequiredArgsConstructor
+public class ImportController {
+
+    private final ProductImportService importService;
+
+    @PostMapping("/products")
+    public ResponseEntity<?> importProducts(@RequestParam("catalog") MultipartFile catalog,
+                                            @RequestParam(value = "images", required = false) MultipartFile images,
+                                            HttpSession session) {
+        User u = (User) session.getAttribute("loggedInUser");
+        if (u == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Collections.singletonMap("error", "请先登录"));
+        }
+        if (!"ADMIN".equals(u.getRole()) && !"SHOP_OWNER".equals(u.getRole())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Collections.singletonMap("error", "只有店主或管理员可以导入商品"));
+        }
+        try {
+            ImportJob job = importService.submit(u.getId(), catalog, images);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(toDTO(job));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
+    /** 当前用户最近的导入任务 */
+    @GetMapping("/jobs")
+    public ResponseEntity<?> myJobs(HttpSession session) {
+        User u = (User) session.getAttribute("loggedInUser");
+        if (u == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Collections.singletonMap("error", "请先登录"));
+        }
+        List<ImportJobDTO> jobs = importService.recentJobs(u.getId()).stream().map(this::toDTO).toList();
+        return ResponseEntity.ok(jobs);
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> job(@PathVariable Long id, HttpSession session) {
+        User u = (User) session.getAttribute("loggedInUser");
+        if (u == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Collections.singletonMap("error", "请先登录"));
+        }
+        try {
+            ImportJob job = importService.getJob(id);
+            if (!canView(u, job)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Collections.singletonMap("error", "无权查看该任务"));
+            }
+            return ResponseEntity.ok(toDTO(job));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
+    /** 继续一个失败或中断的任务，从已提交的行之后开始 */
+    @PostMapping("/jobs/{id}/resume")
+    public ResponseEntity<?> resume(@PathVariable Long id, HttpSession session) {
+        User u = (User) session.getAttribute("loggedInUser");
+        if (u == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Collections.singletonMap("error", "请先登录"));
+        }
+        try {
+            if (!canView(u, importService.getJob(id))) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Collections.singletonMap("error", "无权操作该任务"));
+            }
+            importService.resume(id);
+            return ResponseEntity.ok(toDTO(importService.getJob(id)));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
+    /** 下载错误明细（CSV：行号, 原因） */
+    @GetMapping("/jobs/{id}/errors")
+    public void errors(@PathVariable Long id, HttpSession session, HttpServletResponse response) throws IOException {
+        User u = (User) session.getAttribute("loggedInUser");
+        if (u == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "请先登录");
+            return;
+        }
+        ImportJob job;
+        try {
+            job = importService.getJob(id);
+        } catch (RuntimeException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+            return;
+        }
+        if (!canView(u, job)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "无权查看该任务");
+            return;
+        }
+        response.setContentType("text/csv;charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"import-" + id + "-errors.csv\"");
+        Writer out = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+        importService.writeErrors(id, out);
+    }
+
+    private static boolean canView(User u, ImportJob job) {
+        return "ADMIN".equals(u.getRole()) || job.getSellerId() == u.getId();
+    }
+
+    private ImportJobDTO toDTO(ImportJob job) {
+        int percent;
+        if (ImportJob.DONE.equals(job.getStatus())) {
+            percent = 100;
+        } else {
+            ProductImportService.Progress p = importService.progressOf(job.getId());
+            percent = p == null ? 0 : p.percent();
+        }
+        return new ImportJobDTO(job.getId(), job.getFormat(), job.getStatus(), percent, job.getProcessed(),
+                job.getSucceeded(), job.getFailed(), job.getMessage(), job.getCreatedTime(), job.getUpdatedTime());
+    }
+}
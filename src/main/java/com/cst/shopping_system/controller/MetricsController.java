@@ -0,0 +1,31 @@
+package com.cst.shopping_system.controller;
+
+import com.cst.shopping_system.service.OrderOutbox;
+import com.cst.shopping_system.service.ProductCatalogCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/metrics")
+@RequiredArgsConstructor
+public class MetricsController {
+
+    private final ProductCatalogCache catalogCache;
+    private final OrderOutbox orderOutbox;
+
+    /** 商品目录缓存的命中率、淘汰数等统计 */
+    @GetMapping("/catalog-cache")
+    public Map<String, Object> catalogCache() {
+        return catalogCache.stats();
+    }
+
+    /** 订单事件发件箱的积压条数、最老事件等待时间和投递延迟 */
+    @GetMapping("/order-outbox")
+    public Map<String, Object> orderOutbox() {
+        return orderOutbox.stats();
+    }
+}
@@ -1,9 +1,12 @@
 package com.cst.shopping_system.controller;
 
+import com.cst.shopping_system.dto.OrderLineDTO;
+import com.cst.shopping_system.dto.OrderStatusRequest;
+import com.cst.shopping_system.dto.OrderSummaryDTO;
 import com.cst.shopping_system.entity.Order;
-import com.cst.shopping_system.entity.OrderItem;
-import com.cst.shopping_system.repository.OrderItemRepository;
 import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.service.CheckoutIdempotency;
+import com.cst.shopping_system.service.OrderLifecycleService;
 import com.cst.shopping_system.service.OrderService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -19,7 +22,8 @@ import java.util.*;
 public class OrderController {
 
     private final OrderService orderService;
-    private final OrderItemRepository orderItemRepo;
+    private final CheckoutIdempotency idempotency;
+    private final OrderLifecycleService lifecycle;
 
     private User requireLogin(HttpSession session) {
         User u = (User) session.getAttribute("loggedInUser");
@@ -27,86 +31,137 @@ public class OrderController {
         return u;
     }
 
-    /** 从购物车结算生成订单 */
+    /**
+     * 从购物车结算生成订单，按卖家拆成多个，orderIds 按购物车顺序；orderId 是第一个，兼容旧客户端。
+     * 客户端每次结算生成一个 Idempotency-Key，超时重试、重复点击时带同一个 key，只会下一次单；
+     * 重复请求返回第一次的订单号，并带响应头 Idempotent-Replayed: true。
+     */
     @PostMapping("/checkout")
     public ResponseEntity<?> checkout(@RequestParam(value = "address", required = false) String address,
+                                      @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
                                       HttpSession session) {
         try {
             User u = requireLogin(session);
-            Long orderId = orderService.checkout(u.getId(), address);
+            String key = CheckoutIdempotency.normalize(idempotencyKey);
+            CheckoutIdempotency.Result result = key == null
+                    ? new CheckoutIdempotency.Result(orderService.checkout(u.getId(), address), false)
+                    : idempotency.execute(u.getId(), key, () -> orderService.checkout(u.getId(), address, key));
             Map<String, Object> body = new HashMap<>();
-            body.put("orderId", orderId);
-            return ResponseEntity.ok(body);
+            body.put("orderIds", result.orderIds());
+            body.put("orderId", result.orderIds().get(0));
+            return ResponseEntity.ok()
+                    .header("Idempotent-Replayed", String.valueOf(result.replayed()))
+                    .body(body);
+        } catch (CheckoutIdempotency.InProgressException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
     }
 
-    /** 我的订单列表（不含明细） */
+    /**
+     * 我的订单列表（不含明细），按下单时间倒序游标分页。
+     * 第一页不传 cursor，之后把上一页返回的 nextCursor 原样带回；hasMore = false 表示没有更多了。
+     */
     @GetMapping("/my")
-    public ResponseEntity<?> myOrders(HttpSession session) {
+    public ResponseEntity<?> myOrders(@RequestParam(value = "cursor", required = false) String cursor,
+                                      @RequestParam(value = "size", defaultValue = "20") int size,
+                                      HttpSession session) {
+        User u;
         try {
-            User u = requireLogin(session);
-            List<Order> list = orderService.listMyOrders(u.getId());
-
-            List<Map<String, Object>> rows = new ArrayList<>();
-            for (Order o : list) {
-                Map<String, Object> m = new HashMap<>();
-                m.put("id", o.getId());
-                m.put("orderTime", o.getOrderTime());
-                m.put("status", o.getStatus());
-                m.put("totalAmount", o.getTotalAmount());
-                m.put("address", o.getAddress());
-                rows.add(m);
-            }
-            return ResponseEntity.ok(rows);
+            u = requireLogin(session);
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("请先登录");
         }
+        try {
+            OrderService.OrderPage page = orderService.listMyOrders(u.getId(), cursor, Math.max(1, Math.min(size, 100)));
+            Map<String, Object> body = new HashMap<>();
+            body.put("orders", page.content());
+            body.put("nextCursor", page.nextCursor());
+            body.put("hasMore", page.nextCursor() != null);
+            return ResponseEntity.ok(body);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
     }
 
-    /** 订单详情（含商品明细） */
+    /** 订单详情（含商品明细）：订单头按主键取一行，明细连同商品标题、封面图一条 SQL 取回 */
     @GetMapping("/{id}")
     public ResponseEntity<?> orderDetail(@PathVariable("id") Long id, HttpSession session) {
         try {
             User u = requireLogin(session);
-            // 1. 获取订单基本信息 (鉴权逻辑在 getOrder 内部)
-            Order o = orderService.getOrder(id, u.getId());
-
-            // 2. 获取订单包含的商品明细
-            List<OrderItem> items = orderItemRepo.findByOrder_Id(o.getId());
+            // 鉴权在 getOrderSummary 内部
+            OrderSummaryDTO order = orderService.getOrderSummary(id, u.getId());
+            List<OrderLineDTO> items = orderService.getOrderLines(id);
 
-            // 3. 组装返回数据
             Map<String, Object> result = new HashMap<>();
+            result.put("order", order);
+            result.put("items", items);
+            return ResponseEntity.ok(result);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
 
-            // 3.1 订单头信息
-            Map<String, Object> orderInfo = new HashMap<>();
-            orderInfo.put("id", o.getId());
-            orderInfo.put("orderTime", o.getOrderTime());
-            orderInfo.put("status", o.getStatus());
-            orderInfo.put("totalAmount", o.getTotalAmount());
-            orderInfo.put("address", o.getAddress());
-            result.put("order", orderInfo);
+    /** 买家支付（目前没有对接支付渠道，直接置为已支付） */
+    @PostMapping("/{id}/pay")
+    public ResponseEntity<?> pay(@PathVariable("id") Long id, HttpSession session) {
+        return buyerTransition(id, Order.PAID, session);
+    }
 
-            // 3.2 商品明细列表 (提取需要展示的字段)
-            List<Map<String, Object>> itemStats = items.stream().map(item -> {
-                Map<String, Object> m = new HashMap<>();
-                m.put("productId", item.getProduct().getId());
-                m.put("title", item.getProduct().getTitle());
-                // 处理图片：取第一张，或者默认图
-                String cover = null;
-                if (item.getProduct().getImageUrls() != null && !item.getProduct().getImageUrls().isEmpty()) {
-                    cover = item.getProduct().getImageUrls().split(",")[0];
-                }
-                m.put("coverImage", cover);
-                m.put("price", item.getUnitPrice());
-                m.put("quantity", item.getQuantity());
-                return m;
-            }).toList();
+    /** 买家取消未支付的订单，库存退回 */
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<?> cancel(@PathVariable("id") Long id, HttpSession session) {
+        return buyerTransition(id, Order.CANCELLED, session);
+    }
 
-            result.put("items", itemStats);
+    /** 买家确认收货 */
+    @PostMapping("/{id}/confirm")
+    public ResponseEntity<?> confirm(@PathVariable("id") Long id, HttpSession session) {
+        return buyerTransition(id, Order.COMPLETED, session);
+    }
 
-            return ResponseEntity.ok(result);
+    private ResponseEntity<?> buyerTransition(Long id, String target, HttpSession session) {
+        try {
+            User u = requireLogin(session);
+            OrderLifecycleService.TransitionResult r =
+                    lifecycle.transition(List.of(id), target, OrderLifecycleService.Actor.buyer(u.getId()));
+            if (!r.conflicts().isEmpty()) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("订单状态刚刚发生了变化，请刷新后重试");
+            }
+            if (!r.rejected().isEmpty()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(r.rejected().get(id));
+            }
+            return ResponseEntity.ok(Collections.singletonMap("status", target));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    /**
+     * 卖家 / 管理员批量变更订单状态（发货、取消），一次最多 OrderLifecycleService.MAX_BULK 个。
+     * 返回已变更的订单、并发冲突的订单（可以重新提交）和被拒绝的订单及原因。
+     */
+    @PostMapping("/bulk-status")
+    public ResponseEntity<?> bulkStatus(@RequestBody OrderStatusRequest req, HttpSession session) {
+        User u = (User) session.getAttribute("loggedInUser");
+        if (u == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("请先登录");
+        }
+        OrderLifecycleService.Actor actor;
+        if ("ADMIN".equals(u.getRole())) actor = OrderLifecycleService.Actor.ADMIN;
+        else if ("SHOP_OWNER".equals(u.getRole())) actor = OrderLifecycleService.Actor.seller(u.getId());
+        else return ResponseEntity.status(HttpStatus.FORBIDDEN).body("只有店主或管理员可以批量处理订单");
+        if (req.orderIds() == null || req.orderIds().isEmpty() || req.status() == null) {
+            return ResponseEntity.badRequest().body("请提供订单号和目标状态");
+        }
+        try {
+            OrderLifecycleService.TransitionResult r = lifecycle.transition(req.orderIds(), req.status(), actor);
+            Map<String, Object> body = new HashMap<>();
+            body.put("updated", r.updated().size());
+            body.put("conflicts", r.conflicts());
+            body.put("rejected", r.rejected());
+            return ResponseEntity.ok(body);
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
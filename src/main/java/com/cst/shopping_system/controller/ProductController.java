@@ -1,8 +1,10 @@
 package com.cst.shopping_system.controller;
 
+import com.cst.shopping_system.dto.ProductCardDTO;
 import com.cst.shopping_system.entity.Product;
 import com.cst.shopping_system.entity.User;
-import com.cst.shopping_system.repository.FavoriteRepository; // 确保导入
+import com.cst.shopping_system.service.FavoriteMembershipCache;
+import com.cst.shopping_system.service.InventoryService;
 import com.cst.shopping_system.service.ProductService;
 import jakarta.servlet.http.HttpSession; // 确保导入
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,9 +27,12 @@ public class ProductController {
     @Autowired
     private ProductService productService;
 
-    // 注入我们之前创建的 FavoriteRepository
+    // 用户收藏集合缓存，整页商品只取一次
     @Autowired
-    private FavoriteRepository favoriteRepository;
+    private FavoriteMembershipCache favoriteMembershipCache;
+
+    @Autowired
+    private InventoryService inventoryService;
 
     /**
      * 处理创建新商品的POST请求
@@ -73,7 +78,8 @@ public class ProductController {
     }
 
     /**
-     * 处理获取所有商品的GET请求，支持搜索、多分类筛选、排序和分页
+     * 处理获取所有商品的GET请求，支持搜索、多分类筛选、排序和分页。
+     * 传了 cursor 参数（第一页传空字符串）时走游标分页，返回 nextCursor，翻页代价与页码无关。
      */
     @GetMapping
     public ResponseEntity<Map<String, Object>> getAllProducts(
@@ -82,6 +88,8 @@ public class ProductController {
             @RequestParam(value = "sortBy", required = false, defaultValue = "latest") String sortBy,
             @RequestParam(value = "page", defaultValue = "0") int page, // 新增分页参数
             @RequestParam(value = "size", defaultValue = "20") int size, // 默认每页20条
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "withTotal", defaultValue = "true") boolean withTotal,
             HttpSession session) {
 
         User loggedInUser = (User) session.getAttribute("loggedInUser");
@@ -91,46 +99,44 @@ public class ProductController {
             categories = null;
         }
 
-        // 调用 Service 获取分页结果
-        Page<Product> productPage = productService.findProducts(keyword, categories, sortBy, page, size);
-
-        List<Map<String, Object>> productsResponse = productPage.getContent().stream().map(product -> {
-            Map<String, Object> productMap = new java.util.HashMap<>();
-            productMap.put("id", product.getId());
-            productMap.put("title", product.getTitle());
-            productMap.put("price", product.getPrice());
-            productMap.put("sales", product.getSales());
-            productMap.put("stock", product.getStock()); // 之前让你加的库存字段
+        int[] favorites = loggedInUser != null ? favoriteMembershipCache.favoritesOf(loggedInUser.getId()) : null;
+        Map<String, Object> response = new java.util.HashMap<>();
+        Map<String, Long> facets;
 
-            boolean isFavorited = false;
-            if (loggedInUser != null) {
-                isFavorited = favoriteRepository.existsByUserAndProduct(loggedInUser, product);
+        if (cursor != null) {
+            ProductService.CursorPage cursorPage;
+            try {
+                cursorPage = productService.findProductsByCursor(keyword, categories, sortBy, cursor, size, withTotal);
+            } catch (RuntimeException e) {
+                return ResponseEntity.badRequest().body(Collections.singletonMap("error", e.getMessage()));
             }
-            productMap.put("isFavorited", isFavorited);
-            productMap.put("favoriteCount", product.getFavoriteCount()); // 之前让你加的收藏数字段
-
-            if (product.getImageUrls() != null && !product.getImageUrls().isEmpty()) {
-                productMap.put("coverImage", product.getImageUrls().split(",")[0]);
-            } else {
-                productMap.put("coverImage", null);
+            response.put("products", cursorPage.content().stream()
+                    .map(card -> card.withFavorited(FavoriteMembershipCache.contains(favorites, card.id())))
+                    .collect(Collectors.toList()));
+            response.put("nextCursor", cursorPage.nextCursor());
+            response.put("hasMore", cursorPage.nextCursor() != null);
+            if (withTotal) {
+                response.put("totalItems", cursorPage.totalItems());
             }
-
-            productMap.put("category", product.getCategory());
-
-            Map<String, Object> sellerInfo = new java.util.HashMap<>();
-            sellerInfo.put("id", product.getSeller().getId());
-            sellerInfo.put("nickname", product.getSeller().getNickname());
-            productMap.put("seller", sellerInfo);
-
-            return productMap;
-        }).collect(Collectors.toList());
-
-        // 构建返回结果，包含分页元数据
-        Map<String, Object> response = new java.util.HashMap<>();
-        response.put("products", productsResponse);
-        response.put("currentPage", productPage.getNumber());
-        response.put("totalItems", productPage.getTotalElements());
-        response.put("totalPages", productPage.getTotalPages());
+            facets = cursorPage.facets();
+        } else {
+            // 调用 Service 获取分页结果
+            ProductService.ListingPage listing = productService.findProducts(keyword, categories, sortBy, page, size);
+            Page<ProductCardDTO> productPage = listing.page();
+
+            // 构建返回结果，包含分页元数据
+            response.put("products", productPage.getContent().stream()
+                    .map(card -> card.withFavorited(FavoriteMembershipCache.contains(favorites, card.id())))
+                    .collect(Collectors.toList()));
+            response.put("currentPage", productPage.getNumber());
+            response.put("totalItems", productPage.getTotalElements());
+            response.put("totalPages", productPage.getTotalPages());
+            facets = listing.facets();
+        }
+        // 分类计数和商品列表来自同一次搜索
+        if (facets != null) {
+            response.put("facets", facets);
+        }
 
         return ResponseEntity.ok(response);
     }
@@ -160,7 +166,7 @@ public class ProductController {
 
             boolean isFavorited = false;
             if (loggedInUser != null) {
-                isFavorited = favoriteRepository.existsByUserAndProduct(loggedInUser, product);
+                isFavorited = favoriteMembershipCache.isFavorited(loggedInUser.getId(), product.getId());
             }
             productMap.put("isFavorited", isFavorited);
 
@@ -183,28 +189,8 @@ public class ProductController {
         if (loggedInUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Collections.singletonMap("error", "用户未登录"));
         }
-        List<Product> myProducts = productService.findProductsBySellerId(loggedInUser.getId());
-
-        // 将商品列表转换为包含封面图的Map列表，方便前端处理
-        List<Map<String, Object>> productsResponse = myProducts.stream().map(product -> {
-            Map<String, Object> productMap = new java.util.HashMap<>();
-            productMap.put("id", product.getId());
-            productMap.put("title", product.getTitle());
-            productMap.put("price", product.getPrice());
-
-            // ★★★ 必须补上这三个字段，前端才能正确显示状态和库存 ★★★
-            productMap.put("status", product.getStatus());
-            productMap.put("stock", product.getStock());
-            productMap.put("sales", product.getSales());
-            // ★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★★
-
-            if (product.getImageUrls() != null && !product.getImageUrls().isEmpty()) {
-                productMap.put("coverImage", product.getImageUrls().split(",")[0]);
-            } else {
-                productMap.put("coverImage", null);
-            }
-            return productMap;
-        }).collect(Collectors.toList());
+        // 卡片投影里已经带了状态、库存、销量和封面图，前端可直接使用
+        List<ProductCardDTO> productsResponse = productService.findProductCardsBySellerId(loggedInUser.getId());
 
         return ResponseEntity.ok(productsResponse);
     }
@@ -303,4 +289,30 @@ public class ProductController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
         }
     }
+
+    // 开启/关闭闪购模式：开启后库存装载到内存闸门，抢购请求在内存里先行过滤
+    @PostMapping("/{id}/flash-sale")
+    public ResponseEntity<?> toggleFlashSale(@PathVariable Integer id, @RequestParam boolean enabled, HttpSession session) {
+        User loggedInUser = (User) session.getAttribute("loggedInUser");
+        if (loggedInUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Collections.singletonMap("error", "请先登录"));
+        }
+        try {
+            Product product = productService.findProductById(id);
+            if (product.getSeller().getId() != loggedInUser.getId()) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Collections.singletonMap("error", "无权操作他人商品"));
+            }
+            if (enabled) {
+                inventoryService.openFlashSale(id);
+            } else {
+                inventoryService.closeFlashSale(id);
+            }
+            Map<String, Object> body = new java.util.HashMap<>();
+            body.put("flashSale", inventoryService.isFlashSale(id));
+            body.put("available", inventoryService.flashSaleAvailable(id));
+            return ResponseEntity.ok(body);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
 }
\ No newline at end of file
@@ -1,9 +1,11 @@
 package com.cst.shopping_system.controller;
 
 import com.cst.shopping_system.dto.TopProductDTO;
+import com.cst.shopping_system.service.SalesLeaderboard;
 import lombok.RequiredArgsConstructor;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
@@ -13,25 +15,32 @@ import java.util.List;
 public class ReportController {
 
     private final JdbcTemplate jdbcTemplate;
+    private final SalesLeaderboard leaderboard;
 
-    /** 销量 Top10（基于视图） */
+    /**
+     * 销量 Top10：直接读内存排行榜，不再每次扫视图排序。
+     * category 为分类编号（不传为全站），window 为 all（累计）/ day（今日）/ week（近 7 天）
+     */
     @GetMapping("/api/reports/top10")
-    public List<TopProductDTO> top10() {
-        String sql = """
-            SELECT id, title, price, sales, category_name
-            FROM v_product_category
-            ORDER BY sales DESC, id ASC
-            LIMIT 10
-        """;
-        return jdbcTemplate.query(sql, (rs, i) ->
-                new TopProductDTO(
-                        rs.getInt("id"),
-                        rs.getString("title"),
-                        rs.getString("category_name"),
-                        rs.getBigDecimal("price"),
-                        rs.getInt("sales")
-                )
-        );
+    public List<TopProductDTO> top10(@RequestParam(required = false) String category,
+                                     @RequestParam(defaultValue = "all") String window) {
+        return leaderboard.top(category, windowOf(window), 10);
+    }
+
+    /** 同上，可指定条数（最多 SalesLeaderboard.TOP_K） */
+    @GetMapping("/api/reports/leaderboard")
+    public List<TopProductDTO> leaderboard(@RequestParam(required = false) String category,
+                                           @RequestParam(defaultValue = "all") String window,
+                                           @RequestParam(defaultValue = "10") int limit) {
+        return leaderboard.top(category, windowOf(window), Math.max(1, Math.min(limit, SalesLeaderboard.TOP_K)));
+    }
+
+    private static SalesLeaderboard.Window windowOf(String window) {
+        try {
+            return SalesLeaderboard.Window.valueOf(window.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("不支持的统计窗口: " + window);
+        }
     }
 
     /** 如果你想走存储过程，也可以暴露一个 */
@@ -0,0 +1,41 @@
+package com.cst.shopping_system.dto;
+
+import com.cst.shopping_system.util.ImagePaths;
+
+import java.math.BigDecimal;
+
+/**
+ * 购物车行的只读投影：商品标题、单价、库存、上下架状态和封面图与购物车行一条 SQL 取回。
+ * 小计按分用 long 计算，available 表示该行当前可以下单（在售且库存足够）。
+ */
+public record CartLineDTO(Long id,
+                          Integer productId,
+                          String title,
+                          String coverImage,
+                          BigDecimal price,
+                          Integer stock,
+                          Integer status,
+                          Integer quantity,
+                          BigDecimal subtotal,
+                          boolean available) {
+
+    // JPQL 构造表达式使用，封面图、小计和可购买状态在构造时算好
+    public CartLineDTO(Long id, Integer productId, String title, String coverImage, BigDecimal price,
+                       Integer stock, Integer status, Integer quantity) {
+        this(id, productId, title,
+                coverImage == null || coverImage.isEmpty() ? null : ImagePaths.thumbnailUrl(coverImage),
+                price, stock, status, quantity,
+                BigDecimal.valueOf(toCents(price) * quantity, 2),
+                status != null && status == 1 && stock != null && stock >= quantity);
+    }
+
+    /** 小计（分） */
+    public long subtotalCents() {
+        return toCents(subtotal);
+    }
+
+    // 价格列是 DECIMAL(10,2)，换成分不会丢精度
+    static long toCents(BigDecimal amount) {
+        return amount.movePointRight(2).longValueExact();
+    }
+}
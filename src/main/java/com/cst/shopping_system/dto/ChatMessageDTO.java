@@ -0,0 +1,7 @@
+package com.cst.shopping_system.dto;
+
+import java.util.Date;
+
+/** 聊天历史的一行：只带外键 ID，不加载 User 实体 */
+public record ChatMessageDTO(Integer id, Integer senderId, Integer recipientId, String content, Date timestamp) {
+}
@@ -0,0 +1,20 @@
+package com.cst.shopping_system.dto;
+
+import java.util.Date;
+
+/** 收件箱的一行：对方的展示信息 + 最后一条消息 + 我的未读数 */
+public record ConversationDTO(Integer id,
+                              String nickname,
+                              String avatarUrl,
+                              String avatarBgColor,
+                              String lastMessage,
+                              Date lastTime,
+                              int unreadCount,
+                              boolean hasUnreadMessages) {
+
+    // JPQL 构造表达式使用；hasUnreadMessages 兼容前端原来的红点字段
+    public ConversationDTO(Integer id, String nickname, String avatarUrl, String avatarBgColor,
+                           String lastMessage, Date lastTime, int unreadCount) {
+        this(id, nickname, avatarUrl, avatarBgColor, lastMessage, lastTime, unreadCount, unreadCount > 0);
+    }
+}
@@ -0,0 +1,17 @@
+package com.cst.shopping_system.dto;
+
+import java.util.Date;
+
+/** 导入任务状态：percent 按商品文件已读取的字节估算，完成时为 100 */
+public record ImportJobDTO(
+        Long id,
+        String format,
+        String status,
+        int percent,
+        int processed,
+        int succeeded,
+        int failed,
+        String message,
+        Date createdTime,
+        Date updatedTime
+) {}
@@ -0,0 +1,24 @@
+package com.cst.shopping_system.dto;
+
+import com.cst.shopping_system.util.ImagePaths;
+
+import java.math.BigDecimal;
+
+/**
+ * 订单明细行的只读投影：商品标题和封面图与明细在同一条 SQL 里 join 取回，
+ * 封面图由数据库截取 image_urls 的第一段并换成缩略图地址，不加载完整的 Product 实体。
+ */
+public record OrderLineDTO(Integer productId,
+                           String title,
+                           String coverImage,
+                           BigDecimal price,
+                           Integer quantity,
+                           BigDecimal subtotal) {
+
+    // JPQL 构造表达式使用，封面图和小计在构造时算好
+    public OrderLineDTO(Integer productId, String title, String coverImage, BigDecimal price, Integer quantity) {
+        this(productId, title,
+                coverImage == null || coverImage.isEmpty() ? null : ImagePaths.thumbnailUrl(coverImage),
+                price, quantity, price.multiply(BigDecimal.valueOf(quantity)));
+    }
+}
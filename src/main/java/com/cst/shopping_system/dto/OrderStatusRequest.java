@@ -0,0 +1,9 @@
+package com.cst.shopping_system.dto;
+
+import java.util.List;
+
+/** 卖家批量变更订单状态：status 为目标状态（SHIPPED / CANCELLED） */
+public record OrderStatusRequest(
+        List<Long> orderIds,
+        String status
+) {}
@@ -0,0 +1,12 @@
+package com.cst.shopping_system.dto;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/** 订单头的只读投影：订单列表和详情页只需要这几列，不加载下单用户 */
+public record OrderSummaryDTO(Long id,
+                              Date orderTime,
+                              String status,
+                              BigDecimal totalAmount,
+                              String address) {
+}
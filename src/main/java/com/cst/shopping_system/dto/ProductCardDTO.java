@@ -0,0 +1,41 @@
+package com.cst.shopping_system.dto;
+
+import com.cst.shopping_system.util.ImagePaths;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 商品列表卡片的只读投影：只查列表需要的列，卖家昵称在同一条 SQL 里 join 取回，
+ * 封面图由数据库截取 image_urls 的第一段并换成缩略图地址，不再加载完整的 Product/User 实体。
+ */
+public record ProductCardDTO(Integer id,
+                             String title,
+                             BigDecimal price,
+                             Integer sales,
+                             Integer stock,
+                             Integer favoriteCount,
+                             Integer status,
+                             String category,
+                             String coverImage,
+                             Date createdTime,
+                             SellerInfo seller,
+                             Boolean isFavorited) {
+
+    public record SellerInfo(Integer id, String nickname) {}
+
+    // JPQL 构造表达式使用的扁平构造器
+    public ProductCardDTO(Integer id, String title, BigDecimal price, Integer sales, Integer stock,
+                          Integer favoriteCount, Integer status, String category, String coverImage,
+                          Date createdTime, Integer sellerId, String sellerNickname) {
+        this(id, title, price, sales, stock, favoriteCount, status, category,
+                coverImage == null || coverImage.isEmpty() ? null : ImagePaths.thumbnailUrl(coverImage),
+                createdTime, new SellerInfo(sellerId, sellerNickname), null);
+    }
+
+    /** 缓存里的卡片是共享的，收藏状态按用户拷贝一份再填 */
+    public ProductCardDTO withFavorited(boolean favorited) {
+        return new ProductCardDTO(id, title, price, sales, stock, favoriteCount, status, category,
+                coverImage, createdTime, seller, favorited);
+    }
+}
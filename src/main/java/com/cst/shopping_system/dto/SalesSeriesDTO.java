@@ -0,0 +1,14 @@
+package com.cst.shopping_system.dto;
+
+import java.math.BigDecimal;
+
+/** 销量/销售额时间序列：第 i 个点的时间 = start + i * stepMillis */
+public record SalesSeriesDTO(
+        String dimension,
+        String key,
+        String resolution,
+        long start,
+        long stepMillis,
+        long[] units,
+        BigDecimal[] revenue
+) {}
@@ -13,10 +13,11 @@ public class CartItem {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @ManyToOne @JoinColumn(name = "user_id", nullable = false)
+    // 购物车页面走投影查询；结算时用 EntityGraph 一次取回，单独改数量/删除时不再顺带查用户和商品
+    @ManyToOne(fetch = FetchType.LAZY) @JoinColumn(name = "user_id", nullable = false)
     private User user;
 
-    @ManyToOne @JoinColumn(name = "product_id", nullable = false)
+    @ManyToOne(fetch = FetchType.LAZY) @JoinColumn(name = "product_id", nullable = false)
     private Product product;
 
     @Column(nullable = false)
@@ -0,0 +1,45 @@
+package com.cst.shopping_system.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 会话摘要（收件箱读模型）：每个参与者一行，记录与对方的最后一条消息和自己的未读数。
+ * 由发消息、标记已读时增量维护，收件箱和未读总数不再扫描 chat_message。
+ */
+@Entity
+@Table(name = "chat_conversation", indexes = @Index(name = "idx_conversation_owner_time", columnList = "owner_id, last_time"))
+@IdClass(ChatConversation.Key.class)
+@Data
+public class ChatConversation {
+
+    @Id
+    @Column(name = "owner_id")
+    private Integer ownerId;
+
+    @Id
+    @Column(name = "partner_id")
+    private Integer partnerId;
+
+    @Column(name = "last_message", length = 255)
+    private String lastMessage;
+
+    @Column(name = "last_time")
+    private Date lastTime;
+
+    @Column(name = "unread_count", nullable = false)
+    private int unreadCount;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Integer ownerId;
+        private Integer partnerId;
+    }
+}
@@ -5,21 +5,26 @@ import lombok.Data;
 import java.util.Date;
 
 @Entity
-@Table(name = "chat_message")
+@Table(name = "chat_message", indexes = @Index(name = "idx_chat_conversation_time", columnList = "conversation_id, timestamp, id"))
 @Data
 public class ChatMessage {
+    // ID 由 ChatIngestPipeline 按号段预先分配（推送时就要带上），不再用自增
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer id;
 
-    @ManyToOne
+    // 历史记录走投影查询，只需要外键 ID，不再每行连带加载两个用户
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "sender_id", nullable = false)
     private User sender;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "recipient_id", nullable = false)
     private User recipient;
 
+    // 会话 ID：两个用户 ID 中小的放高 32 位、大的放低 32 位，双方发的消息落在同一个会话里
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
     @Column(columnDefinition = "TEXT")
     private String content;
 
@@ -28,4 +33,17 @@ public class ChatMessage {
     // 新增字段：标记消息是否已读，默认为 false (未读)
     @Column(name = "is_read", nullable = false)
     private boolean isRead = false;
-}
\ No newline at end of file
+
+    public static long conversationIdOf(Integer userA, Integer userB) {
+        int min = Math.min(userA, userB);
+        int max = Math.max(userA, userB);
+        return ((long) min << 32) | (max & 0xFFFFFFFFL);
+    }
+
+    @PrePersist
+    void assignConversationId() {
+        if (conversationId == null) {
+            conversationId = conversationIdOf(sender.getId(), recipient.getId());
+        }
+    }
+}
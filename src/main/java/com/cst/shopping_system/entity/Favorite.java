@@ -5,7 +5,8 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Entity
-@Table(name="favorite")
+@Table(name = "favorite",
+        uniqueConstraints = @UniqueConstraint(name = "uk_favorite_user_product", columnNames = {"user_id", "product_id"}))
 @Data
 @NoArgsConstructor // 添加一个无参构造函数
 public class Favorite {
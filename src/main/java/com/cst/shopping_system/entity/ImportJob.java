@@ -0,0 +1,55 @@
+package com.cst.shopping_system.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 商品批量导入任务。processed 是已经提交的数据行数（含失败行），每个批次与商品、错误明细在同一事务里推进，
+ * 中断后从 processed 之后继续，不会重复导入。
+ */
+@Entity
+@Table(name = "import_job", indexes = @Index(name = "idx_import_job_seller", columnList = "seller_id, id"))
+@Data
+public class ImportJob {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "seller_id", nullable = false)
+    private Integer sellerId;
+
+    @Column(length = 10, nullable = false)
+    private String format; // CSV / JSON
+
+    @Column(name = "has_images", nullable = false)
+    private boolean hasImages;
+
+    @Column(length = 10, nullable = false)
+    private String status = QUEUED;
+
+    @Column(nullable = false)
+    private int processed;
+
+    @Column(nullable = false)
+    private int succeeded;
+
+    @Column(nullable = false)
+    private int failed;
+
+    @Column(length = 500)
+    private String message;
+
+    @Column(name = "created_time", nullable = false)
+    private Date createdTime = new Date();
+
+    @Column(name = "updated_time", nullable = false)
+    private Date updatedTime = new Date();
+}
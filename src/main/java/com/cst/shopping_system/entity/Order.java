@@ -6,15 +6,32 @@ import lombok.Data;
 import java.math.BigDecimal;
 import java.util.Date;
 
+/**
+ * 订单。状态流转：CREATED → PAID → SHIPPED → COMPLETED，CREATED / PAID 可以取消（CANCELLED，退回库存）。
+ * 状态只通过 OrderLifecycleService 按 version 条件批量更新。
+ */
 @Data
 @Entity
-@Table(name = "orders")
+@Table(name = "orders", indexes = {
+        @Index(name = "idx_orders_user_time", columnList = "user_id, order_time"),
+        @Index(name = "idx_orders_status_time", columnList = "status, order_time")})
 public class Order {
+
+    public static final String CREATED = "CREATED";
+    public static final String PAID = "PAID";
+    public static final String SHIPPED = "SHIPPED";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String CANCELLED = "CANCELLED";
+
+    // 号段分配 ID（每次取 50 个），INSERT 不再依赖自增回填，Hibernate 才能批量写入
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "order_id")
+    @TableGenerator(name = "order_id", table = "id_generator", pkColumnName = "gen_name",
+            valueColumnName = "gen_value", pkColumnValue = "orders", allocationSize = 50)
     private Long id;
 
-    @ManyToOne @JoinColumn(name = "user_id", nullable = false)
+    // 列表和详情都走投影查询，不需要顺带把下单用户查出来
+    @ManyToOne(fetch = FetchType.LAZY) @JoinColumn(name = "user_id", nullable = false)
     private User user;
 
     @Column(name = "order_time", nullable = false)
@@ -22,7 +39,12 @@ public class Order {
     private Date orderTime = new Date();
 
     @Column(length = 20, nullable = false)
-    private String status = "CREATED";
+    private String status = CREATED;
+
+    // 乐观锁版本号，每次状态变更加 1
+    @Version
+    @Column(nullable = false)
+    private Long version;
 
     @Column(name = "total_amount", nullable = false)
     private BigDecimal totalAmount = BigDecimal.ZERO;
@@ -9,8 +9,11 @@ import java.math.BigDecimal;
 @Entity
 @Table(name = "order_item")
 public class OrderItem {
+    // 号段分配 ID（每次取 50 个），INSERT 不再依赖自增回填，Hibernate 才能批量写入
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "order_item_id")
+    @TableGenerator(name = "order_item_id", table = "id_generator", pkColumnName = "gen_name",
+            valueColumnName = "gen_value", pkColumnValue = "order_item", allocationSize = 50)
     private Long id;
 
     @ManyToOne @JoinColumn(name = "order_id", nullable = false)
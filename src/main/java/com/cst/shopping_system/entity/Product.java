@@ -36,13 +36,15 @@ public class Product {
     @Column(length = 50)
     private String category;  // 分类编号，对应 category 表的 code
 
-    @Column(name = "sales", nullable = false)
+    // 销量、库存、收藏数只在插入时写入，之后由 SalesCounters / InventoryService / FavoriteCounters 的增量 UPDATE 维护；
+    // 保存实体时不写这三列，先读后存的旧值不会覆盖期间落库的增量
+    @Column(name = "sales", nullable = false, updatable = false)
     private int sales = 0; // 商品销量
 
-    @Column(nullable = false)
+    @Column(nullable = false, updatable = false)
     private Integer stock = 0;
 
-    @Column(name = "favorite_count")
+    @Column(name = "favorite_count", updatable = false)
     private Integer favoriteCount = 0; // 收藏数，默认0
 
     @Column(nullable = false)
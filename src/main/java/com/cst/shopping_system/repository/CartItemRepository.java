@@ -1,7 +1,11 @@
 package com.cst.shopping_system.repository;
 
+import com.cst.shopping_system.dto.CartLineDTO;
 import com.cst.shopping_system.entity.CartItem;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 import java.util.Optional;
@@ -9,7 +13,20 @@ import java.util.Optional;
 public interface CartItemRepository extends JpaRepository<CartItem, Long> {
 
     // 用 “_” 穿透到关联实体的 id 字段；类型使用 Integer，和 User/Product 的 id 对齐
+    // 一次 join 取回用户、商品和卖家，避免 EAGER 关联逐行补查
+    @EntityGraph(attributePaths = {"user", "product", "product.seller"})
     List<CartItem> findByUser_Id(Integer userId);
 
     Optional<CartItem> findByUser_IdAndProduct_Id(Integer userId, Integer productId);
+
+    // 购物车页面展示用的投影，一条 SQL 取回；封面图由数据库截取 image_urls 的第一段
+    @Query("SELECT new com.cst.shopping_system.dto.CartLineDTO(c.id, p.id, p.title, "
+            + "cast(function('substring_index', p.imageUrls, ',', 1) as String), p.price, p.stock, p.status, c.quantity) "
+            + "FROM CartItem c JOIN c.product p WHERE c.user.id = ?1 ORDER BY c.id")
+    List<CartLineDTO> findLinesByUserId(Integer userId);
+
+    // 一条 DELETE 清空用户的购物车
+    @Modifying
+    @Query("DELETE FROM CartItem c WHERE c.user.id = ?1")
+    int deleteByUserId(Integer userId);
 }
@@ -0,0 +1,29 @@
+package com.cst.shopping_system.repository;
+
+import com.cst.shopping_system.dto.ConversationDTO;
+import com.cst.shopping_system.entity.ChatConversation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+
+public interface ChatConversationRepository extends JpaRepository<ChatConversation, ChatConversation.Key> {
+
+    // 收件箱：一条 SQL 按 (owner_id, last_time) 索引取出所有会话，并带出对方的昵称头像
+    @Query("SELECT new com.cst.shopping_system.dto.ConversationDTO(u.id, u.nickname, u.avatarUrl, u.avatarBgColor, "
+            + "c.lastMessage, c.lastTime, c.unreadCount) "
+            + "FROM ChatConversation c JOIN User u ON u.id = c.partnerId "
+            + "WHERE c.ownerId = ?1 ORDER BY c.lastTime DESC")
+    List<ConversationDTO> findInbox(Integer ownerId);
+
+    @Query("SELECT COALESCE(SUM(c.unreadCount), 0) FROM ChatConversation c WHERE c.ownerId = ?1")
+    long sumUnread(Integer ownerId);
+
+    // 会话摘要的写入只在 ChatIngestPipeline 里按 (owner_id, partner_id) 主键顺序批量进行，这里不提供单行 upsert：
+    // 逐行先写收件人再写发送人，A→B 和 B→A 同时发送时两个事务会以相反顺序锁这两行而死锁
+
+    @Modifying
+    @Query("UPDATE ChatConversation c SET c.unreadCount = 0 WHERE c.ownerId = ?1 AND c.partnerId = ?2")
+    int resetUnread(Integer ownerId, Integer partnerId);
+}
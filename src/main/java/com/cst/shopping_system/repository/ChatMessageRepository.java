@@ -1,28 +1,31 @@
 package com.cst.shopping_system.repository;
 
+import com.cst.shopping_system.dto.ChatMessageDTO;
 import com.cst.shopping_system.entity.ChatMessage;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Date;
 import java.util.List;
 
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Integer> {
 
-    // 查找两个用户之间的所有聊天记录，并按时间升序排列
-    List<ChatMessage> findBySenderIdAndRecipientIdOrSenderIdAndRecipientIdOrderByTimestampAsc(
-            Integer senderId1, Integer recipientId1, Integer senderId2, Integer recipientId2);
+    // 历史消息按 (发送时间, id) 倒序分页，走 (conversation_id, timestamp, id) 索引。
+    // 集群模式下各节点按号段分配 ID，不同节点的 ID 和发送先后无关，不能只按 ID 翻页
+    String HISTORY_SELECT = "SELECT new com.cst.shopping_system.dto.ChatMessageDTO("
+            + "m.id, m.sender.id, m.recipient.id, m.content, m.timestamp) FROM ChatMessage m WHERE m.conversationId = ?1 ";
 
-    // 查找与指定用户相关的所有对话伙伴
-    @Query("SELECT DISTINCT CASE WHEN m.sender.id = ?1 THEN m.recipient.id ELSE m.sender.id END FROM ChatMessage m WHERE m.sender.id = ?1 OR m.recipient.id = ?1")
-    List<Integer> findConversationPartnerIds(Integer userId);
+    // 会话里最近的 limit 条消息
+    @Query(HISTORY_SELECT + "ORDER BY m.timestamp DESC, m.id DESC")
+    List<ChatMessageDTO> findLatest(Long conversationId, Limit limit);
 
-    // 新增：统计某个用户收到的所有未读消息总数
-    long countByRecipientIdAndIsReadFalse(Integer recipientId);
-
-    // 新增：检查某个用户与特定伙伴之间是否有未读消息
-    boolean existsByRecipientIdAndSenderIdAndIsReadFalse(Integer recipientId, Integer senderId);
+    // 严格早于 (beforeTime, beforeId) 的最近 limit 条消息
+    @Query(HISTORY_SELECT + "AND (m.timestamp < ?2 OR (m.timestamp = ?2 AND m.id < ?3)) "
+            + "ORDER BY m.timestamp DESC, m.id DESC")
+    List<ChatMessageDTO> findPageBefore(Long conversationId, Date beforeTime, Integer beforeId, Limit limit);
 
     // 新增：将两个用户之间的所有未读消息标记为已读
     @Transactional
@@ -1,9 +1,12 @@
 package com.cst.shopping_system.repository;
 
+import com.cst.shopping_system.dto.ProductCardDTO;
 import com.cst.shopping_system.entity.Favorite;
 import com.cst.shopping_system.entity.Product;
 import com.cst.shopping_system.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 import java.util.Optional;
@@ -20,4 +23,19 @@ public interface FavoriteRepository extends JpaRepository<Favorite, Integer> {
 
     // 新增：根据用户查找其所有的收藏记录
     List<Favorite> findByUser(User user);
+
+    // 取消收藏：一条 DELETE，返回删掉的行数（0 表示原本没收藏）
+    @Modifying
+    @Query("DELETE FROM Favorite f WHERE f.user.id = ?1 AND f.product.id = ?2")
+    int deleteByUserIdAndProductId(Integer userId, Integer productId);
+
+    // 只取某个用户收藏的商品ID，用于批量判断是否已收藏
+    @Query("SELECT f.product.id FROM Favorite f WHERE f.user.id = ?1")
+    List<Integer> findProductIdsByUserId(Integer userId);
+
+    // 我的收藏列表：直接查卡片投影
+    @Query("SELECT new com.cst.shopping_system.dto.ProductCardDTO(p.id, p.title, p.price, p.sales, p.stock, "
+            + "p.favoriteCount, p.status, p.category, cast(function('substring_index', p.imageUrls, ',', 1) as String), "
+            + "p.createdTime, s.id, s.nickname) FROM Favorite f JOIN f.product p JOIN p.seller s WHERE f.user.id = ?1")
+    List<ProductCardDTO> findFavoriteCardsByUserId(Integer userId);
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.cst.shopping_system.repository;
+
+import com.cst.shopping_system.entity.ImportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+public interface ImportJobRepository extends JpaRepository<ImportJob, Long> {
+
+    List<ImportJob> findTop20BySellerIdOrderByIdDesc(Integer sellerId);
+
+    List<ImportJob> findByStatusInOrderByIdAsc(Collection<String> statuses);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImportJob j SET j.status = ?2, j.message = ?3, j.updatedTime = ?4 WHERE j.id = ?1")
+    int updateStatus(Long id, String status, String message, Date updatedTime);
+}
@@ -1,10 +1,17 @@
 package com.cst.shopping_system.repository;
 
+import com.cst.shopping_system.dto.OrderLineDTO;
 import com.cst.shopping_system.entity.OrderItem;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 
 public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
-    List<OrderItem> findByOrder_Id(Long orderId);
+
+    // 订单详情页的明细行，一条 SQL 取回
+    @Query("SELECT new com.cst.shopping_system.dto.OrderLineDTO(p.id, p.title, "
+            + "cast(function('substring_index', p.imageUrls, ',', 1) as String), oi.unitPrice, oi.quantity) "
+            + "FROM OrderItem oi JOIN oi.product p WHERE oi.order.id = ?1 ORDER BY oi.id")
+    List<OrderLineDTO> findLinesByOrderId(Long orderId);
 }
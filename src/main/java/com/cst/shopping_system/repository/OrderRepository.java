@@ -1,10 +1,29 @@
 package com.cst.shopping_system.repository;
 
+import com.cst.shopping_system.dto.OrderSummaryDTO;
 import com.cst.shopping_system.entity.Order;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 
 public interface OrderRepository extends JpaRepository<Order, Long> {
-    List<Order> findByUser_Id(Integer userId);
+
+    // 我的订单第一页：按下单时间倒序，走 (user_id, order_time) 索引
+    @Query("SELECT new com.cst.shopping_system.dto.OrderSummaryDTO(o.id, o.orderTime, o.status, o.totalAmount, o.address) "
+            + "FROM Order o WHERE o.user.id = ?1 ORDER BY o.orderTime DESC, o.id DESC")
+    List<OrderSummaryDTO> findSummariesByUserId(Integer userId, Limit limit);
+
+    // 游标之后的下一页：(orderTime, id) 严格小于上一页最后一行
+    @Query("SELECT new com.cst.shopping_system.dto.OrderSummaryDTO(o.id, o.orderTime, o.status, o.totalAmount, o.address) "
+            + "FROM Order o WHERE o.user.id = ?1 AND (o.orderTime < ?2 OR (o.orderTime = ?2 AND o.id < ?3)) "
+            + "ORDER BY o.orderTime DESC, o.id DESC")
+    List<OrderSummaryDTO> findSummariesByUserIdAfter(Integer userId, Date orderTime, Long id, Limit limit);
+
+    @Query("SELECT new com.cst.shopping_system.dto.OrderSummaryDTO(o.id, o.orderTime, o.status, o.totalAmount, o.address) "
+            + "FROM Order o WHERE o.id = ?1 AND o.user.id = ?2")
+    Optional<OrderSummaryDTO> findSummary(Long id, Integer userId);
 }
@@ -1,11 +1,38 @@
 package com.cst.shopping_system.repository;
 
+import com.cst.shopping_system.dto.ProductCardDTO;
 import com.cst.shopping_system.entity.Product;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 
-public interface ProductRepository extends JpaRepository<Product, Integer>, JpaSpecificationExecutor<Product> {
+public interface ProductRepository extends JpaRepository<Product, Integer>, JpaSpecificationExecutor<Product>,
+        ProductRepositoryCustom {
+
+    // 列表卡片投影的公共 SELECT：卖家昵称 join 取回，封面图由数据库截取第一段
+    String CARD_SELECT = "SELECT new com.cst.shopping_system.dto.ProductCardDTO(p.id, p.title, p.price, p.sales, p.stock, "
+            + "p.favoriteCount, p.status, p.category, cast(function('substring_index', p.imageUrls, ',', 1) as String), "
+            + "p.createdTime, s.id, s.nickname) FROM Product p JOIN p.seller s ";
+
     List<Product> findBySellerIdOrderByCreatedTimeDesc(Integer sellerId);
+
+    @Query(CARD_SELECT + "WHERE s.id = ?1 ORDER BY p.createdTime DESC")
+    List<ProductCardDTO> findCardsBySellerId(Integer sellerId);
+
+    @Query(CARD_SELECT + "WHERE p.id IN ?1")
+    List<ProductCardDTO> findCardsByIdIn(Collection<Integer> ids);
+
+    // 上架/下架只改 status 一列，返回 0 表示商品不存在
+    @Modifying
+    @Query("UPDATE Product p SET p.status = ?2 WHERE p.id = ?1")
+    int updateStatus(Integer id, Integer status);
+
+    // 卖家改库存按增量写：读到库存之后被订单扣掉的部分不会被加回来
+    @Modifying
+    @Query(value = "UPDATE product SET stock = GREATEST(stock + ?2, 0) WHERE id = ?1", nativeQuery = true)
+    int adjustStock(Integer id, int delta);
 }
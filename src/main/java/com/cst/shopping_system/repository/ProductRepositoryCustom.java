@@ -0,0 +1,18 @@
+package com.cst.shopping_system.repository;
+
+import com.cst.shopping_system.dto.ProductCardDTO;
+import com.cst.shopping_system.entity.Product;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+// 按 Specification 查询列表卡片投影（Spring Data 的 Specification 查询只能返回完整实体）
+public interface ProductRepositoryCustom {
+
+    Page<ProductCardDTO> findCards(Specification<Product> spec, Pageable pageable);
+
+    List<ProductCardDTO> findCards(Specification<Product> spec, Sort sort, int limit);
+}
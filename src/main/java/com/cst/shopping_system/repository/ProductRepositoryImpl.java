@@ -0,0 +1,63 @@
+package com.cst.shopping_system.repository;
+
+import com.cst.shopping_system.dto.ProductCardDTO;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+import static org.springframework.data.jpa.repository.query.QueryUtils.toOrders;
+
+public class ProductRepositoryImpl implements ProductRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Page<ProductCardDTO> findCards(Specification<Product> spec, Pageable pageable) {
+        TypedQuery<ProductCardDTO> query = cardQuery(spec, pageable.getSort());
+        query.setFirstResult((int) pageable.getOffset());
+        query.setMaxResults(pageable.getPageSize());
+        List<ProductCardDTO> content = query.getResultList();
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> count = cb.createQuery(Long.class);
+        Root<Product> root = count.from(Product.class);
+        count.select(cb.count(root));
+        Predicate predicate = spec.toPredicate(root, count, cb);
+        if (predicate != null) count.where(predicate);
+        long total = entityManager.createQuery(count).getSingleResult();
+
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    @Override
+    public List<ProductCardDTO> findCards(Specification<Product> spec, Sort sort, int limit) {
+        return cardQuery(spec, sort).setMaxResults(limit).getResultList();
+    }
+
+    private TypedQuery<ProductCardDTO> cardQuery(Specification<Product> spec, Sort sort) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ProductCardDTO> query = cb.createQuery(ProductCardDTO.class);
+        Root<Product> root = query.from(Product.class);
+        Join<Product, User> seller = root.join("seller");
+        query.select(cb.construct(ProductCardDTO.class,
+                root.get("id"), root.get("title"), root.get("price"), root.get("sales"), root.get("stock"),
+                root.get("favoriteCount"), root.get("status"), root.get("category"),
+                cb.function("substring_index", String.class, root.get("imageUrls"), cb.literal(","), cb.literal(1)),
+                root.get("createdTime"), seller.get("id"), seller.get("nickname")));
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        if (predicate != null) query.where(predicate);
+        if (sort.isSorted()) query.orderBy(toOrders(sort, root, cb));
+        return entityManager.createQuery(query);
+    }
+}
@@ -1,5 +1,6 @@
 package com.cst.shopping_system.service;
 
+import com.cst.shopping_system.dto.CartLineDTO;
 import com.cst.shopping_system.entity.CartItem;
 import com.cst.shopping_system.entity.Product;
 import com.cst.shopping_system.entity.User;
@@ -10,6 +11,7 @@ import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,9 +21,29 @@ public class CartService {
     private final CartItemRepository cartRepo;
     private final UserRepository userRepo;
     private final ProductRepository productRepo;
+    private final CartViewCache cartViews;
 
-    public List<CartItem> listMyCart(Integer userId) {
-        return cartRepo.findByUser_Id(userId);
+    /** 购物车页面：各行投影和按分累加的总价、总件数 */
+    public record CartView(List<CartLineDTO> items, long totalCents, int totalQuantity) {
+        public BigDecimal totalAmount() {
+            return BigDecimal.valueOf(totalCents, 2);
+        }
+    }
+
+    // 购物车页面用的行投影，不加载 CartItem/Product/User 实体；命中缓存时不查库
+    public CartView getCartView(Integer userId) {
+        return cartViews.get(userId, this::loadCartView);
+    }
+
+    private CartView loadCartView(Integer userId) {
+        List<CartLineDTO> lines = cartRepo.findLinesByUserId(userId);
+        long total = 0;
+        int quantity = 0;
+        for (CartLineDTO line : lines) {
+            total += line.subtotalCents();
+            quantity += line.quantity();
+        }
+        return new CartView(List.copyOf(lines), total, quantity);
     }
 
     @Transactional
@@ -34,14 +56,17 @@ public class CartService {
         if (opt.isPresent()) {
             CartItem item = opt.get();
             item.setQuantity(item.getQuantity() + q);
+            cartViews.evict(userId);
             return cartRepo.save(item);
         } else {
-            User u = userRepo.findById(userId).orElseThrow();
+            // 用户只用来填外键，不必查出来
+            User u = userRepo.getReferenceById(userId);
             Product p = productRepo.findById(productId).orElseThrow();
             CartItem item = new CartItem();
             item.setUser(u);
             item.setProduct(p);
             item.setQuantity(q);
+            cartViews.evict(userId);
             return cartRepo.save(item);
         }
     }
@@ -56,6 +81,7 @@ public class CartService {
             throw new RuntimeException("无权操作该购物车项");
         }
         item.setQuantity(quantity);
+        cartViews.evict(userId);
         return cartRepo.save(item);
     }
 
@@ -66,5 +92,6 @@ public class CartService {
             throw new RuntimeException("无权操作该购物车项");
         }
         cartRepo.delete(item);
+        cartViews.evict(userId);
     }
 }
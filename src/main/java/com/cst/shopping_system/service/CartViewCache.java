@@ -0,0 +1,58 @@
+package com.cst.shopping_system.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * 按用户缓存算好的购物车页面（Caffeine）。
+ * 加购、改数量、删除、下单清空购物车时清掉该用户的缓存；商品标题、价格、上下架变化时全部清掉。
+ * 其他用户下单扣减的库存不主动通知，购物车里显示的库存最多滞后 cart.cache.ttl-seconds，下单时仍以数据库为准。
+ * ttl 配成 0 关闭缓存，每次都查库。
+ */
+@Component
+public class CartViewCache {
+
+    private final Cache<Integer, CartService.CartView> views;
+
+    public CartViewCache(@Value("${cart.cache.ttl-seconds:30}") long ttlSeconds) {
+        this.views = ttlSeconds <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(50_000)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+    }
+
+    public CartService.CartView get(Integer userId, Function<Integer, CartService.CartView> loader) {
+        return views == null ? loader.apply(userId) : views.get(userId, loader);
+    }
+
+    /** 用户的购物车内容变了 */
+    public void evict(Integer userId) {
+        if (views != null) afterCommit(() -> views.invalidate(userId));
+    }
+
+    /** 商品展示信息变了，所有购物车都可能受影响 */
+    public void evictAll() {
+        if (views != null) afterCommit(views::invalidateAll);
+    }
+
+    // 在事务提交后再失效，避免并发请求在提交前把旧值重新装回缓存
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
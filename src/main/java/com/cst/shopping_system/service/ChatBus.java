@@ -0,0 +1,12 @@
+package com.cst.shopping_system.service;
+
+import java.util.function.Consumer;
+
+/** 节点之间的发布/订阅通道，消息体是 JSON 字符串 */
+public interface ChatBus {
+
+    void publish(String topic, String json);
+
+    /** 订阅一个主题，返回值用于取消订阅 */
+    Runnable subscribe(String topic, Consumer<String> handler);
+}
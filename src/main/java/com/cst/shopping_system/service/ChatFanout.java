@@ -0,0 +1,10 @@
+package com.cst.shopping_system.service;
+
+/**
+ * 把一条聊天消息投递给收件人的所有 WebSocket 会话。
+ * 单实例用 {@link LocalChatFanout}；多实例部署时用 {@link ClusterChatFanout}，经外部消息代理转发到收件人所在的节点。
+ */
+public interface ChatFanout {
+
+    void deliver(Integer recipientId, Object payload);
+}
@@ -0,0 +1,433 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.ChatMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 聊天消息的异步批量落库（write-behind）。
+ * 发送时只在内存里分配 ID 和时间戳、追加一条本地日志（WAL）、放进有界队列，随即就可以推送给收件人；
+ * 单个写线程按 ID 顺序把队列里的消息攒批写入 chat_message，并在同一事务里更新会话摘要。
+ * 队列满时发送方最多等待 OFFER_TIMEOUT_MILLIS，仍然放不进去就直接拒绝（背压）。
+ * 进程崩溃后重启，会从 WAL 里找出还没落库的消息补写。
+ * 数据库不可用时整批退避重试；某条消息本身写不进去（收件人不存在、内容超长等）时，
+ * 改为逐条写入，把写不进去的那条记到死信文件里，其余照常落库，不让一条坏消息卡住整条管道。
+ */
+@Slf4j
+@Component
+public class ChatIngestPipeline {
+
+    static final String ID_NAME = "chat_message";
+    private static final int ID_BLOCK = 1000;
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int MAX_BATCH = 500;
+    private static final int PREVIEW_LENGTH = 100;
+    private static final long OFFER_TIMEOUT_MILLIS = 200;
+    private static final long FLUSH_INTERVAL_MILLIS = 20;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 5_000;
+    // 队列清空时 WAL 超过这个大小才截断，避免每个小批次都截一次
+    private static final long WAL_TRUNCATE_BYTES = 1024 * 1024;
+
+    private static final String INSERT_SQL = "INSERT INTO chat_message "
+            + "(id, conversation_id, sender_id, recipient_id, content, timestamp, is_read) VALUES (?, ?, ?, ?, ?, ?, false)";
+    private static final String UPSERT_SQL = "INSERT INTO chat_conversation "
+            + "(owner_id, partner_id, last_message, last_time, unread_count) VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE last_message = VALUES(last_message), last_time = VALUES(last_time), "
+            + "unread_count = unread_count + VALUES(unread_count)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate tx;
+    private final IdBlockAllocator ids;
+    private final Path walPath;
+    private final Path deadLetterPath;
+
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // 分配 ID、写 WAL、入队三步在同一把锁里完成，保证三者顺序一致
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // 用 Lock/Condition 而不是 synchronized + wait：虚拟线程在 Object.wait 上会钉住载体线程
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushed = flushLock.newCondition();
+
+    private FileChannel wal;
+    // 只在写线程（以及启动时的恢复）里用，按需打开
+    private FileChannel deadLetters;
+    private final AtomicLong parked = new AtomicLong();
+    private volatile long lastAssigned;
+    private volatile long flushedUpTo;
+    private volatile boolean running;
+    private Thread writer;
+
+    /** 一条待落库的消息 */
+    record Pending(int id, int senderId, int recipientId, String content, long timestamp) {}
+
+    @Autowired
+    public ChatIngestPipeline(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager, IdBlockAllocator ids) {
+        this(jdbcTemplate, txManager, ids, Paths.get(System.getProperty("user.home"), "app-data", "chat-wal.log"));
+    }
+
+    ChatIngestPipeline(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager, IdBlockAllocator ids, Path walPath) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(txManager);
+        this.ids = ids;
+        this.walPath = walPath;
+        this.deadLetterPath = walPath.resolveSibling("chat-dead-letter.log");
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(walPath.getParent());
+        recover();
+        wal = FileChannel.open(walPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        running = true;
+        writer = new Thread(this::writeLoop, "chat-ingest-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** 接收一条消息：填好 ID、时间戳和会话 ID 后立即返回，落库异步进行 */
+    public ChatMessage submit(ChatMessage message) {
+        int senderId = message.getSender().getId();
+        int recipientId = message.getRecipient().getId();
+        appendLock.lock();
+        try {
+            if (!running) throw new RuntimeException("聊天服务正在停止，请稍后再试");
+            int id = Math.toIntExact(ids.next(ID_NAME, ID_BLOCK));
+            long now = System.currentTimeMillis();
+            Pending p = new Pending(id, senderId, recipientId, message.getContent(), now);
+            try {
+                appendWal(p);
+                if (!queue.offer(p, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // 没能入队的这条要从 WAL 末尾去掉，否则重启恢复时会被当成未落库的消息补写
+                    wal.truncate(wal.size() - walRecordSize(p));
+                    throw new RuntimeException("消息发送繁忙，请稍后再试");
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("消息写入日志失败", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("消息发送被中断", e);
+            }
+            lastAssigned = id;
+            message.setId(id);
+            message.setTimestamp(new Date(now));
+            message.setConversationId(ChatMessage.conversationIdOf(senderId, recipientId));
+            return message;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** 等待此刻之前提交的消息全部落库，最多等 timeoutMillis；超时返回 false */
+    public boolean awaitFlushed(long timeoutMillis) {
+        long target = lastAssigned;
+        long left = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        flushLock.lock();
+        try {
+            while (flushedUpTo < target) {
+                if (left <= 0) return false;
+                left = flushed.awaitNanos(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            flushLock.unlock();
+        }
+        return true;
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+
+    /** 启动以来转进死信文件的消息数 */
+    public long parked() {
+        return parked.get();
+    }
+
+    Path deadLetterPath() {
+        return deadLetterPath;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    checkpoint();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                wal.force(false);
+                if (!persistWithRetry(batch)) return; // 停机时数据库仍不可用，剩下的留给 WAL 恢复
+                markFlushed(batch.get(batch.size() - 1).id());
+                batch.clear();
+                checkpoint();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                log.error("聊天 WAL 刷盘失败", e);
+            }
+        }
+    }
+
+    private boolean persistWithRetry(List<Pending> batch) throws InterruptedException {
+        long backoff = 100;
+        while (true) {
+            try {
+                persistOrPark(batch);
+                return true;
+            } catch (RuntimeException e) {
+                if (!running) return false;
+                log.warn("聊天消息落库失败，{} ms 后重试（{} 条）", backoff, batch.size(), e);
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * 写入一批消息。违反约束说明是数据本身的问题，重试多少次都一样，于是拆成逐条写：
+     * 主键冲突的那条已经在库里（之前逐条写到一半遇上数据库断开，整批重试时会碰到），直接跳过；
+     * 其它约束错误的那条转进死信文件。连接断开、锁超时等其它异常原样抛出，由调用方整批重试。
+     */
+    private void persistOrPark(List<Pending> batch) {
+        try {
+            persist(batch);
+        } catch (DuplicateKeyException e) {
+            if (batch.size() > 1) {
+                persistOneByOne(batch, e);
+            } else {
+                log.debug("聊天消息 {} 已在库中，跳过", batch.get(0).id());
+            }
+        } catch (DataIntegrityViolationException e) {
+            if (batch.size() > 1) {
+                persistOneByOne(batch, e);
+            } else {
+                park(batch.get(0), e);
+            }
+        }
+    }
+
+    private void persistOneByOne(List<Pending> batch, RuntimeException cause) {
+        log.warn("聊天消息批量落库违反约束，改为逐条写入（{} 条）：{}", batch.size(), cause.getMessage());
+        for (Pending p : batch) persistOrPark(List.of(p));
+    }
+
+    private void park(Pending p, RuntimeException cause) {
+        log.error("聊天消息 {}（{} -> {}）无法落库，已转入死信文件 {}", p.id(), p.senderId(), p.recipientId(),
+                deadLetterPath, cause);
+        try {
+            if (deadLetters == null) {
+                deadLetters = FileChannel.open(deadLetterPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            appendRecord(deadLetters, p);
+            deadLetters.force(false);
+        } catch (IOException e) {
+            log.error("聊天消息 {} 写入死信文件失败，内容：{}", p.id(), p.content(), e);
+        }
+        parked.incrementAndGet();
+    }
+
+    /**
+     * 一个批次一个事务：先按主键顺序更新会话摘要（拿行锁，与标记已读串行），再批量插入消息。
+     * 批次要么整体提交要么整体回滚，所以“消息在库里”就意味着它的摘要计数也已经加过了。
+     */
+    void persist(List<Pending> batch) {
+        // key = (owner << 32) | partner，TreeMap 的自然顺序就是 (owner_id, partner_id) 主键顺序
+        Map<Long, Object[]> summaries = new TreeMap<>();
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            Timestamp ts = new Timestamp(p.timestamp());
+            String preview = preview(p.content());
+            summarize(summaries, p.recipientId(), p.senderId(), preview, ts, 1);
+            summarize(summaries, p.senderId(), p.recipientId(), preview, ts, 0);
+            rows.add(new Object[]{p.id(), ChatMessage.conversationIdOf(p.senderId(), p.recipientId()),
+                    p.senderId(), p.recipientId(), p.content(), ts});
+        }
+        tx.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(UPSERT_SQL, new ArrayList<>(summaries.values()));
+            jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+        });
+    }
+
+    private static void summarize(Map<Long, Object[]> summaries, int owner, int partner,
+                                  String preview, Timestamp ts, int unread) {
+        long key = ((long) owner << 32) | (partner & 0xFFFFFFFFL);
+        Object[] row = summaries.computeIfAbsent(key, k -> new Object[]{owner, partner, null, null, 0});
+        row[2] = preview;
+        row[3] = ts;
+        row[4] = (Integer) row[4] + unread;
+    }
+
+    private void markFlushed(long id) {
+        flushLock.lock();
+        try {
+            flushedUpTo = id;
+            flushed.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // 所有已分配的消息都落库后，WAL 里的内容就没用了。
+    // 写线程绝不能在这里阻塞：发送方可能正拿着锁等队列腾位置，拿不到锁就下次再说
+    private void checkpoint() throws IOException {
+        if (flushedUpTo != lastAssigned || wal.size() <= WAL_TRUNCATE_BYTES) return;
+        if (!appendLock.tryLock()) return;
+        try {
+            if (flushedUpTo == lastAssigned && queue.isEmpty()) wal.truncate(0);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // ---------------- WAL ----------------
+    // 记录格式：int 长度 | int CRC32 | long id | int 发送者 | int 接收者 | long 时间戳 | 内容(UTF-8)
+
+    private void appendWal(Pending p) throws IOException {
+        appendRecord(wal, p);
+    }
+
+    // 死信文件用同样的格式，修好数据后可以用 readWal 读出来重放
+    private static void appendRecord(FileChannel channel, Pending p) throws IOException {
+        byte[] content = p.content() == null ? new byte[0] : p.content().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(8 + 4 + 4 + 8 + content.length);
+        body.putLong(p.id()).putInt(p.senderId()).putInt(p.recipientId()).putLong(p.timestamp()).put(content);
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(8 + body.remaining());
+        record.putInt(body.remaining()).putInt((int) crc.getValue()).put(body);
+        record.flip();
+        while (record.hasRemaining()) channel.write(record);
+    }
+
+    private static long walRecordSize(Pending p) {
+        int contentLength = p.content() == null ? 0 : p.content().getBytes(StandardCharsets.UTF_8).length;
+        return 8 + 8 + 4 + 4 + 8 + contentLength;
+    }
+
+    static List<Pending> readWal(Path path) throws IOException {
+        List<Pending> records = new ArrayList<>();
+        if (!Files.exists(path)) return records;
+        try (InputStream raw = Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] body;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 24) break;
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break; // 崩溃时最后一条可能只写了一半
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) break;
+                ByteBuffer b = ByteBuffer.wrap(body);
+                int id = Math.toIntExact(b.getLong());
+                int sender = b.getInt();
+                int recipient = b.getInt();
+                long ts = b.getLong();
+                String content = new String(body, b.position(), b.remaining(), StandardCharsets.UTF_8);
+                records.add(new Pending(id, sender, recipient, content, ts));
+            }
+        }
+        return records;
+    }
+
+    // 启动时把 WAL 里库中还不存在的消息补写进去，然后清空 WAL
+    private void recover() throws IOException {
+        List<Pending> records = readWal(walPath);
+        if (records.isEmpty()) return;
+        Set<Integer> existing = new HashSet<>();
+        for (int from = 0; from < records.size(); from += MAX_BATCH) {
+            List<Pending> chunk = records.subList(from, Math.min(records.size(), from + MAX_BATCH));
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            existing.addAll(jdbcTemplate.queryForList("SELECT id FROM chat_message WHERE id IN (" + placeholders + ")",
+                    Integer.class, chunk.stream().map(Pending::id).toArray()));
+        }
+        Map<Integer, Pending> missing = new LinkedHashMap<>();
+        for (Pending p : records) {
+            if (!existing.contains(p.id())) missing.put(p.id(), p);
+        }
+        List<Pending> replay = new ArrayList<>(missing.values());
+        for (int from = 0; from < replay.size(); from += MAX_BATCH) {
+            persistOrPark(replay.subList(from, Math.min(replay.size(), from + MAX_BATCH)));
+        }
+        log.info("聊天 WAL 恢复：共 {} 条，补写 {} 条", records.size(), replay.size());
+        Files.delete(walPath);
+    }
+
+    private static String preview(String content) {
+        if (content == null) return null;
+        if (content.length() <= PREVIEW_LENGTH) return content;
+        int end = PREVIEW_LENGTH;
+        if (Character.isHighSurrogate(content.charAt(end - 1))) end--;
+        return content.substring(0, end);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException, IOException {
+        appendLock.lock();
+        try {
+            running = false;
+        } finally {
+            appendLock.unlock();
+        }
+        if (writer != null) writer.join(10_000);
+        if (wal != null) {
+            wal.force(false);
+            wal.close();
+        }
+        if (deadLetters != null) deadLetters.close();
+    }
+}
@@ -0,0 +1,99 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.dto.ChatMessageDTO;
+import com.cst.shopping_system.dto.ConversationDTO;
+import com.cst.shopping_system.entity.ChatMessage;
+import com.cst.shopping_system.repository.ChatConversationRepository;
+import com.cst.shopping_system.repository.ChatMessageRepository;
+import com.cst.shopping_system.util.KeysetCursor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 聊天写入和收件箱。
+ * 消息由 {@link ChatIngestPipeline} 异步批量落库；落库批次和标记已读都先锁收件人那一行会话摘要，
+ * 再动 chat_message，两者串行执行，未读计数和消息的 is_read 不会对不上。
+ */
+@Service
+@RequiredArgsConstructor
+public class ChatService {
+
+    // 读历史、标记已读前等待已发送消息落库的最长时间
+    private static final long FLUSH_WAIT_MILLIS = 1_000;
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatConversationRepository conversationRepository;
+    private final ChatIngestPipeline ingestPipeline;
+    private final TransactionTemplate transactionTemplate;
+
+    /** 一页历史消息（按时间升序）；nextBefore 为 null 表示没有更早的消息 */
+    public record HistoryPage(List<ChatMessageDTO> messages, String nextBefore) {}
+
+    // 分配 ID 和时间戳后立即返回，调用方可以马上推送
+    public ChatMessage send(ChatMessage message) {
+        return ingestPipeline.submit(message);
+    }
+
+    // 让刚发出、还在队列里的消息先落库，读到的历史和未读数才完整
+    public void awaitPersisted() {
+        ingestPipeline.awaitFlushed(FLUSH_WAIT_MILLIS);
+    }
+
+    /**
+     * 两个用户之间早于游标的一页历史消息。
+     * 游标记住上一页最早一条的 (发送时间, id)，按时间而不是 ID 翻页：集群模式下各节点按号段分配 ID，ID 大小和发送先后无关。
+     */
+    public HistoryPage history(Integer userId, Integer partnerId, String before, int size) {
+        String[] after = KeysetCursor.decode(before, 2);
+        long conversationId = ChatMessage.conversationIdOf(userId, partnerId);
+        awaitPersisted();
+        // 多取一条用来判断是否还有更早的消息
+        Limit limit = Limit.of(size + 1);
+        List<ChatMessageDTO> page;
+        if (after == null) {
+            page = chatMessageRepository.findLatest(conversationId, limit);
+        } else {
+            try {
+                page = chatMessageRepository.findPageBefore(conversationId, new Date(Long.parseLong(after[0])),
+                        Integer.valueOf(after[1]), limit);
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("无效的分页游标");
+            }
+        }
+
+        boolean hasMore = page.size() > size;
+        List<ChatMessageDTO> messages = new ArrayList<>(hasMore ? page.subList(0, size) : page);
+        Collections.reverse(messages);
+        String next = null;
+        if (hasMore) {
+            ChatMessageDTO oldest = messages.get(0);
+            next = KeysetCursor.encode(oldest.timestamp().getTime(), oldest.id());
+        }
+        return new HistoryPage(messages, next);
+    }
+
+    // 把 partner 发给 user 的消息全部标记为已读。
+    // 先在事务外等消息落库，再开一个短事务，等待期间不占数据库连接
+    public void markAsRead(Integer userId, Integer partnerId) {
+        awaitPersisted();
+        transactionTemplate.executeWithoutResult(status -> {
+            if (conversationRepository.resetUnread(userId, partnerId) == 0) return; // 还没有会话
+            chatMessageRepository.markMessagesAsRead(partnerId, userId);
+        });
+    }
+
+    public List<ConversationDTO> inbox(Integer userId) {
+        return conversationRepository.findInbox(userId);
+    }
+
+    public long unreadCount(Integer userId) {
+        return conversationRepository.sumUnread(userId);
+    }
+}
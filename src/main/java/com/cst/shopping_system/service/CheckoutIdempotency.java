@@ -0,0 +1,158 @@
+package com.cst.shopping_system.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 结算接口的幂等层：同一用户带同一个 Idempotency-Key 的请求只下一次单，重复请求拿到第一次的订单号（按卖家拆单时是一组）。
+ * 三层：
+ * 1) 进行中的请求按 (userId, key) 挂一个 CompletableFuture，并发的重复请求等它的结果，不去抢同一批库存行；
+ * 2) 成功结果放进有界的 Caffeine 缓存，ttl 内的重试直接返回；
+ * 3) idempotency_key 表：结算事务的第一条语句就插入 (user_id, idem_key)，和订单一起提交或一起回滚。
+ *    其他实例、或重启后的重试插入时主键冲突（并发时会等前一个事务提交），再按表里登记的订单号返回。
+ * 失败的结算整个事务已回滚，不记结果，用同一个 key 重试会重新执行。
+ */
+@Slf4j
+@Component
+public class CheckoutIdempotency {
+
+    static final int MAX_KEY_LENGTH = 64;
+    // 等待进行中的同一请求，超过这个时间让客户端稍后重试
+    private static final long WAIT_SECONDS = 30;
+
+    private static final String CLAIM_SQL = "INSERT INTO idempotency_key (user_id, idem_key, created_time) VALUES (?, ?, ?)";
+    private static final String COMPLETE_SQL = "UPDATE idempotency_key SET order_ids = ? WHERE user_id = ? AND idem_key = ?";
+    private static final String LOOKUP_SQL = "SELECT order_ids FROM idempotency_key "
+            + "WHERE user_id = ? AND idem_key = ? AND order_ids IS NOT NULL";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Duration ttl;
+    private final Cache<RequestKey, List<Long>> completed;
+    private final ConcurrentHashMap<RequestKey, CompletableFuture<List<Long>>> inFlight = new ConcurrentHashMap<>();
+
+    /** 幂等键按用户隔离，不同用户用了同一个 key 互不影响 */
+    record RequestKey(int userId, String key) {}
+
+    /** 结算结果；replayed 表示是重复请求，订单是之前那次创建的 */
+    public record Result(List<Long> orderIds, boolean replayed) {}
+
+    /** 同一个 key 的请求还在处理中，等待超时 */
+    public static class InProgressException extends RuntimeException {
+        public InProgressException() {
+            super("相同的下单请求正在处理中，请稍后刷新订单列表");
+        }
+    }
+
+    public CheckoutIdempotency(JdbcTemplate jdbcTemplate,
+                               @Value("${checkout.idempotency.ttl-hours:24}") long ttlHours) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.completed = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /** 校验客户端传来的 key；空白视为没传 */
+    public static String normalize(String key) {
+        if (key == null || key.isBlank()) return null;
+        key = key.trim();
+        if (key.length() > MAX_KEY_LENGTH) throw new RuntimeException("Idempotency-Key 不能超过 " + MAX_KEY_LENGTH + " 个字符");
+        return key;
+    }
+
+    /**
+     * 按幂等键执行一次结算。checkout 必须在自己的事务里先后调用 {@link #claim} 和 {@link #complete}。
+     */
+    public Result execute(Integer userId, String key, Supplier<List<Long>> checkout) {
+        RequestKey k = new RequestKey(userId, key);
+        List<Long> done = completed.getIfPresent(k);
+        if (done != null) return new Result(done, true);
+
+        CompletableFuture<List<Long>> mine = new CompletableFuture<>();
+        CompletableFuture<List<Long>> running = inFlight.putIfAbsent(k, mine);
+        if (running != null) return new Result(await(running), true);
+
+        try {
+            // 抢到执行权之前，前一个同 key 请求可能刚好完成并移出 inFlight
+            done = completed.getIfPresent(k);
+            boolean replayed = done != null;
+            if (done == null) {
+                try {
+                    done = checkout.get();
+                } catch (DuplicateKeyException e) {
+                    // 别的实例或重启前已经用这个 key 下过单
+                    done = lookup(k);
+                    if (done == null) throw new InProgressException();
+                    replayed = true;
+                }
+                completed.put(k, done);
+            }
+            mine.complete(done);
+            return new Result(done, replayed);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(k, mine);
+        }
+    }
+
+    private static List<Long> await(CompletableFuture<List<Long>> running) {
+        try {
+            return running.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new InProgressException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InProgressException();
+        } catch (ExecutionException e) {
+            // 和第一个请求得到同样的错误（库存不足、购物车为空等）
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private List<Long> lookup(RequestKey k) {
+        List<String> rows = jdbcTemplate.queryForList(LOOKUP_SQL, String.class, k.userId(), k.key());
+        if (rows.isEmpty()) return null;
+        return Arrays.stream(rows.get(0).split(",")).map(Long::valueOf).toList();
+    }
+
+    /** 在结算事务开头登记 key；重复时抛 DuplicateKeyException，事务还没碰库存就回滚 */
+    public void claim(Integer userId, String key) {
+        jdbcTemplate.update(CLAIM_SQL, userId, key, new Timestamp(System.currentTimeMillis()));
+    }
+
+    /** 在同一事务里记下生成的订单号，逗号分隔 */
+    public void complete(Integer userId, String key, List<Long> orderIds) {
+        String joined = orderIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+        jdbcTemplate.update(COMPLETE_SQL, joined, userId, key);
+    }
+
+    /** 清理过期的幂等记录 */
+    @Scheduled(cron = "0 45 * * * *")
+    public void prune() {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - ttl.toMillis());
+        int n = jdbcTemplate.update("DELETE FROM idempotency_key WHERE created_time < ?", before);
+        if (n > 0) log.info("清理 {} 条过期的幂等记录", n);
+    }
+}
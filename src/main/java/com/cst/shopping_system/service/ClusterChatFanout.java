@@ -0,0 +1,132 @@
+package com.cst.shopping_system.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 多实例部署的消息投递。
+ * 每个节点登记本机有哪些用户订阅了自己的私信队列（/user/{id}/queue/messages），
+ * 并替这些用户在外部消息代理上订阅 /topic/chat.user.{id}；发消息时只往代理发布一次，
+ * 收件人连在哪个节点，哪个节点就收到并交给本机的内存代理推送。
+ * 浏览器端的订阅方式不变。
+ * 代理断开期间消息已经入库，发布失败只记日志并退回本机推送，连在其他节点的收件人刷新历史即可看到。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.fanout", havingValue = "cluster")
+@RequiredArgsConstructor
+public class ClusterChatFanout implements ChatFanout {
+
+    static final String USER_TOPIC_PREFIX = "/topic/chat.user.";
+    private static final Pattern USER_QUEUE = Pattern.compile("^/user/(\\d+)/queue/messages$");
+
+    private final ChatBus bus;
+    private final SimpMessageSendingOperations messagingTemplate;
+    private final ObjectMapper objectMapper;
+
+    // 本节点的会话登记：sessionId -> (subscriptionId -> userId)
+    private final Map<String, Map<String, Integer>> sessions = new HashMap<>();
+    // 本节点在线的用户：userId -> 订阅数和代理上的退订句柄
+    private final Map<Integer, LocalUser> localUsers = new HashMap<>();
+
+    private static final class LocalUser {
+        int subscriptions;
+        Runnable unsubscribe;
+    }
+
+    @Override
+    public void deliver(Integer recipientId, Object payload) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("消息序列化失败", e);
+        }
+        try {
+            bus.publish(USER_TOPIC_PREFIX + recipientId, json);
+        } catch (RuntimeException e) {
+            // 不能把异常抛给发送方：消息已提交落库，客户端重试会产生重复消息
+            log.warn("发布到聊天消息代理失败，只推送给本节点的在线会话: {}", e.getMessage());
+            deliverLocally(recipientId, json);
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        if (destination == null) return;
+        Matcher m = USER_QUEUE.matcher(destination);
+        if (m.matches()) {
+            subscribed(accessor.getSessionId(), accessor.getSubscriptionId(), Integer.valueOf(m.group(1)));
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        unsubscribed(accessor.getSessionId(), accessor.getSubscriptionId());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        disconnected(event.getSessionId());
+    }
+
+    synchronized void subscribed(String sessionId, String subscriptionId, Integer userId) {
+        Integer previous = sessions.computeIfAbsent(sessionId, k -> new HashMap<>()).put(subscriptionId, userId);
+        if (previous != null) release(previous);
+        LocalUser user = localUsers.computeIfAbsent(userId, k -> new LocalUser());
+        if (user.subscriptions++ == 0) {
+            // 本节点第一个订阅这个用户的会话：去代理上订阅他的主题
+            user.unsubscribe = bus.subscribe(USER_TOPIC_PREFIX + userId, json -> deliverLocally(userId, json));
+        }
+    }
+
+    synchronized void unsubscribed(String sessionId, String subscriptionId) {
+        Map<String, Integer> subs = sessions.get(sessionId);
+        if (subs == null) return;
+        Integer userId = subs.remove(subscriptionId);
+        if (subs.isEmpty()) sessions.remove(sessionId);
+        if (userId != null) release(userId);
+    }
+
+    synchronized void disconnected(String sessionId) {
+        Map<String, Integer> subs = sessions.remove(sessionId);
+        if (subs == null) return;
+        subs.values().forEach(this::release);
+    }
+
+    synchronized int localUserCount() {
+        return localUsers.size();
+    }
+
+    private void release(Integer userId) {
+        LocalUser user = localUsers.get(userId);
+        if (user == null) return;
+        if (--user.subscriptions == 0) {
+            localUsers.remove(userId);
+            user.unsubscribe.run();
+        }
+    }
+
+    // 代理送来的是已经序列化好的 JSON，原样交给本机的内存代理
+    private void deliverLocally(Integer userId, String json) {
+        messagingTemplate.convertAndSendToUser(String.valueOf(userId), "/queue/messages", json);
+    }
+}
@@ -0,0 +1,235 @@
+package com.cst.shopping_system.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 卖家数据导出：用只进游标逐行读库（MySQL 驱动 fetchSize = Integer.MIN_VALUE 时按行流式返回），
+ * 读一行写一行到输出流，内存占用与导出行数无关。支持 CSV（带 BOM，Excel 直接打开不乱码）和 NDJSON，可选 gzip。
+ */
+@Service
+public class ExportService {
+
+    public enum Format { CSV, NDJSON }
+
+    enum Type { INT, DECIMAL, TEXT, TIME }
+
+    record Column(String name, Type type) {}
+
+    private static final String PRODUCTS_SQL = """
+            SELECT id, title, category, price, stock, sales, favorite_count, status, created_time
+            FROM product WHERE seller_id = ? ORDER BY id
+            """;
+    static final List<Column> PRODUCT_COLUMNS = List.of(
+            new Column("id", Type.INT), new Column("title", Type.TEXT), new Column("category", Type.TEXT),
+            new Column("price", Type.DECIMAL), new Column("stock", Type.INT), new Column("sales", Type.INT),
+            new Column("favoriteCount", Type.INT), new Column("status", Type.INT), new Column("createdTime", Type.TIME));
+
+    private static final String ORDER_LINES_SQL = """
+            SELECT o.id, o.order_time, o.status, oi.product_id, p.title, oi.quantity, oi.unit_price,
+                   oi.quantity * oi.unit_price, o.address
+            FROM product p
+            JOIN order_item oi ON oi.product_id = p.id
+            JOIN orders o ON o.id = oi.order_id
+            WHERE p.seller_id = ?
+            ORDER BY o.id, oi.id
+            """;
+    static final List<Column> ORDER_LINE_COLUMNS = List.of(
+            new Column("orderId", Type.INT), new Column("orderTime", Type.TIME), new Column("status", Type.TEXT),
+            new Column("productId", Type.INT), new Column("title", Type.TEXT), new Column("quantity", Type.INT),
+            new Column("unitPrice", Type.DECIMAL), new Column("subtotal", Type.DECIMAL), new Column("address", Type.TEXT));
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final JdbcTemplate cursor;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ExportService(DataSource dataSource, ObjectMapper objectMapper) {
+        this(streaming(dataSource), objectMapper);
+    }
+
+    ExportService(JdbcTemplate cursor, ObjectMapper objectMapper) {
+        this.cursor = cursor;
+        this.objectMapper = objectMapper;
+    }
+
+    private static JdbcTemplate streaming(DataSource dataSource) {
+        JdbcTemplate t = new JdbcTemplate(dataSource);
+        t.setFetchSize(Integer.MIN_VALUE);
+        return t;
+    }
+
+    /** 卖家的全部商品 */
+    public long exportProducts(Integer sellerId, Format format, boolean gzip, OutputStream out) throws IOException {
+        return export(PRODUCTS_SQL, PRODUCT_COLUMNS, format, gzip, out, sellerId);
+    }
+
+    /** 卖家售出的全部订单明细（一行一个明细，带订单头信息） */
+    public long exportOrderLines(Integer sellerId, Format format, boolean gzip, OutputStream out) throws IOException {
+        return export(ORDER_LINES_SQL, ORDER_LINE_COLUMNS, format, gzip, out, sellerId);
+    }
+
+    /** 返回写出的行数 */
+    long export(String sql, List<Column> columns, Format format, boolean gzip, OutputStream out, Object... args) throws IOException {
+        GZIPOutputStream zip = gzip ? new GZIPOutputStream(out, BUFFER_BYTES) : null;
+        OutputStream target = zip != null ? zip : out;
+        RowSink sink = format == Format.CSV ? new CsvSink(target, columns) : new NdjsonSink(target, columns, objectMapper);
+        long[] rows = {0};
+        try {
+            cursor.query(sql, rs -> {
+                try {
+                    sink.row(rs);
+                } catch (IOException e) {
+                    // 客户端断开等写出失败：抛出后 JdbcTemplate 关闭游标，停止读库
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            }, args);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        sink.finish();
+        if (zip != null) zip.finish();
+        out.flush();
+        return rows[0];
+    }
+
+    private interface RowSink {
+        void row(ResultSet rs) throws SQLException, IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static final class CsvSink implements RowSink {
+        private final Writer w;
+        private final List<Column> columns;
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        CsvSink(OutputStream out, List<Column> columns) throws IOException {
+            this.w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_BYTES);
+            this.columns = columns;
+            w.write('\uFEFF');
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) w.write(',');
+                w.write(columns.get(i).name());
+            }
+            w.write("\r\n");
+        }
+
+        @Override
+        public void row(ResultSet rs) throws SQLException, IOException {
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) w.write(',');
+                int col = i + 1;
+                switch (columns.get(i).type()) {
+                    case INT -> {
+                        long v = rs.getLong(col);
+                        if (!rs.wasNull()) w.write(Long.toString(v));
+                    }
+                    case DECIMAL -> {
+                        BigDecimal v = rs.getBigDecimal(col);
+                        if (v != null) w.write(v.toPlainString());
+                    }
+                    case TIME -> {
+                        Timestamp v = rs.getTimestamp(col);
+                        if (v != null) w.write(timeFormat.format(v));
+                    }
+                    case TEXT -> writeText(rs.getString(col));
+                }
+            }
+            w.write("\r\n");
+        }
+
+        // RFC 4180：含逗号、引号、换行的字段加双引号，内部引号写两遍
+        private void writeText(String s) throws IOException {
+            if (s == null) return;
+            boolean quote = false;
+            for (int i = 0; i < s.length() && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                w.write(s);
+                return;
+            }
+            w.write('"');
+            w.write(s.replace("\"", "\"\""));
+            w.write('"');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            w.flush();
+        }
+    }
+
+    private static final class NdjsonSink implements RowSink {
+        private final JsonGenerator g;
+        private final List<Column> columns;
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+        NdjsonSink(OutputStream out, List<Column> columns, ObjectMapper objectMapper) throws IOException {
+            this.g = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+            // 每个对象单独一行，不要对象之间默认的空格分隔
+            this.g.setRootValueSeparator(null);
+            this.columns = columns;
+        }
+
+        @Override
+        public void row(ResultSet rs) throws SQLException, IOException {
+            g.writeStartObject();
+            for (int i = 0; i < columns.size(); i++) {
+                Column c = columns.get(i);
+                int col = i + 1;
+                g.writeFieldName(c.name());
+                switch (c.type()) {
+                    case INT -> {
+                        long v = rs.getLong(col);
+                        if (rs.wasNull()) g.writeNull();
+                        else g.writeNumber(v);
+                    }
+                    case DECIMAL -> {
+                        BigDecimal v = rs.getBigDecimal(col);
+                        if (v == null) g.writeNull();
+                        else g.writeNumber(v);
+                    }
+                    case TIME -> {
+                        Timestamp v = rs.getTimestamp(col);
+                        if (v == null) g.writeNull();
+                        else g.writeString(timeFormat.format(v));
+                    }
+                    case TEXT -> g.writeString(rs.getString(col));
+                }
+            }
+            g.writeEndObject();
+            g.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            g.flush();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.cst.shopping_system.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 商品收藏数的写合并。
+ * 收藏/取消收藏提交后只在内存里给该商品的 LongAdder 加减 1（分段计数，热门商品并发收藏也不争同一个锁），
+ * 定时把攒下的增量用 favorite_count = favorite_count + ? 一批写回，一个商品一次刷新只写一行。
+ * 刷新失败时增量加回计数器，下次重试；进程崩溃丢掉的增量由定时对账按 favorite 表重新计数修正。
+ */
+@Slf4j
+@Component
+public class FavoriteCounters {
+
+    private static final String ADD_SQL = "UPDATE product SET favorite_count = GREATEST(favorite_count + ?, 0) WHERE id = ?";
+    // 只挑出和收藏记录数对不上的商品
+    private static final String DRIFT_SQL = "SELECT p.id, p.favorite_count, COUNT(f.id) FROM product p "
+            + "LEFT JOIN favorite f ON f.product_id = p.id GROUP BY p.id, p.favorite_count "
+            + "HAVING p.favorite_count <> COUNT(f.id)";
+    // 计数和写入在同一条语句里完成，不用先读后写
+    private static final String RECOUNT_SQL = "UPDATE product SET favorite_count = "
+            + "(SELECT COUNT(*) FROM favorite WHERE product_id = ?) WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate tx;
+    private final ProductCatalogCache catalogCache;
+
+    // 计数器只增不删：删除时可能有线程刚拿到旧的 LongAdder，加上去的数就丢了
+    private final Map<Integer, LongAdder> pending = new ConcurrentHashMap<>();
+    // 刷新和对账互斥；不影响 add
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    @Autowired
+    public FavoriteCounters(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager, ProductCatalogCache catalogCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(txManager);
+        this.catalogCache = catalogCache;
+    }
+
+    /** 收藏数变化；在当前事务提交后才计入，回滚的收藏不会被写回 */
+    public void add(Integer productId, int delta) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            counterOf(productId).add(delta);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                counterOf(productId).add(delta);
+            }
+        });
+    }
+
+    /** 还没写回数据库的增量 */
+    public long pendingDelta(Integer productId) {
+        LongAdder adder = pending.get(productId);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    private LongAdder counterOf(Integer productId) {
+        return pending.computeIfAbsent(productId, k -> new LongAdder());
+    }
+
+    /** 把攒下的增量写回数据库；返回写了多少个商品 */
+    @Scheduled(fixedDelay = 1_000)
+    public int flush() {
+        flushLock.lock();
+        try {
+            return flushLocked();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private int flushLocked() {
+        List<Object[]> rows = new ArrayList<>();
+        for (Map.Entry<Integer, LongAdder> e : pending.entrySet()) {
+            // sumThenReset 和并发的 add 之间不会丢数：没被这次取走的部分留在计数器里
+            long delta = e.getValue().sumThenReset();
+            if (delta != 0) rows.add(new Object[]{delta, e.getKey()});
+        }
+        if (rows.isEmpty()) return 0;
+
+        // 按商品ID顺序更新，多个实例同时刷新时加锁顺序一致
+        rows.sort(Comparator.comparing(r -> (Integer) r[1]));
+        try {
+            tx.executeWithoutResult(status -> jdbcTemplate.batchUpdate(ADD_SQL, rows));
+        } catch (RuntimeException e) {
+            log.warn("收藏数写库失败，{} 个商品的增量留到下次: {}", rows.size(), e.getMessage());
+            for (Object[] r : rows) counterOf((Integer) r[1]).add((Long) r[0]);
+            return 0;
+        }
+        catalogCache.onCountersChanged(rows.stream().map(r -> (Integer) r[1]).toList());
+        return rows.size();
+    }
+
+    /**
+     * 对账：先把内存里的增量刷掉，再把 favorite_count 和收藏记录数不一致的商品按记录数重算。
+     * 对账期间仍有增量未写回的商品跳过，留给下一轮，避免把同一次收藏算两遍。
+     * 返回修正了多少个商品。
+     */
+    @Scheduled(fixedDelay = 3_600_000, initialDelay = 600_000)
+    public int reconcile() {
+        flushLock.lock();
+        try {
+            flushLocked();
+            List<Object[]> fixes = new ArrayList<>();
+            jdbcTemplate.query(DRIFT_SQL, rs -> {
+                int productId = rs.getInt(1);
+                if (pendingDelta(productId) != 0) return;
+                log.info("商品 {} 收藏数 {} 与记录数 {} 不一致，重新计数", productId, rs.getLong(2), rs.getLong(3));
+                fixes.add(new Object[]{productId, productId});
+            });
+            if (fixes.isEmpty()) return 0;
+            tx.executeWithoutResult(status -> jdbcTemplate.batchUpdate(RECOUNT_SQL, fixes));
+            catalogCache.onCountersChanged(fixes.stream().map(r -> (Integer) r[0]).toList());
+            return fixes.size();
+        } catch (RuntimeException e) {
+            log.warn("收藏数对账失败: {}", e.getMessage());
+            return 0;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
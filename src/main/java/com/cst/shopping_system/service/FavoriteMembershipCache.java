@@ -0,0 +1,108 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.repository.FavoriteRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 用户收藏集合缓存：每个用户一份排好序的商品ID数组（int[]），
+ * 列表页一次取出整份集合，逐行二分判断是否已收藏，不再每个商品查一次库。
+ * 收藏/取消收藏在事务提交后对已缓存的集合做增量更新（写时复制，读者无需加锁）。
+ */
+@Component
+@RequiredArgsConstructor
+public class FavoriteMembershipCache {
+
+    private static final int MAX_USERS = 10_000;
+    private static final int STAMP_STRIPES = 4096;
+    private static final int[] EMPTY = new int[0];
+
+    private final FavoriteRepository favoriteRepository;
+
+    // 按访问顺序淘汰的 LRU，最多缓存 MAX_USERS 个用户
+    private final Map<Integer, int[]> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                    return size() > MAX_USERS;
+                }
+            });
+
+    // 按用户分段的变更计数：收藏变更递增所在分段，加载期间该分段有变更则本次结果不放进缓存，避免覆盖掉更新。
+    // 一个用户的变更只会影响同一分段里的少数用户，不会让所有用户都缓存不上
+    private final AtomicLongArray modifications = new AtomicLongArray(STAMP_STRIPES);
+
+    /** 某个用户收藏的全部商品ID（升序），未命中缓存时查一次库 */
+    public int[] favoritesOf(Integer userId) {
+        int[] ids = cache.get(userId);
+        if (ids != null) return ids;
+
+        int stripe = stripe(userId);
+        long stamp = modifications.get(stripe);
+        List<Integer> loaded = favoriteRepository.findProductIdsByUserId(userId);
+        ids = loaded.isEmpty() ? EMPTY : loaded.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        if (modifications.get(stripe) == stamp) {
+            cache.put(userId, ids);
+        }
+        return ids;
+    }
+
+    public static boolean contains(int[] favorites, Integer productId) {
+        return favorites != null && productId != null && Arrays.binarySearch(favorites, productId) >= 0;
+    }
+
+    public boolean isFavorited(Integer userId, Integer productId) {
+        return contains(favoritesOf(userId), productId);
+    }
+
+    /** 收藏状态变化：在当前事务提交后更新缓存，事务外调用则立即生效 */
+    public void onToggle(Integer userId, Integer productId, boolean favorited) {
+        int stripe = stripe(userId);
+        modifications.incrementAndGet(stripe);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(userId, productId, favorited);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                modifications.incrementAndGet(stripe);
+                apply(userId, productId, favorited);
+            }
+        });
+    }
+
+    private static int stripe(Integer userId) {
+        return Math.floorMod(userId, STAMP_STRIPES);
+    }
+
+    private void apply(Integer userId, Integer productId, boolean favorited) {
+        cache.computeIfPresent(userId, (k, ids) -> {
+            int pos = Arrays.binarySearch(ids, productId);
+            if (favorited && pos < 0) {
+                int at = -pos - 1;
+                int[] copy = new int[ids.length + 1];
+                System.arraycopy(ids, 0, copy, 0, at);
+                copy[at] = productId;
+                System.arraycopy(ids, at, copy, at + 1, ids.length - at);
+                return copy;
+            }
+            if (!favorited && pos >= 0) {
+                int[] copy = new int[ids.length - 1];
+                System.arraycopy(ids, 0, copy, 0, pos);
+                System.arraycopy(ids, pos + 1, copy, pos, ids.length - pos - 1);
+                return copy;
+            }
+            return ids;
+        });
+    }
+}
@@ -1,8 +1,7 @@
 package com.cst.shopping_system.service;
 
+import com.cst.shopping_system.dto.ProductCardDTO;
 import com.cst.shopping_system.entity.Favorite;
-import com.cst.shopping_system.entity.Product;
-import com.cst.shopping_system.entity.User;
 import com.cst.shopping_system.repository.FavoriteRepository;
 import com.cst.shopping_system.repository.ProductRepository;
 import com.cst.shopping_system.repository.UserRepository;
@@ -11,8 +10,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Service
 public class FavoriteService {
@@ -26,46 +23,37 @@ public class FavoriteService {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private FavoriteMembershipCache favoriteMembershipCache;
+
+    @Autowired
+    private FavoriteCounters favoriteCounters;
+
+    /**
+     * 收藏/取消收藏：已收藏就删掉那一行，否则插入一行（user_id, product_id 唯一）。
+     * 商品的收藏数不在这里读改写，只记一个 ±1 增量，由 FavoriteCounters 合并后批量写回。
+     */
     @Transactional
     public boolean toggleFavorite(Integer userId, Integer productId) {
-        User user = userRepository.findById(userId).orElseThrow(() -> new RuntimeException("用户不存在"));
-        Product product = productRepository.findById(productId).orElseThrow(() -> new RuntimeException("商品不存在"));
-
-        Optional<Favorite> existingFavorite = favoriteRepository.findByUserAndProduct(user, product);
         boolean isNowFavorited;
-
-        if (existingFavorite.isPresent()) {
+        if (favoriteRepository.deleteByUserIdAndProductId(userId, productId) > 0) {
             // 1. 取消收藏
-            favoriteRepository.delete(existingFavorite.get());
-            // 减少计数 (防止减成负数)
-            int current = product.getFavoriteCount() == null ? 0 : product.getFavoriteCount();
-            product.setFavoriteCount(Math.max(0, current - 1));
             isNowFavorited = false;
         } else {
-            // 2. 添加收藏
-            favoriteRepository.save(new Favorite(user, product));
-            // 增加计数
-            int current = product.getFavoriteCount() == null ? 0 : product.getFavoriteCount();
-            product.setFavoriteCount(current + 1);
+            // 2. 添加收藏：用户和商品只用来填外键，不必整行查出来
+            if (!productRepository.existsById(productId)) throw new RuntimeException("商品不存在");
+            favoriteRepository.save(new Favorite(userRepository.getReferenceById(userId),
+                    productRepository.getReferenceById(productId)));
             isNowFavorited = true;
         }
 
-        // 3. ★关键步骤★：保存商品最新的收藏数量到数据库
-        productRepository.save(product);
-
+        favoriteCounters.add(productId, isNowFavorited ? 1 : -1);
+        favoriteMembershipCache.onToggle(userId, productId, isNowFavorited);
         return isNowFavorited;
     }
 
-    // 新增：获取一个用户收藏的所有商品
-    public List<Product> findFavoritesByUser(Integer userId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("用户不存在"));
-
-        List<Favorite> favorites = favoriteRepository.findByUser(user);
-
-        // 从收藏列表中提取出所有的商品并返回
-        return favorites.stream()
-                .map(Favorite::getProduct)
-                .collect(Collectors.toList());
+    // 新增：获取一个用户收藏的所有商品（卡片投影，一条 SQL）
+    public List<ProductCardDTO> findFavoritesByUser(Integer userId) {
+        return favoriteRepository.findFavoriteCardsByUserId(userId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.cst.shopping_system.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 号段 ID 分配器：每次从 id_generator 表原子地领一段 ID，在内存里逐个发放。
+ * 用于不经过 Hibernate、自己批量写库的场景（写入前就要知道 ID）。
+ * 号段语义：gen_value 是已经发出去的最大 ID，领一段就把它加 blockSize。
+ * 进程重启时没用完的号段直接丢弃，ID 会有空洞但不会重复。
+ * 领号段要走一次数据库，所以用 ReentrantLock 而不是 synchronized，虚拟线程等锁时不会钉住载体线程。
+ */
+@Component
+@RequiredArgsConstructor
+public class IdBlockAllocator {
+
+    private static final String CLAIM_SQL =
+            "UPDATE id_generator SET gen_value = LAST_INSERT_ID(gen_value + ?) WHERE gen_name = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<String, long[]> blocks = new HashMap<>(); // name -> {下一个可用ID, 号段上界}
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** 取下一个 ID，号段用完时领新的一段 */
+    public long next(String name, int blockSize) {
+        lock.lock();
+        try {
+            long[] block = blocks.get(name);
+            if (block == null || block[0] > block[1]) {
+                long hi = claim(name, blockSize);
+                block = new long[]{hi - blockSize + 1, hi};
+                blocks.put(name, block);
+            }
+            return block[0]++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // LAST_INSERT_ID(expr) 是连接级的，UPDATE 和读取必须在同一个连接上
+    private long claim(String name, int blockSize) {
+        Long hi = jdbcTemplate.execute((Connection con) -> {
+            try (PreparedStatement ps = con.prepareStatement(CLAIM_SQL)) {
+                ps.setInt(1, blockSize);
+                ps.setString(2, name);
+                if (ps.executeUpdate() != 1) {
+                    throw new IllegalStateException("id_generator 中缺少号段: " + name);
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement("SELECT LAST_INSERT_ID()");
+                 ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+        if (hi == null) throw new IllegalStateException("领取号段失败: " + name);
+        return hi;
+    }
+}
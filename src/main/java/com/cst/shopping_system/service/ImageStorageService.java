@@ -0,0 +1,235 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.util.ImagePaths;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片上传存储。
+ * 上传流边读边算 SHA-256、一次写盘，文件按内容哈希命名，相同图片只存一份；
+ * 缩略图交给有界线程池异步生成，队列满时直接跳过（访问缩略图会回退到原图）。
+ */
+@Slf4j
+@Service
+public class ImageStorageService {
+
+    private static final int THUMB_MAX_EDGE = 400;
+    private static final float THUMB_QUALITY = 0.8f;
+    // 超过这个像素数的图片不做缩略图，避免解码时占满堆内存
+    private static final long MAX_DECODE_PIXELS = 40_000_000L;
+
+    private final Path uploadDir;
+    private final Path thumbDir;
+
+    private final ThreadPoolExecutor thumbnailPool;
+
+    public ImageStorageService() {
+        this(Paths.get(ImagePaths.UPLOAD_DIR), Paths.get(ImagePaths.THUMB_DIR));
+    }
+
+    // 测试用：指定原图和缩略图目录
+    ImageStorageService(Path uploadDir, Path thumbDir) {
+        this.uploadDir = uploadDir;
+        this.thumbDir = thumbDir;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        AtomicInteger seq = new AtomicInteger();
+        this.thumbnailPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(256),
+                r -> {
+                    Thread t = new Thread(r, "thumbnail-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        try {
+            Files.createDirectories(thumbDir);
+        } catch (IOException e) {
+            throw new RuntimeException("无法创建上传目录: " + uploadDir, e);
+        }
+    }
+
+    /** 保存一张上传的图片，返回原图 URL */
+    public String store(MultipartFile file) {
+        try {
+            return store(file.getInputStream(), file.getOriginalFilename());
+        } catch (IOException e) {
+            throw new RuntimeException("文件上传失败: " + file.getOriginalFilename(), e);
+        }
+    }
+
+    /** 保存一张图片（例如批量导入时压缩包里的条目），读完后关闭流，返回原图 URL */
+    public String store(InputStream source, String originalName) {
+        String ext = extensionOf(originalName);
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(uploadDir, "upload-", ".part");
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(source, sha256)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String fileName = HexFormat.of().formatHex(sha256.digest()) + ext;
+            Path target = uploadDir.resolve(fileName);
+            if (Files.exists(target)) {
+                // 同样的内容已经存过了
+                Files.deleteIfExists(tmp);
+            } else {
+                moveInto(tmp, target);
+            }
+            tmp = null;
+            scheduleThumbnail(fileName);
+            return ImagePaths.URL_PREFIX + fileName;
+        } catch (IOException e) {
+            throw new RuntimeException("文件上传失败: " + originalName, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // 临时文件删不掉不影响结果
+                }
+            }
+        }
+    }
+
+    private void scheduleThumbnail(String fileName) {
+        if (Files.exists(thumbDir.resolve(fileName + ImagePaths.THUMB_SUFFIX))) return;
+        try {
+            thumbnailPool.execute(() -> generateThumbnail(fileName));
+        } catch (RejectedExecutionException e) {
+            log.warn("缩略图队列已满，跳过 {}", fileName);
+        }
+    }
+
+    void generateThumbnail(String fileName) {
+        Path source = uploadDir.resolve(fileName);
+        Path target = thumbDir.resolve(fileName + ImagePaths.THUMB_SUFFIX);
+        try {
+            BufferedImage src = decode(source);
+            if (src == null) return; // 不是可识别的图片格式
+
+            double scale = Math.min(1.0, (double) THUMB_MAX_EDGE / Math.max(src.getWidth(), src.getHeight()));
+            int w = Math.max(1, (int) Math.round(src.getWidth() * scale));
+            int h = Math.max(1, (int) Math.round(src.getHeight() * scale));
+
+            // JPEG 没有透明通道，先铺白底
+            BufferedImage thumb = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = thumb.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, w, h);
+                g.drawImage(src, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+
+            Path tmp = Files.createTempFile(thumbDir, "thumb-", ".part");
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    writeJpeg(thumb, out);
+                }
+                moveInto(tmp, target);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("生成缩略图失败: {}", fileName, e);
+        }
+    }
+
+    private static BufferedImage decode(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_DECODE_PIXELS) return null;
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static void writeJpeg(BufferedImage image, OutputStream out) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(THUMB_QUALITY);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // 先写临时文件再原子改名，读者永远看不到写了一半的文件
+    private static void moveInto(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(tmp, target);
+            } catch (FileAlreadyExistsException ignored) {
+                // 并发上传了同一张图
+            }
+        }
+    }
+
+    // 只保留常见的图片扩展名，防止把用户给的文件名带进路径
+    private static String extensionOf(String originalName) {
+        if (originalName == null) return "";
+        int dot = originalName.lastIndexOf('.');
+        if (dot < 0) return "";
+        String ext = originalName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return switch (ext) {
+            case "jpg", "jpeg", "png", "gif", "bmp", "webp" -> "." + ext;
+            default -> "";
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        thumbnailPool.shutdown();
+    }
+}
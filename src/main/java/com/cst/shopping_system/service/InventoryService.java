@@ -0,0 +1,228 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 库存预占与扣减。
+ * 数据库里的条件更新（stock >= ?）是唯一的真实来源，保证不会超卖；
+ * 闪购商品额外有一道内存闸门，抢不到的请求直接失败，不再去争抢数据库行锁。
+ */
+@Service
+@RequiredArgsConstructor
+public class InventoryService {
+
+    private static final int FLASH_SALE_STRIPES = 8;
+
+    // 预占记录的存活时间，超时仍未确认/释放的预占会被定时任务收回
+    static final long RESERVATION_TTL_MILLIS = 2 * 60 * 1000L;
+
+    // 只扣库存；销量由 SalesCounters 在订单提交后异步累加
+    private static final String DEDUCT_SQL =
+            "UPDATE product SET stock = stock - ? WHERE id = ? AND stock >= ?";
+    private static final String RESTORE_SQL = "UPDATE product SET stock = stock + ? WHERE id = ?";
+    private static final String STOCK_SQL = "SELECT stock FROM product WHERE id = ?";
+
+    private final ProductRepository productRepo;
+    private final JdbcTemplate jdbcTemplate;
+
+    // 闪购商品的内存库存闸门：productId -> 分段库存
+    private final ConcurrentHashMap<Integer, StripedStock> flashSales = new ConcurrentHashMap<>();
+
+    // 预占账本：reservationId -> 预占记录
+    private final ConcurrentHashMap<Long, Reservation> reservations = new ConcurrentHashMap<>();
+    private final AtomicLong reservationSeq = new AtomicLong();
+
+    public record Reservation(long id, Integer productId, int quantity, long expireAt) {
+        /** 已绑定到事务的预占不再过期，由事务结束回调确认或退回 */
+        Reservation bound() {
+            return new Reservation(id, productId, quantity, Long.MAX_VALUE);
+        }
+    }
+
+    /** 一条待扣减的库存明细 */
+    public record Line(Product product, int quantity) {}
+
+    /** 开启闪购：把商品当前的数据库库存装载进内存闸门 */
+    public void openFlashSale(Integer productId) {
+        Product p = productRepo.findById(productId)
+                .orElseThrow(() -> new RuntimeException("商品不存在, ID: " + productId));
+        flashSales.put(productId, newGate(productId, p.getStock()));
+    }
+
+    /**
+     * 卖家改了库存后重新装载闸门（需在改库存的事务提交后调用），非闪购商品什么也不做。
+     * 还没提交的预占已经从旧闸门里拿走、但数据库还没扣，装载时要先减掉，否则会多放出这部分数量。
+     */
+    public void reloadFlashSale(Integer productId) {
+        if (!flashSales.containsKey(productId)) return;
+        Integer stock = jdbcTemplate.queryForObject(STOCK_SQL, Integer.class, productId);
+        if (stock == null) return;
+        flashSales.computeIfPresent(productId, (id, old) -> newGate(id, stock));
+    }
+
+    // 闸门容量 = 数据库库存 - 尚未落库的预占；并发下只会偏少，不会超卖
+    private StripedStock newGate(Integer productId, int stock) {
+        int pending = 0;
+        for (Reservation r : reservations.values()) {
+            if (r.productId().equals(productId)) pending += r.quantity();
+        }
+        return new StripedStock(Math.max(stock - pending, 0), FLASH_SALE_STRIPES);
+    }
+
+    /** 关闭闪购，之后该商品只走数据库条件扣减 */
+    public void closeFlashSale(Integer productId) {
+        flashSales.remove(productId);
+    }
+
+    public boolean isFlashSale(Integer productId) {
+        return flashSales.containsKey(productId);
+    }
+
+    /** 闪购闸门里的剩余数量，非闪购商品返回 -1 */
+    public int flashSaleAvailable(Integer productId) {
+        StripedStock gate = flashSales.get(productId);
+        return gate == null ? -1 : gate.available();
+    }
+
+    /** 扣减单个商品的库存，见 {@link #deductAll(List)} */
+    public void deduct(Product product, int qty) {
+        deductAll(List.of(new Line(product, qty)));
+    }
+
+    /**
+     * 批量扣减库存，需要在下单事务内调用。
+     * 所有明细合成一个 JDBC 批次发出，任意一行库存不足都会抛异常让整个事务回滚；
+     * 事务提交后预占转为确认，回滚时内存闸门里的数量会自动退回。
+     * 预占一拿到就绑定事务，事务再慢也不会被 {@link #releaseExpired()} 提前收回。
+     */
+    public void deductAll(List<Line> lines) {
+        // 按商品 ID 排序加锁，避免两个多商品订单互相等待造成死锁
+        List<Line> sorted = new ArrayList<>(lines);
+        sorted.sort(Comparator.comparing(l -> l.product().getId()));
+
+        boolean inTransaction = TransactionSynchronizationManager.isSynchronizationActive();
+        List<Reservation> reserved = new ArrayList<>();
+        try {
+            for (Line l : sorted) {
+                Reservation r = reserve(l.product().getId(), l.quantity());
+                if (r == null) continue;
+                reserved.add(r);
+                if (inTransaction) bindToTransaction(r);
+            }
+        } catch (RuntimeException e) {
+            reserved.forEach(this::release);
+            throw e;
+        }
+
+        List<Object[]> args = new ArrayList<>(sorted.size());
+        for (Line l : sorted) {
+            args.add(new Object[]{l.quantity(), l.product().getId(), l.quantity()});
+        }
+        int[] counts = jdbcTemplate.batchUpdate(DEDUCT_SQL, args);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                reserved.forEach(this::release);
+                Product p = sorted.get(i).product();
+                Integer left = jdbcTemplate.queryForObject(STOCK_SQL, Integer.class, p.getId());
+                throw new RuntimeException("商品 [" + p.getTitle() + "] 库存不足，当前仅剩 " + (left == null ? 0 : left) + " 件");
+            }
+        }
+        // 没有事务时扣减已经生效，直接确认
+        if (!inTransaction) reserved.forEach(this::confirm);
+    }
+
+    /**
+     * 退回库存（取消订单），需要在取消订单的事务内调用：一个 JDBC 批次，和订单状态一起提交。
+     * 闪购商品在事务提交后把数量放回内存闸门。
+     */
+    public void restoreAll(Map<Integer, Integer> quantities) {
+        if (quantities.isEmpty()) return;
+        // 和扣减一样按商品 ID 顺序加锁
+        Map<Integer, Integer> sorted = new TreeMap<>(quantities);
+        List<Object[]> args = new ArrayList<>(sorted.size());
+        sorted.forEach((productId, qty) -> args.add(new Object[]{qty, productId}));
+        jdbcTemplate.batchUpdate(RESTORE_SQL, args);
+
+        Runnable refill = () -> sorted.forEach((productId, qty) -> {
+            StripedStock gate = flashSales.get(productId);
+            if (gate != null) gate.release(qty);
+        });
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refill.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                refill.run();
+            }
+        });
+    }
+
+    /** 在内存闸门上预占库存；非闪购商品不需要预占，返回 null */
+    public Reservation reserve(Integer productId, int qty) {
+        StripedStock gate = flashSales.get(productId);
+        if (gate == null) return null;
+        if (!gate.tryAcquire(qty)) {
+            throw new RuntimeException("商品已抢光");
+        }
+        Reservation r = new Reservation(reservationSeq.incrementAndGet(), productId, qty,
+                System.currentTimeMillis() + RESERVATION_TTL_MILLIS);
+        reservations.put(r.id(), r);
+        return r;
+    }
+
+    /** 确认预占：数量已经真正从数据库扣掉，只需从账本移除 */
+    public void confirm(Reservation r) {
+        reservations.remove(r.id());
+    }
+
+    /** 释放预占：把数量退回闸门（同一预占只会退回一次） */
+    public void release(Reservation r) {
+        if (reservations.remove(r.id()) == null) return;
+        StripedStock gate = flashSales.get(r.productId());
+        if (gate != null) gate.release(r.quantity());
+    }
+
+    /** 收回超时未处理、也没有绑定事务的预占（例如调用方拿到预占后异常退出） */
+    @Scheduled(fixedDelay = 30_000)
+    public void releaseExpired() {
+        releaseExpired(System.currentTimeMillis());
+    }
+
+    void releaseExpired(long now) {
+        for (Reservation r : reservations.values()) {
+            if (r.expireAt() < now) release(r);
+        }
+    }
+
+    int pendingReservations() {
+        return reservations.size();
+    }
+
+    private void bindToTransaction(Reservation r) {
+        reservations.replace(r.id(), r, r.bound());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) confirm(r);
+                else release(r);
+            }
+        });
+    }
+}
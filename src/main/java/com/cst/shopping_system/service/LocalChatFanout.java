@@ -0,0 +1,21 @@
+package com.cst.shopping_system.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.stereotype.Component;
+
+/** 单实例：直接交给本进程的内存消息代理 */
+@Component
+@ConditionalOnProperty(name = "chat.fanout", havingValue = "local", matchIfMissing = true)
+@RequiredArgsConstructor
+public class LocalChatFanout implements ChatFanout {
+
+    private final SimpMessageSendingOperations messagingTemplate;
+
+    @Override
+    public void deliver(Integer recipientId, Object payload) {
+        // 格式: /user/{userId}/queue/messages
+        messagingTemplate.convertAndSendToUser(String.valueOf(recipientId), "/queue/messages", payload);
+    }
+}
@@ -0,0 +1,28 @@
+package com.cst.shopping_system.service;
+
+/**
+ * 订单事件的进程内消费者，由 {@link OrderOutbox} 在订单事务提交后异步投递。
+ * 投递至少一次：消费者抛异常或进程在登记投递结果前崩溃时，同一事件会再投一次，实现要能容忍重复。
+ * 同一订单的事件按写入顺序投递；不同订单之间并行。
+ */
+public interface OrderEventConsumer {
+
+    /** 日志和失败统计里用的名字 */
+    default String consumerName() {
+        return getClass().getSimpleName();
+    }
+
+    void onOrderCreated(OrderOutbox.OrderCreated event);
+
+    /**
+     * 启动时从数据库装载的状态是否已经包含了这条发件箱事件（装载时它已提交但还没投递）；
+     * 返回 true 时发件箱不再把它投给这个消费者。只在内存里维护状态的消费者需要实现。
+     */
+    default boolean alreadyIncludes(long eventId) {
+        return false;
+    }
+
+    /** 订单状态变化；不关心的消费者不用实现 */
+    default void onOrderStatusChanged(OrderOutbox.OrderStatusChanged event) {
+    }
+}
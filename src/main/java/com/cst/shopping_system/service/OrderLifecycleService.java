@@ -0,0 +1,249 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Order;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单状态机：CREATED → PAID → SHIPPED → COMPLETED，CREATED / PAID 可取消（CANCELLED）。
+ * 状态变更不经过 JPA 逐个加载实体，而是按 1000 个订单一个事务：
+ * 先一条 SELECT 读出当前状态和 version，校验流转和权限，再用一个 JDBC 批次
+ * UPDATE ... WHERE id = ? AND version = ? 写回；影响 0 行的说明订单刚被别人改过，记为冲突，由调用方决定是否重试。
+ * 取消时同一事务里批量退回库存；每个变更的订单往发件箱登记一条 OrderStatusChanged 事件。
+ * 定时任务把超时未支付的订单分小批取消，每批一个短事务，不长时间锁表。
+ */
+@Slf4j
+@Service
+public class OrderLifecycleService {
+
+    public static final int MAX_BULK = 10_000;
+    static final int CHUNK_SIZE = 1000;
+    static final int SWEEP_BATCH = 200;
+    // 一次清扫最多处理的批数，剩下的留给下一轮
+    private static final int MAX_SWEEP_ROUNDS = 50;
+
+    // 允许的状态流转
+    private static final Map<String, Set<String>> NEXT = Map.of(
+            Order.CREATED, Set.of(Order.PAID, Order.CANCELLED),
+            Order.PAID, Set.of(Order.SHIPPED, Order.CANCELLED),
+            Order.SHIPPED, Set.of(Order.COMPLETED));
+    private static final Set<String> ALL = Set.of(Order.CREATED, Order.PAID, Order.SHIPPED, Order.COMPLETED, Order.CANCELLED);
+
+    private static final String UPDATE_SQL = "UPDATE orders SET status = ?, version = version + 1 WHERE id = ? AND version = ?";
+    private static final String UNPAID_SQL = "SELECT id FROM orders WHERE status = 'CREATED' AND order_time < ? "
+            + "ORDER BY order_time, id LIMIT ?";
+
+    public enum Role { BUYER, SELLER, ADMIN, SYSTEM }
+
+    /**
+     * 操作人：买家只能改自己的订单，卖家只能改全部明细都是自己商品的订单。
+     * 结算按卖家拆单，新订单都只有一个卖家；拆单之前留下的混合订单由管理员处理。
+     */
+    public record Actor(Integer userId, Role role) {
+        public static final Actor ADMIN = new Actor(null, Role.ADMIN);
+        public static final Actor SYSTEM = new Actor(null, Role.SYSTEM);
+
+        public static Actor buyer(Integer userId) {
+            return new Actor(userId, Role.BUYER);
+        }
+
+        public static Actor seller(Integer userId) {
+            return new Actor(userId, Role.SELLER);
+        }
+    }
+
+    /** 批量变更的结果：updated 已变更，conflicts 因并发修改未变更（可重试），rejected 为不允许的订单及原因 */
+    public record TransitionResult(List<Long> updated, List<Long> conflicts, Map<Long, String> rejected) {}
+
+    record OrderRow(long id, String status, long version, int userId, long orderTime) {}
+
+    record ItemRow(long orderId, int productId, int quantity) {}
+
+    private static final RowMapper<OrderRow> ORDER_MAPPER = (rs, i) ->
+            new OrderRow(rs.getLong(1), rs.getString(2), rs.getLong(3), rs.getInt(4), rs.getTimestamp(5).getTime());
+    private static final RowMapper<ItemRow> ITEM_MAPPER = (rs, i) ->
+            new ItemRow(rs.getLong(1), rs.getInt(2), rs.getInt(3));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate tx;
+    private final InventoryService inventoryService;
+    private final ProductCatalogCache catalogCache;
+    private final OrderOutbox outbox;
+    private final long unpaidTimeoutMinutes;
+
+    public OrderLifecycleService(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager,
+                                 InventoryService inventoryService, ProductCatalogCache catalogCache, OrderOutbox outbox,
+                                 @Value("${order.unpaid-timeout-minutes:30}") long unpaidTimeoutMinutes) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(txManager);
+        this.inventoryService = inventoryService;
+        this.catalogCache = catalogCache;
+        this.outbox = outbox;
+        this.unpaidTimeoutMinutes = unpaidTimeoutMinutes;
+    }
+
+    /** 把一批订单变更为 target 状态；订单按 ID 排序后分批，每批一个事务 */
+    public TransitionResult transition(Collection<Long> orderIds, String target, Actor actor) {
+        if (!ALL.contains(target)) throw new RuntimeException("未知的订单状态: " + target);
+        // 按 ID 顺序加锁，并发的批量操作之间不会互相死锁
+        List<Long> ids = orderIds.stream().filter(Objects::nonNull).distinct().sorted().toList();
+        if (ids.size() > MAX_BULK) throw new RuntimeException("一次最多变更 " + MAX_BULK + " 个订单");
+
+        List<Long> updated = new ArrayList<>();
+        List<Long> conflicts = new ArrayList<>();
+        Map<Long, String> rejected = new LinkedHashMap<>();
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()));
+            try {
+                TransitionResult r = tx.execute(status -> transitionChunk(chunk, target, actor));
+                updated.addAll(r.updated());
+                conflicts.addAll(r.conflicts());
+                rejected.putAll(r.rejected());
+            } catch (RuntimeException e) {
+                // 整批已回滚，这一批都没有变更
+                log.warn("订单状态批量变更失败（{} 个订单）: {}", chunk.size(), e.getMessage());
+                for (Long id : chunk) rejected.put(id, "处理失败: " + e.getMessage());
+            }
+        }
+        return new TransitionResult(updated, conflicts, rejected);
+    }
+
+    private TransitionResult transitionChunk(List<Long> ids, String target, Actor actor) {
+        String in = placeholders(ids.size());
+        Object[] idArgs = ids.toArray();
+        Map<Long, OrderRow> rows = new HashMap<>();
+        for (OrderRow r : jdbcTemplate.query("SELECT id, status, version, user_id, order_time FROM orders WHERE id IN (" + in + ")",
+                ORDER_MAPPER, idArgs)) {
+            rows.put(r.id(), r);
+        }
+        Set<Long> foreign = actor.role() == Role.SELLER ? foreignOrders(in, idArgs, actor.userId()) : Set.of();
+
+        List<OrderRow> candidates = new ArrayList<>();
+        Map<Long, String> rejected = new LinkedHashMap<>();
+        for (Long id : ids) {
+            OrderRow row = rows.get(id);
+            String reason = row == null ? "订单不存在" : check(row, target, actor, foreign);
+            if (reason == null) candidates.add(row);
+            else rejected.put(id, reason);
+        }
+        if (candidates.isEmpty()) return new TransitionResult(List.of(), List.of(), rejected);
+
+        List<Object[]> args = new ArrayList<>(candidates.size());
+        for (OrderRow r : candidates) args.add(new Object[]{target, r.id(), r.version()});
+        int[] counts = jdbcTemplate.batchUpdate(UPDATE_SQL, args);
+        List<Long> updated = new ArrayList<>();
+        List<Long> conflicts = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            // 0 行：读出 version 之后订单被别的请求改过
+            if (counts[i] == 0) conflicts.add(candidates.get(i).id());
+            else updated.add(candidates.get(i).id());
+        }
+
+        Map<Long, List<OrderOutbox.Quantity>> items = Order.CANCELLED.equals(target) ? restoreStock(updated) : Map.of();
+        long now = System.currentTimeMillis();
+        List<OrderOutbox.OrderStatusChanged> events = new ArrayList<>(updated.size());
+        for (Long id : updated) {
+            OrderRow row = rows.get(id);
+            events.add(new OrderOutbox.OrderStatusChanged(id, row.orderTime(), row.status(), target, now,
+                    items.getOrDefault(id, List.of())));
+        }
+        outbox.statusChanged(events);
+        return new TransitionResult(updated, conflicts, rejected);
+    }
+
+    /** 不允许时返回原因 */
+    private static String check(OrderRow row, String target, Actor actor, Set<Long> foreign) {
+        if (!NEXT.getOrDefault(row.status(), Set.of()).contains(target)) {
+            return "订单状态为 " + row.status() + "，不能变更为 " + target;
+        }
+        switch (actor.role()) {
+            case BUYER -> {
+                if (row.userId() != actor.userId()) return "无权操作该订单";
+                if (Order.SHIPPED.equals(target)) return "只有卖家可以发货";
+                if (Order.CANCELLED.equals(target) && !Order.CREATED.equals(row.status())) return "订单已支付，请联系卖家取消";
+            }
+            case SELLER -> {
+                if (foreign.contains(row.id())) return "订单包含其他店铺的商品";
+                if (!Order.SHIPPED.equals(target) && !Order.CANCELLED.equals(target)) return "卖家只能发货或取消订单";
+            }
+            default -> {
+            }
+        }
+        return null;
+    }
+
+    /** 含有不属于该卖家的商品的订单 */
+    private Set<Long> foreignOrders(String in, Object[] idArgs, Integer sellerId) {
+        Object[] args = new Object[idArgs.length + 1];
+        System.arraycopy(idArgs, 0, args, 0, idArgs.length);
+        args[idArgs.length] = sellerId;
+        return new HashSet<>(jdbcTemplate.queryForList("SELECT DISTINCT oi.order_id FROM order_item oi "
+                + "JOIN product p ON p.id = oi.product_id WHERE oi.order_id IN (" + in + ") AND p.seller_id <> ?",
+                Long.class, args));
+    }
+
+    /** 退回已取消订单的库存，返回各订单的明细（写进事件） */
+    private Map<Long, List<OrderOutbox.Quantity>> restoreStock(List<Long> cancelled) {
+        if (cancelled.isEmpty()) return Map.of();
+        List<ItemRow> items = jdbcTemplate.query("SELECT order_id, product_id, quantity FROM order_item WHERE order_id IN ("
+                + placeholders(cancelled.size()) + ")", ITEM_MAPPER, cancelled.toArray());
+        Map<Integer, Integer> totals = new HashMap<>();
+        Map<Long, List<OrderOutbox.Quantity>> byOrder = new HashMap<>();
+        for (ItemRow it : items) {
+            totals.merge(it.productId(), it.quantity(), Integer::sum);
+            byOrder.computeIfAbsent(it.orderId(), k -> new ArrayList<>())
+                    .add(new OrderOutbox.Quantity(it.productId(), it.quantity()));
+        }
+        inventoryService.restoreAll(totals);
+        catalogCache.onCountersChanged(totals.keySet());
+        return byOrder;
+    }
+
+    private static String placeholders(int n) {
+        return String.join(",", Collections.nCopies(n, "?"));
+    }
+
+    /**
+     * 取消超时未支付的订单：每次取最早的 SWEEP_BATCH 个，走同样的版本校验，
+     * 买家恰好在这时支付的订单会因版本冲突跳过。返回取消的订单数。
+     */
+    @Scheduled(fixedDelay = 60_000, initialDelay = 60_000)
+    public int cancelExpiredUnpaid() {
+        if (unpaidTimeoutMinutes <= 0) return 0;
+        Timestamp before = new Timestamp(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(unpaidTimeoutMinutes));
+        int cancelled = 0;
+        try {
+            for (int round = 0; round < MAX_SWEEP_ROUNDS; round++) {
+                List<Long> ids = jdbcTemplate.queryForList(UNPAID_SQL, Long.class, before, SWEEP_BATCH);
+                if (ids.isEmpty()) break;
+                TransitionResult r = transition(ids, Order.CANCELLED, Actor.SYSTEM);
+                cancelled += r.updated().size();
+                // 整批都没取消掉（冲突或失败）时不在这一轮里空转
+                if (ids.size() < SWEEP_BATCH || r.updated().isEmpty()) break;
+            }
+        } catch (RuntimeException e) {
+            log.warn("取消超时未支付订单失败: {}", e.getMessage());
+        }
+        if (cancelled > 0) log.info("取消 {} 个超时未支付的订单", cancelled);
+        return cancelled;
+    }
+}
@@ -0,0 +1,417 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Order;
+import com.cst.shopping_system.entity.OrderItem;
+import com.cst.shopping_system.entity.Product;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 订单事件的事务性发件箱（transactional outbox）。
+ * 下单、订单状态变更的事务里同时往 order_outbox 插事件；事务提交后由轮询线程按 id 顺序成批取出，
+ * 投递给所有 {@link OrderEventConsumer}，全部成功后标记 published_time。下单本身只多一条 INSERT，
+ * 销量、排行榜、销售分析等下游处理不再占用下单事务，加消费者也不影响下单耗时。
+ * <ul>
+ *   <li>至少一次：某个消费者失败时事件留在表里，下一轮重投，只重投给失败的那个消费者；
+ *       进程在标记前崩溃时重启后整条重投。</li>
+ *   <li>同一订单有序：一批事件按 orderId 分到固定数量的工作线程，每个线程按 id 顺序处理；
+ *       同一订单前面的事件没投递成功，后面的这一轮先不投。等这一批处理完才取下一批。</li>
+ *   <li>停放：同一事件连续失败 MAX_ATTEMPTS 次后记 parked_time，不再重投，也不再挡住同一订单后面的事件；
+ *       排查修复后把 parked_time 清空即可重投。</li>
+ *   <li>延迟指标：{@link #stats()} 给出积压条数、最老未投递事件的等待时间、停放条数和投递延迟。</li>
+ * </ul>
+ * 轮询在专用线程上进行，每轮最多取 MAX_BATCHES_PER_POLL 批，不占用 @Scheduled 的公共线程池。
+ * 多实例部署时只在一个实例上打开 order.outbox.poll-enabled，内存里的排行榜和分析数据由它维护。
+ */
+@Slf4j
+@Component
+public class OrderOutbox {
+
+    public static final String ORDER_CREATED = "OrderCreated";
+    public static final String ORDER_STATUS_CHANGED = "OrderStatusChanged";
+    static final int BATCH_SIZE = 500;
+    // 一轮轮询最多取几批，积压很多时分几轮追上
+    static final int MAX_BATCHES_PER_POLL = 20;
+    static final int MAX_ATTEMPTS = 20;
+    private static final long POLL_DELAY_MILLIS = 200;
+    // 已投递的事件保留几天，便于排查；不能少于 SalesCounters.REPLAY_DAYS，取消的重放按这里的事件时间找
+    private static final int RETAIN_DAYS = 3;
+
+    private static final String INSERT_SQL = "INSERT INTO order_outbox (order_id, event_type, payload, created_time) "
+            + "VALUES (?, ?, ?, ?)";
+    private static final String FETCH_SQL = "SELECT id, order_id, event_type, payload, created_time, attempts "
+            + "FROM order_outbox WHERE published_time IS NULL AND parked_time IS NULL ORDER BY id LIMIT ?";
+    private static final String MARK_SQL = "UPDATE order_outbox SET published_time = ? WHERE id = ?";
+    private static final String FAIL_SQL = "UPDATE order_outbox SET attempts = attempts + 1, last_error = ?, parked_time = ? "
+            + "WHERE id = ?";
+    private static final String BACKLOG_SQL = "SELECT SUM(parked_time IS NULL), MIN(IF(parked_time IS NULL, created_time, NULL)), "
+            + "SUM(parked_time IS NOT NULL) FROM order_outbox WHERE published_time IS NULL";
+
+    /** 订单已创建：下游需要的字段在下单时取好，消费者不用再查库 */
+    public record OrderCreated(long orderId, int userId, long orderTime, List<Line> lines) {}
+
+    /** 一条订单明细连同下单时的商品信息 */
+    public record Line(int productId, int sellerId, String title, String category, BigDecimal unitPrice,
+                       boolean listed, int quantity) {}
+
+    /** 订单状态变化；orderTime 为下单时间，取消时 items 带上退回库存的明细，其他情况为空 */
+    public record OrderStatusChanged(long orderId, long orderTime, String from, String to, long time,
+                                     List<Quantity> items) {}
+
+    public record Quantity(int productId, int quantity) {}
+
+    /** order_outbox 里的一行 */
+    record Event(long id, long orderId, String type, String payload, long createdMillis, int attempts) {}
+
+    private static final RowMapper<Event> EVENT_MAPPER = (rs, i) -> new Event(rs.getLong(1), rs.getLong(2),
+            rs.getString(3), rs.getString(4), rs.getTimestamp(5).getTime(), rs.getInt(6));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate tx;
+    private final ObjectMapper objectMapper;
+    private final List<OrderEventConsumer> consumers;
+    private final boolean pollEnabled;
+    private final int workers;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "order-outbox-poller");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ReentrantLock pollLock = new ReentrantLock();
+
+    // 事件 id -> 已经成功处理过它的消费者；事件标记为已投递后删除
+    private final Map<Long, Set<String>> delivered = new ConcurrentHashMap<>();
+
+    // 指标
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder parkedCount = new LongAdder();
+    private final LongAdder lagMillisTotal = new LongAdder();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+    private final AtomicLong lastPollMillis = new AtomicLong();
+    private final Map<String, LongAdder> failuresByConsumer = new ConcurrentHashMap<>();
+
+    public OrderOutbox(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager, ObjectMapper objectMapper,
+                       List<OrderEventConsumer> consumers,
+                       @Value("${order.outbox.workers:4}") int workers,
+                       @Value("${order.outbox.poll-enabled:true}") boolean pollEnabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(txManager);
+        this.objectMapper = objectMapper;
+        this.consumers = List.copyOf(consumers);
+        this.pollEnabled = pollEnabled;
+        this.workers = Math.max(1, workers);
+        AtomicInteger seq = new AtomicInteger();
+        // 每批最多提交 workers 个分区任务，并且要等这一批做完才取下一批，队列不会超过这个上限
+        this.executor = new ThreadPoolExecutor(this.workers, this.workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.workers), r -> {
+            Thread t = new Thread(r, "order-events-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // ---------------------------------------------------------------- 写入
+
+    /** 在下单事务里登记 OrderCreated 事件，和订单一起提交或回滚 */
+    public void orderCreated(Order order, List<OrderItem> items) {
+        append(order.getId(), ORDER_CREATED, created(order, items));
+    }
+
+    /** 一次结算拆出的多个订单：每个订单一条事件，items 按所属订单分开，整批一个 JDBC 批次 */
+    public void ordersCreated(List<Order> orders, List<OrderItem> items) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> rows = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            List<OrderItem> own = items.stream().filter(item -> item.getOrder() == order).toList();
+            rows.add(new Object[]{order.getId(), ORDER_CREATED, toJson(created(order, own)), now});
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+    }
+
+    private static OrderCreated created(Order order, List<OrderItem> items) {
+        List<Line> lines = new ArrayList<>(items.size());
+        for (OrderItem item : items) {
+            Product p = item.getProduct();
+            lines.add(new Line(p.getId(), p.getSeller().getId(), p.getTitle(), p.getCategory(), item.getUnitPrice(),
+                    p.getStatus() != null && p.getStatus() == 1, item.getQuantity()));
+        }
+        return new OrderCreated(order.getId(), order.getUser().getId(), order.getOrderTime().getTime(), lines);
+    }
+
+    /** 在状态变更的事务里批量登记事件（一个 JDBC 批次） */
+    public void statusChanged(List<OrderStatusChanged> events) {
+        if (events.isEmpty()) return;
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> rows = new ArrayList<>(events.size());
+        for (OrderStatusChanged e : events) rows.add(new Object[]{e.orderId(), ORDER_STATUS_CHANGED, toJson(e), now});
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+    }
+
+    private void append(long orderId, String type, Object event) {
+        jdbcTemplate.update(INSERT_SQL, orderId, type, toJson(event), new Timestamp(System.currentTimeMillis()));
+    }
+
+    private String toJson(Object event) {
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("订单事件序列化失败", e);
+        }
+    }
+
+    // ---------------------------------------------------------------- 投递
+
+    /**
+     * 应用启动完成后开始轮询。排行榜、销售分析在同一个事件里从数据库装载，装载读的是一致快照，
+     * 装载前后投递过来的事件都不会重复计数，所以不依赖两者的先后。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!pollEnabled) return;
+        poller.scheduleWithFixedDelay(this::poll, POLL_DELAY_MILLIS, POLL_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** 取出未投递的事件成批投递，最多 MAX_BATCHES_PER_POLL 批；返回本次标记为已投递的事件数 */
+    public int poll() {
+        if (!pollEnabled || !pollLock.tryLock()) return 0;
+        try {
+            int published = 0;
+            for (int i = 0; i < MAX_BATCHES_PER_POLL; i++) {
+                Batch b = pollOnce();
+                published += b.published();
+                // 取满一批且没有失败就接着取，否则等下一轮
+                if (b.fetched() < BATCH_SIZE || b.published() < b.fetched()) break;
+            }
+            return published;
+        } catch (RuntimeException e) {
+            log.warn("订单事件轮询失败: {}", e.getMessage());
+            return 0;
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    private record Batch(int fetched, int published) {}
+
+    private Batch pollOnce() {
+        List<Event> events = jdbcTemplate.query(FETCH_SQL, EVENT_MAPPER, BATCH_SIZE);
+        lastPollMillis.set(System.currentTimeMillis());
+        if (events.isEmpty()) {
+            lastLagMillis.set(0);
+            return new Batch(0, 0);
+        }
+
+        // 同一订单总是落在同一个分区，分区内保持 id 顺序
+        List<List<Event>> partitions = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) partitions.add(new ArrayList<>());
+        for (Event e : events) partitions.get(Math.floorMod(Long.hashCode(e.orderId()), workers)).add(e);
+
+        List<CompletableFuture<List<Event>>> futures = new ArrayList<>();
+        List<Failure> failures = new ArrayList<>();
+        for (List<Event> partition : partitions) {
+            if (partition.isEmpty()) continue;
+            futures.add(CompletableFuture.supplyAsync(() -> deliverAll(partition, failures), executor));
+        }
+        List<Event> done = new ArrayList<>(events.size());
+        for (CompletableFuture<List<Event>> f : futures) done.addAll(f.join());
+
+        int marked = markPublished(done);
+        if (!failures.isEmpty()) recordFailures(failures);
+        return new Batch(events.size(), marked);
+    }
+
+    private record Failure(Event event, String error) {}
+
+    /** 一个分区的事件按顺序投递；返回投递成功的事件，失败的记入 failures */
+    private List<Event> deliverAll(List<Event> partition, List<Failure> failures) {
+        List<Event> ok = new ArrayList<>(partition.size());
+        Set<Long> blockedOrders = new HashSet<>();
+        for (Event e : partition) {
+            // 同一订单前面的事件失败了，后面的留到下一轮，保证顺序
+            if (blockedOrders.contains(e.orderId())) continue;
+            String error = deliver(e);
+            if (error == null) {
+                ok.add(e);
+            } else {
+                blockedOrders.add(e.orderId());
+                synchronized (failures) {
+                    failures.add(new Failure(e, error.length() > 500 ? error.substring(0, 500) : error));
+                }
+            }
+        }
+        return ok;
+    }
+
+    /** 投递给还没成功处理过它的消费者；全部成功返回 null，否则返回错误信息 */
+    private String deliver(Event e) {
+        Consumer<OrderEventConsumer> call;
+        try {
+            switch (e.type()) {
+                case ORDER_CREATED -> {
+                    OrderCreated event = objectMapper.readValue(e.payload(), OrderCreated.class);
+                    call = c -> c.onOrderCreated(event);
+                }
+                case ORDER_STATUS_CHANGED -> {
+                    OrderStatusChanged event = objectMapper.readValue(e.payload(), OrderStatusChanged.class);
+                    call = c -> c.onOrderStatusChanged(event);
+                }
+                default -> {
+                    return "未知的事件类型: " + e.type();
+                }
+            }
+        } catch (JsonProcessingException ex) {
+            return "事件解析失败: " + ex.getOriginalMessage();
+        }
+        Set<String> handled = delivered.computeIfAbsent(e.id(), k -> ConcurrentHashMap.newKeySet());
+        String error = null;
+        for (OrderEventConsumer c : consumers) {
+            String name = c.consumerName();
+            if (handled.contains(name) || c.alreadyIncludes(e.id())) continue;
+            try {
+                call.accept(c);
+                handled.add(name);
+            } catch (RuntimeException ex) {
+                failuresByConsumer.computeIfAbsent(name, k -> new LongAdder()).increment();
+                log.warn("订单事件 {}（订单 {}）投递给 {} 失败: {}", e.id(), e.orderId(), name, ex.getMessage());
+                error = name + ": " + ex.getMessage();
+            }
+        }
+        return error;
+    }
+
+    /** 标记已投递；返回标记成功的条数 */
+    private int markPublished(List<Event> done) {
+        if (done.isEmpty()) return 0;
+        long now = System.currentTimeMillis();
+        Timestamp at = new Timestamp(now);
+        List<Object[]> rows = done.stream().map(e -> new Object[]{at, e.id()}).toList();
+        try {
+            tx.executeWithoutResult(status -> jdbcTemplate.batchUpdate(MARK_SQL, rows));
+        } catch (RuntimeException ex) {
+            // 消费者都已处理过，delivered 里的记录留着，下一轮取到时不会再投
+            log.warn("{} 条订单事件标记已投递失败，下次重试: {}", done.size(), ex.getMessage());
+            return 0;
+        }
+        long maxLag = 0;
+        for (Event e : done) {
+            delivered.remove(e.id());
+            long lag = Math.max(0, now - e.createdMillis());
+            lagMillisTotal.add(lag);
+            maxLag = Math.max(maxLag, lag);
+        }
+        publishedCount.add(done.size());
+        lastLagMillis.set(maxLag);
+        maxLagMillis.accumulateAndGet(maxLag, Math::max);
+        return done.size();
+    }
+
+    // 失败次数加一；达到 MAX_ATTEMPTS 的事件停放，不再轮询
+    private void recordFailures(List<Failure> failures) {
+        failedCount.add(failures.size());
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> rows = new ArrayList<>(failures.size());
+        List<Event> parked = new ArrayList<>();
+        for (Failure f : failures) {
+            boolean park = f.event().attempts() + 1 >= MAX_ATTEMPTS;
+            if (park) parked.add(f.event());
+            rows.add(new Object[]{f.error(), park ? now : null, f.event().id()});
+        }
+        try {
+            jdbcTemplate.batchUpdate(FAIL_SQL, rows);
+        } catch (RuntimeException ex) {
+            log.warn("记录订单事件失败次数出错: {}", ex.getMessage());
+            return;
+        }
+        for (Event e : parked) {
+            delivered.remove(e.id());
+            parkedCount.increment();
+            log.error("订单事件 {}（订单 {}）投递失败 {} 次，已停放，需要人工处理", e.id(), e.orderId(), MAX_ATTEMPTS);
+        }
+    }
+
+    // ---------------------------------------------------------------- 指标
+
+    /**
+     * 投递指标：backlog 为未投递条数，oldestPendingMillis 为最老一条已等待的毫秒数（发件箱延迟），
+     * parked 为失败次数过多被停放的条数；
+     * lastLagMillis / maxLagMillis / avgLagMillis 为事件从写入到投递完成的耗时。
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        jdbcTemplate.query(BACKLOG_SQL, rs -> {
+            m.put("backlog", rs.getLong(1));
+            Timestamp oldest = rs.getTimestamp(2);
+            m.put("oldestPendingMillis", oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.getTime()));
+            m.put("parked", rs.getLong(3));
+        });
+        long published = publishedCount.sum();
+        m.put("published", published);
+        m.put("failedAttempts", failedCount.sum());
+        m.put("parkedSinceStart", parkedCount.sum());
+        m.put("lastLagMillis", lastLagMillis.get());
+        m.put("maxLagMillis", maxLagMillis.get());
+        m.put("avgLagMillis", published == 0 ? 0 : lagMillisTotal.sum() / published);
+        m.put("lastPollTime", lastPollMillis.get());
+        Map<String, Long> byConsumer = new LinkedHashMap<>();
+        failuresByConsumer.forEach((name, n) -> byConsumer.put(name, n.sum()));
+        m.put("consumerFailures", byConsumer);
+        m.put("pollEnabled", pollEnabled);
+        return m;
+    }
+
+    /** 清理已投递且超过保留期的事件 */
+    @Scheduled(cron = "0 30 4 * * *")
+    public void prune() {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETAIN_DAYS));
+        int n = jdbcTemplate.update("DELETE FROM order_outbox WHERE published_time < ?", before);
+        if (n > 0) log.info("清理 {} 条已投递的订单事件", n);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 先停轮询线程，再把已提交的事件尽量投递掉；投不完的下次启动继续
+        poller.shutdown();
+        try {
+            poller.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        poll();
+        executor.shutdown();
+    }
+}
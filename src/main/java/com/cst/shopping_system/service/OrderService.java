@@ -1,14 +1,23 @@
 package com.cst.shopping_system.service;
 
+import com.cst.shopping_system.dto.OrderLineDTO;
+import com.cst.shopping_system.dto.OrderSummaryDTO;
 import com.cst.shopping_system.entity.*;
 import com.cst.shopping_system.repository.*;
+import com.cst.shopping_system.util.KeysetCursor;
+import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
@@ -17,39 +26,59 @@ public class OrderService {
     private final OrderRepository orderRepo;
     private final OrderItemRepository orderItemRepo;
     private final CartItemRepository cartRepo;
-    private final ProductRepository productRepo;
-    private final UserRepository userRepo;
+    private final CartViewCache cartViews;
+    private final InventoryService inventoryService;
+    private final ProductCatalogCache catalogCache;
+    private final OrderOutbox outbox;
+    private final CheckoutIdempotency idempotency;
+    private final EntityManager entityManager;
 
     @Transactional
-    public Long checkout(Integer userId, String addressFromClient) {
+    public List<Long> checkout(Integer userId, String addressFromClient) {
+        return checkout(userId, addressFromClient, null);
+    }
+
+    /**
+     * 结算购物车，按卖家拆单：每个卖家一个订单，卖家发货、取消只涉及自己的商品，返回各订单 ID（按购物车顺序）。
+     * 带幂等键时 key 在事务开头登记，重复的 key 在碰库存之前就因主键冲突回滚。
+     * 重复请求的合并和结果回放见 {@link CheckoutIdempotency#execute}。
+     */
+    @Transactional
+    public List<Long> checkout(Integer userId, String addressFromClient, String idempotencyKey) {
+        if (idempotencyKey != null) idempotency.claim(userId, idempotencyKey);
+
         // 1) 读取购物车
         List<CartItem> cartItems = cartRepo.findByUser_Id(userId);
         if (cartItems.isEmpty()) {
             throw new RuntimeException("购物车为空，无法下单");
         }
 
-        // 2) 创建订单
-        User user = userRepo.findById(userId).orElseThrow();
-        Order order = new Order();
-        order.setUser(user);
-        order.setOrderTime(new Date());
-        order.setStatus("CREATED");
-        order.setAddress((addressFromClient != null && !addressFromClient.isEmpty())
-                ? addressFromClient : user.getAddress());
-        order.setTotalAmount(BigDecimal.ZERO);
-        order = orderRepo.save(order);
-
-        // 3) 明细 + 总价 + 累加销量
-        BigDecimal total = BigDecimal.ZERO;
+        // 2) 扣减库存：所有明细一个 JDBC 批次；销量、排行榜等在订单提交后由发件箱事件异步处理
+        List<InventoryService.Line> lines = new ArrayList<>(cartItems.size());
+        for (CartItem ci : cartItems) {
+            lines.add(new InventoryService.Line(ci.getProduct(), ci.getQuantity()));
+        }
+        inventoryService.deductAll(lines);
+        catalogCache.onCountersChanged(lines.stream().map(l -> l.product().getId()).toList());
+
+        // 3) 按卖家分组，每组一个订单头，先算好总价，订单头只写一次
+        User user = cartItems.get(0).getUser();
+        Date now = new Date();
+        String address = (addressFromClient != null && !addressFromClient.isEmpty())
+                ? addressFromClient : user.getAddress();
+        Map<Integer, Order> bySeller = new LinkedHashMap<>();
+        List<OrderItem> items = new ArrayList<>(cartItems.size());
         for (CartItem ci : cartItems) {
             Product p = ci.getProduct();
+            Order order = bySeller.computeIfAbsent(p.getSeller().getId(), k -> {
+                Order o = new Order();
+                o.setUser(user);
+                o.setOrderTime(now);
+                o.setStatus(Order.CREATED);
+                o.setAddress(address);
+                return o;
+            });
             int qty = ci.getQuantity();
-            // --- 新增：库存检查 ---
-            if (p.getStock() < qty) {
-                throw new RuntimeException("商品 [" + p.getTitle() + "] 库存不足，当前仅剩 " + p.getStock() + " 件");
-            }
-            // --- 新增：扣减库存 ---
-            p.setStock(p.getStock() - qty);
             BigDecimal unitPrice = p.getPrice();
 
             OrderItem item = new OrderItem();
@@ -57,25 +86,68 @@ public class OrderService {
             item.setProduct(p);
             item.setQuantity(qty);
             item.setUnitPrice(unitPrice);
-            orderItemRepo.save(item);
-
-            total = total.add(unitPrice.multiply(BigDecimal.valueOf(qty)));
+            items.add(item);
 
-            // 累加销量
-            p.setSales(p.getSales() + qty);
-            productRepo.save(p);
+            order.setTotalAmount(order.getTotalAmount().add(unitPrice.multiply(BigDecimal.valueOf(qty))));
         }
+        List<Order> orders = new ArrayList<>(bySeller.values());
 
-        // 4) 写回总价并清空购物车
-        order.setTotalAmount(total);
-        orderRepo.save(order);
-        cartRepo.deleteAll(cartItems);
+        // 4) 订单头和明细用号段分配 ID，flush 时合并成批量 INSERT；购物车一条 DELETE 清空。
+        //    批大小放到本单明细数，明细再多也是每张表一个批次，语句数不随购物车变大
+        entityManager.unwrap(Session.class).setJdbcBatchSize(items.size());
+        orderRepo.saveAll(orders);
+        orderItemRepo.saveAll(items);
+        cartRepo.deleteByUserId(userId);
+        cartViews.evict(userId);
+        // 5) 下游处理每个订单登记一条事件，一个批次写入，和订单一起提交
+        outbox.ordersCreated(orders, items);
+        List<Long> orderIds = orders.stream().map(Order::getId).toList();
+        if (idempotencyKey != null) idempotency.complete(userId, idempotencyKey, orderIds);
+
+        return orderIds;
+    }
+
+    /** 订单列表的一页：nextCursor 为 null 表示已到最后一页 */
+    public record OrderPage(List<OrderSummaryDTO> content, String nextCursor) {}
+
+    /**
+     * 我的订单，按下单时间倒序游标分页：游标记住上一页最后一行的 (orderTime, id)，
+     * 下一页直接在 (user_id, order_time) 索引上定位，不用 OFFSET。
+     */
+    public OrderPage listMyOrders(Integer userId, String cursor, int size) {
+        String[] after = KeysetCursor.decode(cursor, 2);
+        Limit limit = Limit.of(size + 1);
+        List<OrderSummaryDTO> rows;
+        if (after == null) {
+            rows = orderRepo.findSummariesByUserId(userId, limit);
+        } else {
+            try {
+                rows = orderRepo.findSummariesByUserIdAfter(userId, new Date(Long.parseLong(after[0])),
+                        Long.valueOf(after[1]), limit);
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("无效的分页游标");
+            }
+        }
+        boolean hasMore = rows.size() > size;
+        List<OrderSummaryDTO> content = hasMore ? rows.subList(0, size) : rows;
+        String next = null;
+        if (hasMore) {
+            OrderSummaryDTO last = content.get(content.size() - 1);
+            next = KeysetCursor.encode(last.orderTime().getTime(), last.id());
+        }
+        return new OrderPage(content, next);
+    }
 
-        return order.getId();
+    /** 订单头信息，只能看自己的订单 */
+    public OrderSummaryDTO getOrderSummary(Long orderId, Integer userId) {
+        return orderRepo.findSummary(orderId, userId).orElseThrow(() -> orderRepo.existsById(orderId)
+                ? new RuntimeException("无权访问该订单")
+                : new RuntimeException("订单不存在, ID: " + orderId));
     }
 
-    public List<Order> listMyOrders(Integer userId) {
-        return orderRepo.findByUser_Id(userId);
+    /** 订单明细行（含商品标题和封面图） */
+    public List<OrderLineDTO> getOrderLines(Long orderId) {
+        return orderItemRepo.findLinesByOrderId(orderId);
     }
 
     public Order getOrder(Long orderId, Integer userId) {
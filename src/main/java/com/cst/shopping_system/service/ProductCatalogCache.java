@@ -0,0 +1,125 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Product;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 商品目录的读穿透缓存（Caffeine，W-TinyLFU 淘汰）。
+ * 详情按商品ID缓存，列表按查询条件缓存。
+ * 商品新建、修改、上下架会清掉对应详情和全部列表；
+ * 下单扣库存、收藏数变化只清对应详情，列表里的销量/收藏数最多滞后 LISTING_TTL。
+ * catalog.cache.enabled=false 关闭缓存，每次都查库，用于对照压测和排查数据不一致。
+ */
+@Component
+public class ProductCatalogCache {
+
+    private static final Duration LISTING_TTL = Duration.ofSeconds(30);
+
+    private final boolean enabled;
+
+    private final Cache<Integer, Product> details = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .recordStats()
+            .build();
+
+    private final Cache<ListingKey, ProductService.ListingPage> listings = Caffeine.newBuilder()
+            .maximumSize(2_000)
+            .expireAfterWrite(LISTING_TTL)
+            .recordStats()
+            .build();
+
+    // 游标分页的近似总数，按筛选条件缓存
+    private final Cache<ListingKey, Long> counts = Caffeine.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(Duration.ofSeconds(60))
+            .build();
+
+    /** 列表查询条件，分类列表排序后参与比较，保证顺序不同的同一组分类命中同一个缓存项 */
+    public record ListingKey(String keyword, List<String> categories, String sortBy, int page, int size) {
+        public ListingKey {
+            keyword = keyword == null ? "" : keyword.trim().toLowerCase();
+            if (categories != null) {
+                categories = new ArrayList<>(categories);
+                categories.sort(null);
+                categories = List.copyOf(categories);
+            }
+        }
+    }
+
+    public ProductCatalogCache(@Value("${catalog.cache.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Product getProduct(Integer id, Function<Integer, Product> loader) {
+        return enabled ? details.get(id, loader) : loader.apply(id);
+    }
+
+    public ProductService.ListingPage getListing(ListingKey key, Function<ListingKey, ProductService.ListingPage> loader) {
+        return enabled ? listings.get(key, loader) : loader.apply(key);
+    }
+
+    public long getCount(ListingKey key, Function<ListingKey, Long> loader) {
+        return enabled ? counts.get(key, loader) : loader.apply(key);
+    }
+
+    /** 商品可见内容变化（新建/修改/上下架）：清详情和全部列表 */
+    public void onProductChanged(Integer productId) {
+        afterCommit(() -> {
+            if (productId != null) details.invalidate(productId);
+            listings.invalidateAll();
+        });
+    }
+
+    /** 只有计数类字段变化（库存、销量、收藏数）：只清详情 */
+    public void onCountersChanged(Collection<Integer> productIds) {
+        afterCommit(() -> details.invalidateAll(productIds));
+    }
+
+    /** 命中/未命中/淘汰统计 */
+    public Map<String, Object> stats() {
+        Map<String, Object> body = new HashMap<>();
+        body.put("details", toMap(details.stats(), details.estimatedSize()));
+        body.put("listings", toMap(listings.stats(), listings.estimatedSize()));
+        return body;
+    }
+
+    private static Map<String, Object> toMap(CacheStats stats, long size) {
+        Map<String, Object> m = new HashMap<>();
+        m.put("size", size);
+        m.put("hitCount", stats.hitCount());
+        m.put("missCount", stats.missCount());
+        m.put("hitRate", stats.hitRate());
+        m.put("evictionCount", stats.evictionCount());
+        m.put("averageLoadPenaltyMillis", stats.averageLoadPenalty() / 1_000_000.0);
+        return m;
+    }
+
+    // 在事务提交后再失效，避免并发请求在提交前把旧值重新装回缓存
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,608 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.ImportJob;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.repository.ImportJobRepository;
+import com.cst.shopping_system.repository.UserRepository;
+import com.cst.shopping_system.util.CsvReader;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 商品批量导入。
+ * 上传的商品文件（CSV 或 JSON / NDJSON）和可选的图片压缩包先落到 ~/app-data/imports/{任务ID}/，立即返回任务；
+ * 单个导入线程流式读取文件，每 CHUNK_SIZE 行为一批：校验（含图片入库）在线程池里并行，
+ * 合格的行用一条 JDBC 批量 INSERT 写入，不合格的行写入错误明细，任务进度在同一个事务里推进。
+ * 进程中断后从已提交的行数之后继续，不会重复导入。
+ */
+@Slf4j
+@Service
+public class ProductImportService {
+
+    static final int CHUNK_SIZE = 1000;
+
+    static final String CSV = "CSV";
+    static final String JSON = "JSON";
+
+    private static final String CATALOG_FILE = "catalog";
+    private static final String IMAGES_FILE = "images.zip";
+
+    private static final String INSERT_SQL = "INSERT INTO product "
+            + "(title, description, price, image_urls, created_time, seller_id, category, sales, stock, favorite_count, status) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, 0, ?, 0, 1)";
+    private static final String ERROR_SQL = "INSERT INTO import_job_error (job_id, row_no, message) VALUES (?, ?, ?)";
+    // 带上旧的 processed 做条件：同一批不会被提交两次
+    private static final String PROGRESS_SQL = "UPDATE import_job SET processed = ?, succeeded = succeeded + ?, "
+            + "failed = failed + ?, updated_time = ? WHERE id = ? AND processed = ?";
+
+    // 与 Product 实体的列长度一致
+    private static final int MAX_TITLE = 100;
+    private static final int MAX_DESCRIPTION = 1000;
+    private static final int MAX_IMAGE_URLS = 2000;
+    private static final int MAX_CATEGORY = 50;
+    private static final BigDecimal MAX_PRICE = new BigDecimal("99999999.99");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate tx;
+    private final ImportJobRepository jobRepository;
+    private final UserRepository userRepository;
+    private final ImageStorageService imageStorage;
+    private final ProductSearchIndex searchIndex;
+    private final ProductCatalogCache catalogCache;
+    private final SalesLeaderboard leaderboard;
+    private final ObjectMapper objectMapper;
+    private final Path baseDir;
+
+    private final ExecutorService jobExecutor;
+    private final ExecutorService validationPool;
+    // 已排队或正在执行的任务，避免同一任务被重复提交
+    private final Set<Long> scheduled = ConcurrentHashMap.newKeySet();
+    // 正在执行的任务读到的文件位置，用来估算进度
+    private final Map<Long, Progress> progress = new ConcurrentHashMap<>();
+    // 停机时在两批之间停下，任务保持 RUNNING，下次启动继续
+    private volatile boolean stopping;
+
+    /** 商品文件的读取进度（字节） */
+    public record Progress(long bytesRead, long totalBytes) {
+        public int percent() {
+            return totalBytes <= 0 ? 0 : (int) Math.min(99, bytesRead * 100 / totalBytes);
+        }
+    }
+
+    /** 一行的校验结果：product 和 error 二选一 */
+    record Parsed(int rowNo, Product product, String error) {}
+
+    @Autowired
+    public ProductImportService(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager,
+                                ImportJobRepository jobRepository, UserRepository userRepository,
+                                ImageStorageService imageStorage, ProductSearchIndex searchIndex,
+                                ProductCatalogCache catalogCache, SalesLeaderboard leaderboard, ObjectMapper objectMapper) {
+        this(jdbcTemplate, txManager, jobRepository, userRepository, imageStorage, searchIndex, catalogCache,
+                leaderboard, objectMapper, Paths.get(System.getProperty("user.home"), "app-data", "imports"));
+    }
+
+    ProductImportService(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager,
+                         ImportJobRepository jobRepository, UserRepository userRepository,
+                         ImageStorageService imageStorage, ProductSearchIndex searchIndex,
+                         ProductCatalogCache catalogCache, SalesLeaderboard leaderboard, ObjectMapper objectMapper,
+                         Path baseDir) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(txManager);
+        this.jobRepository = jobRepository;
+        this.userRepository = userRepository;
+        this.imageStorage = imageStorage;
+        this.searchIndex = searchIndex;
+        this.catalogCache = catalogCache;
+        this.leaderboard = leaderboard;
+        this.objectMapper = objectMapper;
+        this.baseDir = baseDir;
+        this.jobExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "product-import");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger seq = new AtomicInteger();
+        this.validationPool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "product-import-validate-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** 接收上传的文件并创建导入任务，导入在后台进行 */
+    public ImportJob submit(Integer sellerId, MultipartFile catalog, MultipartFile images) {
+        if (catalog == null || catalog.isEmpty()) throw new RuntimeException("请上传商品文件");
+        String format = formatOf(catalog.getOriginalFilename());
+        boolean hasImages = images != null && !images.isEmpty();
+
+        ImportJob job = new ImportJob();
+        job.setSellerId(sellerId);
+        job.setFormat(format);
+        job.setHasImages(hasImages);
+        job = jobRepository.save(job);
+
+        Path dir = baseDir.resolve(String.valueOf(job.getId()));
+        try {
+            Files.createDirectories(dir);
+            catalog.transferTo(dir.resolve(CATALOG_FILE));
+            if (hasImages) images.transferTo(dir.resolve(IMAGES_FILE));
+        } catch (IOException e) {
+            jobRepository.updateStatus(job.getId(), ImportJob.FAILED, "保存上传文件失败", new Date());
+            throw new RuntimeException("保存上传文件失败", e);
+        }
+        schedule(job.getId());
+        return job;
+    }
+
+    /** 重新排队一个未完成的任务（例如导入线程异常退出后手动继续） */
+    public void resume(Long jobId) {
+        ImportJob job = jobRepository.findById(jobId)
+                .orElseThrow(() -> new RuntimeException("导入任务不存在, ID: " + jobId));
+        if (ImportJob.DONE.equals(job.getStatus())) throw new RuntimeException("导入任务已完成");
+        jobRepository.updateStatus(jobId, ImportJob.QUEUED, null, new Date());
+        schedule(jobId);
+    }
+
+    /** 启动时继续上次没做完的任务 */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        for (ImportJob job : jobRepository.findByStatusInOrderByIdAsc(List.of(ImportJob.QUEUED, ImportJob.RUNNING))) {
+            log.info("继续导入任务 {}，已处理 {} 行", job.getId(), job.getProcessed());
+            schedule(job.getId());
+        }
+    }
+
+    public ImportJob getJob(Long jobId) {
+        return jobRepository.findById(jobId)
+                .orElseThrow(() -> new RuntimeException("导入任务不存在, ID: " + jobId));
+    }
+
+    public List<ImportJob> recentJobs(Integer sellerId) {
+        return jobRepository.findTop20BySellerIdOrderByIdDesc(sellerId);
+    }
+
+    /** 正在执行的任务的读取进度，没有在执行时返回 null */
+    public Progress progressOf(Long jobId) {
+        return progress.get(jobId);
+    }
+
+    /** 以 CSV 写出任务的错误明细（行号从 1 开始，不含表头） */
+    public void writeErrors(Long jobId, Writer out) throws IOException {
+        out.write("\uFEFFrow,message\r\n");
+        List<IOException> failure = new ArrayList<>(1);
+        jdbcTemplate.query("SELECT row_no, message FROM import_job_error WHERE job_id = ? ORDER BY row_no", rs -> {
+            if (!failure.isEmpty()) return;
+            try {
+                out.write(rs.getInt(1) + ",\"" + rs.getString(2).replace("\"", "\"\"") + "\"\r\n");
+            } catch (IOException e) {
+                failure.add(e);
+            }
+        }, jobId);
+        if (!failure.isEmpty()) throw failure.get(0);
+        out.flush();
+    }
+
+    private void schedule(Long jobId) {
+        if (!scheduled.add(jobId)) return;
+        jobExecutor.execute(() -> {
+            try {
+                run(jobId);
+            } finally {
+                scheduled.remove(jobId);
+                progress.remove(jobId);
+            }
+        });
+    }
+
+    void run(Long jobId) {
+        ImportJob job = jobRepository.findById(jobId).orElse(null);
+        if (job == null || ImportJob.DONE.equals(job.getStatus()) || ImportJob.FAILED.equals(job.getStatus())) return;
+        jobRepository.updateStatus(jobId, ImportJob.RUNNING, null, new Date());
+        try {
+            if (!importRows(job)) {
+                log.info("应用停止，导入任务 {} 下次启动继续", jobId);
+                return;
+            }
+            jobRepository.updateStatus(jobId, ImportJob.DONE, null, new Date());
+            log.info("导入任务 {} 完成", jobId);
+        } catch (Exception e) {
+            if (stopping) {
+                log.info("应用停止，导入任务 {} 中断，下次启动继续", jobId);
+                return;
+            }
+            log.warn("导入任务 {} 失败", jobId, e);
+            String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            jobRepository.updateStatus(jobId, ImportJob.FAILED, truncate(message, 500), new Date());
+        }
+    }
+
+    /** 全部行处理完返回 true，因为停机提前退出返回 false */
+    boolean importRows(ImportJob job) throws IOException {
+        User seller = userRepository.findById(job.getSellerId())
+                .orElseThrow(() -> new RuntimeException("卖家用户不存在, ID: " + job.getSellerId()));
+        Path dir = baseDir.resolve(String.valueOf(job.getId()));
+        Path catalogPath = dir.resolve(CATALOG_FILE);
+        long totalBytes = Files.size(catalogPath);
+
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(catalogPath), 64 * 1024));
+             RowSource rows = JSON.equals(job.getFormat()) ? new JsonRows(in, objectMapper) : new CsvRows(in);
+             ZipFile zip = job.isHasImages() ? new ZipFile(dir.resolve(IMAGES_FILE).toFile()) : null) {
+            ImageResolver images = new ImageResolver(zip, imageStorage);
+            int processed = job.getProcessed();
+            // 跳过已经提交过的行
+            for (int i = 0; i < processed; i++) {
+                if (rows.next() == null) return true;
+            }
+            progress.put(job.getId(), new Progress(in.count, totalBytes));
+            List<Map<String, String>> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (!stopping) {
+                chunk.clear();
+                Map<String, String> row;
+                while (chunk.size() < CHUNK_SIZE && (row = rows.next()) != null) chunk.add(row);
+                if (chunk.isEmpty()) return true;
+                List<Parsed> parsed = validateChunk(chunk, processed + 1, seller, images);
+                commitChunk(job.getId(), processed, parsed);
+                processed += chunk.size();
+                progress.put(job.getId(), new Progress(in.count, totalBytes));
+            }
+            return false;
+        }
+    }
+
+    // 校验和图片入库都是可以并行的 I/O + CPU 工作，结果按行号顺序返回
+    private List<Parsed> validateChunk(List<Map<String, String>> chunk, int firstRowNo, User seller, ImageResolver images) {
+        Date now = new Date();
+        List<CompletableFuture<Parsed>> futures = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            int rowNo = firstRowNo + i;
+            Map<String, String> row = chunk.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> validate(rowNo, row, seller, now, images), validationPool));
+        }
+        List<Parsed> result = new ArrayList<>(chunk.size());
+        for (CompletableFuture<Parsed> f : futures) result.add(f.join());
+        return result;
+    }
+
+    static Parsed validate(int rowNo, Map<String, String> row, User seller, Date now, ImageResolver images) {
+        try {
+            String title = trimToNull(row.get("title"));
+            if (title == null) return new Parsed(rowNo, null, "标题不能为空");
+            if (title.length() > MAX_TITLE) return new Parsed(rowNo, null, "标题超过 " + MAX_TITLE + " 个字符");
+
+            String description = trimToNull(row.get("description"));
+            if (description != null && description.length() > MAX_DESCRIPTION) {
+                return new Parsed(rowNo, null, "描述超过 " + MAX_DESCRIPTION + " 个字符");
+            }
+
+            String priceText = trimToNull(row.get("price"));
+            if (priceText == null) return new Parsed(rowNo, null, "价格不能为空");
+            BigDecimal price;
+            try {
+                price = new BigDecimal(priceText);
+            } catch (NumberFormatException e) {
+                return new Parsed(rowNo, null, "价格格式不正确: " + priceText);
+            }
+            if (price.signum() <= 0 || price.compareTo(MAX_PRICE) > 0 || price.stripTrailingZeros().scale() > 2) {
+                return new Parsed(rowNo, null, "价格必须大于 0、不超过 " + MAX_PRICE.toPlainString() + " 且最多两位小数");
+            }
+
+            int stock = 0;
+            String stockText = trimToNull(row.get("stock"));
+            if (stockText != null) {
+                try {
+                    stock = Integer.parseInt(stockText);
+                } catch (NumberFormatException e) {
+                    return new Parsed(rowNo, null, "库存格式不正确: " + stockText);
+                }
+                if (stock < 0) return new Parsed(rowNo, null, "库存不能为负数");
+            }
+
+            String category = trimToNull(row.get("category"));
+            if (category != null && category.length() > MAX_CATEGORY) {
+                return new Parsed(rowNo, null, "分类编号超过 " + MAX_CATEGORY + " 个字符");
+            }
+
+            List<String> urls = new ArrayList<>();
+            String imageText = trimToNull(row.get("images"));
+            if (imageText != null) {
+                for (String name : imageText.split("[,;|]")) {
+                    name = name.trim();
+                    if (name.isEmpty()) continue;
+                    String url = images.resolve(name);
+                    if (url == null) return new Parsed(rowNo, null, "图片不存在: " + name);
+                    urls.add(url);
+                }
+            }
+            String imageUrls = String.join(",", urls);
+            if (imageUrls.length() > MAX_IMAGE_URLS) return new Parsed(rowNo, null, "图片数量过多");
+
+            Product p = new Product();
+            p.setTitle(title);
+            p.setDescription(description);
+            p.setPrice(price.setScale(2));
+            p.setStock(stock);
+            p.setCategory(category);
+            p.setImageUrls(imageUrls);
+            p.setSeller(seller);
+            p.setCreatedTime(now);
+            return new Parsed(rowNo, p, null);
+        } catch (RuntimeException e) {
+            return new Parsed(rowNo, null, truncate(e.getMessage() == null ? "处理失败" : e.getMessage(), 500));
+        }
+    }
+
+    // 一批商品、错误明细和任务进度在同一个事务里提交
+    private void commitChunk(Long jobId, int processedBefore, List<Parsed> parsed) {
+        List<Product> products = new ArrayList<>();
+        List<Object[]> errors = new ArrayList<>();
+        for (Parsed p : parsed) {
+            if (p.product() != null) products.add(p.product());
+            else errors.add(new Object[]{jobId, p.rowNo(), p.error()});
+        }
+        tx.executeWithoutResult(status -> {
+            if (!products.isEmpty()) insertProducts(products);
+            if (!errors.isEmpty()) jdbcTemplate.batchUpdate(ERROR_SQL, errors);
+            int updated = jdbcTemplate.update(PROGRESS_SQL, processedBefore + parsed.size(), products.size(), errors.size(),
+                    new Timestamp(System.currentTimeMillis()), jobId, processedBefore);
+            if (updated != 1) throw new IllegalStateException("导入任务进度与预期不一致，可能被重复执行: " + jobId);
+        });
+        if (products.isEmpty()) return;
+        for (Product p : products) {
+            searchIndex.index(p);
+            leaderboard.onProductChanged(p);
+        }
+        catalogCache.onProductChanged(null);
+    }
+
+    private void insertProducts(List<Product> products) {
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(con -> con.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        Product p = products.get(i);
+                        ps.setString(1, p.getTitle());
+                        ps.setString(2, p.getDescription());
+                        ps.setBigDecimal(3, p.getPrice());
+                        ps.setString(4, p.getImageUrls());
+                        ps.setTimestamp(5, new Timestamp(p.getCreatedTime().getTime()));
+                        ps.setInt(6, p.getSeller().getId());
+                        if (p.getCategory() == null) ps.setNull(7, Types.VARCHAR);
+                        else ps.setString(7, p.getCategory());
+                        ps.setInt(8, p.getStock());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return products.size();
+                    }
+                }, keys);
+        List<Map<String, Object>> generated = keys.getKeyList();
+        if (generated.size() != products.size()) {
+            throw new IllegalStateException("批量插入返回的主键数量不正确: " + generated.size() + " / " + products.size());
+        }
+        for (int i = 0; i < products.size(); i++) {
+            Number id = (Number) generated.get(i).values().iterator().next();
+            products.get(i).setId(id.intValue());
+        }
+    }
+
+    static String formatOf(String fileName) {
+        String name = fileName == null ? "" : fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) return CSV;
+        if (name.endsWith(".json") || name.endsWith(".ndjson") || name.endsWith(".jsonl")) return JSON;
+        throw new RuntimeException("只支持 CSV 或 JSON 格式的商品文件");
+    }
+
+    private static String trimToNull(String s) {
+        if (s == null) return null;
+        s = s.trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    private static String truncate(String s, int max) {
+        return s.length() <= max ? s : s.substring(0, max);
+    }
+
+    // 列名统一成小写；imageUrls 作为 images 的别名
+    private static String columnOf(String header) {
+        String key = header.trim().toLowerCase(Locale.ROOT);
+        return "imageurls".equals(key) ? "images" : key;
+    }
+
+    /** 逐行读出的商品记录：列名 -> 原始文本，读完返回 null */
+    interface RowSource extends Closeable {
+        Map<String, String> next() throws IOException;
+    }
+
+    static final class CsvRows implements RowSource {
+        private final CsvReader reader;
+        private final InputStream in;
+        private final List<String> header;
+
+        CsvRows(InputStream in) throws IOException {
+            this.in = in;
+            this.reader = new CsvReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            List<String> first = reader.next();
+            if (first == null) throw new RuntimeException("商品文件为空");
+            this.header = new ArrayList<>(first.size());
+            for (String h : first) header.add(columnOf(h));
+            if (!header.contains("title") || !header.contains("price")) {
+                throw new RuntimeException("CSV 表头至少要包含 title 和 price 列");
+            }
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            List<String> fields = reader.next();
+            if (fields == null) return null;
+            Map<String, String> row = new HashMap<>();
+            for (int i = 0; i < header.size() && i < fields.size(); i++) row.put(header.get(i), fields.get(i));
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /** 顶层是对象数组或一行一个对象（NDJSON）都可以，按对象逐个读取 */
+    static final class JsonRows implements RowSource {
+        private final MappingIterator<Map<String, Object>> it;
+
+        JsonRows(InputStream in, ObjectMapper objectMapper) throws IOException {
+            this.it = objectMapper.readerFor(Map.class)
+                    .with(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+                    .readValues(in);
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (!it.hasNextValue()) return null;
+            Map<String, Object> obj = it.nextValue();
+            Map<String, String> row = new LinkedHashMap<>();
+            obj.forEach((k, v) -> row.put(columnOf(k), textOf(v)));
+            return row;
+        }
+
+        private static String textOf(Object v) {
+            if (v == null) return null;
+            if (v instanceof BigDecimal d) return d.toPlainString();
+            if (v instanceof Collection<?> c) {
+                List<String> parts = new ArrayList<>(c.size());
+                for (Object o : c) if (o != null) parts.add(o.toString());
+                return String.join(",", parts);
+            }
+            return v.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            it.close();
+        }
+    }
+
+    /**
+     * 把商品里引用的图片换成站内 URL：已经是 http(s) 或 /uploads/ 地址的原样保留，
+     * 其余按压缩包里的条目名查找（先精确匹配路径，再按文件名），同一张图在一个任务里只入库一次。
+     */
+    static final class ImageResolver {
+        private final ZipFile zip;
+        private final ImageStorageService storage;
+        private final Map<String, ZipEntry> byName = new HashMap<>();
+        private final Map<String, String> stored = new ConcurrentHashMap<>();
+
+        ImageResolver(ZipFile zip, ImageStorageService storage) {
+            this.zip = zip;
+            this.storage = storage;
+            if (zip == null) return;
+            zip.stream().filter(e -> !e.isDirectory()).forEach(e -> {
+                byName.put(e.getName(), e);
+                byName.putIfAbsent(StringUtils.getFilename(e.getName()), e);
+            });
+        }
+
+        /** 找不到图片时返回 null */
+        String resolve(String ref) {
+            String lower = ref.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("http://") || lower.startsWith("https://") || ref.startsWith("/uploads/")) return ref;
+            ZipEntry entry = byName.get(ref);
+            if (entry == null) entry = byName.get(StringUtils.getFilename(ref));
+            if (entry == null) return null;
+            ZipEntry e = entry;
+            String url = stored.get(e.getName());
+            if (url != null) return url;
+            // ZipFile 支持多线程同时读不同条目；两行同时引用同一张新图时可能各存一次，内容哈希命名保证只落一份文件
+            try {
+                url = storage.store(zip.getInputStream(e), e.getName());
+            } catch (IOException ex) {
+                throw new RuntimeException("读取压缩包图片失败: " + e.getName(), ex);
+            }
+            stored.putIfAbsent(e.getName(), url);
+            return url;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stopping = true;
+        jobExecutor.shutdown();
+        // 等当前这一批提交完，数据源关闭之前退出
+        if (!jobExecutor.awaitTermination(30, TimeUnit.SECONDS)) log.warn("导入线程没有在 30 秒内停止");
+        validationPool.shutdown();
+    }
+}
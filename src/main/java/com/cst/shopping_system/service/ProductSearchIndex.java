@@ -0,0 +1,173 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商品全文检索的内存倒排索引。
+ * 英文/数字按单词切分，中文按相邻两字（bigram）切分；标题命中的权重高于描述。
+ * 索引随商品的新建、修改、上下架同步更新，启动时从数据库全量重建。
+ */
+@Component
+@RequiredArgsConstructor
+public class ProductSearchIndex {
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final int REBUILD_BATCH = 1000;
+
+    // 按相关度排序时最多返回的命中数，更深的结果对用户没有意义；按价格/销量等排序时不截断
+    public static final int MAX_HITS = 1000;
+
+    private final ProductRepository productRepository;
+
+    // 倒排表：词 -> (商品ID -> 加权词频)
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Integer>> postings = new ConcurrentHashMap<>();
+
+    // 正排：商品ID -> 文档元数据
+    private final ConcurrentHashMap<Integer, Doc> docs = new ConcurrentHashMap<>();
+
+    private record Doc(String category, int status, Set<String> terms) {}
+
+    /** 搜索结果：按相关度排好序的商品ID（可能被截断）、命中总数（不截断）、各分类的命中数 */
+    public record Hits(List<Integer> ids, int total, Map<String, Long> categoryFacets) {}
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        postings.clear();
+        docs.clear();
+        int page = 0;
+        Page<Product> batch;
+        do {
+            batch = productRepository.findAll(PageRequest.of(page++, REBUILD_BATCH, Sort.by("id")));
+            batch.forEach(this::index);
+        } while (batch.hasNext());
+    }
+
+    /** 新增或更新一个商品的索引 */
+    public synchronized void index(Product product) {
+        remove(product.getId());
+
+        Map<String, Integer> tf = new HashMap<>();
+        for (String t : tokenize(product.getTitle(), false)) tf.merge(t, TITLE_WEIGHT, Integer::sum);
+        for (String t : tokenize(product.getDescription(), false)) tf.merge(t, DESCRIPTION_WEIGHT, Integer::sum);
+
+        tf.forEach((term, weight) ->
+                postings.computeIfAbsent(term, k -> new ConcurrentHashMap<>()).put(product.getId(), weight));
+        int status = product.getStatus() == null ? 0 : product.getStatus();
+        docs.put(product.getId(), new Doc(product.getCategory(), status, tf.keySet()));
+    }
+
+    /** 从索引中删除一个商品 */
+    public synchronized void remove(Integer productId) {
+        Doc old = docs.remove(productId);
+        if (old == null) return;
+        for (String term : old.terms()) {
+            Map<Integer, Integer> list = postings.get(term);
+            if (list == null) continue;
+            list.remove(productId);
+            if (list.isEmpty()) postings.remove(term);
+        }
+    }
+
+    /** 按相关度取前 MAX_HITS 个命中，见 {@link #search(String, Collection, int)} */
+    public Hits search(String keyword, Collection<String> categories) {
+        return search(keyword, categories, MAX_HITS);
+    }
+
+    /**
+     * 查询在售商品：所有关键词都要命中（AND），按 TF-IDF 打分，ids 最多保留 limit 个（limit <= 0 不截断）。
+     * 分类计数统计的是关键词命中的全部在售商品，不受 categories 过滤影响，便于前端展示可选分类。
+     */
+    public Hits search(String keyword, Collection<String> categories, int limit) {
+        List<String> terms = tokenize(keyword, true).stream().distinct().toList();
+        if (terms.isEmpty()) return new Hits(List.of(), 0, Map.of());
+
+        // 从最短的倒排表开始求交集
+        List<Map<Integer, Integer>> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            Map<Integer, Integer> list = postings.get(term);
+            if (list == null) return new Hits(List.of(), 0, Map.of());
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(Map::size));
+
+        double n = docs.size();
+        Map<String, Long> facets = new TreeMap<>();
+        Map<Integer, Double> scores = new HashMap<>();
+        candidates:
+        for (Integer id : lists.get(0).keySet()) {
+            double score = 0;
+            for (Map<Integer, Integer> list : lists) {
+                Integer w = list.get(id);
+                if (w == null) continue candidates;
+                score += w * Math.log(1 + n / list.size());
+            }
+            Doc doc = docs.get(id);
+            if (doc == null || doc.status() != 1) continue;
+            if (doc.category() != null) facets.merge(doc.category(), 1L, Long::sum);
+            if (categories != null && !categories.isEmpty() && !categories.contains(doc.category())) continue;
+            scores.put(id, score);
+        }
+
+        List<Integer> ids = scores.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.<Integer, Double>comparingByKey().reversed()))
+                .limit(limit > 0 ? limit : Long.MAX_VALUE)
+                .map(Map.Entry::getKey)
+                .toList();
+        return new Hits(ids, scores.size(), facets);
+    }
+
+    /**
+     * 分词：英文数字按连续片段切词，中文按相邻两字切分。
+     * 建索引时额外输出单字，以便单字查询也能命中；查询时连续中文只用两字词，单个汉字才用单字。
+     */
+    static List<String> tokenize(String text, boolean forQuery) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) return tokens;
+        String s = text.toLowerCase(Locale.ROOT);
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < s.length() && isCjk(s.charAt(i))) i++;
+                if (i - start == 1) {
+                    tokens.add(String.valueOf(c));
+                    continue;
+                }
+                for (int j = start; j + 1 < i; j++) {
+                    if (!forQuery) tokens.add(String.valueOf(s.charAt(j)));
+                    tokens.add(s.substring(j, j + 2));
+                }
+                if (!forQuery) tokens.add(String.valueOf(s.charAt(i - 1)));
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < s.length() && Character.isLetterOrDigit(s.charAt(i)) && !isCjk(s.charAt(i))) i++;
+                tokens.add(s.substring(start, i));
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -1,79 +1,86 @@
 package com.cst.shopping_system.service;
 
+import com.cst.shopping_system.dto.ProductCardDTO;
 import com.cst.shopping_system.entity.Product;
 import com.cst.shopping_system.entity.User;
 import com.cst.shopping_system.repository.ProductRepository;
 import com.cst.shopping_system.repository.UserRepository;
+import com.cst.shopping_system.util.KeysetCursor;
+import jakarta.persistence.criteria.Path;
 import jakarta.persistence.criteria.Predicate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Service
 public class ProductService {
 
+    // 关键词命中按这个大小分组放进 IN 列表：每条 SQL 的长度固定，不随命中数（也就是目录大小）增长
+    static final int ID_CHUNK = 1000;
+
     @Autowired
     private ProductRepository productRepository;
 
     @Autowired
     private UserRepository userRepository;
 
-    // 使用 System.getProperty("user.home") 获取当前用户的主目录
-    public static final String UPLOAD_DIR = System.getProperty("user.home") + "/app-uploads/"; // 上传的图片存储地址
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    @Autowired
+    private ProductCatalogCache catalogCache;
 
+    @Autowired
+    private ImageStorageService imageStorage;
+
+    @Autowired
+    private SalesLeaderboard leaderboard;
+
+    @Autowired
+    private CartViewCache cartViews;
+
+    @Autowired
+    private InventoryService inventory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
 
     public Product createProduct(Product product, Integer sellerId, MultipartFile[] files) {
         User seller = userRepository.findById(sellerId)
                 .orElseThrow(() -> new RuntimeException("卖家用户不存在, ID: " + sellerId));
         // 处理图片上传
-        List<String> imageUrls = new ArrayList<>();
-        if (files != null && files.length > 0) {
-            File uploadDir = new File(UPLOAD_DIR);
-
-            if (!uploadDir.exists()) {
-                uploadDir.mkdirs();
-            }
-
-            for (MultipartFile file : files) {
-                if (file.isEmpty()) {
-                    continue;
-                }
-                // 生成唯一文件名
-                String uniqueFileName = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-                try {
-                    Files.copy(file.getInputStream(), Paths.get(UPLOAD_DIR + uniqueFileName), StandardCopyOption.REPLACE_EXISTING);
-                    imageUrls.add("/uploads/" + uniqueFileName);
-                } catch (IOException e) {
-                    throw new RuntimeException("文件上传失败: " + file.getOriginalFilename(), e);
-                }
-            }
-        }
+        List<String> imageUrls = storeImages(files);
 
         product.setSeller(seller);
         product.setCreatedTime(new Date());
         // 将图片URL列表合并成一个字符串
         product.setImageUrls(String.join(",", imageUrls));
 
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        searchIndex.index(saved);
+        catalogCache.onProductChanged(saved.getId());
+        leaderboard.onProductChanged(saved);
+        return saved;
     }
 
     public List<Product> findAllProducts() {
@@ -82,35 +89,155 @@ public class ProductService {
     }
 
     public Product findProductById(Integer id) {
-        return productRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("商品不存在, ID: " + id));
+        return catalogCache.getProduct(id, key -> productRepository.findById(key)
+                .orElseThrow(() -> new RuntimeException("商品不存在, ID: " + key)));
     }
 
+    /** 分页结果；有关键词时带上同一次搜索的分类计数，没有关键词时 facets 为 null */
+    public record ListingPage(Page<ProductCardDTO> page, Map<String, Long> facets) {}
+
     /**
-     * 搜索、多选筛选、排序和分页
+     * 搜索、多选筛选、排序和分页。
+     * 有关键词时先查内存倒排索引拿到命中的商品ID，不再对标题/描述做 LIKE 全表扫描；
+     * sortBy=relevance 时直接按索引的相关度排序。
      */
-    public Page<Product> findProducts(String keyword, List<String> categories, String sortBy, int page, int size) {
+    public ListingPage findProducts(String keyword, List<String> categories, String sortBy, int page, int size) {
+        ProductCatalogCache.ListingKey key = new ProductCatalogCache.ListingKey(keyword, categories, sortBy, page, size);
+        return catalogCache.getListing(key, k -> queryProducts(keyword, categories, sortBy, page, size));
+    }
+
+    private ListingPage queryProducts(String keyword, List<String> categories, String sortBy, int page, int size) {
         // 排序
-        Sort sort = switch (sortBy) {
-            case "price-asc" -> Sort.by(Sort.Direction.ASC, "price");
-            case "price-desc" -> Sort.by(Sort.Direction.DESC, "price");
-            case "sales" -> Sort.by(Sort.Direction.DESC, "sales");
-            case "favorites" -> Sort.by(Sort.Direction.DESC, "favoriteCount");
-            default -> Sort.by(Sort.Direction.DESC, "createdTime");
-        };
+        KeysetField field = KeysetField.of(sortBy);
+        Sort sort = Sort.by(field.direction, field.property);
 
         // 分页请求
         Pageable pageable = PageRequest.of(page, size, sort);
 
-        Specification<Product> spec = (root, query, criteriaBuilder) -> {
+        if (StringUtils.hasText(keyword)) {
+            ProductSearchIndex.Hits hits = search(keyword, categories, sortBy);
+            Map<String, Long> facets = hits.categoryFacets();
+            if (hits.ids().isEmpty()) {
+                return new ListingPage(Page.empty(pageable), facets);
+            }
+            if ("relevance".equals(sortBy)) {
+                return new ListingPage(relevancePage(hits, PageRequest.of(page, size)), facets);
+            }
+            return new ListingPage(hitsPage(hits, categories, field, pageable), facets);
+        }
+
+        // 返回分页结果（只查卡片需要的列）
+        return new ListingPage(productRepository.findCards(listingSpec(null, categories), pageable), null);
+    }
+
+    // 按价格/销量等排序的关键词结果：取出排在当前页之前的所有行再截出当前页，总数用索引的命中数，不再 COUNT
+    private Page<ProductCardDTO> hitsPage(ProductSearchIndex.Hits hits, List<String> categories,
+                                          KeysetField field, Pageable pageable) {
+        if (pageable.getOffset() >= hits.total()) {
+            return new PageImpl<>(List.of(), pageable, hits.total());
+        }
+        int from = (int) pageable.getOffset();
+        List<ProductCardDTO> top = topHits(hits.ids(), categories, field, null, from + pageable.getPageSize());
+        List<ProductCardDTO> content = from < top.size() ? List.copyOf(top.subList(from, top.size())) : List.of();
+        return new PageImpl<>(content, pageable, hits.total());
+    }
+
+    /**
+     * 在关键词命中的商品里按 (排序字段, id) 取游标之后的前 limit 行。
+     * 命中按 ID_CHUNK 个一组查询，每组各取前 limit 行，再在内存里归并取前 limit 行；
+     * 结果和对全部命中一次排序相同，但每条 SQL 的 IN 列表和返回行数都有上限。
+     */
+    private List<ProductCardDTO> topHits(List<Integer> ids, List<String> categories, KeysetField field,
+                                         Keyset after, int limit) {
+        List<ProductCardDTO> merged = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += ID_CHUNK) {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + ID_CHUNK));
+            merged.addAll(productRepository.findCards(listingSpec(chunk, categories).and(keysetAfter(field, after)),
+                    field.sort(), limit));
+        }
+        merged.sort(field.comparator());
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
+    // 只有相关度排序按 MAX_HITS 截断；其他排序要在全部命中里排，否则截断会丢掉本该排在前面的商品
+    private ProductSearchIndex.Hits search(String keyword, List<String> categories, String sortBy) {
+        int limit = "relevance".equals(sortBy) ? ProductSearchIndex.MAX_HITS : 0;
+        return searchIndex.search(keyword, categories, limit);
+    }
+
+    /**
+     * 游标分页结果：nextCursor 为 null 表示已到最后一页；totalItems 为近似总数，未请求时为 -1；
+     * facets 同 {@link ListingPage}
+     */
+    public record CursorPage(List<ProductCardDTO> content, String nextCursor, long totalItems, Map<String, Long> facets) {}
+
+    /**
+     * 游标（keyset）分页：按 (排序字段, id) 记住上一页最后一行，下一页用 WHERE 条件直接定位，
+     * 不用 OFFSET，也不做 COUNT(*)，翻到第 N 页和第 1 页的代价相同。
+     * 需要总数时返回按筛选条件缓存的近似值。
+     */
+    public CursorPage findProductsByCursor(String keyword, List<String> categories, String sortBy,
+                                           String cursor, int size, boolean withTotal) {
+        ProductSearchIndex.Hits hits = null;
+        if (StringUtils.hasText(keyword)) {
+            hits = search(keyword, categories, sortBy);
+            if ("relevance".equals(sortBy)) {
+                return relevanceCursorPage(hits, cursor, size, withTotal);
+            }
+            if (hits.ids().isEmpty()) {
+                return new CursorPage(List.of(), null, withTotal ? 0 : -1, hits.categoryFacets());
+            }
+        }
+
+        KeysetField field = KeysetField.of(sortBy);
+        Keyset after = parseCursor(field, cursor);
+        Specification<Product> filter = listingSpec(null, categories);
+        List<ProductCardDTO> rows = hits != null
+                ? topHits(hits.ids(), categories, field, after, size + 1)
+                : productRepository.findCards(filter.and(keysetAfter(field, after)), field.sort(), size + 1);
+        boolean hasMore = rows.size() > size;
+        List<ProductCardDTO> content = hasMore ? List.copyOf(rows.subList(0, size)) : rows;
+        String next = null;
+        if (hasMore) {
+            ProductCardDTO last = content.get(content.size() - 1);
+            next = KeysetCursor.encode(field.format(last), last.id());
+        }
+
+        if (hits != null) {
+            return new CursorPage(content, next, withTotal ? hits.total() : -1, hits.categoryFacets());
+        }
+        long total = -1;
+        if (withTotal) {
+            ProductCatalogCache.ListingKey countKey = new ProductCatalogCache.ListingKey("", categories, "", 0, 0);
+            total = catalogCache.getCount(countKey, k -> productRepository.count(filter));
+        }
+        return new CursorPage(content, next, total, null);
+    }
+
+    // 相关度排序的顺序来自内存索引，游标里记的是在命中列表中的偏移
+    private CursorPage relevanceCursorPage(ProductSearchIndex.Hits hits, String cursor, int size, boolean withTotal) {
+        String[] after = KeysetCursor.decode(cursor, 1);
+        List<Integer> ids = hits.ids();
+        int from;
+        try {
+            from = after == null ? 0 : Math.min(Integer.parseInt(after[0]), ids.size());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("无效的分页游标");
+        }
+        int to = Math.min(from + size, ids.size());
+        String next = to < ids.size() ? KeysetCursor.encode(to) : null;
+        return new CursorPage(loadInOrder(ids.subList(from, to)), next, withTotal ? hits.total() : -1,
+                hits.categoryFacets());
+    }
+
+    private static Specification<Product> listingSpec(List<Integer> ids, List<String> categories) {
+        return (root, query, criteriaBuilder) -> {
             List<Predicate> predicates = new ArrayList<>();
             predicates.add(criteriaBuilder.equal(root.get("status"), 1));
 
-            // 模糊查询
-            if (StringUtils.hasText(keyword)) {
-                Predicate titleLike = criteriaBuilder.like(criteriaBuilder.lower(root.get("title")), "%" + keyword.toLowerCase() + "%");
-                Predicate descriptionLike = criteriaBuilder.like(criteriaBuilder.lower(root.get("description")), "%" + keyword.toLowerCase() + "%");
-                predicates.add(criteriaBuilder.or(titleLike, descriptionLike));
+            // 关键词命中的商品
+            if (ids != null) {
+                predicates.add(root.get("id").in(ids));
             }
 
             // 多品类筛选 (使用 IN 语句)
@@ -120,9 +247,115 @@ public class ProductService {
 
             return criteriaBuilder.and(predicates.toArray(new Predicate[0]));
         };
+    }
 
-        // 返回分页结果
-        return productRepository.findAll(spec, pageable);
+    /** 游标里记的上一页最后一行：排序值和 ID */
+    record Keyset(Comparable<?> value, Integer lastId) {}
+
+    // 在进入查询之前把游标解析完，篡改过的游标统一报“无效的分页游标”
+    static Keyset parseCursor(KeysetField field, String cursor) {
+        String[] after = KeysetCursor.decode(cursor, 2);
+        if (after == null) return null;
+        try {
+            return new Keyset(field.parse(after[0]), Integer.valueOf(after[1]));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("无效的分页游标");
+        }
+    }
+
+    // (field, id) 严格位于游标之后的行
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Specification<Product> keysetAfter(KeysetField field, Keyset after) {
+        return (root, query, cb) -> {
+            if (after == null) return null;
+            Comparable value = after.value();
+            Integer lastId = after.lastId();
+            Path<Comparable> path = root.get(field.property);
+            Path<Integer> id = root.get("id");
+            if (field.direction == Sort.Direction.DESC) {
+                return cb.or(cb.lessThan(path, value), cb.and(cb.equal(path, value), cb.lessThan(id, lastId)));
+            }
+            return cb.or(cb.greaterThan(path, value), cb.and(cb.equal(path, value), cb.greaterThan(id, lastId)));
+        };
+    }
+
+    // 各 sortBy 对应的排序字段；游标分页要求这些列非空（见 sql/upgrade.sql）
+    enum KeysetField {
+        LATEST("createdTime", Sort.Direction.DESC),
+        PRICE_ASC("price", Sort.Direction.ASC),
+        PRICE_DESC("price", Sort.Direction.DESC),
+        SALES("sales", Sort.Direction.DESC),
+        FAVORITES("favoriteCount", Sort.Direction.DESC);
+
+        final String property;
+        final Sort.Direction direction;
+
+        KeysetField(String property, Sort.Direction direction) {
+            this.property = property;
+            this.direction = direction;
+        }
+
+        // 游标分页和关键词结果的归并都按 (排序字段, id) 排，id 打破并列
+        Sort sort() {
+            return Sort.by(direction, property).and(Sort.by(direction, "id"));
+        }
+
+        // 与 sort() 一致的内存排序，用于归并各组命中的查询结果
+        Comparator<ProductCardDTO> comparator() {
+            Comparator<ProductCardDTO> byValue = switch (this) {
+                case LATEST -> Comparator.comparing(p -> p.createdTime().getTime());
+                case PRICE_ASC, PRICE_DESC -> Comparator.comparing(ProductCardDTO::price);
+                case SALES -> Comparator.comparing(ProductCardDTO::sales);
+                case FAVORITES -> Comparator.comparing(ProductCardDTO::favoriteCount);
+            };
+            Comparator<ProductCardDTO> c = byValue.thenComparing(ProductCardDTO::id);
+            return direction == Sort.Direction.DESC ? c.reversed() : c;
+        }
+
+        static KeysetField of(String sortBy) {
+            return switch (sortBy) {
+                case "price-asc" -> PRICE_ASC;
+                case "price-desc" -> PRICE_DESC;
+                case "sales" -> SALES;
+                case "favorites" -> FAVORITES;
+                default -> LATEST;
+            };
+        }
+
+        String format(ProductCardDTO p) {
+            return switch (this) {
+                case LATEST -> String.valueOf(p.createdTime().getTime());
+                case PRICE_ASC, PRICE_DESC -> p.price().toPlainString();
+                case SALES -> String.valueOf(p.sales());
+                case FAVORITES -> String.valueOf(p.favoriteCount());
+            };
+        }
+
+        Comparable<?> parse(String raw) {
+            try {
+                return switch (this) {
+                    case LATEST -> new Date(Long.parseLong(raw));
+                    case PRICE_ASC, PRICE_DESC -> new BigDecimal(raw);
+                    case SALES, FAVORITES -> Integer.valueOf(raw);
+                };
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("无效的分页游标");
+            }
+        }
+    }
+
+    // 按相关度分页：只加载当前页的商品，再按索引给出的顺序排好；总数报真实命中数，超出 MAX_HITS 的页为空
+    private Page<ProductCardDTO> relevancePage(ProductSearchIndex.Hits hits, Pageable pageable) {
+        List<Integer> ids = hits.ids();
+        int from = (int) Math.min(pageable.getOffset(), ids.size());
+        int to = Math.min(from + pageable.getPageSize(), ids.size());
+        return new PageImpl<>(loadInOrder(ids.subList(from, to)), pageable, hits.total());
+    }
+
+    private List<ProductCardDTO> loadInOrder(List<Integer> ids) {
+        Map<Integer, ProductCardDTO> byId = productRepository.findCardsByIdIn(ids).stream()
+                .collect(Collectors.toMap(ProductCardDTO::id, Function.identity()));
+        return ids.stream().map(byId::get).filter(Objects::nonNull).toList();
     }
 
     // 新增：根据卖家ID查找其所有商品
@@ -130,37 +363,17 @@ public class ProductService {
         return productRepository.findBySellerIdOrderByCreatedTimeDesc(sellerId);
     }
 
+    // 我的商品列表：卡片投影
+    public List<ProductCardDTO> findProductCardsBySellerId(Integer sellerId) {
+        return productRepository.findCardsBySellerId(sellerId);
+    }
+
     // 修改：更新商品信息的方法
-    @Transactional
+    // 先写图片文件（不占数据库连接），再在一个短事务里读取并更新商品，读和写之间不再夹着文件 I/O。
+    // 保存实体不写销量、库存、收藏数；库存按“卖家填的值 - 读到的值”做增量更新，期间被订单扣掉的库存不会被加回来
     public Product updateProduct(Integer productId, Product productDetails, List<String> existingImageUrls, MultipartFile[] newFiles) {
-        Product existingProduct = productRepository.findById(productId)
-                .orElseThrow(() -> new RuntimeException("商品不存在, ID: " + productId));
-
-        existingProduct.setTitle(productDetails.getTitle());
-        existingProduct.setPrice(productDetails.getPrice());
-        existingProduct.setStock(productDetails.getStock());
-        existingProduct.setDescription(productDetails.getDescription());
-        existingProduct.setCategory(productDetails.getCategory());
-
-
         // 处理新上传的图片
-        List<String> newImageUrls = new ArrayList<>();
-        if (newFiles != null && newFiles.length > 0) {
-            File uploadDir = new File(UPLOAD_DIR);
-            if (!uploadDir.exists()) {
-                uploadDir.mkdirs();
-            }
-            for (MultipartFile file : newFiles) {
-                if (file.isEmpty()) continue;
-                String uniqueFileName = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-                try {
-                    Files.copy(file.getInputStream(), Paths.get(UPLOAD_DIR + uniqueFileName), StandardCopyOption.REPLACE_EXISTING);
-                    newImageUrls.add("/uploads/" + uniqueFileName);
-                } catch (IOException e) {
-                    throw new RuntimeException("文件上传失败: " + file.getOriginalFilename(), e);
-                }
-            }
-        }
+        List<String> newImageUrls = storeImages(newFiles);
 
         // 合并旧图片和新图片
         List<String> finalImageUrls = Stream.concat(
@@ -168,27 +381,66 @@ public class ProductService {
                 newImageUrls.stream()
         ).collect(Collectors.toList());
 
-        existingProduct.setImageUrls(String.join(",", finalImageUrls));
+        Product saved = transactionTemplate.execute(status -> {
+            Product existingProduct = productRepository.findById(productId)
+                    .orElseThrow(() -> new RuntimeException("商品不存在, ID: " + productId));
+
+            existingProduct.setTitle(productDetails.getTitle());
+            existingProduct.setPrice(productDetails.getPrice());
+            existingProduct.setDescription(productDetails.getDescription());
+            existingProduct.setCategory(productDetails.getCategory());
+            existingProduct.setImageUrls(String.join(",", finalImageUrls));
+
+            Product updated = productRepository.save(existingProduct);
+            Integer stock = productDetails.getStock();
+            if (stock != null && !stock.equals(existingProduct.getStock())) {
+                int delta = stock - existingProduct.getStock();
+                productRepository.adjustStock(productId, delta);
+                updated.setStock(Math.max(existingProduct.getStock() + delta, 0));
+            }
+            catalogCache.onProductChanged(productId);
+            cartViews.evictAll();
+            return updated;
+        });
+        // 闪购中的商品改了库存，内存闸门要按新库存重新装载
+        inventory.reloadFlashSale(productId);
+        searchIndex.index(saved);
+        leaderboard.onProductChanged(saved);
+        return saved;
+    }
 
-        return productRepository.save(existingProduct);
+    private List<String> storeImages(MultipartFile[] files) {
+        List<String> urls = new ArrayList<>();
+        if (files == null) return urls;
+        for (MultipartFile file : files) {
+            if (file.isEmpty()) continue;
+            urls.add(imageStorage.store(file));
+        }
+        return urls;
     }
 
     // 修改后：逻辑下架（只是把 status 改为 0）
+    @Transactional
     public void deleteProduct(Integer productId) {
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new RuntimeException("商品不存在, ID: " + productId));
-
-        product.setStatus(0); // 0 表示下架
-        productRepository.save(product); // 保存更改
+        changeStatus(productId, 0, "商品不存在, ID: " + productId); // 0 表示下架
     }
 
     // ★★★ 新增方法 ★★★
     @Transactional
     public void updateProductStatus(Integer productId, Integer status) {
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new RuntimeException("商品不存在"));
-        product.setStatus(status);
-        productRepository.save(product);
+        changeStatus(productId, status, "商品不存在");
+    }
+
+    // 一条 UPDATE 只改 status，不会把读到的旧销量、库存、收藏数写回去；之后再读一次商品给索引和排行榜用
+    private void changeStatus(Integer productId, Integer status, String notFound) {
+        if (productRepository.updateStatus(productId, status) == 0) {
+            throw new RuntimeException(notFound);
+        }
+        Product product = productRepository.findById(productId).orElseThrow(() -> new RuntimeException(notFound));
+        searchIndex.index(product);
+        catalogCache.onProductChanged(productId);
+        cartViews.evictAll();
+        leaderboard.onProductChanged(product);
     }
 }
 
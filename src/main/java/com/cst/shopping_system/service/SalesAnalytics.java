@@ -0,0 +1,515 @@
+package com.cst.shopping_system.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 销售分析：按 商品 / 分类 / 卖家 × 分钟 / 小时 / 天 预聚合销量和销售额，查询时间序列不扫 order_item。
+ * 每个时间桶是一张原始数组实现的开放寻址哈希表（key -> 销量、销售额分），只存这个桶里有成交的维度；
+ * 每种粒度的桶放在一个环里，超出保留期的桶被新桶覆盖。
+ * 订单提交后由发件箱投递的 OrderCreated 事件增量写入内存；小时和天的增量定期批量累加到 sales_rollup 表，启动时从表里装回。
+ * 分钟粒度只在内存里，启动时用最近一天的订单补齐。
+ * 写 sales_rollup 的同一事务里登记 analytics_applied(order_id)：进程崩溃丢掉的增量在下次启动时
+ * 从最近 REPLAY_DAYS 天里没登记过的订单补回；装载时还没投递的发件箱事件已经算在装载结果里，
+ * 之后再投递过来时跳过（{@link #alreadyIncludes}），重复投递不会重复计数。
+ */
+@Slf4j
+@Component
+public class SalesAnalytics implements OrderEventConsumer {
+
+    public enum Dimension { PRODUCT, CATEGORY, SELLER }
+
+    public enum Resolution {
+        MINUTE(60, 24 * 60, false),
+        HOUR(3600, 24 * 30, true),
+        DAY(86400, 400, true);
+
+        final long seconds;
+        final int retention; // 保留的桶数
+        final boolean persisted;
+
+        Resolution(long seconds, int retention, boolean persisted) {
+            this.seconds = seconds;
+            this.retention = retention;
+            this.persisted = persisted;
+        }
+    }
+
+    /** 一段时间序列：start 为第一个桶的起始时间（毫秒），每个桶 stepMillis */
+    public record Series(long start, long stepMillis, long[] units, long[] revenueCents) {}
+
+    /** 一条成交明细，下单时取好字段 */
+    record SaleLine(int productId, int sellerId, String category, int quantity, long revenueCents) {}
+
+    static final int REPLAY_DAYS = 2;
+    // analytics_applied 只需要覆盖重放窗口，多留几天
+    static final int RETAIN_DAYS = 7;
+
+    private static final String APPLY_SQL = "INSERT INTO analytics_applied (order_id, applied_time) VALUES (?, ?)";
+    private static final String UPSERT_SQL = "INSERT INTO sales_rollup "
+            + "(resolution, bucket, dim, dim_key, units, revenue_cents) VALUES (?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE units = units + VALUES(units), revenue_cents = revenue_cents + VALUES(revenue_cents)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streaming;
+    private final TransactionTemplate tx;
+    private final TransactionTemplate snapshotTx;
+    private final Clock clock;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 刷新和启动装载串行执行，装载读快照时不会有一批增量正在提交
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Map<Resolution, Ring> rings = new HashMap<>();
+    // 分类编号在内存里换成连续整数，和商品/卖家 ID 一样编进 long key
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+    private final List<String> categoryCodes = new ArrayList<>();
+    // 增量已经记进内存、还没写进 sales_rollup 的订单；和增量一起写库时登记
+    private Set<Long> pendingOrders = new HashSet<>();
+    // 上次装载时已提交、还没投递的发件箱事件 id：它们的订单已经在装载结果里
+    private volatile Set<Long> loadedEvents = Set.of();
+
+    @Autowired
+    public SalesAnalytics(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager) {
+        this(jdbcTemplate, streaming(jdbcTemplate), txManager, Clock.systemDefaultZone());
+    }
+
+    SalesAnalytics(JdbcTemplate jdbcTemplate, JdbcTemplate streaming, PlatformTransactionManager txManager, Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streaming = streaming;
+        this.tx = new TransactionTemplate(txManager);
+        // 装载的几条查询放在一个只读的可重复读事务里，读到的是同一个快照
+        this.snapshotTx = new TransactionTemplate(txManager);
+        snapshotTx.setReadOnly(true);
+        snapshotTx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.clock = clock;
+        for (Resolution r : Resolution.values()) rings.put(r, new Ring(r));
+    }
+
+    // MySQL 驱动在 fetchSize = Integer.MIN_VALUE 时按行流式读取，重放历史订单不把结果集整个放进内存
+    private static JdbcTemplate streaming(JdbcTemplate jdbcTemplate) {
+        JdbcTemplate t = new JdbcTemplate(jdbcTemplate.getDataSource());
+        t.setFetchSize(Integer.MIN_VALUE);
+        return t;
+    }
+
+    /** 下单：记录各明细的销量和销售额；事件由发件箱在订单提交后投递，还没写库的重复投递直接跳过 */
+    @Override
+    public void onOrderCreated(OrderOutbox.OrderCreated event) {
+        List<SaleLine> lines = new ArrayList<>(event.lines().size());
+        for (OrderOutbox.Line l : event.lines()) {
+            lines.add(new SaleLine(l.productId(), l.sellerId(), l.category(), l.quantity(),
+                    toCents(l.unitPrice()) * l.quantity()));
+        }
+        lock.writeLock().lock();
+        try {
+            if (!pendingOrders.add(event.orderId())) return;
+            for (Ring ring : rings.values()) apply(ring, event.orderTime(), lines);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean alreadyIncludes(long eventId) {
+        return loadedEvents.contains(eventId);
+    }
+
+    void record(long epochMillis, List<SaleLine> lines) {
+        lock.writeLock().lock();
+        try {
+            for (Ring ring : rings.values()) apply(ring, epochMillis, lines);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(Ring ring, long epochMillis, List<SaleLine> lines) {
+        Resolution r = ring.resolution;
+        long bucket = bucketOf(epochMillis, r);
+        if (bucket <= bucketOf(clock.millis(), r) - r.retention) return; // 早于保留期
+        BucketTable table = ring.table(bucket);
+        if (table == null) return;
+        BucketTable pending = r.persisted ? ring.pending.computeIfAbsent(bucket, b -> new BucketTable()) : null;
+        for (SaleLine l : lines) {
+            add(table, pending, key(Dimension.PRODUCT, l.productId()), l);
+            add(table, pending, key(Dimension.SELLER, l.sellerId()), l);
+            if (l.category() != null) add(table, pending, key(Dimension.CATEGORY, categoryId(l.category())), l);
+        }
+    }
+
+    private static void add(BucketTable table, BucketTable pending, long key, SaleLine l) {
+        table.add(key, l.quantity(), l.revenueCents());
+        if (pending != null) pending.add(key, l.quantity(), l.revenueCents());
+    }
+
+    /** 以 toMillis 所在桶结尾、往前 points 个桶的时间序列（points 不超过保留期） */
+    public Series series(Dimension dim, String dimKey, Resolution resolution, long toMillis, int points) {
+        int n = Math.max(1, Math.min(points, resolution.retention));
+        long last = bucketOf(toMillis, resolution);
+        long first = last - n + 1;
+        long[] units = new long[n];
+        long[] cents = new long[n];
+        lock.readLock().lock();
+        try {
+            long key = keyOf(dim, dimKey);
+            if (key != 0) {
+                Ring ring = rings.get(resolution);
+                for (int i = 0; i < n; i++) {
+                    BucketTable t = ring.peek(first + i);
+                    if (t == null) continue;
+                    int slot = t.find(key);
+                    if (slot < 0) continue;
+                    units[i] = t.units[slot];
+                    cents[i] = t.cents[slot];
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new Series(startMillis(first, resolution), resolution.seconds * 1000, units, cents);
+    }
+
+    public Series series(Dimension dim, String dimKey, Resolution resolution, int points) {
+        return series(dim, dimKey, resolution, clock.millis(), points);
+    }
+
+    // ---------------------------------------------------------------- 持久化
+
+    /** 把小时、天的增量累加进 sales_rollup，同一事务里登记这些订单；失败时增量放回，下次重试 */
+    @Scheduled(fixedDelay = 10_000)
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushPending();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushPending() {
+        Map<Resolution, Map<Long, BucketTable>> taken = new HashMap<>();
+        List<Object[]> rows = new ArrayList<>();
+        Set<Long> orders;
+        lock.writeLock().lock();
+        try {
+            orders = pendingOrders;
+            pendingOrders = new HashSet<>();
+            for (Ring ring : rings.values()) {
+                if (ring.pending.isEmpty()) continue;
+                taken.put(ring.resolution, ring.pending);
+                for (Map.Entry<Long, BucketTable> e : ring.pending.entrySet()) {
+                    BucketTable t = e.getValue();
+                    for (int i = 0; i < t.keys.length; i++) {
+                        if (t.keys[i] == 0) continue;
+                        rows.add(new Object[]{ring.resolution.name(), e.getKey(), dimOf(t.keys[i]).name(),
+                                dimKeyOf(t.keys[i]), t.units[i], t.cents[i]});
+                    }
+                }
+                ring.pending = new HashMap<>();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (rows.isEmpty() && orders.isEmpty()) return;
+
+        // 按主键顺序写，多个实例同时刷新时加锁顺序一致
+        rows.sort(Comparator.<Object[], String>comparing(r -> (String) r[0])
+                .thenComparing(r -> (String) r[2])
+                .thenComparing(r -> (String) r[3])
+                .thenComparingLong(r -> (Long) r[1]));
+        Timestamp now = new Timestamp(clock.millis());
+        List<Object[]> marks = orders.stream().sorted().map(id -> new Object[]{id, now}).toList();
+        try {
+            tx.executeWithoutResult(status -> {
+                if (!marks.isEmpty()) jdbcTemplate.batchUpdate(APPLY_SQL, marks);
+                if (!rows.isEmpty()) jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+            });
+        } catch (RuntimeException e) {
+            log.warn("销售汇总写库失败，{} 行增量留到下次: {}", rows.size(), e.getMessage());
+            restore(taken, orders);
+        }
+    }
+
+    private void restore(Map<Resolution, Map<Long, BucketTable>> taken, Set<Long> orders) {
+        lock.writeLock().lock();
+        try {
+            pendingOrders.addAll(orders);
+            taken.forEach((resolution, buckets) -> {
+                Map<Long, BucketTable> pending = rings.get(resolution).pending;
+                buckets.forEach((bucket, t) -> pending.merge(bucket, t, BucketTable::mergeFrom));
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 启动：小时、天从 sales_rollup 装回（表为空时从历史订单回填），分钟用最近一天的订单补齐，
+     * 最近 REPLAY_DAYS 天里没登记过的订单（上次没来得及写库）补进小时、天的增量。
+     * 所有查询在同一个快照里完成；装载期间持有写锁，装载前已经记进内存的数据丢掉，以快照为准。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long begin = System.nanoTime();
+        long now = clock.millis();
+        Set<Long> pendingEvents = new HashSet<>();
+        boolean[] backfilled = new boolean[1];
+        flushLock.lock();
+        lock.writeLock().lock();
+        try {
+            for (Resolution r : Resolution.values()) rings.put(r, new Ring(r));
+            pendingOrders = new HashSet<>();
+            snapshotTx.executeWithoutResult(status -> {
+                jdbcTemplate.query("SELECT id FROM order_outbox WHERE published_time IS NULL", rs -> {
+                    pendingEvents.add(rs.getLong(1));
+                });
+                Integer existing = jdbcTemplate.queryForObject(
+                        "SELECT COUNT(*) FROM (SELECT 1 FROM sales_rollup LIMIT 1) t", Integer.class);
+                backfilled[0] = existing == null || existing == 0;
+                if (backfilled[0]) {
+                    // 回填会同时填满分钟环，不用再单独补
+                    replayOrders(now - Resolution.DAY.retention * Resolution.DAY.seconds * 1000, now, true);
+                } else {
+                    for (Resolution r : Resolution.values()) {
+                        if (r.persisted) loadRollup(r, bucketOf(now, r) - r.retention + 1);
+                    }
+                    // 重放窗口（2 天）覆盖了分钟环的一天
+                    replayOrders(now - TimeUnit.DAYS.toMillis(REPLAY_DAYS), now, false);
+                }
+            });
+            loadedEvents = Set.copyOf(pendingEvents);
+            if (backfilled[0]) {
+                flushPending();
+                log.info("sales_rollup 为空，已从历史订单回填");
+            }
+        } finally {
+            lock.writeLock().unlock();
+            flushLock.unlock();
+        }
+        log.info("销售分析数据装载完成: 跳过 {} 条已计入的待投递事件, {} ms",
+                pendingEvents.size(), (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    private void loadRollup(Resolution r, long fromBucket) {
+        Ring ring = rings.get(r);
+        jdbcTemplate.query("SELECT bucket, dim, dim_key, units, revenue_cents FROM sales_rollup "
+                + "WHERE resolution = ? AND bucket >= ?", rs -> {
+            BucketTable t = ring.table(rs.getLong(1));
+            if (t == null) return;
+            Dimension dim = Dimension.valueOf(rs.getString(2));
+            String dimKey = rs.getString(3);
+            long key = dim == Dimension.CATEGORY ? key(dim, categoryId(dimKey)) : key(dim, Integer.parseInt(dimKey));
+            t.add(key, rs.getLong(4), rs.getLong(5));
+        }, r.name(), fromBucket);
+    }
+
+    /**
+     * 按订单时间重放 sinceMillis 之后的历史明细：分钟环全部重放；小时、天只重放没登记过的订单
+     * （回填时全部重放），其中重放窗口内的订单写库时一并登记。调用方持有写锁。
+     */
+    private void replayOrders(long sinceMillis, long now, boolean backfill) {
+        long replaySince = now - TimeUnit.DAYS.toMillis(REPLAY_DAYS);
+        Ring minutes = rings.get(Resolution.MINUTE);
+        streaming.query("""
+                SELECT o.id, o.order_time, oi.product_id, p.seller_id, p.category, oi.quantity, oi.unit_price,
+                       a.order_id IS NULL
+                FROM orders o JOIN order_item oi ON oi.order_id = o.id JOIN product p ON p.id = oi.product_id
+                LEFT JOIN analytics_applied a ON a.order_id = o.id
+                WHERE o.order_time >= ?
+                """, rs -> {
+            List<SaleLine> line = List.of(new SaleLine(rs.getInt(3), rs.getInt(4), rs.getString(5), rs.getInt(6),
+                    toCents(rs.getBigDecimal(7)) * rs.getInt(6)));
+            long orderId = rs.getLong(1);
+            long at = rs.getTimestamp(2).getTime();
+            boolean unapplied = rs.getBoolean(8);
+            apply(minutes, at, line);
+            if (!backfill && !unapplied) return;
+            for (Ring ring : rings.values()) {
+                if (ring.resolution.persisted) apply(ring, at, line);
+            }
+            if (unapplied && at >= replaySince) pendingOrders.add(orderId);
+        }, new Timestamp(sinceMillis));
+    }
+
+    /** 清理超出重放窗口的登记记录 */
+    @Scheduled(cron = "0 20 4 * * *")
+    public void prune() {
+        Timestamp before = new Timestamp(clock.millis() - TimeUnit.DAYS.toMillis(RETAIN_DAYS));
+        int n = jdbcTemplate.update("DELETE FROM analytics_applied WHERE applied_time < ?", before);
+        if (n > 0) log.info("清理 {} 条销售分析登记记录", n);
+    }
+
+    // ---------------------------------------------------------------- 桶与 key
+
+    // 按应用时区对齐：天桶从本地零点开始
+    private long bucketOf(long epochMillis, Resolution r) {
+        long local = Math.floorDiv(epochMillis, 1000L) + offsetSeconds(epochMillis);
+        return Math.floorDiv(local, r.seconds);
+    }
+
+    private long startMillis(long bucket, Resolution r) {
+        long local = bucket * r.seconds;
+        return (local - offsetSeconds(local * 1000)) * 1000;
+    }
+
+    private int offsetSeconds(long epochMillis) {
+        return clock.getZone().getRules().getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds();
+    }
+
+    private static long key(Dimension dim, int id) {
+        return ((long) (dim.ordinal() + 1) << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    private static Dimension dimOf(long key) {
+        return Dimension.values()[(int) (key >>> 32) - 1];
+    }
+
+    private String dimKeyOf(long key) {
+        int id = (int) key;
+        return dimOf(key) == Dimension.CATEGORY ? categoryCodes.get(id) : String.valueOf(id);
+    }
+
+    // 查询用：不认识的分类或非法 ID 返回 0（没有数据）
+    private long keyOf(Dimension dim, String dimKey) {
+        if (dim == Dimension.CATEGORY) {
+            Integer id = categoryIds.get(dimKey);
+            return id == null ? 0 : key(dim, id);
+        }
+        try {
+            return key(dim, Integer.parseInt(dimKey));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private int categoryId(String code) {
+        Integer id = categoryIds.get(code);
+        if (id == null) {
+            id = categoryCodes.size();
+            categoryCodes.add(code);
+            categoryIds.put(code, id);
+        }
+        return id;
+    }
+
+    private static long toCents(BigDecimal amount) {
+        return amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /** 一种粒度的桶环：slot = bucket % retention，bucketOf[slot] 记录当前存的是哪个桶 */
+    private static final class Ring {
+        final Resolution resolution;
+        final BucketTable[] tables;
+        final long[] bucketOf;
+        Map<Long, BucketTable> pending = new HashMap<>(); // 尚未写库的增量，按桶
+
+        Ring(Resolution resolution) {
+            this.resolution = resolution;
+            this.tables = new BucketTable[resolution.retention];
+            this.bucketOf = new long[resolution.retention];
+            Arrays.fill(bucketOf, Long.MIN_VALUE);
+        }
+
+        /** 取（必要时新建）某个桶；比环里同位置的桶还旧说明已超出保留期，返回 null */
+        BucketTable table(long bucket) {
+            int slot = (int) Math.floorMod(bucket, (long) tables.length);
+            if (bucketOf[slot] == bucket) return tables[slot];
+            if (bucket < bucketOf[slot]) return null;
+            tables[slot] = new BucketTable();
+            bucketOf[slot] = bucket;
+            return tables[slot];
+        }
+
+        BucketTable peek(long bucket) {
+            int slot = (int) Math.floorMod(bucket, (long) tables.length);
+            return bucketOf[slot] == bucket ? tables[slot] : null;
+        }
+    }
+
+    /** 一个时间桶：long key -> (销量, 销售额分)，线性探测，key 为 0 表示空位 */
+    static final class BucketTable {
+        long[] keys = new long[16];
+        long[] units = new long[16];
+        long[] cents = new long[16];
+        int size;
+
+        void add(long key, long u, long c) {
+            if ((size + 1) * 2 > keys.length) grow();
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != 0 && keys[i] != key) i = (i + 1) & mask;
+            if (keys[i] == 0) {
+                keys[i] = key;
+                size++;
+            }
+            units[i] += u;
+            cents[i] += c;
+        }
+
+        int find(long key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) return i;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        BucketTable mergeFrom(BucketTable other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != 0) add(other.keys[i], other.units[i], other.cents[i]);
+            }
+            return this;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldUnits = units;
+            long[] oldCents = cents;
+            keys = new long[oldKeys.length * 2];
+            units = new long[oldKeys.length * 2];
+            cents = new long[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) add(oldKeys[i], oldUnits[i], oldCents[i]);
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Order;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * 商品销量的异步累加（write-behind）。
+ * 下单事务里只扣库存，不再顺带改 sales 列（sales 有索引，改它要在持有行锁期间维护二级索引）；
+ * 订单提交后由 {@link OrderOutbox} 投递 OrderCreated 事件，各商品数量放进内存队列，
+ * 定时合并成每个商品一条 sales = sales + ? 批量写回。
+ * 写回时同一事务里登记 sales_applied(order_id)，已登记的订单跳过，所以重放同一订单不会重复计数；
+ * 进程崩溃丢掉的队列在下次启动时从最近 REPLAY_DAYS 天里没登记过的订单补回。
+ * 订单取消时按负数量扣回销量，登记的键是 -orderId，和下单那次分开去重；
+ * 取消的重放窗口按取消时间（发件箱里状态变更事件的写入时间）算，下单很久之后才取消的订单也能补回。
+ */
+@Slf4j
+@Component
+public class SalesCounters implements OrderEventConsumer {
+
+    static final int REPLAY_DAYS = 2;
+    // sales_applied 只需要覆盖重放窗口，多留几天
+    static final int RETAIN_DAYS = 7;
+    private static final int MAX_ORDERS_PER_FLUSH = 500;
+
+    private static final String APPLY_SQL = "INSERT INTO sales_applied (order_id, applied_time) VALUES (?, ?)";
+    private static final String ADD_SQL = "UPDATE product SET sales = GREATEST(sales + ?, 0) WHERE id = ?";
+    private static final String REPLAY_SQL = "SELECT oi.order_id, oi.product_id, oi.quantity FROM orders o "
+            + "JOIN order_item oi ON oi.order_id = o.id "
+            + "LEFT JOIN sales_applied a ON a.order_id = o.id "
+            + "WHERE o.order_time >= ? AND a.order_id IS NULL ORDER BY oi.order_id";
+    // 取消是终态：已取消的订单只要在窗口内有过状态变更事件，取消就发生在窗口内
+    static final String CANCELLED_SINCE = "o.status = 'CANCELLED' AND o.id IN (SELECT order_id FROM order_outbox "
+            + "WHERE event_type = '" + OrderOutbox.ORDER_STATUS_CHANGED + "' AND created_time >= ?)";
+    private static final String CANCEL_REPLAY_SQL = "SELECT -o.id, oi.product_id, -oi.quantity FROM orders o "
+            + "JOIN order_item oi ON oi.order_id = o.id "
+            + "LEFT JOIN sales_applied a ON a.order_id = -o.id "
+            + "WHERE " + CANCELLED_SINCE + " AND a.order_id IS NULL ORDER BY o.id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate tx;
+    private final ProductCatalogCache catalogCache;
+
+    private final ConcurrentLinkedQueue<OrderSales> queue = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /** 一个已提交订单的销量：productId -> 数量；取消的订单 orderId 取负、数量取负 */
+    record OrderSales(long orderId, Map<Integer, Integer> quantities) {}
+
+    @Autowired
+    public SalesCounters(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager, ProductCatalogCache catalogCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(txManager);
+        this.catalogCache = catalogCache;
+    }
+
+    /** 下单：事件由发件箱在订单提交后投递，可能重复，写回时按 sales_applied 去重 */
+    @Override
+    public void onOrderCreated(OrderOutbox.OrderCreated event) {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (OrderOutbox.Line l : event.lines()) quantities.merge(l.productId(), l.quantity(), Integer::sum);
+        queue.add(new OrderSales(event.orderId(), quantities));
+    }
+
+    /** 订单取消：扣回下单时计入的销量 */
+    @Override
+    public void onOrderStatusChanged(OrderOutbox.OrderStatusChanged event) {
+        if (!Order.CANCELLED.equals(event.to()) || event.items().isEmpty()) return;
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (OrderOutbox.Quantity q : event.items()) quantities.merge(q.productId(), -q.quantity(), Integer::sum);
+        queue.add(new OrderSales(-event.orderId(), quantities));
+    }
+
+    /** 等待写回的订单数 */
+    public int pendingOrders() {
+        return queue.size();
+    }
+
+    /** 把队列里的订单合并写回；返回本次写回的订单数 */
+    @Scheduled(fixedDelay = 1_000)
+    public int flush() {
+        flushLock.lock();
+        try {
+            int applied = 0;
+            while (!queue.isEmpty()) {
+                List<OrderSales> batch = new ArrayList<>();
+                OrderSales s;
+                while (batch.size() < MAX_ORDERS_PER_FLUSH && (s = queue.poll()) != null) batch.add(s);
+                try {
+                    applied += apply(batch);
+                } catch (RuntimeException e) {
+                    log.warn("销量写库失败，{} 个订单留到下次: {}", batch.size(), e.getMessage());
+                    queue.addAll(batch);
+                    break;
+                }
+            }
+            return applied;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private int apply(List<OrderSales> batch) {
+        Map<Integer, Long> byProduct = new TreeMap<>();
+        int applied = tx.execute(status -> {
+            // 已经登记过的订单（重放、重复入队）直接跳过
+            Set<Long> done = alreadyApplied(batch);
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            List<Object[]> marks = new ArrayList<>();
+            Set<Long> seen = new HashSet<>(done);
+            for (OrderSales s : batch) {
+                if (!seen.add(s.orderId())) continue;
+                marks.add(new Object[]{s.orderId(), now});
+                s.quantities().forEach((productId, qty) -> byProduct.merge(productId, (long) qty, Long::sum));
+            }
+            if (marks.isEmpty()) return 0;
+            // 主键冲突（另一个实例同时写回同一订单）会让整批回滚，下次重试时就会被跳过
+            jdbcTemplate.batchUpdate(APPLY_SQL, marks);
+            // TreeMap 按商品ID顺序更新，多个实例同时写回时加锁顺序一致
+            List<Object[]> adds = byProduct.entrySet().stream()
+                    .map(e -> new Object[]{e.getValue(), e.getKey()})
+                    .collect(Collectors.toList());
+            jdbcTemplate.batchUpdate(ADD_SQL, adds);
+            return marks.size();
+        });
+        if (!byProduct.isEmpty()) catalogCache.onCountersChanged(List.copyOf(byProduct.keySet()));
+        return applied;
+    }
+
+    private Set<Long> alreadyApplied(List<OrderSales> batch) {
+        String placeholders = String.join(",", Collections.nCopies(batch.size(), "?"));
+        Object[] ids = batch.stream().map(OrderSales::orderId).toArray();
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT order_id FROM sales_applied WHERE order_id IN (" + placeholders + ")", Long.class, ids));
+    }
+
+    /** 启动时补回上次没来得及写回的订单 */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() {
+        Timestamp since = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(REPLAY_DAYS));
+        Map<Long, Map<Integer, Integer>> orders = new LinkedHashMap<>();
+        for (String sql : List.of(REPLAY_SQL, CANCEL_REPLAY_SQL)) {
+            jdbcTemplate.query(sql, rs -> {
+                orders.computeIfAbsent(rs.getLong(1), k -> new LinkedHashMap<>())
+                        .merge(rs.getInt(2), rs.getInt(3), Integer::sum);
+            }, since);
+        }
+        if (orders.isEmpty()) return;
+        log.info("补记 {} 个订单的销量", orders.size());
+        orders.forEach((orderId, quantities) -> queue.add(new OrderSales(orderId, quantities)));
+        flush();
+    }
+
+    /** 清理超出重放窗口的登记记录 */
+    @Scheduled(cron = "0 15 4 * * *")
+    public void prune() {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETAIN_DAYS));
+        int n = jdbcTemplate.update("DELETE FROM sales_applied WHERE applied_time < ?", before);
+        if (n > 0) log.info("清理 {} 条销量登记记录", n);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
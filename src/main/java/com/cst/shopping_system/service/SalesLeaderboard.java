@@ -0,0 +1,427 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.dto.TopProductDTO;
+import com.cst.shopping_system.entity.Order;
+import com.cst.shopping_system.entity.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 内存销量排行榜：全站 / 各分类 × 累计 / 今日 / 近 7 天，每个榜维护一个按 (销量降序, ID 升序) 排好的有序集合。
+ * 下单成功、订单取消、商品修改或上下架时（事务提交后）只调整受影响商品在各榜中的位置，
+ * 并重新发布该榜前 TOP_K 名的只读快照；查询直接返回快照，不访问数据库。
+ * 启动时从数据库全量重建；只有上架（status = 1）的商品参与排名。
+ * 重建在一个一致性快照里读商品、订单和还没投递的发件箱事件：快照里的订单已经算进榜单，
+ * 这些事件之后再投递过来时跳过（{@link #alreadyIncludes}），不会算两遍。
+ */
+@Slf4j
+@Component
+public class SalesLeaderboard implements OrderEventConsumer {
+
+    public static final int TOP_K = 50;
+    private static final int WEEK_DAYS = 7;
+    private static final String ALL_CATEGORIES = "";
+
+    public enum Window { ALL, DAY, WEEK }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate snapshotTx;
+    private final Clock clock;
+
+    // 写操作（下单、商品变化、跨天、重建）串行执行；读只看各榜 volatile 快照，不加锁
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final Map<String, String> categoryNames = new HashMap<>(); // 分类编号 -> 名称
+    private final ConcurrentHashMap<RankingKey, Ranking> rankings = new ConcurrentHashMap<>();
+    private volatile long today; // 当前统计日（epochDay），日桶按 epochDay % WEEK_DAYS 循环使用
+    // 上次重建时已提交、还没投递的发件箱事件 id：它们的订单已经在重建结果里
+    private volatile Set<Long> loadedEvents = Set.of();
+
+    /** 一个商品在榜单上需要的全部信息；days 是最近 7 天的按日销量 */
+    private static final class Entry {
+        final int id;
+        String title;
+        BigDecimal price;
+        String category;
+        String categoryName;
+        boolean listed;
+        long total;
+        final long[] days = new long[WEEK_DAYS];
+        long week;
+
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+
+    private record RankingKey(Window window, String category) {}
+
+    private record Rank(long sales, int id) implements Comparable<Rank> {
+        @Override
+        public int compareTo(Rank o) {
+            int c = Long.compare(o.sales, sales);
+            return c != 0 ? c : Integer.compare(id, o.id);
+        }
+    }
+
+    private static final class Ranking {
+        final TreeSet<Rank> order = new TreeSet<>();
+        volatile List<TopProductDTO> top = List.of();
+        Rank boundary; // 快照里的最后一名；快照不满 TOP_K 时为 null
+
+        boolean inTop(Rank rank) {
+            return boundary == null || rank.compareTo(boundary) <= 0;
+        }
+    }
+
+    /** 商品字段在调用时取好，提交后再应用，避免在事务外访问实体 */
+    private record ProductRow(int id, String title, BigDecimal price, String category, boolean listed) {
+        static ProductRow of(Product p) {
+            return new ProductRow(p.getId(), p.getTitle(), p.getPrice(), p.getCategory(),
+                    p.getStatus() != null && p.getStatus() == 1);
+        }
+    }
+
+    @Autowired
+    public SalesLeaderboard(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager) {
+        this(jdbcTemplate, txManager, Clock.systemDefaultZone());
+    }
+
+    SalesLeaderboard(JdbcTemplate jdbcTemplate, PlatformTransactionManager txManager, Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        // 重建的几条查询放在一个只读的可重复读事务里，读到的是同一个快照
+        this.snapshotTx = new TransactionTemplate(txManager);
+        snapshotTx.setReadOnly(true);
+        snapshotTx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.clock = clock;
+        this.today = LocalDate.now(clock).toEpochDay();
+    }
+
+    /** 排行榜前 limit 名（最多 TOP_K）；category 为空表示全站 */
+    public List<TopProductDTO> top(String category, Window window, int limit) {
+        rollIfNeeded();
+        Ranking r = rankings.get(new RankingKey(window, category == null ? ALL_CATEGORIES : category));
+        if (r == null) return List.of();
+        List<TopProductDTO> top = r.top;
+        return top.size() <= limit ? top : top.subList(0, limit);
+    }
+
+    /** 下单：各商品销量增加；事件由发件箱在订单提交后投递，带着下单时的标题、价格和分类 */
+    @Override
+    public void onOrderCreated(OrderOutbox.OrderCreated event) {
+        lock.lock();
+        try {
+            roll();
+            int slot = slotOf(today);
+            for (OrderOutbox.Line l : event.lines()) {
+                Entry e = entryFor(l.productId());
+                Before before = snapshotOf(e);
+                describe(e, new ProductRow(l.productId(), l.title(), l.unitPrice(), l.category(), l.listed()));
+                e.total += l.quantity();
+                e.days[slot] += l.quantity();
+                e.week += l.quantity();
+                reposition(e, before);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 订单取消：扣回下单时计入的销量；日/周榜只扣还在 7 天窗口里的那一天 */
+    @Override
+    public void onOrderStatusChanged(OrderOutbox.OrderStatusChanged event) {
+        if (!Order.CANCELLED.equals(event.to()) || event.items().isEmpty()) return;
+        lock.lock();
+        try {
+            roll();
+            long day = Instant.ofEpochMilli(event.orderTime()).atZone(clock.getZone()).toLocalDate().toEpochDay();
+            boolean inWeek = day > today - WEEK_DAYS && day <= today;
+            for (OrderOutbox.Quantity q : event.items()) {
+                Entry e = entries.get(q.productId());
+                if (e == null) continue;
+                Before before = snapshotOf(e);
+                e.total = Math.max(0, e.total - q.quantity());
+                if (inWeek) {
+                    int slot = slotOf(day);
+                    long sub = Math.min(e.days[slot], q.quantity());
+                    e.days[slot] -= sub;
+                    e.week -= sub;
+                }
+                reposition(e, before);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean alreadyIncludes(long eventId) {
+        return loadedEvents.contains(eventId);
+    }
+
+    /** 商品新建、修改、上下架：更新标题/价格/分类/上架状态，事务提交后生效 */
+    public void onProductChanged(Product product) {
+        ProductRow row = ProductRow.of(product);
+        afterCommit(() -> {
+            lock.lock();
+            try {
+                roll();
+                Entry e = entryFor(row.id());
+                Before before = snapshotOf(e);
+                describe(e, row);
+                reposition(e, before);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 从数据库全量重建：累计销量取 product.sales，日/周榜取最近 7 天没取消的订单明细。
+     * SalesCounters 还没写回 product.sales 的增量（重放窗口内、不在 sales_applied 里的下单和取消）按明细补进累计销量。
+     * 重建期间一直持有写锁，同时投递来的事件等重建完成后再按新的快照判断要不要跳过。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long begin = System.nanoTime();
+        LocalDate day = LocalDate.now(clock);
+        long firstDay = day.toEpochDay() - (WEEK_DAYS - 1);
+        ZoneId zone = clock.getZone();
+        Timestamp since = Timestamp.from(LocalDate.ofEpochDay(firstDay).atStartOfDay(zone).toInstant());
+        Timestamp replaySince = Timestamp.from(clock.instant().minus(Duration.ofDays(SalesCounters.REPLAY_DAYS)));
+        Map<String, String> names = new HashMap<>();
+        Map<Integer, String> nameByProduct = new HashMap<>();
+        Map<Integer, Entry> loaded = new HashMap<>();
+        Set<Long> pendingEvents = new HashSet<>();
+
+        lock.lock();
+        try {
+            snapshotTx.executeWithoutResult(status -> {
+                jdbcTemplate.query("SELECT id FROM order_outbox WHERE published_time IS NULL", rs -> {
+                    pendingEvents.add(rs.getLong(1));
+                });
+                jdbcTemplate.query("SELECT id, category_name FROM v_product_category", rs -> {
+                    nameByProduct.put(rs.getInt(1), rs.getString(2));
+                });
+                jdbcTemplate.query("SELECT id, title, price, category, status, sales FROM product", rs -> {
+                    Entry e = new Entry(rs.getInt("id"));
+                    e.title = rs.getString("title");
+                    e.price = rs.getBigDecimal("price");
+                    e.category = rs.getString("category");
+                    e.listed = rs.getInt("status") == 1;
+                    e.total = rs.getLong("sales");
+                    String name = nameByProduct.get(e.id);
+                    if (e.category != null && name != null) names.put(e.category, name);
+                    loaded.put(e.id, e);
+                });
+                jdbcTemplate.query("""
+                        SELECT oi.product_id, o.order_time, oi.quantity, a.order_id IS NULL AND o.order_time >= ?,
+                               o.status = 'CANCELLED'
+                        FROM order_item oi JOIN orders o ON o.id = oi.order_id
+                        LEFT JOIN sales_applied a ON a.order_id = o.id
+                        WHERE o.order_time >= ?
+                        """, rs -> {
+                    Entry e = loaded.get(rs.getInt(1));
+                    if (e == null) return;
+                    int qty = rs.getInt(3);
+                    if (rs.getBoolean(4)) e.total += qty; // 销量还在 SalesCounters 里排队
+                    if (rs.getBoolean(5)) return;
+                    long d = rs.getTimestamp(2).toInstant().atZone(zone).toLocalDate().toEpochDay();
+                    if (d < firstDay || d > day.toEpochDay()) return;
+                    e.days[slotOf(d)] += qty;
+                    e.week += qty;
+                }, replaySince, since);
+                // 还没扣回的取消：下单时间可能早于 7 天，按取消时间找
+                jdbcTemplate.query("SELECT oi.product_id, oi.quantity FROM orders o "
+                        + "JOIN order_item oi ON oi.order_id = o.id "
+                        + "LEFT JOIN sales_applied a ON a.order_id = -o.id "
+                        + "WHERE " + SalesCounters.CANCELLED_SINCE + " AND a.order_id IS NULL", rs -> {
+                    Entry e = loaded.get(rs.getInt(1));
+                    if (e != null) e.total = Math.max(0, e.total - rs.getInt(2));
+                }, replaySince);
+            });
+
+            entries.clear();
+            entries.putAll(loaded);
+            categoryNames.clear();
+            categoryNames.putAll(names);
+            for (Entry e : entries.values()) {
+                if (e.category != null) e.categoryName = categoryNames.get(e.category);
+            }
+            today = day.toEpochDay();
+            loadedEvents = Set.copyOf(pendingEvents);
+            reindexAll();
+        } finally {
+            lock.unlock();
+        }
+        log.info("销量排行榜重建完成: {} 个商品, 跳过 {} 条已计入的待投递事件, {} ms",
+                loaded.size(), pendingEvents.size(), (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    // 读路径只做一次日期比较，跨天时才拿锁滚动日桶
+    private void rollIfNeeded() {
+        if (LocalDate.now(clock).toEpochDay() == today) return;
+        lock.lock();
+        try {
+            roll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 跨天：清掉滑出窗口的日桶，重算周销量，日榜和周榜整体重排（每天一次）
+    private void roll() {
+        long now = LocalDate.now(clock).toEpochDay();
+        if (now <= today) return;
+        long expired = Math.min(now - today, WEEK_DAYS);
+        for (Entry e : entries.values()) {
+            for (long d = now - expired + 1; d <= now; d++) e.days[slotOf(d)] = 0;
+            long week = 0;
+            for (long v : e.days) week += v;
+            e.week = week;
+        }
+        today = now;
+        for (Map.Entry<RankingKey, Ranking> r : rankings.entrySet()) {
+            if (r.getKey().window() != Window.ALL) r.getValue().order.clear();
+        }
+        for (Entry e : entries.values()) {
+            add(e, Window.DAY, null);
+            add(e, Window.WEEK, null);
+        }
+        for (Map.Entry<RankingKey, Ranking> r : rankings.entrySet()) {
+            if (r.getKey().window() != Window.ALL) publish(r.getValue());
+        }
+    }
+
+    private void reindexAll() {
+        rankings.clear();
+        for (Entry e : entries.values()) {
+            for (Window w : Window.values()) add(e, w, null);
+        }
+        rankings.values().forEach(this::publish);
+    }
+
+    private Entry entryFor(int id) {
+        return entries.computeIfAbsent(id, Entry::new);
+    }
+
+    private void describe(Entry e, ProductRow row) {
+        e.title = row.title();
+        e.price = row.price();
+        e.category = row.category();
+        e.categoryName = row.category() == null ? null : categoryNames.get(row.category());
+        e.listed = row.listed();
+    }
+
+    /** 修改前在各榜中的位置，按 Window 顺序记录销量，用来从旧位置上移除 */
+    private record Before(boolean listed, String category, long[] sales) {}
+
+    private Before snapshotOf(Entry e) {
+        return new Before(e.listed, e.category, new long[]{e.total, e.days[slotOf(today)], e.week});
+    }
+
+    // 从旧位置移除、按新销量放回；只有进出前 TOP_K 名的榜才重新发布快照
+    private void reposition(Entry e, Before before) {
+        Set<Ranking> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Window w : Window.values()) {
+            if (before.listed()) {
+                long oldSales = before.sales()[w.ordinal()];
+                remove(ALL_CATEGORIES, w, oldSales, e.id, dirty);
+                if (before.category() != null) remove(before.category(), w, oldSales, e.id, dirty);
+            }
+            add(e, w, dirty);
+        }
+        dirty.forEach(this::publish);
+    }
+
+    private void remove(String category, Window w, long sales, int id, Set<Ranking> dirty) {
+        Ranking r = rankings.get(new RankingKey(w, category));
+        Rank rank = new Rank(sales, id);
+        if (r != null && r.order.remove(rank) && r.inTop(rank)) dirty.add(r);
+    }
+
+    // dirty 为 null 时由调用方统一发布（重建、跨天）
+    private void add(Entry e, Window w, Set<Ranking> dirty) {
+        if (!e.listed) return;
+        long sales = salesOf(e, w);
+        // 累计榜包含零销量商品（与原 SQL 一致）；日榜、周榜只收有销量的
+        if (w != Window.ALL && sales == 0) return;
+        addTo(ALL_CATEGORIES, w, new Rank(sales, e.id), dirty);
+        if (e.category != null) addTo(e.category, w, new Rank(sales, e.id), dirty);
+    }
+
+    private void addTo(String category, Window w, Rank rank, Set<Ranking> dirty) {
+        Ranking r = rankings.computeIfAbsent(new RankingKey(w, category), k -> new Ranking());
+        r.order.add(rank);
+        if (dirty != null && r.inTop(rank)) dirty.add(r);
+    }
+
+    private long salesOf(Entry e, Window w) {
+        return switch (w) {
+            case ALL -> e.total;
+            case DAY -> e.days[slotOf(today)];
+            case WEEK -> e.week;
+        };
+    }
+
+    // 重取前 TOP_K 个生成只读快照，代价 O(TOP_K)
+    private void publish(Ranking r) {
+        List<TopProductDTO> top = new ArrayList<>(Math.min(TOP_K, r.order.size()));
+        Rank last = null;
+        Iterator<Rank> it = r.order.iterator();
+        while (it.hasNext() && top.size() < TOP_K) {
+            last = it.next();
+            Entry e = entries.get(last.id());
+            top.add(new TopProductDTO(e.id, e.title, e.categoryName, e.price, (int) last.sales()));
+        }
+        r.boundary = top.size() == TOP_K ? last : null;
+        r.top = List.copyOf(top);
+    }
+
+    private static int slotOf(long epochDay) {
+        return Math.floorMod(epochDay, WEEK_DAYS);
+    }
+
+    // 和其它缓存一样在事务提交后再更新，回滚的订单不会进榜
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,163 @@
+package com.cst.shopping_system.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.simp.stomp.ConnectionLostException;
+import org.springframework.messaging.simp.stomp.ReactorNettyTcpStompClient;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 基于外部 STOMP 代理（RabbitMQ STOMP 插件、ActiveMQ 等）的节点间通道。
+ * 每个节点一条 TCP 连接；断线后每隔 RECONNECT_DELAY_SECONDS 秒重连，并重新订阅断线前的所有主题。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.fanout", havingValue = "cluster")
+public class StompChatBus implements ChatBus {
+
+    private static final long RECONNECT_DELAY_SECONDS = 5;
+
+    private final ReactorNettyTcpStompClient client;
+    private final StompHeaders connectHeaders = new StompHeaders();
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-bus-reconnect");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 主题 -> 处理器；主题 -> 当前连接上的订阅
+    private final Map<String, Consumer<String>> handlers = new HashMap<>();
+    private final Map<String, StompSession.Subscription> subscriptions = new HashMap<>();
+    private StompSession session;
+    private volatile boolean stopped;
+
+    public StompChatBus(@Value("${chat.relay.host:localhost}") String host,
+                        @Value("${chat.relay.port:61613}") int port,
+                        @Value("${chat.relay.login:guest}") String login,
+                        @Value("${chat.relay.passcode:guest}") String passcode) {
+        this.client = new ReactorNettyTcpStompClient(host, port);
+        connectHeaders.setLogin(login);
+        connectHeaders.setPasscode(passcode);
+    }
+
+    @PostConstruct
+    public void connect() {
+        if (stopped) return;
+        client.connectAsync(connectHeaders, new StompSessionHandlerAdapter() {
+            @Override
+            public void afterConnected(StompSession newSession, StompHeaders headers) {
+                onConnected(newSession);
+            }
+
+            @Override
+            public void handleException(StompSession s, StompCommand command, StompHeaders headers, byte[] payload, Throwable ex) {
+                log.warn("处理代理消息失败", ex);
+            }
+
+            @Override
+            public void handleTransportError(StompSession s, Throwable ex) {
+                if (ex instanceof ConnectionLostException) onDisconnected(s);
+            }
+        }).exceptionally(ex -> {
+            log.warn("连接聊天消息代理失败，{} 秒后重试: {}", RECONNECT_DELAY_SECONDS, ex.getMessage());
+            scheduleReconnect();
+            return null;
+        });
+    }
+
+    @Override
+    public void publish(String topic, String json) {
+        StompSession s;
+        synchronized (this) {
+            s = session;
+        }
+        if (s == null || !s.isConnected()) {
+            throw new RuntimeException("聊天消息代理未连接，消息已保存但暂时无法推送");
+        }
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(topic);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        s.send(headers, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized Runnable subscribe(String topic, Consumer<String> handler) {
+        handlers.put(topic, handler);
+        if (session != null && session.isConnected()) {
+            subscriptions.put(topic, session.subscribe(topic, frameHandler(handler)));
+        }
+        return () -> unsubscribe(topic);
+    }
+
+    private synchronized void unsubscribe(String topic) {
+        handlers.remove(topic);
+        StompSession.Subscription sub = subscriptions.remove(topic);
+        if (sub != null && session != null && session.isConnected()) sub.unsubscribe();
+    }
+
+    private synchronized void onConnected(StompSession newSession) {
+        session = newSession;
+        subscriptions.clear();
+        handlers.forEach((topic, handler) -> subscriptions.put(topic, newSession.subscribe(topic, frameHandler(handler))));
+        log.info("已连接聊天消息代理，恢复 {} 个订阅", handlers.size());
+    }
+
+    private void onDisconnected(StompSession lost) {
+        synchronized (this) {
+            if (session != lost) return;
+            session = null;
+            subscriptions.clear();
+        }
+        log.warn("与聊天消息代理的连接断开，{} 秒后重连", RECONNECT_DELAY_SECONDS);
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (!stopped) reconnector.schedule(this::connect, RECONNECT_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static StompFrameHandler frameHandler(Consumer<String> handler) {
+        return new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                handler.accept(new String((byte[]) payload, StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        reconnector.shutdownNow();
+        StompSession s;
+        synchronized (this) {
+            s = session;
+            session = null;
+        }
+        if (s != null && s.isConnected()) s.disconnect();
+        client.shutdown();
+    }
+}
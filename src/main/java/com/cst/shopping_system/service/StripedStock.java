@@ -0,0 +1,77 @@
+package com.cst.shopping_system.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 分段库存计数器：把一个热点商品的库存拆到多个槽位上，
+ * 并发扣减时各线程随机落在不同槽位做 CAS，避免所有请求争抢同一个计数器。
+ */
+class StripedStock {
+
+    // 每个槽位之间隔开 16 个 int（64 字节），避免伪共享
+    private static final int PAD = 16;
+
+    private final AtomicIntegerArray cells;
+    private final int stripes;
+
+    StripedStock(int total, int stripes) {
+        this.stripes = stripes;
+        this.cells = new AtomicIntegerArray(stripes * PAD);
+        for (int i = 0; i < stripes; i++) {
+            cells.set(i * PAD, total / stripes + (i < total % stripes ? 1 : 0));
+        }
+    }
+
+    /** 尝试扣减 qty 件，成功返回 true；不会扣成负数 */
+    boolean tryAcquire(int qty) {
+        int start = ThreadLocalRandom.current().nextInt(stripes);
+        for (int i = 0; i < stripes; i++) {
+            int idx = ((start + i) % stripes) * PAD;
+            for (;;) {
+                int cur = cells.get(idx);
+                if (cur < qty) break;
+                if (cells.compareAndSet(idx, cur, cur - qty)) return true;
+            }
+        }
+        return tryAcquireAcross(qty);
+    }
+
+    // 慢路径：单个槽位都不够时跨槽位凑齐，凑不齐则全部退回
+    private synchronized boolean tryAcquireAcross(int qty) {
+        int remaining = qty;
+        int[] taken = new int[stripes];
+        for (int i = 0; i < stripes && remaining > 0; i++) {
+            int idx = i * PAD;
+            for (;;) {
+                int cur = cells.get(idx);
+                int take = Math.min(cur, remaining);
+                if (take <= 0) break;
+                if (cells.compareAndSet(idx, cur, cur - take)) {
+                    taken[i] = take;
+                    remaining -= take;
+                    break;
+                }
+            }
+        }
+        if (remaining > 0) {
+            for (int i = 0; i < stripes; i++) {
+                if (taken[i] > 0) cells.addAndGet(i * PAD, taken[i]);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /** 归还 qty 件 */
+    void release(int qty) {
+        cells.addAndGet(ThreadLocalRandom.current().nextInt(stripes) * PAD, qty);
+    }
+
+    /** 当前剩余总量（各槽位之和，并发下是近似值） */
+    int available() {
+        int sum = 0;
+        for (int i = 0; i < stripes; i++) sum += cells.get(i * PAD);
+        return sum;
+    }
+}
@@ -6,15 +6,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.Date;
-import java.util.UUID;
 import java.util.Objects;
-import static com.cst.shopping_system.service.ProductService.UPLOAD_DIR;
 
 @Service
 
@@ -22,6 +15,9 @@ public class UserService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ImageStorageService imageStorage;
+
     // 注册逻辑（最小改动：支持前端选择“会员/商家”角色，并按角色生成编号）
     public User register(User user) {
         // 0) 用户名/邮箱唯一性
@@ -156,19 +152,7 @@ public class UserService {
         }
 
         // 处理文件上传
-        String uniqueFileName = UUID.randomUUID().toString() + "_" + avatarFile.getOriginalFilename();
-        try {
-            // 确保上传目录存在
-            File uploadDir = new File(UPLOAD_DIR);
-            if (!uploadDir.exists()) {
-                uploadDir.mkdirs();
-            }
-            Files.copy(avatarFile.getInputStream(), Paths.get(UPLOAD_DIR + uniqueFileName), StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            throw new RuntimeException("头像上传失败", e);
-        }
-
-        String avatarUrl = "/uploads/" + uniqueFileName;
+        String avatarUrl = imageStorage.store(avatarFile);
         user.setAvatarUrl(avatarUrl);
         user.setUpdatedTime(new Date());
 
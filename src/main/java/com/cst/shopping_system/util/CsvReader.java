@@ -0,0 +1,95 @@
+package com.cst.shopping_system.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式 CSV 读取（RFC 4180）：逐条记录解析，支持带引号的字段里出现逗号、换行和成对的双引号。
+ * 开头的 UTF-8 BOM 会被跳过；不持有整份文件，调用方负责关闭 Reader。
+ */
+public final class CsvReader {
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int len;
+    private boolean started;
+
+    public CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    /** 读下一条记录；文件结束返回 null，空行跳过 */
+    public List<String> next() throws IOException {
+        if (!started) {
+            started = true;
+            if (peek() == '\uFEFF') pos++;
+        }
+        while (true) {
+            int c = peek();
+            if (c < 0) return null;
+            if (c == '\r' || c == '\n') {
+                pos++;
+                continue;
+            }
+            return readRecord();
+        }
+    }
+
+    private List<String> readRecord() throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            int c = read();
+            if (quoted) {
+                if (c < 0) throw new IOException("CSV 引号未闭合");
+                if (c == '"') {
+                    if (peek() == '"') {
+                        pos++;
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+                continue;
+            }
+            if (c == '"' && field.isEmpty()) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c < 0 || c == '\n' || c == '\r') {
+                if (c == '\r' && peek() == '\n') pos++;
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == len && !fill()) return -1;
+        return buf[pos];
+    }
+
+    private int read() throws IOException {
+        if (pos == len && !fill()) return -1;
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        len = in.read(buf, 0, buf.length);
+        pos = 0;
+        if (len <= 0) {
+            len = 0;
+            return false;
+        }
+        return true;
+    }
+}
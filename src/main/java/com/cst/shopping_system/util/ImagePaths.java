@@ -0,0 +1,32 @@
+package com.cst.shopping_system.util;
+
+/**
+ * 上传图片的目录与 URL 约定。
+ * 原图：/uploads/{文件名}；缩略图：/uploads/thumbs/{文件名}.jpg。
+ * 缩略图还没生成（或旧数据从未生成过）时，静态资源映射会回退到原图。
+ */
+public final class ImagePaths {
+
+    // 使用 System.getProperty("user.home") 获取当前用户的主目录
+    public static final String UPLOAD_DIR = System.getProperty("user.home") + "/app-uploads/";
+    public static final String THUMB_DIR = UPLOAD_DIR + "thumbs/";
+
+    public static final String URL_PREFIX = "/uploads/";
+    public static final String THUMB_PREFIX = "thumbs/";
+    public static final String THUMB_SUFFIX = ".jpg";
+
+    private ImagePaths() {
+    }
+
+    /** 原图 URL -> 缩略图 URL；不是本站上传的图片原样返回 */
+    public static String thumbnailUrl(String url) {
+        if (url == null || !url.startsWith(URL_PREFIX) || url.startsWith(URL_PREFIX + THUMB_PREFIX)) return url;
+        return URL_PREFIX + THUMB_PREFIX + url.substring(URL_PREFIX.length()) + THUMB_SUFFIX;
+    }
+
+    /** 缩略图的相对路径 -> 原图的相对路径；不是缩略图返回 null */
+    public static String originalOf(String thumbPath) {
+        if (thumbPath == null || !thumbPath.startsWith(THUMB_PREFIX) || !thumbPath.endsWith(THUMB_SUFFIX)) return null;
+        return thumbPath.substring(THUMB_PREFIX.length(), thumbPath.length() - THUMB_SUFFIX.length());
+    }
+}
@@ -0,0 +1,198 @@
+-- 数据库结构升级脚本（ddl-auto 关闭，需要手动在 shopping_system 库执行）
+-- 按功能分段，已经执行过的段落不要重复执行
+
+-- ------------------------------------------------------------
+-- 订单 / 订单明细号段 ID（Order、OrderItem 使用 @TableGenerator）
+-- pooled 优化器会把取到的值当作号段上界，所以种子要比当前最大 ID 大出一个号段以上
+-- ------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS id_generator (
+    gen_name  VARCHAR(64) NOT NULL PRIMARY KEY,
+    gen_value BIGINT      NOT NULL
+);
+INSERT INTO id_generator (gen_name, gen_value)
+SELECT 'orders', COALESCE(MAX(id), 0) + 100 FROM orders;
+INSERT INTO id_generator (gen_name, gen_value)
+SELECT 'order_item', COALESCE(MAX(id), 0) + 100 FROM order_item;
+
+-- ------------------------------------------------------------
+-- 商品游标分页：排序字段不能为 NULL，并为各排序方式建 (status, 字段, id) 索引
+-- ------------------------------------------------------------
+UPDATE product SET favorite_count = 0 WHERE favorite_count IS NULL;
+UPDATE product SET created_time = NOW() WHERE created_time IS NULL;
+ALTER TABLE product MODIFY favorite_count INT NOT NULL DEFAULT 0;
+CREATE INDEX idx_product_status_created   ON product (status, created_time, id);
+CREATE INDEX idx_product_status_price     ON product (status, price, id);
+CREATE INDEX idx_product_status_sales     ON product (status, sales, id);
+CREATE INDEX idx_product_status_favorites ON product (status, favorite_count, id);
+
+-- ------------------------------------------------------------
+-- 聊天消息按会话存储：conversation_id = (较小用户ID << 32) | 较大用户ID，历史记录按 (conversation_id, id) 游标分页
+-- ------------------------------------------------------------
+ALTER TABLE chat_message ADD COLUMN conversation_id BIGINT NULL;
+UPDATE chat_message
+SET conversation_id = (LEAST(sender_id, recipient_id) << 32) | GREATEST(sender_id, recipient_id);
+ALTER TABLE chat_message MODIFY conversation_id BIGINT NOT NULL;
+CREATE INDEX idx_chat_conversation ON chat_message (conversation_id, id);
+
+-- ------------------------------------------------------------
+-- 会话摘要表：每个参与者一行，发消息/标记已读时增量维护；下面用现有消息回填
+-- ------------------------------------------------------------
+CREATE TABLE IF NOT EXISTS chat_conversation (
+    owner_id     INT          NOT NULL,
+    partner_id   INT          NOT NULL,
+    last_message VARCHAR(255) NULL,
+    last_time    DATETIME(6)  NULL,
+    unread_count INT          NOT NULL DEFAULT 0,
+    PRIMARY KEY (owner_id, partner_id),
+    INDEX idx_conversation_owner_time (owner_id, last_time)
+);
+INSERT INTO chat_conversation (owner_id, partner_id, last_message, last_time, unread_count)
+SELECT t.owner_id, t.partner_id, LEFT(m.content, 100), m.timestamp, t.unread
+FROM (
+    SELECT owner_id, partner_id, MAX(id) AS last_id, SUM(unread) AS unread
+    FROM (
+        SELECT sender_id AS owner_id, recipient_id AS partner_id, id, 0 AS unread FROM chat_message
+        UNION ALL
+        SELECT recipient_id, sender_id, id, IF(is_read, 0, 1) FROM chat_message
+    ) x
+    GROUP BY owner_id, partner_id
+) t
+JOIN chat_message m ON m.id = t.last_id;
+
+-- ------------------------------------------------------------
+-- 聊天消息异步批量落库：消息 ID 改由应用按号段预分配（IdBlockAllocator，gen_value = 已发出的最大 ID）
+-- ------------------------------------------------------------
+INSERT INTO id_generator (gen_name, gen_value)
+SELECT 'chat_message', COALESCE(MAX(id), 0) FROM chat_message;
+
+-- ------------------------------------------------------------
+-- 销售分析预聚合：resolution = HOUR / DAY，bucket = 按应用时区对齐的桶序号，dim = PRODUCT / CATEGORY / SELLER
+-- 表为空时应用启动会从历史订单回填；按订单时间重放最近订单需要 order_time 索引
+-- ------------------------------------------------------------
+CREATE TABLE sales_rollup (
+    resolution    VARCHAR(8)  NOT NULL,
+    bucket        BIGINT      NOT NULL,
+    dim           VARCHAR(10) NOT NULL,
+    dim_key       VARCHAR(50) NOT NULL,
+    units         BIGINT      NOT NULL DEFAULT 0,
+    revenue_cents BIGINT      NOT NULL DEFAULT 0,
+    PRIMARY KEY (resolution, dim, dim_key, bucket)
+);
+CREATE INDEX idx_orders_order_time ON orders (order_time);
+
+-- ------------------------------------------------------------
+-- 商品批量导入任务：processed = 已提交的数据行数，与商品、错误明细在同一事务里推进，中断后从这里继续
+-- ------------------------------------------------------------
+CREATE TABLE import_job (
+    id           BIGINT       NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    seller_id    INT          NOT NULL,
+    format       VARCHAR(10)  NOT NULL,
+    has_images   BIT(1)       NOT NULL,
+    status       VARCHAR(10)  NOT NULL,
+    processed    INT          NOT NULL DEFAULT 0,
+    succeeded    INT          NOT NULL DEFAULT 0,
+    failed       INT          NOT NULL DEFAULT 0,
+    message      VARCHAR(500),
+    created_time DATETIME     NOT NULL,
+    updated_time DATETIME     NOT NULL,
+    INDEX idx_import_job_seller (seller_id, id)
+);
+CREATE TABLE import_job_error (
+    job_id  BIGINT       NOT NULL,
+    row_no  INT          NOT NULL,
+    message VARCHAR(500) NOT NULL,
+    PRIMARY KEY (job_id, row_no)
+);
+
+-- ------------------------------------------------------------
+-- 我的订单按下单时间倒序游标分页：(user_id, order_time) 索引，InnoDB 二级索引自带主键 id 作为末列
+-- ------------------------------------------------------------
+CREATE INDEX idx_orders_user_time ON orders (user_id, order_time);
+
+-- ------------------------------------------------------------
+-- 收藏数写合并：同一用户对同一商品只能有一条收藏记录，favorite_count 由应用按增量批量写回
+-- 先去掉重复记录、按记录数重算一次，之后由 FavoriteCounters 定时对账
+-- ------------------------------------------------------------
+DELETE f1 FROM favorite f1
+JOIN favorite f2 ON f1.user_id = f2.user_id AND f1.product_id = f2.product_id AND f1.id > f2.id;
+ALTER TABLE favorite ADD UNIQUE KEY uk_favorite_user_product (user_id, product_id);
+UPDATE product p SET favorite_count = (SELECT COUNT(*) FROM favorite f WHERE f.product_id = p.id);
+
+-- ------------------------------------------------------------
+-- 销量异步累加：下单只扣库存，订单提交后由应用合并写回 product.sales
+-- sales_applied 登记已经计入销量的订单，重放时跳过；现有订单的销量已经在 sales 里，全部登记一遍
+-- ------------------------------------------------------------
+CREATE TABLE sales_applied (
+    order_id     BIGINT   NOT NULL PRIMARY KEY,
+    applied_time DATETIME NOT NULL,
+    INDEX idx_sales_applied_time (applied_time)
+);
+INSERT INTO sales_applied (order_id, applied_time) SELECT id, NOW() FROM orders;
+
+-- ------------------------------------------------------------
+-- 结算幂等：结算事务开头登记 (user_id, idem_key)，和订单一起提交；重复的 key 主键冲突后按 order_id 回放
+-- 超过 checkout.idempotency.ttl-hours 的记录由应用定时清理
+-- ------------------------------------------------------------
+CREATE TABLE idempotency_key (
+    user_id      INT         NOT NULL,
+    idem_key     VARCHAR(64) NOT NULL,
+    order_id     BIGINT,
+    created_time DATETIME    NOT NULL,
+    PRIMARY KEY (user_id, idem_key),
+    INDEX idx_idempotency_key_time (created_time)
+);
+
+-- ------------------------------------------------------------
+-- 订单事件发件箱：下单事务里和订单一起写入，提交后由 OrderOutbox 轮询投递给进程内消费者
+-- (published_time, id) 索引让未投递事件按 id 顺序取出；已投递的保留几天后由应用清理
+-- ------------------------------------------------------------
+CREATE TABLE order_outbox (
+    id             BIGINT AUTO_INCREMENT PRIMARY KEY,
+    order_id       BIGINT      NOT NULL,
+    event_type     VARCHAR(32) NOT NULL,
+    payload        TEXT        NOT NULL,
+    created_time   DATETIME(3) NOT NULL,
+    published_time DATETIME(3),
+    attempts       INT         NOT NULL DEFAULT 0,
+    last_error     VARCHAR(500),
+    INDEX idx_order_outbox_pending (published_time, id)
+);
+
+-- ------------------------------------------------------------
+-- 订单状态机：version 乐观锁，状态按 version 条件批量更新；(status, order_time) 索引给超时未支付订单的清扫用
+-- 之前的订单没有支付环节，已有的 CREATED 订单视为已支付，避免上线后被当成超时未支付取消
+-- ------------------------------------------------------------
+ALTER TABLE orders ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+UPDATE orders SET status = 'PAID' WHERE status = 'CREATED';
+CREATE INDEX idx_orders_status_time ON orders (status, order_time);
+
+-- ------------------------------------------------------------
+-- 聊天历史改按 (timestamp, id) 游标分页：集群模式下消息 ID 按节点号段分配，和发送先后无关
+-- ------------------------------------------------------------
+CREATE INDEX idx_chat_conversation_time ON chat_message (conversation_id, timestamp, id);
+DROP INDEX idx_chat_conversation ON chat_message;
+
+-- ------------------------------------------------------------
+-- analytics_applied 登记已经累加进 sales_rollup 的订单，和增量在同一事务里写入；
+-- 启动时只补回没登记过的订单，重复投递的事件不会重复计数。现有订单都已经在汇总里，全部登记一遍
+-- ------------------------------------------------------------
+CREATE TABLE analytics_applied (
+    order_id     BIGINT   NOT NULL PRIMARY KEY,
+    applied_time DATETIME NOT NULL,
+    INDEX idx_analytics_applied_time (applied_time)
+);
+INSERT INTO analytics_applied (order_id, applied_time) SELECT id, NOW() FROM orders;
+
+-- ------------------------------------------------------------
+-- 发件箱停放：同一事件投递失败 OrderOutbox.MAX_ATTEMPTS 次后记 parked_time，不再轮询；
+-- 排查修复后把 parked_time 清空即可重投。轮询条件多了 parked_time IS NULL，索引跟着加上这一列
+-- ------------------------------------------------------------
+ALTER TABLE order_outbox ADD COLUMN parked_time DATETIME(3);
+DROP INDEX idx_order_outbox_pending ON order_outbox;
+CREATE INDEX idx_order_outbox_pending ON order_outbox (published_time, parked_time, id);
+
+-- ------------------------------------------------------------
+-- 结算按卖家拆单，一次结算生成多个订单，幂等记录改存逗号分隔的订单号；
+-- 已有记录的单个订单号原样转成字符串
+-- ------------------------------------------------------------
+ALTER TABLE idempotency_key CHANGE order_id order_ids TEXT;
@@ -0,0 +1,22 @@
+package com.cst.shopping_system;
+
+import org.junit.platform.engine.reporting.ReportEntry;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+
+import java.util.stream.Collectors;
+
+/**
+ * 把测试里 TestReporter.publishEntry 发布的测量结果（吞吐、延迟分位数等）打到控制台。
+ * IDE 会直接显示这些条目，surefire 却不会，mvn test 时靠这个监听器输出。
+ */
+public class ReportEntryPrinter implements TestExecutionListener {
+
+    @Override
+    public void reportingEntryPublished(TestIdentifier test, ReportEntry entry) {
+        String values = entry.getKeyValuePairs().entrySet().stream()
+                .map(e -> e.getKey() + ": " + e.getValue())
+                .collect(Collectors.joining(", "));
+        System.out.println("[report] " + test.getDisplayName() + " -> " + values);
+    }
+}
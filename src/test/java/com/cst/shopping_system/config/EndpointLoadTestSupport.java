@@ -0,0 +1,207 @@
+package com.cst.shopping_system.config;
+
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.repository.ProductRepository;
+import com.cst.shopping_system.repository.UserRepository;
+import com.cst.shopping_system.service.ProductSearchIndex;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 商品列表和详情接口的真实压测：应用以随机端口启动，连真实 MySQL，
+ * 分别用 200、2,000、10,000 个并发用户各发 REQUESTS_PER_USER 个请求，
+ * 通过 TestReporter 报告吞吐和 p50/p99 延迟，子类决定用哪种线程配置启动，两边的数字对照着看。
+ * 同时用 JFR 的 jdk.VirtualThreadPinned 事件检查 MySQL 驱动、连接池和本应用的代码没有把虚拟线程钉在载体线程上；
+ * 想看完整栈可以加 -Djdk.tracePinnedThreads=full 运行。
+ * 客户端用虚拟线程模拟用户，需要 JDK 21 和 Docker，缺一个就跳过。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false",
+        "spring.jpa.defer-datasource-initialization=true",
+        "spring.sql.init.mode=always",
+        "spring.sql.init.schema-locations=classpath:sql/app-tables.sql"
+})
+@EnabledForJreRange(min = JRE.JAVA_21)
+@Testcontainers(disabledWithoutDocker = true)
+abstract class EndpointLoadTestSupport {
+
+    private static final int REQUESTS_PER_USER = 5;
+    private static final int PRODUCTS = 200;
+    private static final int WARMUP_REQUESTS = 2_000;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    private final List<Integer> productIds = new ArrayList<>();
+    private HttpClient http;
+
+    /** 报告里标明是哪种线程配置 */
+    abstract String mode();
+
+    /** 这种配置下是否要求每个请求都成功；平台线程在连接数超过上限时拒绝连接属于预期，只报告 */
+    abstract boolean expectNoFailures(int users);
+
+    // 三档并发共用一个应用上下文和数据库：只在第一次造数据并预热
+    @BeforeEach
+    void seedAndWarmUp() throws Exception {
+        http = HttpClient.newBuilder()
+                .executor(new VirtualThreadTaskExecutor("vt-http-"))
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        if (productRepository.count() > 0) {
+            productRepository.findAll().forEach(p -> productIds.add(p.getId()));
+            return;
+        }
+        User seller = new User();
+        seller.setUsername("seller-" + System.nanoTime());
+        seller.setPassword("x");
+        seller.setNickname("小店");
+        seller = userRepository.save(seller);
+        for (int i = 0; i < PRODUCTS; i++) {
+            Product p = new Product();
+            p.setTitle("商品" + i);
+            p.setPrice(new BigDecimal(10 + i));
+            p.setStock(100);
+            p.setCategory(i % 2 == 0 ? "digital" : "books");
+            p.setImageUrls("/uploads/p" + i + ".png");
+            p.setCreatedTime(new Date());
+            p.setSeller(seller);
+            productIds.add(productRepository.save(p).getId());
+        }
+        searchIndex.rebuild();
+        // 先跑一轮让 JIT、连接池和缓存热起来，第一档并发不替启动买单
+        for (int i = 0; i < WARMUP_REQUESTS; i++) send(i, i);
+    }
+
+    @ParameterizedTest(name = "{0} 个并发用户")
+    @ValueSource(ints = {200, 2_000, 10_000})
+    void listingAndDetailUnderConcurrentUsers(int users, TestReporter reporter) throws Exception {
+        Map<String, Integer> pinnedAt = new ConcurrentHashMap<>();
+        AtomicInteger failures = new AtomicInteger();
+        long[] latencyNanos = new long[users * REQUESTS_PER_USER];
+        long elapsed;
+
+        try (RecordingStream jfr = new RecordingStream()) {
+            jfr.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(1)).withStackTrace();
+            jfr.onEvent("jdk.VirtualThreadPinned", event -> {
+                String frame = ownFrame(event);
+                if (frame != null) pinnedAt.merge(frame, 1, Integer::sum);
+            });
+            jfr.startAsync();
+
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(users);
+            VirtualThreadTaskExecutor clients = new VirtualThreadTaskExecutor("vt-client-");
+            for (int u = 0; u < users; u++) {
+                int user = u;
+                clients.execute(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < REQUESTS_PER_USER; i++) {
+                            long begin = System.nanoTime();
+                            boolean ok;
+                            try {
+                                ok = send(user, i);
+                            } catch (Exception e) {
+                                ok = false;
+                            }
+                            latencyNanos[user * REQUESTS_PER_USER + i] = System.nanoTime() - begin;
+                            if (!ok) failures.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            assertTrue(done.await(300, TimeUnit.SECONDS), "压测超时");
+            elapsed = System.nanoTime() - begin;
+        }
+
+        int total = latencyNanos.length;
+        Arrays.sort(latencyNanos);
+        Map<String, String> report = new LinkedHashMap<>();
+        report.put("mode", mode());
+        report.put("users", String.valueOf(users));
+        report.put("requests", String.valueOf(total));
+        report.put("failed", String.valueOf(failures.get()));
+        report.put("req/s", String.format("%.0f", total / (elapsed / 1e9)));
+        report.put("p50 ms", String.format("%.1f", latencyNanos[total / 2] / 1e6));
+        report.put("p99 ms", String.format("%.1f", latencyNanos[total * 99 / 100] / 1e6));
+        reporter.publishEntry(report);
+
+        if (expectNoFailures(users)) assertEquals(0, failures.get(), "有请求失败或超时");
+        assertTrue(pinnedAt.isEmpty(), "虚拟线程被钉住: " + pinnedAt);
+    }
+
+    // 偶数次请求列表页，奇数次请求详情页
+    private boolean send(int user, int i) throws Exception {
+        String path = i % 2 == 0
+                ? "/api/products?sortBy=sales&size=20&page=" + (user % 5)
+                : "/api/products/" + productIds.get((user + i) % PRODUCTS);
+        HttpResponse<String> response = http.send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                        .timeout(Duration.ofSeconds(30)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        return response.statusCode() == 200;
+    }
+
+    // 钉住发生在驱动、连接池或本应用代码里时返回第一处这样的栈帧
+    private static String ownFrame(RecordedEvent event) {
+        if (event.getStackTrace() == null) return null;
+        for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith("com.mysql.") || type.startsWith("com.zaxxer.hikari.")
+                    || type.startsWith("com.cst.shopping_system.")) {
+                return type + "." + frame.getMethod().getName();
+            }
+        }
+        return null;
+    }
+}
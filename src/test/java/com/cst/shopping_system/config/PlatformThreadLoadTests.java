@@ -0,0 +1,29 @@
+package com.cst.shopping_system.config;
+
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+
+/**
+ * 默认配置（Tomcat 平台线程池）下的同一组压测，作为 {@link VirtualThreadLoadTests} 的对照。
+ * 并发超过 Tomcat 的 max-connections + accept-count 时多出来的连接会被拒绝，这一档只报告失败数，不断言。
+ */
+class PlatformThreadLoadTests extends EndpointLoadTestSupport {
+
+    // 默认配置下 Tomcat 最多同时接 max-connections(8192) + accept-count(100) 个连接
+    private static final int DEFAULT_CONNECTION_LIMIT = 8_192 + 100;
+
+    @Container
+    @ServiceConnection
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0");
+
+    @Override
+    String mode() {
+        return "platform";
+    }
+
+    @Override
+    boolean expectNoFailures(int users) {
+        return users <= DEFAULT_CONNECTION_LIMIT;
+    }
+}
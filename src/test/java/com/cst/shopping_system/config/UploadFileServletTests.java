@@ -0,0 +1,151 @@
+package com.cst.shopping_system.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadFileServletTests {
+
+    private static final String HASH = "ab".repeat(32);
+    private static final int ROUNDS = 5_000;
+
+    @TempDir
+    Path root;
+
+    private final MockServletContext context = new MockServletContext();
+    private UploadFileServlet servlet;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        content = new byte[8 * 1024];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+        Files.write(root.resolve(HASH + ".jpg"), content);
+        Files.createDirectories(root.resolve("thumbs"));
+
+        servlet = new UploadFileServlet(root);
+        servlet.init(new MockServletConfig(context));
+    }
+
+    @Test
+    void servesImmutableFileWithContentHashEtag() throws Exception {
+        MockHttpServletResponse resp = get("/" + HASH + ".jpg", null);
+        assertEquals(200, resp.getStatus());
+        assertEquals("\"" + HASH + "\"", resp.getHeader("ETag"));
+        assertTrue(resp.getHeader("Cache-Control").contains("immutable"));
+        assertArrayEquals(content, resp.getContentAsByteArray());
+
+        MockHttpServletRequest req = request("/" + HASH + ".jpg");
+        req.addHeader("If-None-Match", "\"" + HASH + "\"");
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        servlet.service(req, notModified);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+    }
+
+    @Test
+    void servesSingleByteRange() throws Exception {
+        MockHttpServletResponse resp = get("/" + HASH + ".jpg", "bytes=100-199");
+        assertEquals(206, resp.getStatus());
+        assertEquals("bytes 100-199/" + content.length, resp.getHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 200), resp.getContentAsByteArray());
+
+        MockHttpServletResponse suffix = get("/" + HASH + ".jpg", "bytes=-10");
+        assertArrayEquals(Arrays.copyOfRange(content, content.length - 10, content.length), suffix.getContentAsByteArray());
+
+        assertEquals(416, get("/" + HASH + ".jpg", "bytes=99999-").getStatus());
+    }
+
+    @Test
+    void missingThumbnailFallsBackToOriginalWithShortCache() throws Exception {
+        MockHttpServletResponse resp = get("/thumbs/" + HASH + ".jpg.jpg", null);
+        assertEquals(200, resp.getStatus());
+        assertEquals("public, max-age=60", resp.getHeader("Cache-Control"));
+        assertArrayEquals(content, resp.getContentAsByteArray());
+
+        assertEquals(404, get("/../secret.txt", null).getStatus());
+    }
+
+    @Test
+    void servesTheSameBodyAsResourceHandler() throws Exception {
+        ResourceHttpRequestHandler handler = resourceHandler();
+
+        MockHttpServletResponse expected = viaHandler(handler);
+        MockHttpServletResponse actual = get("/" + HASH + ".jpg", null);
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getContentType(), actual.getContentType());
+        assertArrayEquals(expected.getContentAsByteArray(), actual.getContentAsByteArray());
+    }
+
+    @Test
+    void throughputAgainstResourceHandler(TestReporter reporter) throws Exception {
+        ResourceHttpRequestHandler handler = resourceHandler();
+        for (int i = 0; i < ROUNDS / 10; i++) {
+            get("/" + HASH + ".jpg", null);
+            viaHandler(handler);
+        }
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) get("/" + HASH + ".jpg", null);
+        double servletRps = ROUNDS / ((System.nanoTime() - begin) / 1e9);
+
+        begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) viaHandler(handler);
+        double handlerRps = ROUNDS / ((System.nanoTime() - begin) / 1e9);
+
+        Map<String, String> report = new LinkedHashMap<>();
+        report.put("file bytes", String.valueOf(content.length));
+        report.put("servlet req/s", String.format("%.0f", servletRps));
+        report.put("ResourceHttpRequestHandler req/s", String.format("%.0f", handlerRps));
+        reporter.publishEntry(report);
+    }
+
+    private ResourceHttpRequestHandler resourceHandler() throws Exception {
+        ResourceHttpRequestHandler handler = new ResourceHttpRequestHandler();
+        handler.setLocations(List.of(new FileSystemResource(root.toString() + "/")));
+        handler.setServletContext(context);
+        handler.afterPropertiesSet();
+        return handler;
+    }
+
+    private MockHttpServletResponse viaHandler(ResourceHttpRequestHandler handler) throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest(context, "GET", "/uploads/" + HASH + ".jpg");
+        req.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, HASH + ".jpg");
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        handler.handleRequest(req, resp);
+        assertEquals(200, resp.getStatus());
+        return resp;
+    }
+
+    private MockHttpServletResponse get(String pathInfo, String range) throws Exception {
+        MockHttpServletRequest req = request(pathInfo);
+        if (range != null) req.addHeader("Range", range);
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        servlet.service(req, resp);
+        return resp;
+    }
+
+    private MockHttpServletRequest request(String pathInfo) {
+        MockHttpServletRequest req = new MockHttpServletRequest(context, "GET", "/uploads" + pathInfo);
+        req.setServletPath("/uploads");
+        req.setPathInfo(pathInfo);
+        return req;
+    }
+}
@@ -0,0 +1,29 @@
+package com.cst.shopping_system.config;
+
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+
+/**
+ * vthreads 配置下的压测：请求跑在虚拟线程上，并发用户数远超 Tomcat 默认的 200 个平台线程时，
+ * 每一档都要求所有请求成功，且驱动、连接池和本应用的代码不钉住载体线程。
+ * 对照组是 {@link PlatformThreadLoadTests}。
+ */
+@ActiveProfiles("vthreads")
+class VirtualThreadLoadTests extends EndpointLoadTestSupport {
+
+    @Container
+    @ServiceConnection
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0");
+
+    @Override
+    String mode() {
+        return "vthreads";
+    }
+
+    @Override
+    boolean expectNoFailures(int users) {
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+package com.cst.shopping_system.repository;
+
+import com.cst.shopping_system.dto.OrderSummaryDTO;
+import com.cst.shopping_system.entity.Order;
+import com.cst.shopping_system.entity.User;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.data.domain.Limit;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 我的订单游标分页在真实 MySQL 上的行为：(order_time, id) 倒序，同一时间的订单按 id 区分，
+ * 逐页翻完不重复不遗漏，也不会混进别人的订单。没有 Docker 时跳过。
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+class OrderRepositoryTests {
+
+    @Container
+    @ServiceConnection
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0");
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void keysetPagesWalkEveryOrderOnceIncludingTiesOnOrderTime() {
+        User me = user("me");
+        User other = user("other");
+        long t = 1_700_000_000_000L;
+        List<Order> mine = new ArrayList<>();
+        // 7 个订单只有 3 个不同的下单时间，每页 2 条，翻页点必然落在同一时间的订单中间
+        for (int i = 0; i < 7; i++) {
+            Date at = new Date(t + (i / 3) * 60_000L);
+            mine.add(order(me, at));
+            order(other, at);
+        }
+        entityManager.flush();
+        entityManager.clear();
+        List<Long> newestFirst = mine.stream()
+                .sorted(Comparator.comparing(Order::getOrderTime).thenComparing(Order::getId).reversed())
+                .map(Order::getId)
+                .toList();
+
+        List<Long> seen = new ArrayList<>();
+        List<OrderSummaryDTO> page = orderRepository.findSummariesByUserId(me.getId(), Limit.of(2));
+        while (!page.isEmpty()) {
+            page.forEach(s -> seen.add(s.id()));
+            OrderSummaryDTO last = page.get(page.size() - 1);
+            // 游标里只有毫秒数，按服务层的做法还原成 Date 再查
+            page = orderRepository.findSummariesByUserIdAfter(me.getId(), new Date(last.orderTime().getTime()),
+                    last.id(), Limit.of(2));
+        }
+
+        assertEquals(newestFirst, seen);
+    }
+
+    private User user(String name) {
+        User u = new User();
+        u.setUsername(name);
+        u.setPassword("x");
+        return userRepository.save(u);
+    }
+
+    private Order order(User user, Date at) {
+        Order o = new Order();
+        o.setUser(user);
+        o.setOrderTime(at);
+        o.setStatus(Order.PAID);
+        o.setTotalAmount(new BigDecimal("9.90"));
+        return orderRepository.save(o);
+    }
+}
@@ -0,0 +1,191 @@
+package com.cst.shopping_system.repository;
+
+import com.cst.shopping_system.dto.ProductCardDTO;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 列表卡片投影在真实 MySQL 上的行为：substring_index 截封面图、卖家昵称 join、分页总数，
+ * 以及投影相对加载完整实体的内存分配。没有 Docker 时跳过。
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+class ProductRepositoryImplTests {
+
+    @Container
+    @ServiceConnection
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0");
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private User seller;
+
+    @BeforeEach
+    void setUp() {
+        seller = new User();
+        seller.setUsername("seller");
+        seller.setPassword("x");
+        seller.setNickname("小店");
+        seller = userRepository.save(seller);
+    }
+
+    @Test
+    void cardsCutTheCoverImageAndJoinTheSeller() {
+        Product withImages = save("耳机", "9.90", "/uploads/a.png,/uploads/b.png", 1);
+        Product external = save("音箱", "19.90", "https://cdn.example.com/c.png", 1);
+        Product noImage = save("鼠标", "29.90", null, 1);
+        entityManager.clear();
+
+        Page<ProductCardDTO> page = productRepository.findCards(onSale(),
+                PageRequest.of(0, 10, Sort.by(Sort.Direction.ASC, "price")));
+        assertEquals(3, page.getTotalElements());
+        assertEquals(List.of(withImages.getId(), external.getId(), noImage.getId()),
+                page.getContent().stream().map(ProductCardDTO::id).toList());
+
+        ProductCardDTO first = page.getContent().get(0);
+        assertEquals("/uploads/thumbs/a.png.jpg", first.coverImage());
+        assertEquals("小店", first.seller().nickname());
+        assertEquals(seller.getId(), first.seller().id());
+        assertEquals(0, new BigDecimal("9.90").compareTo(first.price()));
+        assertEquals("https://cdn.example.com/c.png", page.getContent().get(1).coverImage());
+        assertNull(page.getContent().get(2).coverImage());
+
+        // JPQL 版本的投影（我的商品 / 按 ID 取卡片）截取结果一致
+        assertEquals("/uploads/thumbs/a.png.jpg",
+                productRepository.findCardsByIdIn(List.of(withImages.getId())).get(0).coverImage());
+        assertEquals(3, productRepository.findCardsBySellerId(seller.getId()).size());
+    }
+
+    @Test
+    void offsetPagesCountOnlyMatchingRowsAndLimitQueriesStopEarly() {
+        for (int i = 0; i < 25; i++) save("商品" + i, String.valueOf(10 + i), "/uploads/p" + i + ".png", i % 5 == 0 ? 0 : 1);
+        entityManager.clear();
+
+        Page<ProductCardDTO> second = productRepository.findCards(onSale(),
+                PageRequest.of(1, 8, Sort.by(Sort.Direction.DESC, "price")));
+        assertEquals(20, second.getTotalElements());
+        assertEquals(3, second.getTotalPages());
+        assertEquals(8, second.getContent().size());
+        assertTrue(second.getContent().stream().allMatch(c -> c.status() == 1));
+
+        List<ProductCardDTO> top = productRepository.findCards(onSale(),
+                Sort.by(Sort.Direction.DESC, "price").and(Sort.by(Sort.Direction.DESC, "id")), 5);
+        assertEquals(5, top.size());
+        assertEquals(0, new BigDecimal("34").compareTo(top.get(0).price()));
+    }
+
+    @Test
+    void projectionAllocatesLessThanLoadingEntities() {
+        String description = "描述".repeat(400);
+        String images = String.join(",", java.util.Collections.nCopies(20, "/uploads/0123456789abcdef0123456789abcdef.png"));
+        for (int i = 0; i < 500; i++) {
+            Product p = product("商品" + i, "99.00", images, 1);
+            p.setDescription(description);
+            productRepository.save(p);
+        }
+        entityManager.flush();
+        Sort sort = Sort.by(Sort.Direction.DESC, "createdTime");
+
+        // 先各跑一遍预热，再按线程统计分配字节数
+        loadEntities(sort);
+        productRepository.findCards(onSale(), sort, 500);
+        long entityBytes = allocated(() -> loadEntities(sort));
+        long cardBytes = allocated(() -> productRepository.findCards(onSale(), sort, 500));
+
+        assertTrue(cardBytes < entityBytes,
+                "projection allocated " + cardBytes + " bytes, entities " + entityBytes + " bytes");
+    }
+
+    @Test
+    void savingAStaleEntityKeepsCountersAndStockWrittenInBetween() {
+        Product p = product("耳机", "9.90", null, 1);
+        p.setStock(10);
+        p = productRepository.save(p);
+        entityManager.flush();
+        entityManager.clear();
+
+        Product loaded = productRepository.findById(p.getId()).orElseThrow();
+        // 读到实体之后，销量、收藏数的合并写回和下单扣库存先后落库
+        entityManager.createNativeQuery("UPDATE product SET sales = sales + 5, favorite_count = favorite_count + 2, "
+                + "stock = stock - 3 WHERE id = ?1").setParameter(1, p.getId()).executeUpdate();
+        loaded.setTitle("降噪耳机");
+        loaded.setSales(0);
+        loaded.setStock(10);
+        productRepository.save(loaded);
+        entityManager.flush();
+        // 卖家把库存从读到的 10 改成 20：按增量 +10 写，扣掉的 3 件不会回来
+        assertEquals(1, productRepository.adjustStock(p.getId(), 20 - 10));
+        assertEquals(1, productRepository.updateStatus(p.getId(), 0));
+        assertEquals(0, productRepository.updateStatus(-1, 0));
+        entityManager.clear();
+
+        Product reloaded = productRepository.findById(p.getId()).orElseThrow();
+        assertEquals("降噪耳机", reloaded.getTitle());
+        assertEquals(5, reloaded.getSales());
+        assertEquals(2, reloaded.getFavoriteCount());
+        assertEquals(17, reloaded.getStock());
+        assertEquals(0, reloaded.getStatus());
+    }
+
+    private void loadEntities(Sort sort) {
+        entityManager.clear();
+        assertEquals(500, productRepository.findAll(onSale(), sort).size());
+        entityManager.clear();
+    }
+
+    private static long allocated(Runnable action) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = bean.getCurrentThreadAllocatedBytes();
+        action.run();
+        return bean.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    private static Specification<Product> onSale() {
+        return (root, query, cb) -> cb.equal(root.get("status"), 1);
+    }
+
+    private Product save(String title, String price, String imageUrls, int status) {
+        return productRepository.save(product(title, price, imageUrls, status));
+    }
+
+    private Product product(String title, String price, String imageUrls, int status) {
+        Product p = new Product();
+        p.setTitle(title);
+        p.setPrice(new BigDecimal(price));
+        p.setImageUrls(imageUrls);
+        p.setStatus(status);
+        p.setCategory("digital");
+        p.setCreatedTime(new Date());
+        p.setSeller(seller);
+        return p;
+    }
+}
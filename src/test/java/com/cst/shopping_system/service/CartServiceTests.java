@@ -0,0 +1,70 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.dto.CartLineDTO;
+import com.cst.shopping_system.entity.CartItem;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.repository.CartItemRepository;
+import com.cst.shopping_system.repository.ProductRepository;
+import com.cst.shopping_system.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CartServiceTests {
+
+    private final CartItemRepository cartRepo = mock(CartItemRepository.class);
+
+    @Test
+    void totalsAreSummedInCents() {
+        when(cartRepo.findLinesByUserId(1)).thenReturn(List.of(
+                new CartLineDTO(10L, 100, "笔", "/uploads/a.png", new BigDecimal("0.10"), 99, 1, 3),
+                new CartLineDTO(11L, 101, "本子", null, new BigDecimal("19.99"), 1, 1, 2),
+                new CartLineDTO(12L, 102, "橡皮", "", new BigDecimal("1.00"), 5, 0, 1)));
+        CartService service = new CartService(cartRepo, mock(UserRepository.class), mock(ProductRepository.class), new CartViewCache(0));
+
+        CartService.CartView cart = service.getCartView(1);
+
+        assertEquals(30 + 3998 + 100, cart.totalCents());
+        assertEquals(new BigDecimal("41.28"), cart.totalAmount());
+        assertEquals(6, cart.totalQuantity());
+        CartLineDTO pen = cart.items().get(0);
+        assertEquals(new BigDecimal("0.30"), pen.subtotal());
+        assertEquals("/uploads/thumbs/a.png.jpg", pen.coverImage());
+        assertTrue(pen.available());
+        assertFalse(cart.items().get(1).available()); // 库存不足
+        assertFalse(cart.items().get(2).available()); // 已下架
+        assertNull(cart.items().get(2).coverImage());
+    }
+
+    @Test
+    void cachedViewIsEvictedWhenTheCartChanges() {
+        when(cartRepo.findLinesByUserId(1)).thenReturn(List.of(
+                new CartLineDTO(10L, 100, "笔", null, new BigDecimal("2.50"), 99, 1, 1)));
+        CartItem item = new CartItem();
+        User owner = new User();
+        owner.setId(1);
+        item.setId(10L);
+        item.setUser(owner);
+        when(cartRepo.findById(10L)).thenReturn(Optional.of(item));
+        when(cartRepo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+        CartService service = new CartService(cartRepo, mock(UserRepository.class), mock(ProductRepository.class), new CartViewCache(30));
+
+        service.getCartView(1);
+        service.getCartView(1);
+        verify(cartRepo, times(1)).findLinesByUserId(1);
+
+        service.updateQuantity(1, 10L, 4);
+        service.getCartView(1);
+        verify(cartRepo, times(2)).findLinesByUserId(1);
+
+        service.removeItem(1, 10L);
+        service.getCartView(1);
+        verify(cartRepo, times(3)).findLinesByUserId(1);
+    }
+}
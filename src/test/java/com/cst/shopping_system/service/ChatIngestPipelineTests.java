@@ -0,0 +1,239 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.ChatMessage;
+import com.cst.shopping_system.entity.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChatIngestPipelineTests {
+
+    private static final int THREADS = 16;
+    private static final int MESSAGES_PER_THREAD = 5_000;
+    private static final int USERS = 40;
+
+    @TempDir
+    Path dir;
+
+    // 模拟的 chat_message 表：按插入顺序记录 (id, conversation_id)
+    private final List<Object[]> inserted = Collections.synchronizedList(new ArrayList<>());
+    private final Map<Long, Long> insertedAt = new ConcurrentHashMap<>();
+    // 模拟的 chat_conversation 写入：按执行顺序记录 (owner_id, partner_id)
+    private final List<List<Integer>> upserted = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+    // 发给这个用户的消息插入时违反外键，模拟 STOMP 里传来的不存在的收件人
+    private static final int MISSING_USER = 999;
+
+    @Test
+    void persistsInConversationOrderAndReportsThroughput(TestReporter reporter) throws Exception {
+        ChatIngestPipeline pipeline = newPipeline();
+        pipeline.start();
+
+        Map<Integer, Long> submittedAt = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        long[] deliveryNanos = new long[THREADS * MESSAGES_PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                        int sender = (thread + i) % USERS + 1;
+                        int recipient = (thread * 7 + i * 3) % USERS + 1;
+                        long begin = System.nanoTime();
+                        // 推送发生在 submit 返回之后，这里的耗时就是发送到可推送的延迟
+                        ChatMessage m = pipeline.submit(message(sender, recipient, "msg-" + thread + "-" + i));
+                        long end = System.nanoTime();
+                        deliveryNanos[thread * MESSAGES_PER_THREAD + i] = end - begin;
+                        submittedAt.put(m.getId(), end);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        double submitSeconds = (System.nanoTime() - begin) / 1e9;
+        assertTrue(pipeline.awaitFlushed(30_000));
+        double totalSeconds = (System.nanoTime() - begin) / 1e9;
+        pool.shutdown();
+        pipeline.shutdown();
+
+        int total = THREADS * MESSAGES_PER_THREAD;
+        assertEquals(total, inserted.size());
+
+        // 同一会话内，落库顺序与 ID（发送顺序）一致
+        Map<Long, Long> lastIdPerConversation = new HashMap<>();
+        for (Object[] row : inserted) {
+            long id = ((Integer) row[0]).longValue();
+            Long prev = lastIdPerConversation.put((Long) row[1], id);
+            if (prev != null) assertTrue(prev < id, "会话内消息乱序");
+        }
+
+        long[] persistLag = submittedAt.entrySet().stream()
+                .mapToLong(e -> insertedAt.get(e.getKey().longValue()) - e.getValue())
+                .sorted().toArray();
+        Arrays.sort(deliveryNanos);
+        Map<String, String> report = new LinkedHashMap<>();
+        report.put("messages", String.valueOf(total));
+        report.put("submit msg/s", String.format("%.0f", total / submitSeconds));
+        report.put("persisted msg/s", String.format("%.0f", total / totalSeconds));
+        report.put("deliver p50 us", String.format("%.1f", deliveryNanos[total / 2] / 1e3));
+        report.put("deliver p99 us", String.format("%.1f", deliveryNanos[total * 99 / 100] / 1e3));
+        report.put("persist lag p50 ms", String.format("%.1f", persistLag[total / 2] / 1e6));
+        report.put("persist lag p99 ms", String.format("%.1f", persistLag[total * 99 / 100] / 1e6));
+        reporter.publishEntry(report);
+    }
+
+    @Test
+    void messageThatViolatesAConstraintIsParkedAndTheRestOfItsBatchIsPersisted() throws Exception {
+        // 先停住数据库，让坏消息和前后的好消息攒进同一批
+        databaseDown.set(true);
+        ChatIngestPipeline pipeline = newPipeline();
+        pipeline.start();
+        for (int i = 0; i < 5; i++) pipeline.submit(message(1, 2, "前 " + i));
+        ChatMessage bad = pipeline.submit(message(1, MISSING_USER, "发给不存在的人"));
+        for (int i = 0; i < 5; i++) pipeline.submit(message(2, 1, "后 " + i));
+        databaseDown.set(false);
+
+        assertTrue(pipeline.awaitFlushed(10_000));
+        // 坏消息之后提交的消息照常落库，管道没有卡住
+        pipeline.submit(message(1, 2, "之后"));
+        assertTrue(pipeline.awaitFlushed(10_000));
+        pipeline.shutdown();
+
+        assertEquals(11, inserted.size());
+        assertTrue(inserted.stream().noneMatch(row -> (Integer) row[0] == bad.getId()));
+        assertEquals(1, pipeline.parked());
+        List<ChatIngestPipeline.Pending> parked = ChatIngestPipeline.readWal(pipeline.deadLetterPath());
+        assertEquals(1, parked.size());
+        assertEquals(bad.getId(), parked.get(0).id());
+        assertEquals(MISSING_USER, parked.get(0).recipientId());
+        assertEquals("发给不存在的人", parked.get(0).content());
+
+        // 坏消息还留在 WAL 里：重启恢复时同样转进死信，不会让启动失败
+        ChatIngestPipeline restarted = newPipeline();
+        restarted.start();
+        restarted.shutdown();
+        assertEquals(11, inserted.size());
+        assertEquals(2, ChatIngestPipeline.readWal(restarted.deadLetterPath()).size());
+    }
+
+    @Test
+    void replaysUnpersistedMessagesFromWalAfterCrash() throws Exception {
+        databaseDown.set(true);
+        ChatIngestPipeline crashed = newPipeline();
+        crashed.start();
+        for (int i = 0; i < 10; i++) crashed.submit(message(1, 2, "离线消息 " + i));
+        assertFalse(crashed.awaitFlushed(200));
+        crashed.shutdown(); // 数据库一直不可用，停机时消息只留在 WAL 里
+        assertTrue(inserted.isEmpty());
+
+        databaseDown.set(false);
+        ChatIngestPipeline restarted = newPipeline();
+        restarted.start();
+        restarted.shutdown();
+
+        assertEquals(10, inserted.size());
+        for (int i = 1; i < inserted.size(); i++) {
+            assertTrue((Integer) inserted.get(i - 1)[0] < (Integer) inserted.get(i)[0]);
+        }
+    }
+
+    @Test
+    void conversationRowsAreLockedInPrimaryKeyOrder() {
+        ChatIngestPipeline pipeline = newPipeline();
+        // A→B 和 B→A 落在同一批：两行摘要都只按 (owner_id, partner_id) 升序写一次，
+        // 和另一方向的批次拿锁顺序一致，不会互相等待
+        pipeline.persist(List.of(
+                new ChatIngestPipeline.Pending(1, 9, 3, "hi", 1L),
+                new ChatIngestPipeline.Pending(2, 3, 9, "hello", 2L),
+                new ChatIngestPipeline.Pending(3, 4, 3, "yo", 3L)));
+        pipeline.persist(List.of(new ChatIngestPipeline.Pending(4, 3, 9, "again", 4L)));
+
+        assertEquals(List.of(List.of(3, 4), List.of(3, 9), List.of(4, 3), List.of(9, 3),
+                List.of(3, 9), List.of(9, 3)), upserted);
+    }
+
+    private final AtomicLong idSeq = new AtomicLong();
+
+    private ChatIngestPipeline newPipeline() {
+        IdBlockAllocator ids = mock(IdBlockAllocator.class);
+        when(ids.next(anyString(), anyInt())).thenAnswer(inv -> idSeq.incrementAndGet());
+
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        when(jdbc.batchUpdate(anyString(), anyList())).thenAnswer(inv -> {
+            if (databaseDown.get()) throw new DataAccessResourceFailureException("down");
+            String sql = inv.getArgument(0);
+            List<Object[]> rows = inv.getArgument(1);
+            if (sql.startsWith("INSERT INTO chat_conversation")) {
+                for (Object[] row : rows) upserted.add(List.of((Integer) row[0], (Integer) row[1]));
+            }
+            if (sql.startsWith("INSERT INTO chat_message")) {
+                if (rows.stream().anyMatch(row -> (Integer) row[3] == MISSING_USER)) {
+                    throw new DataIntegrityViolationException("Cannot add or update a child row: a foreign key constraint fails");
+                }
+                long now = System.nanoTime();
+                for (Object[] row : rows) {
+                    inserted.add(row);
+                    insertedAt.put(((Integer) row[0]).longValue(), now);
+                }
+            }
+            return new int[rows.size()];
+        });
+        when(jdbc.queryForList(anyString(), eq(Integer.class), any(Object[].class))).thenAnswer(inv -> {
+            List<Integer> existing = new ArrayList<>();
+            synchronized (inserted) {
+                for (Object[] row : inserted) existing.add((Integer) row[0]);
+            }
+            return existing;
+        });
+        return new ChatIngestPipeline(jdbc, txManager, ids, dir.resolve("chat-wal.log"));
+    }
+
+    private static ChatMessage message(int sender, int recipient, String content) {
+        User s = new User();
+        s.setId(sender);
+        User r = new User();
+        r.setId(recipient);
+        ChatMessage m = new ChatMessage();
+        m.setSender(s);
+        m.setRecipient(r);
+        m.setContent(content);
+        return m;
+    }
+}
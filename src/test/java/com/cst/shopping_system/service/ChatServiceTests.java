@@ -0,0 +1,96 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.dto.ChatMessageDTO;
+import com.cst.shopping_system.repository.ChatConversationRepository;
+import com.cst.shopping_system.repository.ChatMessageRepository;
+import com.cst.shopping_system.util.KeysetCursor;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChatServiceTests {
+
+    private final ChatMessageRepository messages = mock(ChatMessageRepository.class);
+    private final ChatConversationRepository conversations = mock(ChatConversationRepository.class);
+    private final ChatIngestPipeline pipeline = mock(ChatIngestPipeline.class);
+    private final PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+    private final ChatService chat = new ChatService(messages, conversations, pipeline, new TransactionTemplate(txManager));
+
+    // 模拟的 chat_message 表（同一会话）
+    private final List<ChatMessageDTO> table = new ArrayList<>();
+
+    ChatServiceTests() {
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        Comparator<ChatMessageDTO> newestFirst = Comparator.comparing(ChatMessageDTO::timestamp)
+                .thenComparing(ChatMessageDTO::id).reversed();
+        when(messages.findLatest(anyLong(), any(Limit.class))).thenAnswer(inv -> table.stream()
+                .sorted(newestFirst).limit(((Limit) inv.getArgument(1)).max()).toList());
+        when(messages.findPageBefore(anyLong(), any(Date.class), anyInt(), any(Limit.class))).thenAnswer(inv -> {
+            Date time = inv.getArgument(1);
+            int id = inv.getArgument(2);
+            return table.stream()
+                    .filter(m -> m.timestamp().before(time) || (m.timestamp().equals(time) && m.id() < id))
+                    .sorted(newestFirst).limit(((Limit) inv.getArgument(3)).max()).toList();
+        });
+    }
+
+    @Test
+    void historyPagesByTimeNotByNodeAssignedIds() {
+        // 两个节点各自的号段：节点 A 分到 1000 起，节点 B 分到 1 起，ID 大小和发送先后无关
+        table.add(message(1001, 1_000));
+        table.add(message(1, 2_000));
+        table.add(message(1002, 3_000));
+        table.add(message(2, 3_000)); // 同一毫秒，按 id 区分
+        table.add(message(3, 4_000));
+
+        List<Integer> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            ChatService.HistoryPage page = chat.history(1, 2, cursor, 2);
+            List<Integer> ids = page.messages().stream().map(ChatMessageDTO::id).toList();
+            seen.addAll(0, ids);
+            cursor = page.nextBefore();
+        } while (cursor != null);
+
+        assertEquals(List.of(1001, 1, 2, 1002, 3), seen);
+        verify(pipeline, times(3)).awaitFlushed(anyLong());
+    }
+
+    @Test
+    void malformedHistoryCursorIsRejected() {
+        for (String bad : List.of("%%%", KeysetCursor.encode("x", 1), KeysetCursor.encode(5L), KeysetCursor.encode(5L, "y"))) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> chat.history(1, 2, bad, 10));
+            assertEquals("无效的分页游标", e.getMessage());
+        }
+    }
+
+    @Test
+    void markAsReadWaitsForFlushBeforeOpeningTheTransaction() {
+        when(conversations.resetUnread(1, 2)).thenReturn(1);
+
+        chat.markAsRead(1, 2);
+
+        InOrder order = inOrder(pipeline, txManager, conversations, messages);
+        order.verify(pipeline).awaitFlushed(anyLong());
+        order.verify(txManager).getTransaction(any());
+        order.verify(conversations).resetUnread(1, 2);
+        order.verify(messages).markMessagesAsRead(2, 1);
+        order.verify(txManager).commit(any());
+    }
+
+    private static ChatMessageDTO message(int id, long time) {
+        return new ChatMessageDTO(id, 1, 2, "m" + id, new Date(time));
+    }
+}
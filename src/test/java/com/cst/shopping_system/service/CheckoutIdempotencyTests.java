@@ -0,0 +1,112 @@
+package com.cst.shopping_system.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CheckoutIdempotencyTests {
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final CheckoutIdempotency idempotency = new CheckoutIdempotency(jdbc, 24);
+
+    @Test
+    void concurrentDuplicatesWaitForTheFirstCheckout() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int requests = 20;
+        ExecutorService pool = Executors.newFixedThreadPool(requests);
+        List<Future<CheckoutIdempotency.Result>> results = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            results.add(pool.submit(() -> idempotency.execute(1, "k1", () -> {
+                executions.incrementAndGet();
+                try {
+                    release.await(); // 第一次结算卡住，其余请求都应排在它后面
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return List.of(100L);
+            })));
+        }
+        Thread.sleep(200);
+        release.countDown();
+
+        int replayed = 0;
+        for (Future<CheckoutIdempotency.Result> f : results) {
+            CheckoutIdempotency.Result r = f.get(5, TimeUnit.SECONDS);
+            assertEquals(List.of(100L), r.orderIds());
+            if (r.replayed()) replayed++;
+        }
+        pool.shutdown();
+        assertEquals(1, executions.get());
+        assertEquals(requests - 1, replayed);
+
+        // 之后的重试直接命中内存结果；换个用户同一个 key 互不影响
+        assertEquals(new CheckoutIdempotency.Result(List.of(100L), true), idempotency.execute(1, "k1", () -> fail("不应再次结算")));
+        assertEquals(new CheckoutIdempotency.Result(List.of(200L), false), idempotency.execute(2, "k1", () -> List.of(200L)));
+    }
+
+    @Test
+    void failuresAreSharedWithWaitersButNotRemembered() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<?> first = pool.submit(() -> idempotency.execute(1, "k2", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new RuntimeException("商品库存不足");
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Thread waiter = new Thread(() -> {
+            RuntimeException e = assertThrows(RuntimeException.class,
+                    () -> idempotency.execute(1, "k2", () -> fail("应等待第一次结算")));
+            assertEquals("商品库存不足", e.getMessage());
+        });
+        waiter.start();
+        Thread.sleep(100);
+        release.countDown();
+        waiter.join();
+        assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        // 失败的事务已回滚，同一个 key 重试会重新结算
+        assertEquals(new CheckoutIdempotency.Result(List.of(300L), false), idempotency.execute(1, "k2", () -> List.of(300L)));
+    }
+
+    @Test
+    void duplicateKeyInDatabaseReplaysTheRecordedOrders() {
+        when(jdbc.queryForList(startsWith("SELECT order_ids FROM idempotency_key"), eq(String.class), any(Object[].class)))
+                .thenReturn(List.of("42,43"));
+
+        CheckoutIdempotency.Result r = idempotency.execute(1, "k3", () -> {
+            throw new DuplicateKeyException("Duplicate entry '1-k3' for key 'PRIMARY'");
+        });
+
+        assertEquals(new CheckoutIdempotency.Result(List.of(42L, 43L), true), r);
+        assertEquals(List.of(42L, 43L), idempotency.execute(1, "k3", () -> fail("不应再次结算")).orderIds());
+    }
+
+    @Test
+    void normalizesKeys() {
+        assertNull(CheckoutIdempotency.normalize("  "));
+        assertEquals("abc", CheckoutIdempotency.normalize(" abc "));
+        assertThrows(RuntimeException.class, () -> CheckoutIdempotency.normalize("x".repeat(65)));
+    }
+}
@@ -0,0 +1,192 @@
+package com.cst.shopping_system.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ClusterChatFanoutTests {
+
+    private static final int USERS = 200;
+    private static final int MESSAGES = 20_000;
+
+    private final InMemoryChatBus bus = new InMemoryChatBus();
+
+    @AfterEach
+    void tearDown() {
+        bus.shutdown();
+    }
+
+    @Test
+    void deliversAcrossNodesOnlyToTheNodeHoldingTheSession() throws Exception {
+        Node a = new Node("a");
+        Node b = new Node("b");
+        a.fanout.onSubscribe(subscribeEvent("s1", "sub-0", "/user/1/queue/messages"));
+        b.fanout.onSubscribe(subscribeEvent("s2", "sub-0", "/user/2/queue/messages"));
+
+        a.fanout.deliver(2, Map.of("content", "你好"));
+        b.await(1);
+        assertEquals(List.of("2"), b.deliveredTo);
+        assertTrue(b.payloads.get(0).contains("你好"));
+        assertTrue(a.deliveredTo.isEmpty());
+
+        // 会话断开后不再占用代理上的订阅
+        b.fanout.disconnected("s2");
+        assertEquals(0, b.fanout.localUserCount());
+        assertEquals(0, bus.subscriberCount("/topic/chat.user.2"));
+    }
+
+    @Test
+    void userWithSessionsOnTwoNodesGetsBoth() throws Exception {
+        Node a = new Node("a");
+        Node b = new Node("b");
+        a.fanout.subscribed("s1", "sub-0", 7);
+        b.fanout.subscribed("s2", "sub-0", 7);
+
+        a.fanout.deliver(7, Map.of("content", "多端"));
+        a.await(1);
+        b.await(1);
+    }
+
+    @Test
+    void relayOutageFallsBackToLocalDeliveryInsteadOfFailingTheSend() throws Exception {
+        Node a = new Node("a");
+        a.fanout.subscribed("s1", "sub-0", 3);
+        bus.down = true;
+
+        assertDoesNotThrow(() -> a.fanout.deliver(3, Map.of("content", "断线")));
+        a.await(1);
+        assertEquals(List.of("3"), a.deliveredTo);
+        assertTrue(a.payloads.get(0).contains("断线"));
+
+        bus.down = false;
+        a.fanout.deliver(3, Map.of("content", "恢复"));
+        a.await(2);
+    }
+
+    @Test
+    void everyMessageArrivesExactlyOnceAsNodesAreAdded() throws Exception {
+        for (int nodes : new int[]{1, 2, 4}) {
+            List<Node> cluster = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) cluster.add(new Node("n" + i));
+            // 用户按 ID 均匀分布在各节点
+            for (int u = 1; u <= USERS; u++) {
+                cluster.get(u % nodes).fanout.subscribed("s" + u, "sub-0", u);
+            }
+
+            ExecutorService senders = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < MESSAGES; i++) {
+                int recipient = i % USERS + 1;
+                Node from = cluster.get(i % nodes);
+                senders.execute(() -> from.fanout.deliver(recipient, Map.of("content", "x")));
+            }
+            senders.shutdown();
+            assertTrue(senders.awaitTermination(30, TimeUnit.SECONDS));
+            awaitTotal(cluster, MESSAGES);
+
+            for (int u = 1; u <= USERS; u++) cluster.get(u % nodes).fanout.disconnected("s" + u);
+        }
+    }
+
+    private static void awaitTotal(List<Node> cluster, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (cluster.stream().mapToInt(n -> n.received.get()).sum() < expected) {
+            assertTrue(System.currentTimeMillis() < deadline, "投递超时");
+            Thread.sleep(5);
+        }
+        assertEquals(expected, cluster.stream().mapToInt(n -> n.received.get()).sum());
+    }
+
+    private static SessionSubscribeEvent subscribeEvent(String sessionId, String subscriptionId, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        return new SessionSubscribeEvent(new Object(), message);
+    }
+
+    /** 一个应用节点：自己的 ClusterChatFanout + 记录本机推送的内存代理 */
+    private class Node {
+        final ClusterChatFanout fanout;
+        final List<String> deliveredTo = new CopyOnWriteArrayList<>();
+        final List<String> payloads = new CopyOnWriteArrayList<>();
+        final AtomicInteger received = new AtomicInteger();
+
+        Node(String name) {
+            SimpMessageSendingOperations local = mock(SimpMessageSendingOperations.class, name);
+            doAnswer(inv -> {
+                if (received.incrementAndGet() <= 10) {
+                    deliveredTo.add(inv.getArgument(0));
+                    payloads.add(inv.getArgument(2));
+                }
+                return null;
+            }).when(local).convertAndSendToUser(anyString(), eq("/queue/messages"), any(Object.class));
+            fanout = new ClusterChatFanout(bus, local, new ObjectMapper());
+        }
+
+        void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (received.get() < count) {
+                assertTrue(System.currentTimeMillis() < deadline, "投递超时");
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /** 测试用的消息代理替身：每个订阅一个投递线程，模拟网络上的异步送达 */
+    static class InMemoryChatBus implements ChatBus {
+        private final Map<String, List<Subscriber>> topics = new ConcurrentHashMap<>();
+        volatile boolean down;
+
+        private record Subscriber(Consumer<String> handler, ExecutorService executor) {}
+
+        @Override
+        public void publish(String topic, String json) {
+            if (down) throw new RuntimeException("聊天消息代理未连接，消息已保存但暂时无法推送");
+            for (Subscriber s : topics.getOrDefault(topic, List.of())) {
+                s.executor().execute(() -> s.handler().accept(json));
+            }
+        }
+
+        @Override
+        public Runnable subscribe(String topic, Consumer<String> handler) {
+            Subscriber s = new Subscriber(handler, Executors.newSingleThreadExecutor());
+            topics.computeIfAbsent(topic, k -> new CopyOnWriteArrayList<>()).add(s);
+            return () -> {
+                topics.getOrDefault(topic, List.of()).remove(s);
+                s.executor().shutdown();
+            };
+        }
+
+        int subscriberCount(String topic) {
+            return topics.getOrDefault(topic, List.of()).size();
+        }
+
+        void shutdown() {
+            topics.values().forEach(list -> list.forEach(s -> s.executor().shutdownNow()));
+        }
+    }
+}
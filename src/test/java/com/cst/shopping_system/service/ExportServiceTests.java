@@ -0,0 +1,127 @@
+package com.cst.shopping_system.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.function.IntFunction;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ExportServiceTests {
+
+    private static final long CREATED = Timestamp.valueOf("2026-01-02 03:04:05").getTime();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void writesEscapedCsvAndNdjsonWithOptionalGzip() throws Exception {
+        IntFunction<Object[]> rows = i -> new Object[]{
+                (long) i, i == 1 ? "手机, \"旗舰\"\n新款" : "书" + i, i == 2 ? null : "phone",
+                new BigDecimal("19.90"), 5L, 100L, 0L, 1L, new Timestamp(CREATED)};
+        ExportService service = new ExportService(cursorOver(3, rows), objectMapper);
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        assertEquals(3, service.exportProducts(7, ExportService.Format.CSV, false, csv));
+        String text = csv.toString(StandardCharsets.UTF_8);
+        assertTrue(text.startsWith("\uFEFFid,title,category,price,stock,sales,favoriteCount,status,createdTime\r\n"));
+        assertTrue(text.contains("1,\"手机, \"\"旗舰\"\"\n新款\",phone,19.90,5,100,0,1,2026-01-02 03:04:05\r\n"));
+        assertTrue(text.contains("2,书2,,19.90,"));
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        service.exportProducts(7, ExportService.Format.NDJSON, false, ndjson);
+        String[] lines = ndjson.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        JsonNode first = objectMapper.readTree(lines[1]);
+        assertEquals("手机, \"旗舰\"\n新款", first.get("title").asText());
+        assertTrue(lines[1].contains("\"price\":19.90,")); // 金额原样输出，不经过 double
+        assertTrue(objectMapper.readTree(lines[2]).get("category").isNull());
+
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        service.exportProducts(7, ExportService.Format.NDJSON, true, zipped);
+        byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(zipped.toByteArray())).readAllBytes();
+        assertArrayEquals(ndjson.toByteArray(), unzipped);
+    }
+
+    @Test
+    void exportsAMillionRowsWithBoundedHeap() throws Exception {
+        int total = 1_000_000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long[] usedAt = new long[2];
+        IntFunction<Object[]> rows = i -> {
+            // 前 1 万行和最后一行各量一次 GC 后的堆占用
+            if (i == 10_000 || i == total - 1) {
+                System.gc();
+                usedAt[i == 10_000 ? 0 : 1] = memory.getHeapMemoryUsage().getUsed();
+            }
+            return new Object[]{(long) i, "商品标题 " + i, "phone", BigDecimal.valueOf(i % 10_000, 2),
+                    (long) (i % 100), (long) i, 0L, 1L, new Timestamp(CREATED)};
+        };
+
+        for (ExportService.Format format : ExportService.Format.values()) {
+            CountingStream out = new CountingStream();
+            ExportService service = new ExportService(cursorOver(total, rows), objectMapper);
+            assertEquals(total, service.exportProducts(1, format, true, out));
+            assertTrue(out.count > 0);
+            long growth = usedAt[1] - usedAt[0];
+            assertTrue(growth < 16 * 1024 * 1024, "导出期间堆占用随行数增长: " + growth);
+        }
+    }
+
+    /** 一个只进游标：按行号生成列值，模拟 MySQL 流式结果集 */
+    private static JdbcTemplate cursorOver(int total, IntFunction<Object[]> rowAt) {
+        JdbcTemplate cursor = mock(JdbcTemplate.class);
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            Object[][] current = new Object[1][];
+            Object[] lastRead = new Object[1];
+            ResultSet rs = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("wasNull")) return lastRead[0] == null;
+                        Object v = current[0][(Integer) args[0] - 1];
+                        lastRead[0] = v;
+                        return switch (method.getName()) {
+                            case "getLong" -> v == null ? 0L : v;
+                            case "getString", "getBigDecimal", "getTimestamp" -> v;
+                            default -> throw new UnsupportedOperationException(method.getName());
+                        };
+                    });
+            for (int i = 0; i < total; i++) {
+                current[0] = rowAt.apply(i);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(cursor).query(anyString(), any(RowCallbackHandler.class), any(Object[].class));
+        return cursor;
+    }
+
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
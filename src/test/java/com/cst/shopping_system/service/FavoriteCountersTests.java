@@ -0,0 +1,152 @@
+package com.cst.shopping_system.service;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FavoriteCountersTests {
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final FavoriteCounters counters;
+
+    // 模拟 product.favorite_count 列
+    private final Map<Integer, AtomicLong> stored = new ConcurrentHashMap<>();
+
+    FavoriteCountersTests() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        counters = new FavoriteCounters(jdbc, txManager, mock(ProductCatalogCache.class));
+    }
+
+    // 并发场景，多跑几遍才容易暴露丢数
+    @RepeatedTest(20)
+    void noUpdatesAreLostUnderParallelToggles() throws Exception {
+        AtomicInteger batches = new AtomicInteger();
+        when(jdbc.batchUpdate(startsWith("UPDATE product SET favorite_count = GREATEST"), anyList())).thenAnswer(inv -> {
+            // 每 4 批失败一次，增量要放回计数器
+            if (batches.incrementAndGet() % 4 == 0) throw new DataAccessResourceFailureException("连接断开");
+            List<Object[]> rows = inv.getArgument(1);
+            for (Object[] r : rows) {
+                stored.computeIfAbsent((Integer) r[1], k -> new AtomicLong()).addAndGet((Long) r[0]);
+            }
+            return new int[rows.size()];
+        });
+
+        // 1000 次收藏/取消收藏，大部分落在同一个热门商品上；收藏关系用一个并发 Map 模拟 favorite 表
+        int toggles = 1000;
+        Map<Long, Boolean> favorites = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread flusher = new Thread(() -> {
+            while (!done.get()) counters.flush();
+        });
+        flusher.start();
+        for (int i = 0; i < toggles; i++) {
+            int user = i % 300;
+            int product = i % 10 == 0 ? 2 + i % 3 : 1;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                long key = (long) user << 32 | product;
+                // 切换收藏状态和记增量在同一次 compute 里完成，同一对 (用户, 商品) 的切换不会交错
+                favorites.compute(key, (k, favorited) -> {
+                    counters.add(product, favorited == null ? 1 : -1);
+                    return favorited == null ? Boolean.TRUE : null;
+                });
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        done.set(true);
+        flusher.join();
+        // 失败的一批返回 0 但增量还在，要一直刷到每个商品都没有待写回的增量
+        for (int round = 0; round < 100 && pendingTotal() != 0; round++) counters.flush();
+
+        for (int product = 1; product <= 4; product++) {
+            int p = product;
+            long expected = favorites.keySet().stream().filter(k -> (int) (long) k == p).count();
+            assertEquals(expected, stored.getOrDefault(product, new AtomicLong()).get(), "商品 " + product);
+            assertEquals(0, counters.pendingDelta(product));
+        }
+    }
+
+    @Test
+    void deltasAreMergedIntoOneRowPerProduct() {
+        List<List<Object[]>> batches = new ArrayList<>();
+        when(jdbc.batchUpdate(startsWith("UPDATE product SET favorite_count = GREATEST"), anyList())).thenAnswer(inv -> {
+            List<Object[]> rows = inv.getArgument(1);
+            batches.add(rows);
+            return new int[rows.size()];
+        });
+        for (int i = 0; i < 100; i++) counters.add(5, 1);
+        counters.add(3, -1);
+        counters.add(4, 1);
+        counters.add(4, -1); // 抵消为 0，不用写
+
+        assertEquals(2, counters.flush());
+        assertEquals(1, batches.size());
+        // 按商品 ID 排序写回
+        assertEquals(List.of(3, 5), batches.get(0).stream().map(r -> (Integer) r[1]).toList());
+        assertEquals(List.of(-1L, 100L), batches.get(0).stream().map(r -> (Long) r[0]).toList());
+        assertEquals(0, counters.flush());
+    }
+
+    private long pendingTotal() {
+        long total = 0;
+        for (int product = 1; product <= 4; product++) total += Math.abs(counters.pendingDelta(product));
+        return total;
+    }
+
+    @Test
+    void reconcileRecountsDriftedProductsButSkipsPendingOnes() throws Exception {
+        List<List<Object[]>> recounts = new ArrayList<>();
+        when(jdbc.batchUpdate(anyString(), anyList())).thenAnswer(inv -> {
+            String sql = inv.getArgument(0);
+            List<Object[]> rows = inv.getArgument(1);
+            if (sql.contains("SELECT COUNT(*)")) recounts.add(rows);
+            else throw new DataAccessResourceFailureException("连接断开"); // 刷新失败，商品 9 的增量留在内存
+            return new int[rows.size()];
+        });
+        ResultSet rs = mock(ResultSet.class);
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            for (int id : new int[]{7, 9}) {
+                when(rs.getInt(1)).thenReturn(id);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbc).query(startsWith("SELECT p.id, p.favorite_count"), any(RowCallbackHandler.class));
+        counters.add(9, 1);
+
+        assertEquals(1, counters.reconcile());
+        assertEquals(1, recounts.size());
+        assertEquals(7, recounts.get(0).get(0)[0]);
+        assertEquals(1, counters.pendingDelta(9));
+    }
+}
@@ -0,0 +1,78 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.repository.FavoriteRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FavoriteMembershipCacheTests {
+
+    private final FavoriteRepository repo = mock(FavoriteRepository.class);
+    private final FavoriteMembershipCache cache = new FavoriteMembershipCache(repo);
+
+    @Test
+    void loadsOnceAndAppliesTogglesIncrementally() {
+        when(repo.findProductIdsByUserId(1)).thenReturn(List.of(30, 10, 20, 10));
+
+        assertArrayEquals(new int[]{10, 20, 30}, cache.favoritesOf(1));
+        cache.onToggle(1, 15, true);
+        cache.onToggle(1, 30, false);
+        cache.onToggle(1, 99, false); // 本来就没收藏
+
+        assertArrayEquals(new int[]{10, 15, 20}, cache.favoritesOf(1));
+        assertTrue(cache.isFavorited(1, 15));
+        assertFalse(cache.isFavorited(1, 30));
+        verify(repo, times(1)).findProductIdsByUserId(1);
+    }
+
+    @Test
+    void toggleInsideTransactionIsVisibleOnlyAfterCommit() {
+        when(repo.findProductIdsByUserId(1)).thenReturn(List.of(10));
+        cache.favoritesOf(1);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.onToggle(1, 20, true);
+            assertFalse(cache.isFavorited(1, 20));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertTrue(cache.isFavorited(1, 20));
+    }
+
+    @Test
+    void toggleDuringLoadOnlyBlocksCachingForThatUser() {
+        // 用户 1 加载期间用户 1 自己收藏了商品 5：这次加载的结果已经过时，不能进缓存
+        when(repo.findProductIdsByUserId(1)).thenAnswer(inv -> {
+            cache.onToggle(1, 5, true);
+            return List.of(10);
+        });
+        // 用户 2 加载期间用户 1 又收藏了商品：不影响用户 2 的缓存
+        when(repo.findProductIdsByUserId(2)).thenAnswer(inv -> {
+            cache.onToggle(1, 6, true);
+            return List.of(20);
+        });
+
+        cache.favoritesOf(1);
+        cache.favoritesOf(2);
+        cache.favoritesOf(2);
+        verify(repo, times(1)).findProductIdsByUserId(2);
+
+        when(repo.findProductIdsByUserId(1)).thenReturn(List.of(5, 6, 10));
+        assertArrayEquals(new int[]{5, 6, 10}, cache.favoritesOf(1));
+        verify(repo, times(2)).findProductIdsByUserId(1);
+    }
+
+    @Test
+    void containsHandlesMissingInput() {
+        assertFalse(FavoriteMembershipCache.contains(null, 1));
+        assertFalse(FavoriteMembershipCache.contains(new int[]{1}, null));
+        assertTrue(FavoriteMembershipCache.contains(new int[]{1, 3}, 3));
+    }
+}
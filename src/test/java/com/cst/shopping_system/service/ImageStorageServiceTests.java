@@ -0,0 +1,102 @@
+package com.cst.shopping_system.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageStorageServiceTests {
+
+    @TempDir
+    Path root;
+
+    private Path uploads;
+    private Path thumbs;
+    private ImageStorageService storage;
+
+    @BeforeEach
+    void setUp() {
+        uploads = root.resolve("uploads");
+        thumbs = uploads.resolve("thumbs");
+        storage = new ImageStorageService(uploads, thumbs);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.shutdown();
+    }
+
+    @Test
+    void sameContentIsStoredOnceUnderItsHash() throws Exception {
+        byte[] content = "not really a png".getBytes(StandardCharsets.UTF_8);
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        String first = storage.store(new ByteArrayInputStream(content), "photo.PNG");
+        String second = storage.store(new ByteArrayInputStream(content), "copy.png");
+
+        assertEquals("/uploads/" + hash + ".png", first);
+        assertEquals(first, second);
+        assertEquals(List.of(hash + ".png"), files(uploads));
+    }
+
+    @Test
+    void untrustedFileNamesNeverReachThePath() throws Exception {
+        String script = storage.store(new ByteArrayInputStream(new byte[]{1}), "shell.php");
+        String traversal = storage.store(new ByteArrayInputStream(new byte[]{2}), "../../etc/x.jpg");
+
+        assertTrue(script.matches("/uploads/[0-9a-f]{64}"), script);
+        assertTrue(traversal.matches("/uploads/[0-9a-f]{64}\\.jpg"), traversal);
+        assertEquals(2, files(uploads).size());
+        try (Stream<Path> s = Files.list(root)) {
+            assertEquals(List.of(uploads), s.toList());
+        }
+    }
+
+    @Test
+    void thumbnailIsAJpegBoundedToTheMaxEdge() throws Exception {
+        BufferedImage image = new BufferedImage(1200, 600, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+
+        String url = storage.store(new ByteArrayInputStream(png.toByteArray()), "wide.png");
+        String fileName = url.substring("/uploads/".length());
+
+        // 缩略图在后台线程池里生成
+        Path thumb = thumbs.resolve(fileName + ".jpg");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(thumb) && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertTrue(Files.exists(thumb));
+        BufferedImage read = ImageIO.read(thumb.toFile());
+        assertEquals(400, read.getWidth());
+        assertEquals(200, read.getHeight());
+        assertEquals(List.of(fileName + ".jpg"), files(thumbs)); // 没有残留的临时文件
+    }
+
+    @Test
+    void nonImageGetsNoThumbnail() throws Exception {
+        String url = storage.store(new ByteArrayInputStream("plain text".getBytes(StandardCharsets.UTF_8)), "a.png");
+        storage.generateThumbnail(url.substring("/uploads/".length()));
+        assertTrue(files(thumbs).isEmpty());
+    }
+
+    private static List<String> files(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(Files::isRegularFile).map(p -> p.getFileName().toString()).sorted().toList();
+        }
+    }
+}
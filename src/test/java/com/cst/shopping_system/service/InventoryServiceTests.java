@@ -0,0 +1,185 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class InventoryServiceTests {
+
+    private static final int PRODUCT_ID = 1;
+    private static final int STOCK = 1_000;
+    private static final int THREADS = 64;
+    private static final int ATTEMPTS = 20_000;
+
+    private ProductRepository productRepo;
+    private JdbcTemplate jdbcTemplate;
+    private InventoryService inventoryService;
+    private AtomicInteger dbStock;
+    private AtomicInteger dbCalls;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        dbStock = new AtomicInteger(STOCK);
+        dbCalls = new AtomicInteger();
+        product = new Product();
+        product.setId(PRODUCT_ID);
+        product.setTitle("秒杀商品");
+        product.setStock(STOCK);
+
+        productRepo = mock(ProductRepository.class);
+        when(productRepo.findById(PRODUCT_ID)).thenReturn(Optional.of(product));
+
+        // 用 CAS 模拟数据库的 UPDATE ... WHERE stock >= ?
+        jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(inv -> {
+            List<Object[]> args = inv.getArgument(1);
+            int[] counts = new int[args.size()];
+            for (int i = 0; i < counts.length; i++) {
+                dbCalls.incrementAndGet();
+                int qty = (Integer) args.get(i)[0];
+                for (;;) {
+                    int cur = dbStock.get();
+                    if (cur < qty) break;
+                    if (dbStock.compareAndSet(cur, cur - qty)) {
+                        counts[i] = 1;
+                        break;
+                    }
+                }
+            }
+            return counts;
+        });
+        when(jdbcTemplate.queryForObject(startsWith("SELECT stock FROM product"), eq(Integer.class), any(Object[].class)))
+                .thenAnswer(inv -> dbStock.get());
+        inventoryService = new InventoryService(productRepo, jdbcTemplate);
+    }
+
+    @Test
+    void conditionalDeductNeverOversells(TestReporter reporter) throws Exception {
+        int sold = runCheckouts(reporter);
+        assertEquals(STOCK, sold);
+        assertEquals(0, dbStock.get());
+    }
+
+    @Test
+    void flashSaleNeverOversellsAndShieldsDatabase(TestReporter reporter) throws Exception {
+        inventoryService.openFlashSale(PRODUCT_ID);
+        int sold = runCheckouts(reporter);
+        assertEquals(STOCK, sold);
+        assertEquals(0, dbStock.get());
+        assertEquals(0, inventoryService.flashSaleAvailable(PRODUCT_ID));
+        // 抢不到的请求在内存闸门就被拦下，不会打到数据库
+        assertEquals(STOCK, dbCalls.get());
+        assertEquals(0, inventoryService.pendingReservations());
+    }
+
+    @Test
+    void expiredReservationIsReleasedBackToGate() {
+        inventoryService.openFlashSale(PRODUCT_ID);
+        InventoryService.Reservation r = inventoryService.reserve(PRODUCT_ID, 10);
+        assertEquals(STOCK - 10, inventoryService.flashSaleAvailable(PRODUCT_ID));
+
+        inventoryService.releaseExpired(r.expireAt() + 1);
+        assertEquals(STOCK, inventoryService.flashSaleAvailable(PRODUCT_ID));
+        // 重复释放不会多退
+        inventoryService.release(r);
+        assertEquals(STOCK, inventoryService.flashSaleAvailable(PRODUCT_ID));
+    }
+
+    @Test
+    void reservationBoundToOpenTransactionIsNotExpired() {
+        inventoryService.openFlashSale(PRODUCT_ID);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            inventoryService.deduct(product, 10);
+            // 事务迟迟没有结束，定时回收也不能把数量退回闸门
+            inventoryService.releaseExpired(System.currentTimeMillis() + 10 * InventoryService.RESERVATION_TTL_MILLIS);
+            assertEquals(STOCK - 10, inventoryService.flashSaleAvailable(PRODUCT_ID));
+
+            for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+                sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+            assertEquals(STOCK, inventoryService.flashSaleAvailable(PRODUCT_ID));
+            assertEquals(0, inventoryService.pendingReservations());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void reloadUsesCurrentStockMinusPendingReservations() {
+        inventoryService.openFlashSale(PRODUCT_ID);
+        inventoryService.reserve(PRODUCT_ID, 10);
+        dbStock.set(500); // 卖家把库存改成 500
+
+        inventoryService.reloadFlashSale(PRODUCT_ID);
+        assertEquals(490, inventoryService.flashSaleAvailable(PRODUCT_ID));
+        // 非闪购商品不受影响
+        inventoryService.reloadFlashSale(PRODUCT_ID + 1);
+        assertFalse(inventoryService.isFlashSale(PRODUCT_ID + 1));
+    }
+
+    @Test
+    void shortageMessageReportsCurrentStock() {
+        dbStock.set(3);
+        RuntimeException e = assertThrows(RuntimeException.class, () -> inventoryService.deduct(product, 5));
+        assertEquals("商品 [秒杀商品] 库存不足，当前仅剩 3 件", e.getMessage());
+    }
+
+    // 报告 ATTEMPTS 次并发结算（含抢不到的）从放行到全部返回的速率
+    private int runCheckouts(TestReporter reporter) throws Exception {
+        AtomicInteger sold = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(ATTEMPTS);
+        for (int i = 0; i < ATTEMPTS; i++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    inventoryService.deduct(product, 1);
+                    sold.incrementAndGet();
+                } catch (RuntimeException ignored) {
+                    // 库存不足 / 已抢光
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        Map<String, String> report = new LinkedHashMap<>();
+        report.put("attempts", String.valueOf(ATTEMPTS));
+        report.put("sold", String.valueOf(sold.get()));
+        report.put("checkouts/sec", String.format("%.0f", ATTEMPTS / (elapsed / 1e9)));
+        reporter.publishEntry(report);
+        return sold.get();
+    }
+}
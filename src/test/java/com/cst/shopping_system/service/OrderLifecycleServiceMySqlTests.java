@@ -0,0 +1,273 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.CartItem;
+import com.cst.shopping_system.entity.Order;
+import com.cst.shopping_system.entity.OrderItem;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.repository.CartItemRepository;
+import com.cst.shopping_system.repository.OrderItemRepository;
+import com.cst.shopping_system.repository.OrderRepository;
+import com.cst.shopping_system.repository.ProductRepository;
+import com.cst.shopping_system.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 订单状态批量变更在真实 MySQL 上的行为：按 version 条件的批量 UPDATE、并发修改时的冲突、
+ * 取消时在同一事务里退回库存，混合卖家的购物车拆单后各卖家处理自己的订单，以及很早下单、最近才取消的订单在重启补记时扣回销量。
+ * 发件箱轮询和超时清扫关掉，事件留在表里方便检查。没有 Docker 时跳过。
+ */
+@SpringBootTest(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false",
+        "spring.jpa.defer-datasource-initialization=true",
+        "spring.sql.init.mode=always",
+        "spring.sql.init.schema-locations=classpath:sql/app-tables.sql",
+        "order.outbox.poll-enabled=false",
+        "order.unpaid-timeout-minutes=0"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class OrderLifecycleServiceMySqlTests {
+
+    @Container
+    @ServiceConnection
+    // 用 root 连接：检查行锁等待要读 information_schema.innodb_trx，需要 PROCESS 权限
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0").withUsername("root");
+
+    @Autowired
+    private OrderLifecycleService lifecycle;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private SalesCounters salesCounters;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private OrderItemRepository orderItemRepository;
+
+    @Autowired
+    private CartItemRepository cartItemRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    private User buyer;
+    private User seller;
+
+    @BeforeEach
+    void setUp() {
+        buyer = user("buyer");
+        seller = user("seller");
+    }
+
+    @Test
+    void bulkCancelBumpsVersionsAndRestoresStockInTheSameTransaction() {
+        Product phone = product(10, 0);
+        Product cover = product(5, 0);
+        long paid = order(Order.PAID, new Date(), phone, 2, cover, 1);
+        long created = order(Order.CREATED, new Date(), phone, 3);
+        long shipped = order(Order.SHIPPED, new Date(), cover, 1);
+
+        OrderLifecycleService.TransitionResult r = lifecycle.transition(List.of(shipped, created, paid),
+                Order.CANCELLED, OrderLifecycleService.Actor.ADMIN);
+
+        assertEquals(List.of(paid, created), r.updated());
+        assertTrue(r.conflicts().isEmpty());
+        assertEquals("订单状态为 SHIPPED，不能变更为 CANCELLED", r.rejected().get(shipped));
+        assertStatus(paid, Order.CANCELLED, 1);
+        assertStatus(created, Order.CANCELLED, 1);
+        assertStatus(shipped, Order.SHIPPED, 0);
+        assertEquals(15, stockOf(phone));
+        assertEquals(6, stockOf(cover));
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM order_outbox WHERE event_type = ? "
+                + "AND order_id IN (?, ?)", Integer.class, OrderOutbox.ORDER_STATUS_CHANGED, paid, created));
+    }
+
+    @Test
+    void mixedSellerCheckoutLetsEachSellerShipOrCancelTheirOwnOrder() {
+        User other = user("seller");
+        Product phone = product(10, 0);
+        Product cable = product(10, 0);
+        cable.setSeller(other);
+        cable = productRepository.save(cable);
+        cartItem(phone, 2);
+        cartItem(cable, 1);
+
+        List<Long> ids = orderService.checkout(buyer.getId(), "地址");
+
+        assertEquals(2, ids.size());
+        long phoneOrder = ids.get(0);
+        long cableOrder = ids.get(1);
+        assertEquals(List.of(phone.getId()), productsOf(phoneOrder));
+        assertEquals(List.of(cable.getId()), productsOf(cableOrder));
+        jdbcTemplate.update("UPDATE orders SET status = ? WHERE id = ?", Order.PAID, phoneOrder);
+
+        // 各自只能动自己的订单
+        OrderLifecycleService.Actor first = OrderLifecycleService.Actor.seller(seller.getId());
+        OrderLifecycleService.Actor second = OrderLifecycleService.Actor.seller(other.getId());
+        assertEquals("订单包含其他店铺的商品",
+                lifecycle.transition(List.of(cableOrder), Order.CANCELLED, first).rejected().get(cableOrder));
+        assertEquals(List.of(phoneOrder), lifecycle.transition(List.of(phoneOrder), Order.SHIPPED, first).updated());
+        assertEquals(List.of(cableOrder), lifecycle.transition(List.of(cableOrder), Order.CANCELLED, second).updated());
+
+        assertStatus(phoneOrder, Order.SHIPPED, 1);
+        assertStatus(cableOrder, Order.CANCELLED, 1);
+        assertEquals(8, stockOf(phone));
+        assertEquals(10, stockOf(cable));
+    }
+
+    @Test
+    void orderChangedAfterTheVersionWasReadIsAConflictAndKeepsItsStock() throws Exception {
+        Product phone = product(10, 0);
+        long id = order(Order.CREATED, new Date(), phone, 4);
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // 另一个请求先支付了这个订单，事务还没提交
+        CompletableFuture<Void> payment = CompletableFuture.runAsync(() -> tx.executeWithoutResult(status -> {
+            jdbcTemplate.update("UPDATE orders SET status = ?, version = version + 1 WHERE id = ?", Order.PAID, id);
+            locked.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(locked.await(30, TimeUnit.SECONDS));
+
+        // 取消读到的还是 version 0，批量 UPDATE 卡在行锁上；支付提交后按 version 条件匹配不到
+        CompletableFuture<OrderLifecycleService.TransitionResult> cancel = CompletableFuture.supplyAsync(() ->
+                lifecycle.transition(List.of(id), Order.CANCELLED, OrderLifecycleService.Actor.ADMIN));
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (lockWaits() == 0 && !cancel.isDone() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertFalse(cancel.isDone());
+        release.countDown();
+        payment.get(30, TimeUnit.SECONDS);
+        OrderLifecycleService.TransitionResult r = cancel.get(30, TimeUnit.SECONDS);
+
+        assertEquals(List.of(id), r.conflicts());
+        assertTrue(r.updated().isEmpty());
+        assertStatus(id, Order.PAID, 1);
+        assertEquals(10, stockOf(phone));
+    }
+
+    @Test
+    void replayTakesBackSalesOfAnOldOrderCancelledJustBeforeARestart() {
+        // 5 天前下单，销量早已写回；取消的事件还没投递进程就退出了
+        Product phone = product(10, 2);
+        long id = order(Order.PAID, new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(5)), phone, 2);
+        jdbcTemplate.update("INSERT INTO sales_applied (order_id, applied_time) VALUES (?, ?)",
+                id, new Timestamp(System.currentTimeMillis()));
+        assertEquals(List.of(id), lifecycle.transition(List.of(id), Order.CANCELLED,
+                OrderLifecycleService.Actor.ADMIN).updated());
+
+        salesCounters.replay();
+        salesCounters.replay(); // 再启动一次也只扣一次
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT sales FROM product WHERE id = ?", Integer.class, phone.getId()));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sales_applied WHERE order_id = ?",
+                Integer.class, -id));
+    }
+
+    private List<Integer> productsOf(long orderId) {
+        return jdbcTemplate.queryForList("SELECT product_id FROM order_item WHERE order_id = ? ORDER BY product_id",
+                Integer.class, orderId);
+    }
+
+    private void cartItem(Product p, int quantity) {
+        CartItem ci = new CartItem();
+        ci.setUser(buyer);
+        ci.setProduct(p);
+        ci.setQuantity(quantity);
+        cartItemRepository.save(ci);
+    }
+
+    private int lockWaits() {
+        Integer n = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.innodb_trx WHERE trx_state = 'LOCK WAIT'", Integer.class);
+        return n == null ? 0 : n;
+    }
+
+    private void assertStatus(long id, String status, long version) {
+        jdbcTemplate.query("SELECT status, version FROM orders WHERE id = ?", rs -> {
+            assertEquals(status, rs.getString(1), "订单 " + id);
+            assertEquals(version, rs.getLong(2), "订单 " + id);
+        }, id);
+    }
+
+    private int stockOf(Product p) {
+        return jdbcTemplate.queryForObject("SELECT stock FROM product WHERE id = ?", Integer.class, p.getId());
+    }
+
+    private User user(String prefix) {
+        User u = new User();
+        u.setUsername(prefix + "-" + System.nanoTime());
+        u.setPassword("x");
+        return userRepository.save(u);
+    }
+
+    private Product product(int stock, int sales) {
+        Product p = new Product();
+        p.setTitle("商品");
+        p.setPrice(new BigDecimal("9.90"));
+        p.setStock(stock);
+        p.setSales(sales);
+        p.setCategory("digital");
+        p.setCreatedTime(new Date());
+        p.setSeller(seller);
+        return productRepository.save(p);
+    }
+
+    // products 为 (商品, 数量) 交替
+    private long order(String status, Date at, Object... products) {
+        Order o = new Order();
+        o.setUser(buyer);
+        o.setStatus(status);
+        o.setOrderTime(at);
+        o = orderRepository.save(o);
+        for (int i = 0; i < products.length; i += 2) {
+            Product p = (Product) products[i];
+            OrderItem item = new OrderItem();
+            item.setOrder(o);
+            item.setProduct(p);
+            item.setQuantity((Integer) products[i + 1]);
+            item.setUnitPrice(p.getPrice());
+            orderItemRepository.save(item);
+        }
+        return o.getId();
+    }
+}
@@ -0,0 +1,171 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Order;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderLifecycleServiceTests {
+
+    private static final int SELLER = 5;
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final InventoryService inventory = mock(InventoryService.class);
+    private final OrderOutbox outbox = mock(OrderOutbox.class);
+    private final OrderLifecycleService lifecycle;
+
+    // 模拟 orders / order_item 表
+    private final Map<Long, OrderLifecycleService.OrderRow> orders = new TreeMap<>();
+    private final List<OrderLifecycleService.ItemRow> items = new ArrayList<>();
+    private final Set<Long> foreignOrders = new HashSet<>();
+    // 在读出 version 之后、批量更新之前被别的请求改掉的订单
+    private final Set<Long> concurrentlyChanged = ConcurrentHashMap.newKeySet();
+    private final List<Integer> updateBatchSizes = new ArrayList<>();
+
+    OrderLifecycleServiceTests() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        lifecycle = new OrderLifecycleService(jdbc, txManager, inventory, mock(ProductCatalogCache.class), outbox, 30);
+
+        when(jdbc.query(startsWith("SELECT id, status, version, user_id, order_time FROM orders"),
+                ArgumentMatchers.<RowMapper<OrderLifecycleService.OrderRow>>any(), any(Object[].class)))
+                .thenAnswer(inv -> {
+                    List<OrderLifecycleService.OrderRow> rows = new ArrayList<>();
+                    for (int i = 2; i < inv.getArguments().length; i++) {
+                        OrderLifecycleService.OrderRow r = orders.get((Long) inv.getArgument(i));
+                        if (r != null) rows.add(r);
+                    }
+                    return rows;
+                });
+        when(jdbc.queryForList(startsWith("SELECT DISTINCT oi.order_id"), eq(Long.class), any(Object[].class)))
+                .thenAnswer(inv -> new ArrayList<>(foreignOrders));
+        when(jdbc.batchUpdate(startsWith("UPDATE orders SET status"), anyList())).thenAnswer(inv -> {
+            List<Object[]> rows = inv.getArgument(1);
+            updateBatchSizes.add(rows.size());
+            int[] counts = new int[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                Object[] r = rows.get(i);
+                long id = (Long) r[1];
+                if (concurrentlyChanged.remove(id)) bump(id, orders.get(id).status());
+                OrderLifecycleService.OrderRow cur = orders.get(id);
+                if (cur.version() != (Long) r[2]) continue;
+                bump(id, (String) r[0]);
+                counts[i] = 1;
+            }
+            return counts;
+        });
+        when(jdbc.query(startsWith("SELECT order_id, product_id, quantity FROM order_item"),
+                ArgumentMatchers.<RowMapper<OrderLifecycleService.ItemRow>>any(), any(Object[].class)))
+                .thenAnswer(inv -> {
+                    Set<Object> ids = new HashSet<>(List.of(inv.getArguments()).subList(2, inv.getArguments().length));
+                    return items.stream().filter(it -> ids.contains(it.orderId())).toList();
+                });
+    }
+
+    private void bump(long id, String status) {
+        OrderLifecycleService.OrderRow cur = orders.get(id);
+        orders.put(id, new OrderLifecycleService.OrderRow(id, status, cur.version() + 1, cur.userId(), cur.orderTime()));
+    }
+
+    private void order(long id, String status, int userId) {
+        orders.put(id, new OrderLifecycleService.OrderRow(id, status, 0, userId, 0L));
+    }
+
+    @Test
+    void sellerShipsThousandsOfOrdersInBatchesWithVersionChecks() {
+        for (long id = 1; id <= 2500; id++) order(id, id % 100 == 0 ? Order.CREATED : Order.PAID, 1);
+        foreignOrders.add(7L);
+        concurrentlyChanged.add(9L);
+
+        List<Long> ids = new ArrayList<>(LongStream.rangeClosed(1, 2500).boxed().toList());
+        ids.add(99_999L);
+        OrderLifecycleService.TransitionResult r =
+                lifecycle.transition(ids, Order.SHIPPED, OrderLifecycleService.Actor.seller(SELLER));
+
+        assertEquals(List.of(9L), r.conflicts());
+        assertEquals("订单包含其他店铺的商品", r.rejected().get(7L));
+        assertEquals("订单不存在", r.rejected().get(99_999L));
+        assertEquals("订单状态为 CREATED，不能变更为 SHIPPED", r.rejected().get(100L));
+        assertEquals(2500 - 25 - 1 - 1, r.updated().size());
+        assertEquals(Order.SHIPPED, orders.get(1L).status());
+        assertEquals(1L, orders.get(1L).version());
+        assertEquals(Order.PAID, orders.get(9L).status()); // 冲突的订单保持别人改过的样子
+        // 每 1000 个订单一个批次，被拒绝的不进批次
+        assertEquals(List.of(989, 990, 495), updateBatchSizes);
+        verify(inventory, never()).restoreAll(any());
+        verify(outbox, times(3)).statusChanged(anyList());
+    }
+
+    @Test
+    void cancellingRestoresStockAndCarriesItemsInTheEvent() {
+        order(1, Order.CREATED, 1);
+        order(2, Order.CREATED, 1);
+        order(3, Order.COMPLETED, 1);
+        order(4, Order.CREATED, 2);
+        items.add(new OrderLifecycleService.ItemRow(1, 10, 2));
+        items.add(new OrderLifecycleService.ItemRow(1, 11, 1));
+        items.add(new OrderLifecycleService.ItemRow(2, 10, 3));
+
+        OrderLifecycleService.TransitionResult r =
+                lifecycle.transition(List.of(4L, 3L, 2L, 1L), Order.CANCELLED, OrderLifecycleService.Actor.buyer(1));
+
+        assertEquals(List.of(1L, 2L), r.updated());
+        assertEquals("订单状态为 COMPLETED，不能变更为 CANCELLED", r.rejected().get(3L));
+        assertEquals("无权操作该订单", r.rejected().get(4L));
+        verify(inventory).restoreAll(Map.of(10, 5, 11, 1));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<OrderOutbox.OrderStatusChanged>> events = ArgumentCaptor.forClass(List.class);
+        verify(outbox).statusChanged(events.capture());
+        OrderOutbox.OrderStatusChanged first = events.getValue().get(0);
+        assertEquals(1L, first.orderId());
+        assertEquals(Order.CREATED, first.from());
+        assertEquals(Order.CANCELLED, first.to());
+        assertEquals(2, first.items().size());
+    }
+
+    @Test
+    void buyersCannotCancelPaidOrders() {
+        order(1, Order.PAID, 1);
+
+        OrderLifecycleService.TransitionResult r =
+                lifecycle.transition(List.of(1L), Order.CANCELLED, OrderLifecycleService.Actor.buyer(1));
+
+        assertTrue(r.updated().isEmpty());
+        assertEquals("订单已支付，请联系卖家取消", r.rejected().get(1L));
+        assertThrows(RuntimeException.class,
+                () -> lifecycle.transition(List.of(1L), "LOST", OrderLifecycleService.Actor.ADMIN));
+    }
+
+    @Test
+    void sweeperCancelsExpiredUnpaidOrdersInSmallBatches() {
+        for (long id = 1; id <= 450; id++) order(id, Order.CREATED, 1);
+        when(jdbc.queryForList(startsWith("SELECT id FROM orders WHERE status = 'CREATED'"), eq(Long.class), any(Object[].class)))
+                .thenAnswer(inv -> orders.values().stream()
+                        .filter(o -> o.status().equals(Order.CREATED))
+                        .map(OrderLifecycleService.OrderRow::id)
+                        .limit((Integer) inv.getArgument(3))
+                        .toList());
+
+        assertEquals(450, lifecycle.cancelExpiredUnpaid());
+        assertEquals(List.of(200, 200, 50), updateBatchSizes);
+        assertTrue(orders.values().stream().allMatch(o -> o.status().equals(Order.CANCELLED)));
+    }
+}
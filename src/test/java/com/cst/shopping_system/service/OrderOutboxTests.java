@@ -0,0 +1,224 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Order;
+import com.cst.shopping_system.entity.OrderItem;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderOutboxTests {
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final Recorder sales = new Recorder("sales", null);
+    private final Recorder flaky = new Recorder("flaky", 2L);
+    private final OrderOutbox outbox;
+
+    // 模拟 order_outbox 表
+    private final List<OrderOutbox.Event> table = new CopyOnWriteArrayList<>();
+    private final Map<Long, Boolean> published = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> attempts = new ConcurrentHashMap<>();
+    private final Set<Long> parked = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean failMark = new AtomicBoolean();
+
+    OrderOutboxTests() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        outbox = new OrderOutbox(jdbc, txManager, new ObjectMapper(), List.of(sales, flaky), 4, true);
+
+        when(jdbc.update(startsWith("INSERT INTO order_outbox"), any(Object[].class))).thenAnswer(inv -> {
+            long id = table.size() + 1;
+            table.add(new OrderOutbox.Event(id, (Long) inv.getArgument(1), inv.getArgument(2), inv.getArgument(3),
+                    ((Timestamp) inv.getArgument(4)).getTime(), 0));
+            return 1;
+        });
+        when(jdbc.query(startsWith("SELECT id, order_id"), ArgumentMatchers.<RowMapper<OrderOutbox.Event>>any(), any(Object[].class)))
+                .thenAnswer(inv -> table.stream()
+                        .filter(e -> !published.containsKey(e.id()) && !parked.contains(e.id()))
+                        .limit((Integer) inv.getArgument(2))
+                        .map(e -> new OrderOutbox.Event(e.id(), e.orderId(), e.type(), e.payload(), e.createdMillis(),
+                                attempts.getOrDefault(e.id(), 0)))
+                        .toList());
+        when(jdbc.batchUpdate(startsWith("UPDATE order_outbox SET published_time"), anyList())).thenAnswer(inv -> {
+            if (failMark.getAndSet(false)) throw new DataAccessResourceFailureException("连接断开");
+            List<Object[]> rows = inv.getArgument(1);
+            for (Object[] r : rows) published.put((Long) r[1], true);
+            return new int[rows.size()];
+        });
+        when(jdbc.batchUpdate(startsWith("UPDATE order_outbox SET attempts"), anyList())).thenAnswer(inv -> {
+            List<Object[]> rows = inv.getArgument(1);
+            for (Object[] r : rows) {
+                attempts.merge((Long) r[2], 1, Integer::sum);
+                if (r[1] != null) parked.add((Long) r[2]);
+            }
+            return new int[rows.size()];
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        outbox.shutdown();
+    }
+
+    @Test
+    void deliversInOrderPerOrderAndRetriesOnlyTheFailedConsumer() {
+        // 5 个订单各 3 个事件，交错写入；用数量表示同一订单内的先后
+        for (int seq = 1; seq <= 3; seq++) {
+            for (long orderId = 1; orderId <= 5; orderId++) outbox.orderCreated(order(orderId), List.of(item(seq)));
+        }
+
+        // flaky 第一次处理订单 2 时失败：订单 2 后面的事件这一轮不投
+        assertEquals(12, outbox.poll());
+        assertEquals(List.of(1), sales.seen.get(2L));
+        assertEquals(3, table.stream().filter(e -> !published.containsKey(e.id())).count());
+        verify(jdbc).batchUpdate(startsWith("UPDATE order_outbox SET attempts"), anyList());
+
+        assertEquals(3, outbox.poll());
+        for (long orderId = 1; orderId <= 5; orderId++) {
+            // sales 没有重复收到订单 2 的第一个事件，flaky 重投后两边顺序都正确
+            assertEquals(List.of(1, 2, 3), sales.seen.get(orderId), "订单 " + orderId);
+            assertEquals(List.of(1, 2, 3), flaky.seen.get(orderId), "订单 " + orderId);
+        }
+        assertEquals(0, outbox.poll());
+
+        Map<String, Object> stats = outbox.stats();
+        assertEquals(15L, stats.get("published"));
+        assertEquals(1L, stats.get("failedAttempts"));
+        assertEquals(Map.of("flaky", 1L), stats.get("consumerFailures"));
+    }
+
+    @Test
+    void eventsAreNotRedeliveredWhenMarkingFails() {
+        outbox.orderCreated(order(7L), List.of(item(2)));
+        failMark.set(true);
+
+        assertEquals(0, outbox.poll());
+        assertEquals(1, outbox.poll());
+        assertEquals(List.of(2), sales.seen.get(7L));
+
+        OrderOutbox.Line line = sales.last.lines().get(0);
+        assertEquals(new BigDecimal("19.90"), line.unitPrice());
+        assertEquals(3, line.sellerId());
+        assertEquals("phone", line.category());
+    }
+
+    @Test
+    void eventsAlreadyLoadedByAConsumerAreNotDeliveredToIt() {
+        outbox.orderCreated(order(7L), List.of(item(2)));
+        outbox.orderCreated(order(8L), List.of(item(3)));
+        // sales 启动装载时事件 1 已提交未投递，装载结果里已经有订单 7
+        sales.loaded.add(1L);
+
+        assertEquals(2, outbox.poll());
+        assertNull(sales.seen.get(7L));
+        assertEquals(List.of(3), sales.seen.get(8L));
+        assertEquals(List.of(2), flaky.seen.get(7L));
+    }
+
+    @Test
+    void eventThatKeepsFailingIsParkedAndStopsBlockingItsOrder() {
+        flaky.failAlways = true;
+        outbox.orderCreated(order(2L), List.of(item(1)));
+        outbox.orderCreated(order(2L), List.of(item(2)));
+
+        for (int i = 1; i < OrderOutbox.MAX_ATTEMPTS; i++) assertEquals(0, outbox.poll());
+        assertEquals(OrderOutbox.MAX_ATTEMPTS - 1, attempts.get(1L));
+        assertTrue(parked.isEmpty());
+        assertNull(flaky.seen.get(2L));
+
+        // 第 MAX_ATTEMPTS 次失败后停放；同一订单后面的事件不再被它挡住
+        flaky.failAlways = false;
+        flaky.failOrder = 2L;
+        assertEquals(0, outbox.poll());
+        assertEquals(Set.of(1L), parked);
+        assertEquals(1, outbox.poll());
+        assertEquals(List.of(2), flaky.seen.get(2L));
+        assertEquals(List.of(1, 2), sales.seen.get(2L)); // sales 早就处理过事件 1，没有重复收到
+        assertEquals(0, outbox.poll());
+        assertEquals(1L, outbox.stats().get("parkedSinceStart"));
+    }
+
+    /** 按订单记下收到的事件（明细数量）；failOrder 非空时第一次遇到该订单抛异常 */
+    private static final class Recorder implements OrderEventConsumer {
+        final String name;
+        final Map<Long, List<Integer>> seen = new ConcurrentHashMap<>();
+        final Set<Long> loaded = ConcurrentHashMap.newKeySet();
+        Long failOrder;
+        volatile boolean failAlways;
+        volatile OrderOutbox.OrderCreated last;
+
+        Recorder(String name, Long failOrder) {
+            this.name = name;
+            this.failOrder = failOrder;
+        }
+
+        @Override
+        public String consumerName() {
+            return name;
+        }
+
+        @Override
+        public boolean alreadyIncludes(long eventId) {
+            return loaded.contains(eventId);
+        }
+
+        @Override
+        public void onOrderCreated(OrderOutbox.OrderCreated event) {
+            if (failAlways) throw new IllegalStateException("下游不可用");
+            if (failOrder != null && failOrder == event.orderId()) {
+                failOrder = null;
+                throw new IllegalStateException("下游暂时不可用");
+            }
+            seen.computeIfAbsent(event.orderId(), k -> new ArrayList<>()).add(event.lines().get(0).quantity());
+            last = event;
+        }
+    }
+
+    private static Order order(long id) {
+        User buyer = new User();
+        buyer.setId(1);
+        Order o = new Order();
+        o.setId(id);
+        o.setUser(buyer);
+        o.setOrderTime(new Date());
+        return o;
+    }
+
+    private static OrderItem item(int qty) {
+        User seller = new User();
+        seller.setId(3);
+        Product p = new Product();
+        p.setId(10);
+        p.setTitle("手机");
+        p.setCategory("phone");
+        p.setStatus(1);
+        p.setSeller(seller);
+        OrderItem item = new OrderItem();
+        item.setProduct(p);
+        item.setQuantity(qty);
+        item.setUnitPrice(new BigDecimal("19.90"));
+        return item;
+    }
+}
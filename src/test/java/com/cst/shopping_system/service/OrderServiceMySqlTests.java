@@ -0,0 +1,238 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.repository.ProductRepository;
+import com.cst.shopping_system.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 结算在真实 MySQL 上的语句数和耗时：1、10、100 行的购物车，
+ * 对比逐行写入的旧做法（每行一条扣库存 UPDATE、一条明细 INSERT、一条购物车 DELETE）和现在的批量写入。
+ * 数据源外面包一层代理，按线程记下每次 execute/executeBatch（开了 rewriteBatchedStatements，一个批次就是一次往返），
+ * 断言批量写入的语句数和购物车行数无关；号段分配每 50 个 ID 才查一次 id_generator，单独报告，不计入固定语句数。
+ * 耗时和语句数通过 TestReporter 报告。没有 Docker 时跳过。
+ */
+@SpringBootTest(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false",
+        "spring.jpa.defer-datasource-initialization=true",
+        "spring.sql.init.mode=always",
+        "spring.sql.init.schema-locations=classpath:sql/app-tables.sql",
+        "order.outbox.poll-enabled=false",
+        "order.unpaid-timeout-minutes=0"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class OrderServiceMySqlTests {
+
+    // 购物车 SELECT、扣库存批次、订单头 INSERT、明细 INSERT、购物车 DELETE、发件箱 INSERT
+    private static final int CHECKOUT_STATEMENTS = 6;
+    private static final int MAX_LINES = 100;
+    private static final int WARMUP = 10;
+    private static final int ROUNDS = 100;
+
+    @Container
+    @ServiceConnection
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0");
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    private final List<Integer> productIds = new ArrayList<>();
+    // 旧做法的订单和明细用自增 ID 写入，这里从号段用不到的区间手工发号
+    private final AtomicLong legacyIds = new AtomicLong(1_000_000_000L);
+    private User buyer;
+
+    /** 按线程记录执行过的 SQL，一次 execute 或 executeBatch 记一条 */
+    @TestConfiguration
+    static class StatementLogConfig {
+        @Bean
+        static BeanPostProcessor statementLog() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource ds ? proxy(DataSource.class, ds, null) : bean;
+                }
+            };
+        }
+    }
+
+    private static final ThreadLocal<List<String>> EXECUTED = ThreadLocal.withInitial(ArrayList::new);
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Object target, String sql) {
+        return (T) Proxy.newProxyInstance(OrderServiceMySqlTests.class.getClassLoader(), new Class<?>[]{type},
+                (self, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (type == DataSource.class && result instanceof Connection c) {
+                        return proxy(Connection.class, c, null);
+                    }
+                    if (type == Connection.class && result instanceof Statement s) {
+                        String prepared = args != null && args.length > 0 && args[0] instanceof String q ? q : null;
+                        return proxy(method.getReturnType(), s, prepared);
+                    }
+                    if (Statement.class.isAssignableFrom(type) && method.getName().startsWith("execute")) {
+                        EXECUTED.get().add(sql != null ? sql : args != null ? String.valueOf(args[0]) : "batch");
+                    }
+                    return result;
+                });
+    }
+
+    @BeforeEach
+    void setUp() {
+        buyer = new User();
+        buyer.setUsername("buyer-" + System.nanoTime());
+        buyer.setPassword("x");
+        buyer.setAddress("地址");
+        buyer = userRepository.save(buyer);
+        User seller = new User();
+        seller.setUsername("seller-" + System.nanoTime());
+        seller.setPassword("x");
+        seller = userRepository.save(seller);
+        for (int i = 0; i < MAX_LINES; i++) {
+            Product p = new Product();
+            p.setTitle("商品" + i);
+            p.setPrice(new BigDecimal("9.90"));
+            p.setStock(1_000_000);
+            p.setCategory("digital");
+            p.setCreatedTime(new Date());
+            p.setSeller(seller);
+            productIds.add(productRepository.save(p).getId());
+        }
+    }
+
+    @ParameterizedTest(name = "{0} 行购物车")
+    @ValueSource(ints = {1, 10, 100})
+    void batchedCheckoutIssuesAFixedNumberOfStatements(int lines, TestReporter reporter) {
+        Run before = run(lines, () -> perLineCheckout(buyer.getId()));
+        Run after = run(lines, () -> orderService.checkout(buyer.getId(), null));
+
+        // 旧做法每行 3 条，固定部分 4 条；新做法和行数无关
+        assertEquals(4 + 3 * lines, before.statements(), "逐行写入的语句数");
+        assertEquals(CHECKOUT_STATEMENTS, after.statements(), "批量写入的语句数");
+
+        Map<String, String> report = new LinkedHashMap<>();
+        report.put("lines", String.valueOf(lines));
+        report.put("before stmts", String.valueOf(before.statements()));
+        report.put("after stmts", String.valueOf(after.statements()));
+        report.put("after id block stmts", String.format("%.2f", after.idBlockStatements()));
+        report.put("before mean ms", String.format("%.2f", before.meanMillis()));
+        report.put("after mean ms", String.format("%.2f", after.meanMillis()));
+        report.put("before p99 ms", String.format("%.2f", before.p99Millis()));
+        report.put("after p99 ms", String.format("%.2f", after.p99Millis()));
+        report.put("speedup", String.format("%.1fx", before.meanMillis() / after.meanMillis()));
+        reporter.publishEntry(report);
+    }
+
+    /** 一种结算做法跑 ROUNDS 次的结果；statements 不含号段分配，每次都必须相同 */
+    record Run(int statements, double idBlockStatements, double meanMillis, double p99Millis) {}
+
+    private Run run(int lines, Runnable checkout) {
+        for (int i = 0; i < WARMUP; i++) {
+            fillCart(lines);
+            checkout.run();
+        }
+        long[] nanos = new long[ROUNDS];
+        int statements = -1;
+        int idBlock = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            fillCart(lines);
+            EXECUTED.get().clear();
+            long begin = System.nanoTime();
+            checkout.run();
+            nanos[i] = System.nanoTime() - begin;
+
+            List<String> executed = new ArrayList<>(EXECUTED.get());
+            int generator = (int) executed.stream().filter(sql -> sql.contains("id_generator")).count();
+            int fixed = executed.size() - generator;
+            if (statements >= 0) assertEquals(statements, fixed, "同样的购物车每次结算语句数应相同: " + executed);
+            statements = fixed;
+            idBlock += generator;
+        }
+        long total = Arrays.stream(nanos).sum();
+        Arrays.sort(nanos);
+        return new Run(statements, (double) idBlock / ROUNDS, total / 1e6 / ROUNDS, nanos[ROUNDS * 99 / 100] / 1e6);
+    }
+
+    private void fillCart(int lines) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> rows = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) rows.add(new Object[]{buyer.getId(), productIds.get(i), 1, now});
+        jdbcTemplate.batchUpdate("INSERT INTO cart_item (user_id, product_id, quantity, created_time) VALUES (?, ?, ?, ?)", rows);
+    }
+
+    /** 批量化之前的写法：订单头先插入再回写总价，每行单独扣库存、写明细，最后逐行删购物车 */
+    private void perLineCheckout(int userId) {
+        new TransactionTemplate(txManager).executeWithoutResult(status -> {
+            List<Map<String, Object>> cart = jdbcTemplate.queryForList("SELECT c.id, c.product_id, c.quantity, p.price "
+                    + "FROM cart_item c JOIN product p ON p.id = c.product_id WHERE c.user_id = ?", userId);
+            String address = jdbcTemplate.queryForObject("SELECT address FROM `user` WHERE id = ?", String.class, userId);
+            long orderId = legacyIds.incrementAndGet();
+            jdbcTemplate.update("INSERT INTO orders (id, user_id, order_time, status, version, total_amount, address) "
+                    + "VALUES (?, ?, ?, 'CREATED', 0, 0, ?)", orderId, userId, new Timestamp(System.currentTimeMillis()), address);
+            BigDecimal total = BigDecimal.ZERO;
+            for (Map<String, Object> line : cart) {
+                int qty = ((Number) line.get("quantity")).intValue();
+                BigDecimal price = (BigDecimal) line.get("price");
+                assertEquals(1, jdbcTemplate.update("UPDATE product SET stock = stock - ?, sales = sales + ? "
+                        + "WHERE id = ? AND stock >= ?", qty, qty, line.get("product_id"), qty));
+                jdbcTemplate.update("INSERT INTO order_item (id, order_id, product_id, quantity, unit_price) "
+                        + "VALUES (?, ?, ?, ?, ?)", legacyIds.incrementAndGet(), orderId, line.get("product_id"), qty, price);
+                total = total.add(price.multiply(BigDecimal.valueOf(qty)));
+            }
+            jdbcTemplate.update("UPDATE orders SET total_amount = ? WHERE id = ?", total, orderId);
+            for (Map<String, Object> line : cart) {
+                jdbcTemplate.update("DELETE FROM cart_item WHERE id = ?", line.get("id"));
+            }
+        });
+    }
+}
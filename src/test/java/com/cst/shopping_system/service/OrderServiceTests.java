@@ -0,0 +1,169 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.dto.OrderSummaryDTO;
+import com.cst.shopping_system.entity.CartItem;
+import com.cst.shopping_system.entity.Order;
+import com.cst.shopping_system.entity.OrderItem;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.repository.CartItemRepository;
+import com.cst.shopping_system.repository.OrderItemRepository;
+import com.cst.shopping_system.repository.OrderRepository;
+import com.cst.shopping_system.util.KeysetCursor;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Limit;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderServiceTests {
+
+    private final OrderRepository orders = mock(OrderRepository.class);
+    private final OrderItemRepository orderItems = mock(OrderItemRepository.class);
+    private final CartItemRepository carts = mock(CartItemRepository.class);
+    private final OrderOutbox outbox = mock(OrderOutbox.class);
+    private final EntityManager entityManager = mock(EntityManager.class);
+    private final OrderService service = new OrderService(orders, orderItems, carts, mock(CartViewCache.class),
+            mock(InventoryService.class), mock(ProductCatalogCache.class), outbox, mock(CheckoutIdempotency.class),
+            entityManager);
+
+    // 模拟的 orders 表（同一用户）
+    private final List<OrderSummaryDTO> table = new ArrayList<>();
+
+    OrderServiceTests() {
+        when(entityManager.unwrap(Session.class)).thenReturn(mock(Session.class));
+        Comparator<OrderSummaryDTO> newestFirst = Comparator.comparing(OrderSummaryDTO::orderTime)
+                .thenComparing(OrderSummaryDTO::id).reversed();
+        when(orders.findSummariesByUserId(anyInt(), any(Limit.class))).thenAnswer(inv -> table.stream()
+                .sorted(newestFirst).limit(((Limit) inv.getArgument(1)).max()).toList());
+        when(orders.findSummariesByUserIdAfter(anyInt(), any(Date.class), anyLong(), any(Limit.class))).thenAnswer(inv -> {
+            Date time = inv.getArgument(1);
+            long id = inv.getArgument(2);
+            return table.stream()
+                    .filter(o -> o.orderTime().before(time) || (o.orderTime().equals(time) && o.id() < id))
+                    .sorted(newestFirst).limit(((Limit) inv.getArgument(3)).max()).toList();
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void checkoutSplitsAMixedSellerCartIntoOneOrderPerSeller() {
+        User buyer = user(1);
+        User shopA = user(10);
+        User shopB = user(20);
+        when(carts.findByUser_Id(1)).thenReturn(List.of(
+                cartItem(buyer, product(101, shopA, "9.90"), 2),
+                cartItem(buyer, product(201, shopB, "5.00"), 1),
+                cartItem(buyer, product(102, shopA, "1.10"), 3)));
+        AtomicLong ids = new AtomicLong(500);
+        when(orders.saveAll(anyList())).thenAnswer(inv -> {
+            List<Order> saved = inv.getArgument(0);
+            saved.forEach(o -> o.setId(ids.incrementAndGet()));
+            return saved;
+        });
+
+        List<Long> orderIds = service.checkout(1, "地址");
+
+        assertEquals(List.of(501L, 502L), orderIds);
+        ArgumentCaptor<List<Order>> savedOrders = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<OrderItem>> savedItems = ArgumentCaptor.forClass(List.class);
+        verify(orders).saveAll(savedOrders.capture());
+        verify(orderItems).saveAll(savedItems.capture());
+        Order a = savedOrders.getValue().get(0);
+        Order b = savedOrders.getValue().get(1);
+        assertEquals(new BigDecimal("23.10"), a.getTotalAmount());
+        assertEquals(new BigDecimal("5.00"), b.getTotalAmount());
+        // 每个订单只含一个卖家的商品，卖家发货、取消时不会碰到别家的明细
+        assertEquals(List.of(101, 102), productIdsOf(savedItems.getValue(), a));
+        assertEquals(List.of(201), productIdsOf(savedItems.getValue(), b));
+        verify(outbox).ordersCreated(savedOrders.getValue(), savedItems.getValue());
+    }
+
+    @Test
+    void cursorRoundTripsThroughEveryPageIncludingTiesOnOrderTime() {
+        // 同一秒下的多个订单，翻页点落在它们中间
+        table.add(order(1, 1_000));
+        table.add(order(2, 2_000));
+        table.add(order(3, 2_000));
+        table.add(order(4, 2_000));
+        table.add(order(5, 3_000));
+
+        List<Long> seen = new ArrayList<>();
+        List<String> cursors = new ArrayList<>();
+        String cursor = null;
+        do {
+            OrderService.OrderPage page = service.listMyOrders(1, cursor, 2);
+            page.content().forEach(o -> seen.add(o.id()));
+            cursor = page.nextCursor();
+            if (cursor != null) cursors.add(cursor);
+        } while (cursor != null);
+
+        assertEquals(List.of(5L, 4L, 3L, 2L, 1L), seen);
+        // 游标就是上一页最后一行的 (下单毫秒数, id)
+        assertArrayEquals(new String[]{"2000", "4"}, KeysetCursor.decode(cursors.get(0), 2));
+        assertArrayEquals(new String[]{"2000", "2"}, KeysetCursor.decode(cursors.get(1), 2));
+        assertEquals(2, cursors.size());
+    }
+
+    @Test
+    void lastFullPageHasNoCursor() {
+        table.add(order(1, 1_000));
+        table.add(order(2, 2_000));
+
+        OrderService.OrderPage page = service.listMyOrders(1, null, 2);
+        assertEquals(2, page.content().size());
+        assertNull(page.nextCursor());
+        assertNull(service.listMyOrders(1, "", 2).nextCursor());
+    }
+
+    @Test
+    void malformedCursorIsRejectedBeforeQuerying() {
+        for (String bad : List.of("%%%", KeysetCursor.encode(5L), KeysetCursor.encode("x", 1),
+                KeysetCursor.encode(5L, "y"), KeysetCursor.encode(5L, 1, 2))) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> service.listMyOrders(1, bad, 10));
+            assertEquals("无效的分页游标", e.getMessage());
+        }
+        verify(orders, never()).findSummariesByUserIdAfter(anyInt(), any(), anyLong(), any());
+    }
+
+    private static List<Integer> productIdsOf(List<OrderItem> items, Order order) {
+        return items.stream().filter(it -> it.getOrder() == order).map(it -> it.getProduct().getId()).toList();
+    }
+
+    private static User user(int id) {
+        User u = new User();
+        u.setId(id);
+        return u;
+    }
+
+    private static Product product(int id, User seller, String price) {
+        Product p = new Product();
+        p.setId(id);
+        p.setSeller(seller);
+        p.setPrice(new BigDecimal(price));
+        return p;
+    }
+
+    private static CartItem cartItem(User buyer, Product p, int quantity) {
+        CartItem ci = new CartItem();
+        ci.setUser(buyer);
+        ci.setProduct(p);
+        ci.setQuantity(quantity);
+        return ci;
+    }
+
+    private static OrderSummaryDTO order(long id, long time) {
+        return new OrderSummaryDTO(id, new Date(time), "PAID", new BigDecimal("9.90"), "地址");
+    }
+}
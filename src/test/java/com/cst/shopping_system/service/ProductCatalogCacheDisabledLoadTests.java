@@ -0,0 +1,22 @@
+package com.cst.shopping_system.service;
+
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+
+/**
+ * 关掉商品目录缓存、每次都查库时的同一组压测，作为 {@link ProductCatalogCacheEnabledLoadTests} 的对照。
+ */
+@TestPropertySource(properties = "catalog.cache.enabled=false")
+class ProductCatalogCacheDisabledLoadTests extends ProductCatalogCacheLoadTestSupport {
+
+    @Container
+    @ServiceConnection
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0");
+
+    @Override
+    boolean cacheEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,20 @@
+package com.cst.shopping_system.service;
+
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+
+/**
+ * 默认配置（商品目录缓存打开）下的详情页、列表页压测，对照组是 {@link ProductCatalogCacheDisabledLoadTests}。
+ */
+class ProductCatalogCacheEnabledLoadTests extends ProductCatalogCacheLoadTestSupport {
+
+    @Container
+    @ServiceConnection
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0");
+
+    @Override
+    boolean cacheEnabled() {
+        return true;
+    }
+}
@@ -0,0 +1,190 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.repository.ProductRepository;
+import com.cst.shopping_system.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 商品详情页和列表页在真实 MySQL 上的延迟压测，子类分别打开和关闭 {@link ProductCatalogCache}，
+ * 通过 TestReporter 报告两种页面的吞吐和 p50/p99，两边的数字对照着看。
+ * 详情请求 80% 落在前 10% 的热门商品上；列表在几种排序、分类和前几页之间轮换。
+ * 没有 Docker 时跳过。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false",
+        "spring.jpa.defer-datasource-initialization=true",
+        "spring.sql.init.mode=always",
+        "spring.sql.init.schema-locations=classpath:sql/app-tables.sql"
+})
+@Testcontainers(disabledWithoutDocker = true)
+abstract class ProductCatalogCacheLoadTestSupport {
+
+    private static final int PRODUCTS = 2_000;
+    private static final int HOT_PRODUCTS = PRODUCTS / 10;
+    private static final int CLIENTS = 64;
+    private static final int REQUESTS = 20_000;
+    private static final int WARMUP_REQUESTS = 2_000;
+    private static final String[] SORTS = {"latest", "sales", "price-asc"};
+    private static final String[] CATEGORIES = {"all", "digital", "books"};
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    @Autowired
+    private ProductCatalogCache catalogCache;
+
+    private final List<Integer> productIds = new ArrayList<>();
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+    /** 报告里标明缓存开关 */
+    abstract boolean cacheEnabled();
+
+    // 两种页面共用一个应用上下文和数据库：只在第一次造数据
+    @BeforeEach
+    void seed() {
+        if (productRepository.count() > 0) {
+            productRepository.findAll().forEach(p -> productIds.add(p.getId()));
+            return;
+        }
+        User seller = new User();
+        seller.setUsername("seller-" + System.nanoTime());
+        seller.setPassword("x");
+        seller.setNickname("小店");
+        seller = userRepository.save(seller);
+        List<Product> products = new ArrayList<>(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) {
+            Product p = new Product();
+            p.setTitle("商品" + i);
+            p.setDescription("商品" + i + "的详细介绍");
+            p.setPrice(new BigDecimal(10 + i % 500));
+            p.setStock(100);
+            p.setSales(i % 97);
+            p.setCategory(i % 2 == 0 ? "digital" : "books");
+            p.setImageUrls("/uploads/p" + i + ".png");
+            p.setCreatedTime(new Date(System.currentTimeMillis() - i * 60_000L));
+            p.setSeller(seller);
+            products.add(p);
+        }
+        productRepository.saveAll(products).forEach(p -> productIds.add(p.getId()));
+        searchIndex.rebuild();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"detail", "listing"})
+    void pageLatencyUnderLoad(String page, TestReporter reporter) throws Exception {
+        String cacheName = page.equals("detail") ? "details" : "listings";
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            // 预热 JIT 和连接池；缓存打开时也顺带装入一部分
+            run(clients, page, WARMUP_REQUESTS);
+            long hitsBefore = hitCount(cacheName);
+
+            long begin = System.nanoTime();
+            long[] latencyNanos = run(clients, page, REQUESTS);
+            long elapsed = System.nanoTime() - begin;
+            long hits = hitCount(cacheName) - hitsBefore;
+
+            Arrays.sort(latencyNanos);
+            Map<String, String> report = new LinkedHashMap<>();
+            report.put("cache", cacheEnabled() ? "on" : "off");
+            report.put("page", page);
+            report.put("requests", String.valueOf(REQUESTS));
+            report.put("req/s", String.format("%.0f", REQUESTS / (elapsed / 1e9)));
+            report.put("p50 ms", String.format("%.2f", latencyNanos[REQUESTS / 2] / 1e6));
+            report.put("p99 ms", String.format("%.2f", latencyNanos[REQUESTS * 99 / 100] / 1e6));
+            report.put("hit rate", String.format("%.3f", (double) hits / REQUESTS));
+            reporter.publishEntry(report);
+
+            // 关掉时每次都查库，一次命中都不应有
+            if (cacheEnabled()) assertTrue(hits > 0, "缓存打开但没有命中");
+            else assertEquals(0, hits, "缓存关闭但仍有命中");
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private long[] run(ExecutorService clients, String page, int requests) throws Exception {
+        long[] latencyNanos = new long[requests];
+        List<Future<?>> futures = new ArrayList<>(CLIENTS);
+        for (int c = 0; c < CLIENTS; c++) {
+            int client = c;
+            futures.add(clients.submit(() -> {
+                for (int i = client; i < requests; i += CLIENTS) {
+                    long begin = System.nanoTime();
+                    int status = send(page.equals("detail") ? detailPath() : listingPath());
+                    latencyNanos[i] = System.nanoTime() - begin;
+                    assertEquals(200, status);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get(300, TimeUnit.SECONDS);
+        return latencyNanos;
+    }
+
+    private String detailPath() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(10) < 8 ? random.nextInt(HOT_PRODUCTS) : random.nextInt(PRODUCTS);
+        return "/api/products/" + productIds.get(index);
+    }
+
+    private static String listingPath() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return "/api/products?sortBy=" + SORTS[random.nextInt(SORTS.length)]
+                + "&category=" + CATEGORIES[random.nextInt(CATEGORIES.length)]
+                + "&size=20&page=" + random.nextInt(5);
+    }
+
+    private int send(String path) throws Exception {
+        HttpResponse<Void> response = http.send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                        .timeout(Duration.ofSeconds(30)).build(),
+                HttpResponse.BodyHandlers.discarding());
+        return response.statusCode();
+    }
+
+    @SuppressWarnings("unchecked")
+    private long hitCount(String cacheName) {
+        Map<String, Object> stats = (Map<String, Object>) catalogCache.stats().get(cacheName);
+        return (Long) stats.get("hitCount");
+    }
+}
@@ -0,0 +1,117 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Product;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductCatalogCacheTests {
+
+    private final ProductCatalogCache cache = new ProductCatalogCache(true);
+    private final AtomicInteger detailLoads = new AtomicInteger();
+    private final AtomicInteger listingLoads = new AtomicInteger();
+
+    private Product detail(int id) {
+        return cache.getProduct(id, key -> {
+            detailLoads.incrementAndGet();
+            Product p = new Product();
+            p.setId(key);
+            return p;
+        });
+    }
+
+    private ProductService.ListingPage listing(ProductCatalogCache.ListingKey key) {
+        return cache.getListing(key, k -> {
+            listingLoads.incrementAndGet();
+            return new ProductService.ListingPage(Page.empty(), null);
+        });
+    }
+
+    @Test
+    void listingKeyIgnoresCategoryOrderAndKeywordCase() {
+        listing(new ProductCatalogCache.ListingKey(" Phone ", List.of("b", "a"), "latest", 0, 12));
+        listing(new ProductCatalogCache.ListingKey("phone", List.of("a", "b"), "latest", 0, 12));
+        assertEquals(1, listingLoads.get());
+
+        listing(new ProductCatalogCache.ListingKey("phone", List.of("a", "b"), "latest", 1, 12));
+        assertEquals(2, listingLoads.get());
+    }
+
+    @Test
+    void productChangeClearsItsDetailAndAllListings() {
+        detail(1);
+        detail(2);
+        listing(new ProductCatalogCache.ListingKey(null, null, "latest", 0, 12));
+
+        cache.onProductChanged(1);
+        detail(1);
+        detail(2);
+        listing(new ProductCatalogCache.ListingKey(null, null, "latest", 0, 12));
+        assertEquals(3, detailLoads.get());
+        assertEquals(2, listingLoads.get());
+
+        // 批量导入等不针对单个商品的变化：只清列表
+        cache.onProductChanged(null);
+        detail(1);
+        listing(new ProductCatalogCache.ListingKey(null, null, "latest", 0, 12));
+        assertEquals(3, detailLoads.get());
+        assertEquals(3, listingLoads.get());
+    }
+
+    @Test
+    void counterChangeClearsOnlyDetails() {
+        detail(1);
+        detail(2);
+        listing(new ProductCatalogCache.ListingKey(null, null, "sales", 0, 12));
+
+        cache.onCountersChanged(List.of(1));
+        detail(1);
+        detail(2);
+        listing(new ProductCatalogCache.ListingKey(null, null, "sales", 0, 12));
+        assertEquals(3, detailLoads.get());
+        assertEquals(1, listingLoads.get());
+    }
+
+    @Test
+    void invalidationInsideTransactionWaitsForCommit() {
+        detail(1);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.onProductChanged(1);
+            cache.onCountersChanged(List.of(1));
+            // 提交前读到的仍是缓存里的旧值
+            detail(1);
+            assertEquals(1, detailLoads.get());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        detail(1);
+        assertEquals(2, detailLoads.get());
+    }
+
+    @Test
+    void disabledCacheLoadsEveryTime() {
+        ProductCatalogCache off = new ProductCatalogCache(false);
+        AtomicInteger loads = new AtomicInteger();
+        ProductCatalogCache.ListingKey key = new ProductCatalogCache.ListingKey(null, null, "sales", 0, 12);
+        for (int i = 0; i < 3; i++) {
+            off.getProduct(1, k -> {
+                loads.incrementAndGet();
+                return new Product();
+            });
+            off.getListing(key, k -> {
+                loads.incrementAndGet();
+                return new ProductService.ListingPage(Page.empty(), null);
+            });
+            off.getCount(key, k -> (long) loads.incrementAndGet());
+        }
+        assertEquals(9, loads.get());
+    }
+}
@@ -0,0 +1,202 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.ImportJob;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.entity.User;
+import com.cst.shopping_system.repository.ImportJobRepository;
+import com.cst.shopping_system.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProductImportServiceTests {
+
+    private static final long JOB_ID = 42L;
+
+    @TempDir
+    Path baseDir;
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final ImportJobRepository jobs = mock(ImportJobRepository.class);
+    private final UserRepository users = mock(UserRepository.class);
+    private final ImageStorageService images = mock(ImageStorageService.class);
+    private final ProductSearchIndex searchIndex = mock(ProductSearchIndex.class);
+    private final ImportJob job = new ImportJob();
+
+    // 模拟数据库里写入的内容
+    private final List<Product> inserted = Collections.synchronizedList(new ArrayList<>());
+    private final List<Object[]> errors = new ArrayList<>();
+    private final List<Object[]> progressUpdates = new ArrayList<>();
+    private int nextId = 1;
+
+    private ProductImportService service;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        service = new ProductImportService(jdbc, txManager, jobs, users, images, searchIndex,
+                mock(ProductCatalogCache.class), mock(SalesLeaderboard.class), new ObjectMapper(), baseDir);
+
+        User seller = new User();
+        seller.setId(7);
+        when(users.findById(7)).thenReturn(Optional.of(seller));
+        job.setId(JOB_ID);
+        job.setSellerId(7);
+        job.setStatus(ImportJob.QUEUED);
+        when(jobs.findById(JOB_ID)).thenReturn(Optional.of(job));
+
+        doAnswer(inv -> {
+            BatchPreparedStatementSetter setter = inv.getArgument(1);
+            KeyHolder keys = inv.getArgument(2);
+            for (int i = 0; i < setter.getBatchSize(); i++) keys.getKeyList().add(Map.of("GENERATED_KEY", (long) nextId++));
+            return new int[setter.getBatchSize()];
+        }).when(jdbc).batchUpdate(any(PreparedStatementCreator.class), any(BatchPreparedStatementSetter.class), any(KeyHolder.class));
+        when(jdbc.batchUpdate(startsWith("INSERT INTO import_job_error"), anyList())).thenAnswer(inv -> {
+            List<Object[]> rows = inv.getArgument(1);
+            errors.addAll(rows);
+            return new int[rows.size()];
+        });
+        when(jdbc.update(startsWith("UPDATE import_job"), any(Object[].class))).thenAnswer(inv -> {
+            Object[] args = inv.getArguments();
+            progressUpdates.add(args);
+            // 条件更新：WHERE processed = 旧值
+            if (!args[args.length - 1].equals(job.getProcessed())) return 0;
+            job.setProcessed((Integer) args[1]);
+            return 1;
+        });
+        doAnswer(inv -> inserted.add(inv.getArgument(0))).when(searchIndex).index(any());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.shutdown();
+    }
+
+    @Test
+    void importsCsvInChunksAndReportsBadRows() throws Exception {
+        StringBuilder csv = new StringBuilder("\uFEFFTitle,price,stock,description,category\r\n");
+        csv.append("\"手机, \"\"旗舰\"\"\",1999.00,5,\"两行\n描述\",phone\r\n");
+        for (int i = 2; i <= 2500; i++) {
+            if (i % 500 == 0) csv.append(",12.5,1,,book\n");                // 缺标题
+            else if (i == 777) csv.append("书777,12.345,1,,book\n");        // 三位小数
+            else if (i == 1999) csv.append("书1999,abc,1,,book\n");          // 价格不是数字
+            else csv.append("书").append(i).append(",12.5,").append(i % 10).append(",,book\n");
+        }
+        writeCatalog(csv.toString(), ProductImportService.CSV);
+
+        service.run(JOB_ID);
+
+        verify(jobs).updateStatus(eq(JOB_ID), eq(ImportJob.DONE), isNull(), any());
+        assertEquals(2500, job.getProcessed());
+        assertEquals(3, progressUpdates.size()); // 每 1000 行一个事务
+        assertEquals(2500 - 7, inserted.size());
+        assertEquals(7, errors.size());
+
+        Product first = inserted.stream().filter(p -> p.getTitle().startsWith("手机")).findFirst().orElseThrow();
+        assertEquals("手机, \"旗舰\"", first.getTitle());
+        assertEquals("两行\n描述", first.getDescription());
+        assertEquals(new BigDecimal("1999.00"), first.getPrice());
+        assertEquals("phone", first.getCategory());
+        assertEquals(7, first.getSeller().getId());
+        assertNotNull(first.getId());
+
+        List<Integer> badRows = errors.stream().map(e -> (Integer) e[1]).sorted().toList();
+        assertEquals(List.of(500, 777, 1000, 1500, 1999, 2000, 2500), badRows);
+        assertTrue(errors.stream().anyMatch(e -> e[1].equals(1999) && ((String) e[2]).startsWith("价格格式不正确")));
+    }
+
+    @Test
+    void resumesAfterTheLastCommittedChunk() throws Exception {
+        StringBuilder csv = new StringBuilder("title,price\n");
+        for (int i = 1; i <= 2500; i++) csv.append("商品").append(i).append(",9.9\n");
+        writeCatalog(csv.toString(), ProductImportService.CSV);
+        job.setStatus(ImportJob.RUNNING);
+        job.setProcessed(1000);
+
+        service.run(JOB_ID);
+
+        assertEquals(2500, job.getProcessed());
+        assertEquals(1500, inserted.size());
+        assertEquals("商品1001", inserted.get(0).getTitle());
+        assertEquals(1000, progressUpdates.get(0)[6]);
+    }
+
+    @Test
+    void readsJsonArrayAndNdjsonWithImagesFromZip() throws Exception {
+        Path dir = Files.createDirectories(baseDir.resolve(String.valueOf(JOB_ID)));
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(dir.resolve("images.zip")))) {
+            zip.putNextEntry(new ZipEntry("photos/a.jpg"));
+            zip.write(new byte[]{1, 2, 3});
+            zip.closeEntry();
+        }
+        when(images.store(any(InputStream.class), anyString())).thenAnswer(inv -> {
+            try (InputStream in = inv.getArgument(0)) {
+                return "/uploads/" + in.readAllBytes().length + ".jpg";
+            }
+        });
+        job.setHasImages(true);
+
+        for (String catalog : List.of(
+                "[{\"title\":\"相机\",\"price\":1234567.89,\"images\":[\"a.jpg\",\"https://cdn.example.com/b.png\"]},"
+                        + "{\"title\":\"耳机\",\"price\":99,\"images\":\"missing.jpg\"}]",
+                "{\"title\":\"相机\",\"price\":1234567.89,\"imageUrls\":\"photos/a.jpg|https://cdn.example.com/b.png\"}\n"
+                        + "{\"title\":\"耳机\",\"price\":99,\"images\":\"missing.jpg\"}\n")) {
+            inserted.clear();
+            errors.clear();
+            job.setProcessed(0);
+            job.setStatus(ImportJob.QUEUED);
+            writeCatalog(catalog, ProductImportService.JSON);
+
+            service.run(JOB_ID);
+
+            assertEquals(1, inserted.size());
+            assertEquals(new BigDecimal("1234567.89"), inserted.get(0).getPrice());
+            assertEquals("/uploads/3.jpg,https://cdn.example.com/b.png", inserted.get(0).getImageUrls());
+            assertEquals(1, errors.size());
+            assertEquals("图片不存在: missing.jpg", errors.get(0)[2]);
+        }
+    }
+
+    @Test
+    void rejectsUnknownFormats() {
+        assertEquals(ProductImportService.CSV, ProductImportService.formatOf("Catalog.CSV"));
+        assertEquals(ProductImportService.JSON, ProductImportService.formatOf("items.ndjson"));
+        assertThrows(RuntimeException.class, () -> ProductImportService.formatOf("items.xlsx"));
+    }
+
+    private void writeCatalog(String content, String format) throws IOException {
+        job.setFormat(format);
+        Path dir = Files.createDirectories(baseDir.resolve(String.valueOf(JOB_ID)));
+        try (OutputStream out = Files.newOutputStream(dir.resolve("catalog"))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
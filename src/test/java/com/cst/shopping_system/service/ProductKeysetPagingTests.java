@@ -0,0 +1,106 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.dto.ProductCardDTO;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.util.KeysetCursor;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ProductKeysetPagingTests {
+
+    @Test
+    void cursorRoundTrips() {
+        String cursor = KeysetCursor.encode("19.90", 42);
+        assertArrayEquals(new String[]{"19.90", "42"}, KeysetCursor.decode(cursor, 2));
+        assertNull(KeysetCursor.decode(null, 2));
+        assertNull(KeysetCursor.decode(" ", 2));
+        // URL 安全，不带填充
+        assertFalse(cursor.contains("=") || cursor.contains("+") || cursor.contains("/"));
+
+        ProductCardDTO card = new ProductCardDTO(42, "耳机", new BigDecimal("19.90"), 0, 1, 0, 1, "audio",
+                null, new Date(), 1, "卖家");
+        String priceValue = ProductService.KeysetField.PRICE_ASC.format(card);
+        ProductService.Keyset keyset = ProductService.parseCursor(ProductService.KeysetField.PRICE_ASC,
+                KeysetCursor.encode(priceValue, 42));
+        assertEquals(new BigDecimal("19.90"), keyset.value());
+        assertEquals(42, keyset.lastId());
+
+        ProductService.Keyset latest = ProductService.parseCursor(ProductService.KeysetField.LATEST,
+                KeysetCursor.encode(1_700_000_000_000L, 7));
+        assertEquals(new Date(1_700_000_000_000L), latest.value());
+    }
+
+    @Test
+    void tamperedCursorsAreRejectedBeforeQuerying() {
+        assertInvalid(ProductService.KeysetField.SALES, "not-base64!!");
+        assertInvalid(ProductService.KeysetField.SALES, KeysetCursor.encode("10"));
+        assertInvalid(ProductService.KeysetField.SALES, KeysetCursor.encode("10", 1, 2));
+        assertInvalid(ProductService.KeysetField.SALES, KeysetCursor.encode("ten", 1));
+        assertInvalid(ProductService.KeysetField.SALES, KeysetCursor.encode("10", "x"));
+        assertInvalid(ProductService.KeysetField.PRICE_DESC, KeysetCursor.encode("1e", 1));
+        assertInvalid(ProductService.KeysetField.LATEST,
+                Base64.getUrlEncoder().encodeToString("now|1".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void descendingKeysetSelectsRowsStrictlyAfterTheCursor() {
+        Root<Product> root = mock(Root.class);
+        CriteriaBuilder cb = mock(CriteriaBuilder.class);
+        Path<Object> sales = mock(Path.class);
+        Path<Object> id = mock(Path.class);
+        when(root.get("sales")).thenReturn(sales);
+        when(root.get("id")).thenReturn(id);
+        when(cb.or(any(Predicate.class), any(Predicate.class))).thenReturn(mock(Predicate.class));
+
+        ProductService.Keyset after = new ProductService.Keyset(30, 9);
+        ProductService.keysetAfter(ProductService.KeysetField.SALES, after).toPredicate(root, mock(CriteriaQuery.class), cb);
+
+        // sales < 30 OR (sales = 30 AND id < 9)
+        verify(cb).lessThan(any(Path.class), eq(30));
+        verify(cb).equal(sales, 30);
+        verify(cb).lessThan(any(Path.class), eq(9));
+        verify(cb, never()).greaterThan(any(Path.class), any(Comparable.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void ascendingKeysetUsesGreaterThanAndFirstPageHasNoPredicate() {
+        Root<Product> root = mock(Root.class);
+        CriteriaBuilder cb = mock(CriteriaBuilder.class);
+        Path<Object> price = mock(Path.class);
+        Path<Object> id = mock(Path.class);
+        when(root.get("price")).thenReturn(price);
+        when(root.get("id")).thenReturn(id);
+
+        BigDecimal value = new BigDecimal("5.00");
+        ProductService.keysetAfter(ProductService.KeysetField.PRICE_ASC, new ProductService.Keyset(value, 3))
+                .toPredicate(root, mock(CriteriaQuery.class), cb);
+        verify(cb).greaterThan(any(Path.class), eq(value));
+        verify(cb).greaterThan(any(Path.class), eq(3));
+        verify(cb, never()).lessThan(any(Path.class), any(Comparable.class));
+
+        CriteriaBuilder untouched = mock(CriteriaBuilder.class);
+        assertNull(ProductService.keysetAfter(ProductService.KeysetField.PRICE_ASC, null)
+                .toPredicate(root, mock(CriteriaQuery.class), untouched));
+        verifyNoInteractions(untouched);
+    }
+
+    private static void assertInvalid(ProductService.KeysetField field, String cursor) {
+        RuntimeException e = assertThrows(RuntimeException.class, () -> ProductService.parseCursor(field, cursor));
+        assertEquals("无效的分页游标", e.getMessage());
+    }
+}
@@ -0,0 +1,131 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.dto.ProductCardDTO;
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.repository.ProductRepository;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Root;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 关键词 + 价格/销量等排序：命中再多，每条 SQL 的 IN 列表也不超过 ID_CHUNK 个 ID，
+ * 不再发 COUNT，分组查询归并后的顺序和对全部命中一次排序相同。
+ */
+class ProductKeywordListingTests {
+
+    private static final int PRODUCTS = ProductService.ID_CHUNK * 2 + 500;
+
+    private final Map<Integer, ProductCardDTO> cards = new TreeMap<>();
+    private final List<Integer> idsPerQuery = new ArrayList<>();
+    private ProductRepository productRepository;
+    private ProductService service;
+
+    @BeforeEach
+    void setUp() {
+        productRepository = mock(ProductRepository.class);
+        ProductSearchIndex index = new ProductSearchIndex(productRepository);
+        for (int id = 1; id <= PRODUCTS; id++) {
+            // 价格只有 500 种，大量并列，顺带检查按 id 打破并列
+            BigDecimal price = new BigDecimal((id * 37) % 500 + ".90");
+            Product p = new Product();
+            p.setId(id);
+            p.setTitle("数据线 " + id);
+            p.setCategory("cable");
+            p.setStatus(1);
+            index.index(p);
+            cards.put(id, new ProductCardDTO(id, p.getTitle(), price, 0, 10, 0, 1, "cable", null,
+                    new Date(), 1, "小店"));
+        }
+
+        // 从 Specification 里取出 id IN (...) 的列表，按价格、id 升序返回前 limit 行
+        when(productRepository.findCards(any(), any(Sort.class), anyInt())).thenAnswer(inv -> {
+            List<Integer> ids = idsOf(inv.getArgument(0));
+            idsPerQuery.add(ids.size());
+            int limit = inv.getArgument(2);
+            return ids.stream().map(cards::get)
+                    .sorted(Comparator.comparing(ProductCardDTO::price).thenComparing(ProductCardDTO::id))
+                    .limit(limit).toList();
+        });
+
+        service = new ProductService();
+        ReflectionTestUtils.setField(service, "productRepository", productRepository);
+        ReflectionTestUtils.setField(service, "searchIndex", index);
+        ReflectionTestUtils.setField(service, "catalogCache", new ProductCatalogCache(true));
+    }
+
+    @Test
+    void everyPageMatchesOneSortOverAllHitsWithBoundedStatements() {
+        List<Integer> expected = cards.values().stream()
+                .sorted(Comparator.comparing(ProductCardDTO::price).thenComparing(ProductCardDTO::id))
+                .map(ProductCardDTO::id).toList();
+
+        int size = 20;
+        for (int page : new int[]{0, 1, 60, (PRODUCTS - 1) / size}) {
+            idsPerQuery.clear();
+            Page<ProductCardDTO> result = service.findProducts("数据线", null, "price-asc", page, size).page();
+
+            assertEquals(PRODUCTS, result.getTotalElements());
+            int from = Math.min(page * size, PRODUCTS);
+            assertEquals(expected.subList(from, Math.min(from + size, PRODUCTS)),
+                    result.getContent().stream().map(ProductCardDTO::id).toList(), "第 " + page + " 页");
+            assertEquals(3, idsPerQuery.size());
+            assertTrue(idsPerQuery.stream().allMatch(n -> n <= ProductService.ID_CHUNK));
+        }
+        // 页码超出命中数时不查库
+        idsPerQuery.clear();
+        assertTrue(service.findProducts("数据线", null, "price-asc", PRODUCTS, size).page().isEmpty());
+        assertTrue(idsPerQuery.isEmpty());
+
+        verify(productRepository, never()).findCards(any(), any(Pageable.class));
+        verify(productRepository, never()).count(ArgumentMatchers.<Specification<Product>>any());
+    }
+
+    @Test
+    void cursorPagingTakesTheTotalFromTheIndex() {
+        ProductService.CursorPage first = service.findProductsByCursor("数据线", null, "price-asc", null, 20, true);
+
+        assertEquals(PRODUCTS, first.totalItems());
+        assertEquals(20, first.content().size());
+        assertNotNull(first.nextCursor());
+        assertEquals(3, idsPerQuery.size());
+        assertTrue(idsPerQuery.stream().allMatch(n -> n <= ProductService.ID_CHUNK));
+        verify(productRepository, never()).count(ArgumentMatchers.<Specification<Product>>any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Integer> idsOf(Specification<Product> spec) {
+        Root<Product> root = mock(Root.class);
+        Path<Object> id = mock(Path.class);
+        List<Integer> ids = new ArrayList<>();
+        when(root.get(anyString())).thenReturn(mock(Path.class));
+        when(root.get("id")).thenReturn(id);
+        when(id.in(anyCollection())).thenAnswer(inv -> {
+            ids.addAll((Collection<Integer>) inv.getArgument(0));
+            return null;
+        });
+        spec.toPredicate(root, mock(CriteriaQuery.class), mock(CriteriaBuilder.class));
+        return ids;
+    }
+}
@@ -0,0 +1,98 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.entity.Product;
+import com.cst.shopping_system.repository.ProductRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ProductSearchIndexTests {
+
+    private final ProductSearchIndex index = new ProductSearchIndex(mock(ProductRepository.class));
+
+    @Test
+    void tokenizerSplitsWordsAndChineseBigrams() {
+        assertEquals(List.of("iphone", "15", "pro"), ProductSearchIndex.tokenize("iPhone 15-Pro", true));
+        // 查询时连续中文只用两字词
+        assertEquals(List.of("苹果", "果手", "手机"), ProductSearchIndex.tokenize("苹果手机", true));
+        // 建索引时额外输出单字
+        assertEquals(List.of("苹", "苹果", "果", "果手", "手", "手机", "机"), ProductSearchIndex.tokenize("苹果手机", false));
+        // 单个汉字查询用单字；中英混排在边界处断开
+        assertEquals(List.of("壳"), ProductSearchIndex.tokenize("壳", true));
+        assertEquals(List.of("usb", "数据", "据线"), ProductSearchIndex.tokenize("USB数据线", true));
+        assertTrue(ProductSearchIndex.tokenize(null, true).isEmpty());
+        assertTrue(ProductSearchIndex.tokenize("  ,.! ", true).isEmpty());
+    }
+
+    @Test
+    void allTermsMustMatchAndTitleOutranksDescription() {
+        index.index(product(1, "手机壳", "适配苹果手机", "accessory", 1));
+        index.index(product(2, "苹果手机", "全新未拆封", "phone", 1));
+        index.index(product(3, "华为手机", "旗舰机型", "phone", 1));
+
+        assertEquals(List.of(2, 1), index.search("苹果 手机", null).ids());
+        assertEquals(Set.of(1, 2, 3), Set.copyOf(index.search("手机", null).ids()));
+        assertEquals(List.of(1), index.search("壳", null).ids());
+        assertTrue(index.search("小米", null).ids().isEmpty());
+        assertTrue(index.search("   ", null).ids().isEmpty());
+    }
+
+    @Test
+    void delistedAndRemovedProductsAreNotReturned() {
+        index.index(product(1, "机械键盘", null, "pc", 1));
+        index.index(product(2, "机械键盘 青轴", null, "pc", 1));
+
+        index.index(product(1, "机械键盘", null, "pc", 0)); // 下架
+        assertEquals(List.of(2), index.search("键盘", null).ids());
+
+        index.remove(2);
+        assertTrue(index.search("键盘", null).ids().isEmpty());
+
+        // 改标题后旧词不再命中
+        index.index(product(1, "静电容键盘", null, "pc", 1));
+        assertEquals(List.of(1), index.search("静电", null).ids());
+        assertTrue(index.search("机械", null).ids().isEmpty());
+    }
+
+    @Test
+    void categoryFilterDoesNotNarrowFacets() {
+        index.index(product(1, "蓝牙耳机", null, "audio", 1));
+        index.index(product(2, "蓝牙音箱", null, "audio", 1));
+        index.index(product(3, "蓝牙鼠标", null, "pc", 1));
+
+        ProductSearchIndex.Hits hits = index.search("蓝牙", List.of("pc"));
+        assertEquals(List.of(3), hits.ids());
+        assertEquals(1, hits.total());
+        assertEquals(Map.of("audio", 2L, "pc", 1L), hits.categoryFacets());
+    }
+
+    @Test
+    void onlyRelevanceSearchIsCappedAndTotalIsNeverCapped() {
+        int n = ProductSearchIndex.MAX_HITS + 500;
+        for (int id = 1; id <= n; id++) index.index(product(id, "数据线 " + id, null, "cable", 1));
+
+        ProductSearchIndex.Hits top = index.search("数据线", null);
+        assertEquals(ProductSearchIndex.MAX_HITS, top.ids().size());
+        assertEquals(n, top.total());
+        assertEquals(Map.of("cable", (long) n), top.categoryFacets());
+
+        ProductSearchIndex.Hits all = index.search("数据线", null, 0);
+        assertEquals(n, all.ids().size());
+        assertEquals(n, all.total());
+    }
+
+    private static Product product(int id, String title, String description, String category, int status) {
+        Product p = new Product();
+        p.setId(id);
+        p.setTitle(title);
+        p.setDescription(description);
+        p.setCategory(category);
+        p.setStatus(status);
+        return p;
+    }
+}
@@ -0,0 +1,219 @@
+package com.cst.shopping_system.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SalesAnalyticsTests {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    // 2026-03-10 00:00 上海时间
+    private final long midnight = Instant.parse("2026-03-09T16:00:00Z").toEpochMilli();
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final SalesAnalytics analytics = newAnalytics(midnight + 12 * HOUR);
+
+    @Test
+    void aggregatesPerDimensionAndResolution() {
+        analytics.record(midnight + 9 * HOUR + 5 * MINUTE, List.of(line(1, 100, "phone", 2, 1999), line(2, 100, "book", 1, 500)));
+        analytics.record(midnight + 9 * HOUR + 40 * MINUTE, List.of(line(1, 100, "phone", 1, 1999)));
+        analytics.record(midnight - 2 * HOUR, List.of(line(3, 200, "phone", 4, 100))); // 前一天 22 点
+
+        SalesAnalytics.Series hours = analytics.series(SalesAnalytics.Dimension.SELLER, "100", SalesAnalytics.Resolution.HOUR,
+                midnight + 12 * HOUR, 24);
+        assertEquals(midnight - 11 * HOUR, hours.start());
+        assertEquals(4, hours.units()[20]); // 09:00 桶
+        assertEquals(2 * 1999 + 500 + 1999, hours.revenueCents()[20]);
+
+        SalesAnalytics.Series days = analytics.series(SalesAnalytics.Dimension.CATEGORY, "phone", SalesAnalytics.Resolution.DAY,
+                midnight + 12 * HOUR, 2);
+        assertEquals(midnight - DAY, days.start()); // 天桶按上海时间零点对齐
+        assertArrayEquals(new long[]{4, 3}, days.units());
+
+        SalesAnalytics.Series minutes = analytics.series(SalesAnalytics.Dimension.PRODUCT, "1", SalesAnalytics.Resolution.MINUTE,
+                midnight + 9 * HOUR + 40 * MINUTE, 36);
+        assertEquals(2, minutes.units()[0]);
+        assertEquals(1, minutes.units()[35]);
+
+        assertEquals(0, analytics.series(SalesAnalytics.Dimension.CATEGORY, "unknown", SalesAnalytics.Resolution.DAY, 7).units()[6]);
+    }
+
+    @Test
+    void flushesDeltasAndKeepsThemWhenTheDatabaseFails() {
+        List<List<Object[]>> batches = new ArrayList<>();
+        when(jdbc.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("down"))
+                .thenAnswer(inv -> {
+                    batches.add(inv.getArgument(1));
+                    return new int[0];
+                });
+
+        analytics.record(midnight + HOUR, List.of(line(1, 100, "phone", 2, 300)));
+        analytics.flush(); // 失败，增量放回
+        analytics.record(midnight + HOUR, List.of(line(1, 100, "phone", 1, 300)));
+        analytics.flush();
+        analytics.flush(); // 没有新增量，不写库
+
+        assertEquals(1, batches.size());
+        // HOUR、DAY 各 3 个维度
+        assertEquals(6, batches.get(0).size());
+        for (Object[] row : batches.get(0)) {
+            assertEquals(3L, row[4]);
+            assertEquals(900L, row[5]);
+        }
+    }
+
+    @Test
+    void redeliveredOrderIsCountedOnceAndMarkedWithItsRollup() {
+        List<Object[]> marks = new ArrayList<>();
+        List<Object[]> rollup = new ArrayList<>();
+        when(jdbc.batchUpdate(startsWith("INSERT INTO analytics_applied"), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("down"))
+                .thenAnswer(inv -> {
+                    marks.addAll(inv.getArgument(1));
+                    return new int[0];
+                });
+        when(jdbc.batchUpdate(startsWith("INSERT INTO sales_rollup"), anyList())).thenAnswer(inv -> {
+            rollup.addAll(inv.getArgument(1));
+            return new int[0];
+        });
+
+        OrderOutbox.OrderCreated event = order(7, midnight + HOUR, 2);
+        analytics.onOrderCreated(event);
+        analytics.onOrderCreated(event); // 写库前重复投递
+        analytics.flush(); // 失败，增量和待登记的订单一起放回
+        analytics.onOrderCreated(event);
+        analytics.flush();
+
+        assertEquals(1, marks.size());
+        assertEquals(7L, marks.get(0)[0]);
+        assertEquals(6, rollup.size());
+        for (Object[] row : rollup) assertEquals(2L, row[4]);
+        assertEquals(2, analytics.series(SalesAnalytics.Dimension.PRODUCT, "1", SalesAnalytics.Resolution.HOUR,
+                midnight + 12 * HOUR, 24).units()[12]);
+    }
+
+    @Test
+    void loadReplaysUnmarkedOrdersAndSkipsEventsAlreadyLoaded() throws Exception {
+        // 订单 10 已经在 sales_rollup 里并登记过；订单 11 提交了、增量还没写库进程就退出了，事件 5 也还没投递
+        ResultSet outbox = mock(ResultSet.class);
+        when(outbox.getLong(1)).thenReturn(5L);
+        doAnswer(inv -> {
+            ((RowCallbackHandler) inv.getArgument(1)).processRow(outbox);
+            return null;
+        }).when(jdbc).query(startsWith("SELECT id FROM order_outbox"), any(RowCallbackHandler.class));
+        when(jdbc.queryForObject(startsWith("SELECT COUNT(*)"), eq(Integer.class))).thenReturn(1);
+        ResultSet hour = mock(ResultSet.class);
+        when(hour.getLong(1)).thenReturn((midnight + 9 * HOUR + 8 * HOUR) / HOUR); // 上海时间 09:00 的小时桶
+        when(hour.getString(2)).thenReturn("PRODUCT");
+        when(hour.getString(3)).thenReturn("1");
+        when(hour.getLong(4)).thenReturn(2L);
+        when(hour.getLong(5)).thenReturn(600L);
+        doAnswer(inv -> {
+            if ("HOUR".equals(inv.getArgument(2))) ((RowCallbackHandler) inv.getArgument(1)).processRow(hour);
+            return null;
+        }).when(jdbc).query(startsWith("SELECT bucket"), any(RowCallbackHandler.class), any(Object[].class));
+        ResultSet applied = orderRow(10, midnight + 9 * HOUR, 2, false);
+        ResultSet unapplied = orderRow(11, midnight + 9 * HOUR + 30 * MINUTE, 1, true);
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            handler.processRow(applied);
+            handler.processRow(unapplied);
+            return null;
+        }).when(jdbc).query(startsWith("SELECT o.id, o.order_time"), any(RowCallbackHandler.class), any(Object[].class));
+        List<Object[]> marks = new ArrayList<>();
+        when(jdbc.batchUpdate(startsWith("INSERT INTO analytics_applied"), anyList())).thenAnswer(inv -> {
+            marks.addAll(inv.getArgument(1));
+            return new int[0];
+        });
+
+        analytics.load();
+        analytics.onOrderCreated(order(11, midnight + 9 * HOUR + 30 * MINUTE, 1)); // 还没写库，重复的跳过
+
+        assertTrue(analytics.alreadyIncludes(5));
+        assertFalse(analytics.alreadyIncludes(6));
+        assertEquals(3, analytics.series(SalesAnalytics.Dimension.PRODUCT, "1", SalesAnalytics.Resolution.HOUR,
+                midnight + 12 * HOUR, 24).units()[20]);
+        SalesAnalytics.Series minutes = analytics.series(SalesAnalytics.Dimension.PRODUCT, "1",
+                SalesAnalytics.Resolution.MINUTE, midnight + 9 * HOUR + 30 * MINUTE, 31);
+        assertEquals(2, minutes.units()[0]);
+        assertEquals(1, minutes.units()[30]);
+
+        analytics.flush();
+        assertEquals(1, marks.size());
+        assertEquals(11L, marks.get(0)[0]);
+    }
+
+    @Test
+    void seriesStayExactOverMillionsOfOrderItems() {
+        int items = 2_000_000;
+        int products = 20_000;
+        String[] categories = {"phone", "book", "food", "toy", "cloth", "shoe", "bag", "game"};
+        long from = midnight + 12 * HOUR - 30 * DAY;
+        long[] expectedSellerDays = new long[31];
+        Random random = new Random(7);
+
+        for (int i = 0; i < items; i++) {
+            int product = 1 + random.nextInt(products);
+            int seller = product % 500;
+            long at = from + (long) (random.nextDouble() * 30 * DAY);
+            analytics.record(at, List.of(line(product, seller, categories[product % categories.length], 1, 1000)));
+            if (seller == 42) expectedSellerDays[(int) ((at - (midnight - 30 * DAY)) / DAY)]++;
+        }
+
+        SalesAnalytics.Series days = analytics.series(SalesAnalytics.Dimension.SELLER, "42", SalesAnalytics.Resolution.DAY,
+                midnight + 12 * HOUR, 31);
+        assertArrayEquals(expectedSellerDays, days.units());
+        assertEquals(24 * 30, analytics.series(SalesAnalytics.Dimension.PRODUCT, "1",
+                SalesAnalytics.Resolution.HOUR, midnight + 12 * HOUR, 24 * 30).units().length);
+    }
+
+    private SalesAnalytics newAnalytics(long now) {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        return new SalesAnalytics(jdbc, jdbc, txManager, Clock.fixed(Instant.ofEpochMilli(now), ZONE));
+    }
+
+    private static OrderOutbox.OrderCreated order(long orderId, long at, int qty) {
+        return new OrderOutbox.OrderCreated(orderId, 1, at, List.of(
+                new OrderOutbox.Line(1, 100, "耳机", "phone", new BigDecimal("3.00"), true, qty)));
+    }
+
+    // 重放查询的一行：商品 1、卖家 100、单价 3.00
+    private static ResultSet orderRow(long orderId, long at, int qty, boolean unapplied) throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong(1)).thenReturn(orderId);
+        when(rs.getTimestamp(2)).thenReturn(new Timestamp(at));
+        when(rs.getInt(3)).thenReturn(1);
+        when(rs.getInt(4)).thenReturn(100);
+        when(rs.getString(5)).thenReturn("phone");
+        when(rs.getInt(6)).thenReturn(qty);
+        when(rs.getBigDecimal(7)).thenReturn(new BigDecimal("3.00"));
+        when(rs.getBoolean(8)).thenReturn(unapplied);
+        return rs;
+    }
+
+    private static SalesAnalytics.SaleLine line(int product, int seller, String category, int qty, long unitCents) {
+        return new SalesAnalytics.SaleLine(product, seller, category, qty, unitCents * qty);
+    }
+}
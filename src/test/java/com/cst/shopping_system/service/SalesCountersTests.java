@@ -0,0 +1,114 @@
+package com.cst.shopping_system.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SalesCountersTests {
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final SalesCounters counters;
+
+    // 模拟 sales_applied 表和 product.sales 列
+    private final Set<Long> applied = new HashSet<>();
+    private final Map<Integer, Long> sales = new HashMap<>();
+    private final List<Integer> updateBatchSizes = new ArrayList<>();
+    private final AtomicBoolean failNext = new AtomicBoolean();
+
+    SalesCountersTests() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        counters = new SalesCounters(jdbc, txManager, mock(ProductCatalogCache.class));
+
+        when(jdbc.queryForList(startsWith("SELECT order_id FROM sales_applied"), eq(Long.class), any(Object[].class)))
+                .thenAnswer(inv -> {
+                    List<Long> hit = new ArrayList<>();
+                    for (int i = 2; i < inv.getArguments().length; i++) {
+                        Long id = (Long) inv.getArgument(i);
+                        if (applied.contains(id)) hit.add(id);
+                    }
+                    return hit;
+                });
+        when(jdbc.batchUpdate(anyString(), anyList())).thenAnswer(inv -> {
+            String sql = inv.getArgument(0);
+            List<Object[]> rows = inv.getArgument(1);
+            if (sql.startsWith("INSERT INTO sales_applied")) {
+                for (Object[] r : rows) assertTrue(applied.add((Long) r[0]), "订单重复登记");
+            } else {
+                if (failNext.getAndSet(false)) throw new DataAccessResourceFailureException("连接断开");
+                updateBatchSizes.add(rows.size());
+                for (Object[] r : rows) sales.merge((Integer) r[1], (Long) r[0], Long::sum);
+            }
+            return new int[rows.size()];
+        });
+    }
+
+    @Test
+    void coalescesOrdersIntoOneUpdatePerProduct() {
+        for (long orderId = 1; orderId <= 100; orderId++) {
+            counters.onOrderCreated(order(orderId, line(7, 1), line(8, 2), line(7, 1)));
+        }
+
+        assertEquals(100, counters.flush());
+        assertEquals(List.of(2), updateBatchSizes); // 100 个订单合成两行 UPDATE
+        assertEquals(200L, sales.get(7));
+        assertEquals(200L, sales.get(8));
+        assertEquals(0, counters.pendingOrders());
+    }
+
+    @Test
+    void replayedAndDuplicateOrdersAreCountedOnce() {
+        applied.add(1L); // 上次已经写回过
+        counters.onOrderCreated(order(1L, line(7, 5)));
+        counters.onOrderCreated(order(2L, line(7, 3)));
+        counters.onOrderCreated(order(2L, line(7, 3)));
+
+        failNext.set(true);
+        assertEquals(0, counters.flush());
+        assertEquals(3, counters.pendingOrders()); // 失败的整批放回队列
+        applied.remove(2L); // 模拟事务回滚掉的登记
+
+        assertEquals(1, counters.flush());
+        assertEquals(3L, sales.get(7));
+
+        counters.onOrderCreated(order(2L, line(7, 3)));
+        assertEquals(0, counters.flush());
+        assertEquals(3L, sales.get(7));
+    }
+
+    @Test
+    void cancelledOrdersAreSubtractedOnce() {
+        counters.onOrderCreated(order(5L, line(7, 4)));
+        OrderOutbox.OrderStatusChanged cancel = new OrderOutbox.OrderStatusChanged(5L, 0L, "PAID", "CANCELLED", 0L,
+                List.of(new OrderOutbox.Quantity(7, 4)));
+        counters.onOrderStatusChanged(cancel);
+        counters.onOrderStatusChanged(cancel); // 发件箱重投
+
+        assertEquals(2, counters.flush());
+        assertEquals(0L, sales.get(7));
+        assertTrue(applied.contains(-5L));
+    }
+
+    private static OrderOutbox.OrderCreated order(long orderId, OrderOutbox.Line... lines) {
+        return new OrderOutbox.OrderCreated(orderId, 1, 0L, List.of(lines));
+    }
+
+    private static OrderOutbox.Line line(int productId, int qty) {
+        return new OrderOutbox.Line(productId, 1, "商品" + productId, null, BigDecimal.ONE, true, qty);
+    }
+}
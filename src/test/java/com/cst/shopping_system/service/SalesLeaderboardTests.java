@@ -0,0 +1,261 @@
+package com.cst.shopping_system.service;
+
+import com.cst.shopping_system.dto.TopProductDTO;
+import com.cst.shopping_system.entity.Product;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class SalesLeaderboardTests {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-03-02T10:00:00Z"));
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+    private final SalesLeaderboard board = new SalesLeaderboard(jdbc, txManager, clock);
+
+    @Test
+    void ranksByCategoryAndDropsDelistedProducts() {
+        Product a = product(1, "phone", 1);
+        Product b = product(2, "phone", 1);
+        Product c = product(3, "book", 1);
+        board.onProductChanged(a);
+        board.onProductChanged(b);
+        board.onProductChanged(c);
+
+        sell(a, 3);
+        sell(b, 5);
+        sell(c, 4);
+        assertEquals(List.of(2, 3, 1), ids(board.top(null, SalesLeaderboard.Window.ALL, 10)));
+        assertEquals(List.of(2, 1), ids(board.top("phone", SalesLeaderboard.Window.ALL, 10)));
+        assertEquals(5, board.top(null, SalesLeaderboard.Window.DAY, 1).get(0).getSales());
+
+        // 下架后从所有榜单移除，重新上架后带着原有销量回来
+        b.setStatus(0);
+        board.onProductChanged(b);
+        assertEquals(List.of(3, 1), ids(board.top(null, SalesLeaderboard.Window.ALL, 10)));
+        b.setStatus(1);
+        board.onProductChanged(b);
+        assertEquals(List.of(2, 3, 1), ids(board.top(null, SalesLeaderboard.Window.ALL, 10)));
+
+        // 改分类：从旧分类榜移到新分类榜
+        a.setCategory("book");
+        board.onProductChanged(a);
+        assertEquals(List.of(2), ids(board.top("phone", SalesLeaderboard.Window.ALL, 10)));
+        assertEquals(List.of(3, 1), ids(board.top("book", SalesLeaderboard.Window.ALL, 10)));
+    }
+
+    @Test
+    void dailyAndWeeklyWindowsRollOver() {
+        Product a = product(1, "phone", 1);
+        Product b = product(2, "phone", 1);
+        sell(a, 10);
+        clock.advance(Duration.ofDays(1));
+        sell(b, 2);
+
+        assertEquals(List.of(2), ids(board.top(null, SalesLeaderboard.Window.DAY, 10)));
+        assertEquals(List.of(1, 2), ids(board.top(null, SalesLeaderboard.Window.WEEK, 10)));
+
+        clock.advance(Duration.ofDays(6)); // a 的销量滑出 7 天窗口，b 还在
+        assertTrue(board.top(null, SalesLeaderboard.Window.DAY, 10).isEmpty());
+        assertEquals(List.of(2), ids(board.top(null, SalesLeaderboard.Window.WEEK, 10)));
+        assertEquals(List.of(1, 2), ids(board.top(null, SalesLeaderboard.Window.ALL, 10)));
+    }
+
+    @Test
+    void incrementalRankingMatchesFullRecompute() {
+        int products = 5_000;
+        String[] categories = {"phone", "book", "food", "toy"};
+        Map<Integer, Product> all = new HashMap<>();
+        Map<Integer, Long> sales = new HashMap<>();
+        for (int id = 1; id <= products; id++) {
+            Product p = product(id, categories[id % categories.length], 1);
+            all.put(id, p);
+            sales.put(id, 0L);
+            board.onProductChanged(p);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            Product p = all.get(1 + random.nextInt(products));
+            if (random.nextInt(100) == 0) {
+                p.setStatus(p.getStatus() == 1 ? 0 : 1);
+                board.onProductChanged(p);
+                continue;
+            }
+            int qty = 1 + random.nextInt(5);
+            sell(p, qty);
+            sales.merge(p.getId(), (long) qty, Long::sum);
+        }
+
+        for (String category : new String[]{null, "phone", "toy"}) {
+            List<Integer> expected = all.values().stream()
+                    .filter(p -> p.getStatus() == 1)
+                    .filter(p -> category == null || category.equals(p.getCategory()))
+                    .sorted(Comparator.comparingLong((Product p) -> -sales.get(p.getId())).thenComparing(Product::getId))
+                    .limit(SalesLeaderboard.TOP_K)
+                    .map(Product::getId)
+                    .toList();
+            assertEquals(expected, ids(board.top(category, SalesLeaderboard.Window.ALL, SalesLeaderboard.TOP_K)));
+        }
+    }
+
+    @Test
+    void rebuildCountsQueuedSalesOnceAndSkipsEventsAlreadyLoaded() throws Exception {
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        // 事件 7（订单 70，3 件）已提交未投递，销量也还没写回 product.sales；订单 60 的 10 件已经写回；
+        // 订单 80 的 4 件写回后又取消了，取消还没扣回
+        ResultSet outbox = mock(ResultSet.class);
+        when(outbox.getLong(1)).thenReturn(7L);
+        rows("SELECT id FROM order_outbox", outbox);
+        rows("SELECT id, category_name");
+        ResultSet product = mock(ResultSet.class);
+        when(product.getInt("id")).thenReturn(1);
+        when(product.getString("title")).thenReturn("商品1");
+        when(product.getBigDecimal("price")).thenReturn(new BigDecimal("9.90"));
+        when(product.getString("category")).thenReturn("phone");
+        when(product.getInt("status")).thenReturn(1);
+        when(product.getLong("sales")).thenReturn(14L);
+        rows("SELECT id, title", product);
+        Timestamp now = new Timestamp(clock.millis());
+        ResultSet applied = mock(ResultSet.class);
+        when(applied.getInt(1)).thenReturn(1);
+        when(applied.getTimestamp(2)).thenReturn(now);
+        when(applied.getInt(3)).thenReturn(10);
+        when(applied.getBoolean(4)).thenReturn(false);
+        ResultSet queued = mock(ResultSet.class);
+        when(queued.getInt(1)).thenReturn(1);
+        when(queued.getTimestamp(2)).thenReturn(now);
+        when(queued.getInt(3)).thenReturn(3);
+        when(queued.getBoolean(4)).thenReturn(true);
+        ResultSet cancelled = mock(ResultSet.class);
+        when(cancelled.getInt(1)).thenReturn(1);
+        when(cancelled.getTimestamp(2)).thenReturn(now);
+        when(cancelled.getInt(3)).thenReturn(4);
+        when(cancelled.getBoolean(5)).thenReturn(true);
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            handler.processRow(applied);
+            handler.processRow(queued);
+            handler.processRow(cancelled);
+            return null;
+        }).when(jdbc).query(startsWith("SELECT oi.product_id, o.order_time"), any(RowCallbackHandler.class), any(Object[].class));
+        ResultSet cancelPending = mock(ResultSet.class);
+        when(cancelPending.getInt(1)).thenReturn(1);
+        when(cancelPending.getInt(2)).thenReturn(4);
+        doAnswer(inv -> {
+            ((RowCallbackHandler) inv.getArgument(1)).processRow(cancelPending);
+            return null;
+        }).when(jdbc).query(startsWith("SELECT oi.product_id, oi.quantity"), any(RowCallbackHandler.class), any(Object[].class));
+
+        board.rebuild();
+
+        assertEquals(13, board.top(null, SalesLeaderboard.Window.ALL, 1).get(0).getSales());
+        assertEquals(13, board.top(null, SalesLeaderboard.Window.DAY, 1).get(0).getSales());
+        // 发件箱随后投递事件 7：重建结果里已经有它，跳过；之后的新事件照常投递
+        assertTrue(board.alreadyIncludes(7));
+        assertFalse(board.alreadyIncludes(8));
+        verify(txManager).commit(any());
+    }
+
+    @Test
+    void cancelledOrdersAreTakenBackOutOfEveryWindow() {
+        Product a = product(1, "phone", 1);
+        Product b = product(2, "phone", 1);
+        board.onProductChanged(a);
+        board.onProductChanged(b);
+        long yesterday = clock.millis();
+        sell(a, 5);
+        clock.advance(Duration.ofDays(1));
+        sell(a, 2);
+        sell(b, 4);
+        assertEquals(List.of(1, 2), ids(board.top(null, SalesLeaderboard.Window.WEEK, 10)));
+
+        // 取消昨天那单：累计和周榜扣回，今天的日榜不受影响
+        board.onOrderStatusChanged(new OrderOutbox.OrderStatusChanged(9L, yesterday, "PAID", "CANCELLED",
+                clock.millis(), List.of(new OrderOutbox.Quantity(1, 5))));
+        assertEquals(List.of(2, 1), ids(board.top(null, SalesLeaderboard.Window.ALL, 10)));
+        assertEquals(List.of(2, 1), ids(board.top(null, SalesLeaderboard.Window.WEEK, 10)));
+        assertEquals(2, board.top(null, SalesLeaderboard.Window.DAY, 10).get(1).getSales());
+
+        // 其他状态变化不影响销量
+        board.onOrderStatusChanged(new OrderOutbox.OrderStatusChanged(10L, clock.millis(), "PAID", "SHIPPED",
+                clock.millis(), List.of()));
+        assertEquals(4, board.top(null, SalesLeaderboard.Window.ALL, 1).get(0).getSales());
+    }
+
+    private void rows(String sqlPrefix, ResultSet... rows) {
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            for (ResultSet rs : rows) handler.processRow(rs);
+            return null;
+        }).when(jdbc).query(startsWith(sqlPrefix), any(RowCallbackHandler.class));
+    }
+
+    private void sell(Product p, int qty) {
+        OrderOutbox.Line line = new OrderOutbox.Line(p.getId(), 1, p.getTitle(), p.getCategory(), p.getPrice(),
+                p.getStatus() == 1, qty);
+        board.onOrderCreated(new OrderOutbox.OrderCreated(0L, 1, clock.millis(), List.of(line)));
+    }
+
+    private static List<Integer> ids(List<TopProductDTO> top) {
+        return top.stream().map(TopProductDTO::getId).toList();
+    }
+
+    private static Product product(int id, String category, int status) {
+        Product p = new Product();
+        p.setId(id);
+        p.setTitle("商品" + id);
+        p.setPrice(new BigDecimal("9.90"));
+        p.setCategory(category);
+        p.setStatus(status);
+        return p;
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration d) {
+            now = now.plus(d);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+-- 集成测试用：ddl-auto 建出实体表之后，补上 upgrade.sql 里由应用直接读写、没有对应实体的表
+CREATE TABLE IF NOT EXISTS chat_conversation (
+    owner_id     INT          NOT NULL,
+    partner_id   INT          NOT NULL,
+    last_message VARCHAR(255) NULL,
+    last_time    DATETIME(6)  NULL,
+    unread_count INT          NOT NULL DEFAULT 0,
+    PRIMARY KEY (owner_id, partner_id),
+    INDEX idx_conversation_owner_time (owner_id, last_time)
+);
+INSERT IGNORE INTO id_generator (gen_name, gen_value) VALUES ('chat_message', 0);
+
+CREATE TABLE IF NOT EXISTS sales_rollup (
+    resolution    VARCHAR(8)  NOT NULL,
+    bucket        BIGINT      NOT NULL,
+    dim           VARCHAR(10) NOT NULL,
+    dim_key       VARCHAR(50) NOT NULL,
+    units         BIGINT      NOT NULL DEFAULT 0,
+    revenue_cents BIGINT      NOT NULL DEFAULT 0,
+    PRIMARY KEY (resolution, dim, dim_key, bucket)
+);
+
+CREATE TABLE IF NOT EXISTS import_job (
+    id           BIGINT       NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    seller_id    INT          NOT NULL,
+    format       VARCHAR(10)  NOT NULL,
+    has_images   BIT(1)       NOT NULL,
+    status       VARCHAR(10)  NOT NULL,
+    processed    INT          NOT NULL DEFAULT 0,
+    succeeded    INT          NOT NULL DEFAULT 0,
+    failed       INT          NOT NULL DEFAULT 0,
+    message      VARCHAR(500),
+    created_time DATETIME     NOT NULL,
+    updated_time DATETIME     NOT NULL,
+    INDEX idx_import_job_seller (seller_id, id)
+);
+CREATE TABLE IF NOT EXISTS import_job_error (
+    job_id  BIGINT       NOT NULL,
+    row_no  INT          NOT NULL,
+    message VARCHAR(500) NOT NULL,
+    PRIMARY KEY (job_id, row_no)
+);
+
+CREATE TABLE IF NOT EXISTS sales_applied (
+    order_id     BIGINT   NOT NULL PRIMARY KEY,
+    applied_time DATETIME NOT NULL,
+    INDEX idx_sales_applied_time (applied_time)
+);
+
+CREATE TABLE IF NOT EXISTS analytics_applied (
+    order_id     BIGINT   NOT NULL PRIMARY KEY,
+    applied_time DATETIME NOT NULL,
+    INDEX idx_analytics_applied_time (applied_time)
+);
+
+CREATE TABLE IF NOT EXISTS idempotency_key (
+    user_id      INT         NOT NULL,
+    idem_key     VARCHAR(64) NOT NULL,
+    order_ids    TEXT,
+    created_time DATETIME    NOT NULL,
+    PRIMARY KEY (user_id, idem_key),
+    INDEX idx_idempotency_key_time (created_time)
+);
+
+CREATE TABLE IF NOT EXISTS order_outbox (
+    id             BIGINT AUTO_INCREMENT PRIMARY KEY,
+    order_id       BIGINT      NOT NULL,
+    event_type     VARCHAR(32) NOT NULL,
+    payload        TEXT        NOT NULL,
+    created_time   DATETIME(3) NOT NULL,
+    published_time DATETIME(3),
+    attempts       INT         NOT NULL DEFAULT 0,
+    last_error     VARCHAR(500),
+    parked_time    DATETIME(3),
+    INDEX idx_order_outbox_pending (published_time, parked_time, id)
+);
+
+-- 排行榜重建读分类名用的视图；生产库里由建库脚本创建
+CREATE TABLE IF NOT EXISTS category (
+    code VARCHAR(50) NOT NULL PRIMARY KEY,
+    name VARCHAR(50) NOT NULL
+);
+CREATE OR REPLACE VIEW v_product_category AS
+SELECT p.id, p.title, p.price, p.sales, c.name AS category_name
+FROM product p LEFT JOIN category c ON c.code = p.category;